@@ -0,0 +1,60 @@
+package org.swordapp.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Asynchronous variant of {@link CollectionDepositManager}. The returned stage completes with the result, or
+ * exceptionally with a {@link SwordError}, {@link SwordServerException} or {@link SwordAuthException}, which are
+ * handled as if thrown by the synchronous manager. The servlet response is written once the stage completes,
+ * without a container thread waiting for it.
+ */
+public interface AsyncCollectionDepositManager {
+    CompletionStage<DepositReceipt> createNew(String collectionURI, Deposit deposit, AuthCredentials auth, SwordConfiguration config);
+
+    /**
+     * See {@link CollectionDepositManager#validateNew(String, Deposit, AuthCredentials, SwordConfiguration)}.
+     * This check is run on the request thread, and should not block.
+     */
+    default void validateNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+            throws SwordError, SwordServerException, SwordAuthException {
+    }
+
+    /**
+     * See {@link CollectionDepositManager#reserveNew(String, Deposit, AuthCredentials, SwordConfiguration)}.
+     * This is run on the request thread, after the body has been read.
+     */
+    default DepositReceipt reserveNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+            throws SwordError, SwordServerException, SwordAuthException {
+        return null;
+    }
+
+    /**
+     * See {@link CollectionDepositManager#createNewBatch(String, List, AuthCredentials, SwordConfiguration)}.
+     * The default implementation calls {@link #createNew(String, Deposit, AuthCredentials, SwordConfiguration)} for
+     * each deposit in turn, once the previous one has completed.
+     */
+    default CompletionStage<List<BatchResult>> createNewBatch(final String collectionURI, final List<Deposit> deposits, final AuthCredentials auth,
+                                                              final SwordConfiguration config) {
+        List<BatchResult> results = new ArrayList<>(deposits.size());
+        CompletionStage<Void> chain = CompletableFuture.completedFuture(null);
+        for (Deposit deposit : deposits) {
+            chain = chain.thenCompose(previous -> this.createNew(collectionURI, deposit, auth, config)
+                .handle((receipt, failure) -> {
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                    if (cause == null) {
+                        results.add(new BatchResult(receipt));
+                    } else if (cause instanceof SwordError) {
+                        results.add(new BatchResult((SwordError) cause));
+                    } else {
+                        throw new CompletionException(cause);
+                    }
+                    return null;
+                }));
+        }
+        return chain.thenApply(done -> results);
+    }
+}
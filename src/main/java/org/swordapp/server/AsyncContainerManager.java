@@ -0,0 +1,28 @@
+package org.swordapp.server;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Asynchronous variant of {@link ContainerManager}, see {@link AsyncCollectionDepositManager} for the handling of
+ * the returned stages.
+ */
+public interface AsyncContainerManager {
+    CompletionStage<DepositReceipt> getEntry(String editIRI, Map<String, String> accept, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<DepositReceipt> replaceMetadata(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<DepositReceipt> replaceMetadataAndMediaResource(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<DepositReceipt> addMetadataAndResources(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<DepositReceipt> addMetadata(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<DepositReceipt> addResources(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<Void> deleteContainer(String editIRI, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<DepositReceipt> useHeaders(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<Boolean> isStatementRequest(String editIRI, Map<String, String> accept, AuthCredentials auth, SwordConfiguration config);
+}
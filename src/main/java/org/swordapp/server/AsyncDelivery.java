@@ -0,0 +1,104 @@
+package org.swordapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Non-blocking writer for response bodies. It copies a stream to the response using a {@link WriteListener}, so
+ * that data is only read from the source when the client is able to take more, and no thread waits for slow clients
+ * in between. The source is closed when the response is complete or has failed.
+ */
+final class AsyncDelivery implements WriteListener, AsyncListener {
+    private static Logger log = LoggerFactory.getLogger(AsyncDelivery.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AsyncContext context;
+    private final ServletOutputStream out;
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private boolean done = false;
+
+    private AsyncDelivery(final AsyncContext context, final InputStream in) throws IOException {
+        this.context = context;
+        this.in = in;
+        this.out = context.getResponse().getOutputStream();
+    }
+
+    /**
+     * Put the request into asynchronous mode and start writing the given stream as the response body.
+     * The response headers must have been set before.
+     */
+    static void start(final HttpServletRequest req, final InputStream in) throws IOException {
+        AsyncContext context = req.startAsync();
+        // downloads may take hours; stalled clients are dealt with by the connector's write timeout
+        context.setTimeout(0);
+        AsyncDelivery delivery = new AsyncDelivery(context, in);
+        context.addListener(delivery);
+        delivery.out.setWriteListener(delivery);
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (!this.done && this.out.isReady()) {
+            int n = this.in.read(this.buffer);
+            if (n == -1) {
+                this.done = true;
+                this.closeSource();
+                this.context.complete();
+                return;
+            }
+            this.out.write(this.buffer, 0, n);
+        }
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+        log.warn("Delivering response body failed: " + t.getMessage());
+        this.done = true;
+        this.closeSource();
+        try {
+            this.context.complete();
+        } catch (IllegalStateException e) {
+            // the container has already given up on this request
+        }
+    }
+
+    private void closeSource() {
+        try {
+            this.in.close();
+        } catch (IOException e) {
+            log.warn("Could not close media resource stream: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onComplete(final AsyncEvent event) {
+        if (!this.done) {
+            this.done = true;
+            this.closeSource();
+        }
+    }
+
+    @Override
+    public void onTimeout(final AsyncEvent event) {
+        this.onComplete(event);
+    }
+
+    @Override
+    public void onError(final AsyncEvent event) {
+        this.onComplete(event);
+    }
+
+    @Override
+    public void onStartAsync(final AsyncEvent event) {
+    }
+}
@@ -0,0 +1,307 @@
+package org.swordapp.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Adapters which let synchronous manager implementations be used where an asynchronous one is expected. The manager
+ * is called on the calling thread, and the returned stage is already complete. The blocking views go the other way,
+ * for code written against the synchronous interfaces.
+ */
+public final class AsyncManagers {
+
+    // Utility class - hiding default constructor.
+    private AsyncManagers() { }
+
+    /**
+     * @return an asynchronous view of the given manager, or null if it is null.
+     */
+    public static AsyncCollectionDepositManager adapt(final CollectionDepositManager cdm) {
+        if (cdm == null) {
+            return null;
+        }
+        return new AsyncCollectionDepositManager() {
+            @Override
+            public CompletionStage<DepositReceipt> createNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth,
+                                                             final SwordConfiguration config) {
+                return call(() -> cdm.createNew(collectionURI, deposit, auth, config));
+            }
+
+            @Override
+            public void validateNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                cdm.validateNew(collectionURI, deposit, auth, config);
+            }
+
+            @Override
+            public DepositReceipt reserveNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth,
+                                             final SwordConfiguration config) throws SwordError, SwordServerException, SwordAuthException {
+                return cdm.reserveNew(collectionURI, deposit, auth, config);
+            }
+
+            @Override
+            public CompletionStage<List<BatchResult>> createNewBatch(final String collectionURI, final List<Deposit> deposits,
+                                                                     final AuthCredentials auth, final SwordConfiguration config) {
+                return call(() -> cdm.createNewBatch(collectionURI, deposits, auth, config));
+            }
+        };
+    }
+
+    /**
+     * @return an asynchronous view of the given manager, or null if it is null.
+     */
+    public static AsyncContainerManager adapt(final ContainerManager cm) {
+        if (cm == null) {
+            return null;
+        }
+        return new AsyncContainerManager() {
+            @Override
+            public CompletionStage<DepositReceipt> getEntry(final String editIRI, final Map<String, String> accept, final AuthCredentials auth,
+                                                            final SwordConfiguration config) {
+                return call(() -> cm.getEntry(editIRI, accept, auth, config));
+            }
+
+            @Override
+            public CompletionStage<DepositReceipt> replaceMetadata(final String editIRI, final Deposit deposit, final AuthCredentials auth,
+                                                                   final SwordConfiguration config) {
+                return call(() -> cm.replaceMetadata(editIRI, deposit, auth, config));
+            }
+
+            @Override
+            public CompletionStage<DepositReceipt> replaceMetadataAndMediaResource(final String editIRI, final Deposit deposit, final AuthCredentials auth,
+                                                                                   final SwordConfiguration config) {
+                return call(() -> cm.replaceMetadataAndMediaResource(editIRI, deposit, auth, config));
+            }
+
+            @Override
+            public CompletionStage<DepositReceipt> addMetadataAndResources(final String editIRI, final Deposit deposit, final AuthCredentials auth,
+                                                                           final SwordConfiguration config) {
+                return call(() -> cm.addMetadataAndResources(editIRI, deposit, auth, config));
+            }
+
+            @Override
+            public CompletionStage<DepositReceipt> addMetadata(final String editIRI, final Deposit deposit, final AuthCredentials auth,
+                                                               final SwordConfiguration config) {
+                return call(() -> cm.addMetadata(editIRI, deposit, auth, config));
+            }
+
+            @Override
+            public CompletionStage<DepositReceipt> addResources(final String editIRI, final Deposit deposit, final AuthCredentials auth,
+                                                                final SwordConfiguration config) {
+                return call(() -> cm.addResources(editIRI, deposit, auth, config));
+            }
+
+            @Override
+            public CompletionStage<Void> deleteContainer(final String editIRI, final AuthCredentials auth, final SwordConfiguration config) {
+                return call(() -> {
+                    cm.deleteContainer(editIRI, auth, config);
+                    return null;
+                });
+            }
+
+            @Override
+            public CompletionStage<DepositReceipt> useHeaders(final String editIRI, final Deposit deposit, final AuthCredentials auth,
+                                                              final SwordConfiguration config) {
+                return call(() -> cm.useHeaders(editIRI, deposit, auth, config));
+            }
+
+            @Override
+            public CompletionStage<Boolean> isStatementRequest(final String editIRI, final Map<String, String> accept, final AuthCredentials auth,
+                                                               final SwordConfiguration config) {
+                return call(() -> cm.isStatementRequest(editIRI, accept, auth, config));
+            }
+        };
+    }
+
+    /**
+     * @return an asynchronous view of the given manager, or null if it is null.
+     */
+    public static AsyncMediaResourceManager adapt(final MediaResourceManager mrm) {
+        if (mrm == null) {
+            return null;
+        }
+        return new AsyncMediaResourceManager() {
+            @Override
+            public CompletionStage<MediaResource> getMediaResourceRepresentation(final String uri, final Map<String, String> accept,
+                                                                                 final AuthCredentials auth, final SwordConfiguration config) {
+                return call(() -> mrm.getMediaResourceRepresentation(uri, accept, auth, config));
+            }
+
+            @Override
+            public CompletionStage<DepositReceipt> replaceMediaResource(final String uri, final Deposit deposit, final AuthCredentials auth,
+                                                                        final SwordConfiguration config) {
+                return call(() -> mrm.replaceMediaResource(uri, deposit, auth, config));
+            }
+
+            @Override
+            public CompletionStage<Void> deleteMediaResource(final String uri, final AuthCredentials auth, final SwordConfiguration config) {
+                return call(() -> {
+                    mrm.deleteMediaResource(uri, auth, config);
+                    return null;
+                });
+            }
+
+            @Override
+            public CompletionStage<DepositReceipt> addResource(final String uri, final Deposit deposit, final AuthCredentials auth,
+                                                               final SwordConfiguration config) {
+                return call(() -> mrm.addResource(uri, deposit, auth, config));
+            }
+
+            @Override
+            public void validateReplaceMediaResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                mrm.validateReplaceMediaResource(uri, deposit, auth, config);
+            }
+
+            @Override
+            public void validateAddResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                mrm.validateAddResource(uri, deposit, auth, config);
+            }
+        };
+    }
+
+    /**
+     * @return an asynchronous view of the given manager, or null if it is null.
+     */
+    public static AsyncStatementManager adapt(final StatementManager sm) {
+        if (sm == null) {
+            return null;
+        }
+        return (iri, accept, auth, config) -> call(() -> sm.getStatement(iri, accept, auth, config));
+    }
+
+    /**
+     * @return a blocking view of the given manager, which waits for its stages, or null if it is null.
+     */
+    public static CollectionDepositManager blocking(final AsyncCollectionDepositManager cdm) {
+        if (cdm == null) {
+            return null;
+        }
+        return new CollectionDepositManager() {
+            @Override
+            public DepositReceipt createNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                return await(cdm.createNew(collectionURI, deposit, auth, config));
+            }
+
+            @Override
+            public void validateNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                cdm.validateNew(collectionURI, deposit, auth, config);
+            }
+
+            @Override
+            public DepositReceipt reserveNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth,
+                                             final SwordConfiguration config) throws SwordError, SwordServerException, SwordAuthException {
+                return cdm.reserveNew(collectionURI, deposit, auth, config);
+            }
+
+            @Override
+            public List<BatchResult> createNewBatch(final String collectionURI, final List<Deposit> deposits, final AuthCredentials auth,
+                                                    final SwordConfiguration config) throws SwordServerException, SwordAuthException {
+                try {
+                    return await(cdm.createNewBatch(collectionURI, deposits, auth, config));
+                } catch (SwordError e) {
+                    // a batch reports refused entries in its results; an error of the whole batch is a failure
+                    throw new SwordServerException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a blocking view of the given manager, which waits for its stages, or null if it is null.
+     */
+    public static MediaResourceManager blocking(final AsyncMediaResourceManager mrm) {
+        if (mrm == null) {
+            return null;
+        }
+        return new MediaResourceManager() {
+            @Override
+            public MediaResource getMediaResourceRepresentation(final String uri, final Map<String, String> accept, final AuthCredentials auth,
+                                                                final SwordConfiguration config) throws SwordError, SwordServerException, SwordAuthException {
+                return await(mrm.getMediaResourceRepresentation(uri, accept, auth, config));
+            }
+
+            @Override
+            public DepositReceipt replaceMediaResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                return await(mrm.replaceMediaResource(uri, deposit, auth, config));
+            }
+
+            @Override
+            public void deleteMediaResource(final String uri, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                await(mrm.deleteMediaResource(uri, auth, config));
+            }
+
+            @Override
+            public DepositReceipt addResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                return await(mrm.addResource(uri, deposit, auth, config));
+            }
+
+            @Override
+            public void validateReplaceMediaResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                mrm.validateReplaceMediaResource(uri, deposit, auth, config);
+            }
+
+            @Override
+            public void validateAddResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+                    throws SwordError, SwordServerException, SwordAuthException {
+                mrm.validateAddResource(uri, deposit, auth, config);
+            }
+        };
+    }
+
+    /**
+     * Wait for a stage of an asynchronous manager, throwing what it failed with like a synchronous manager would.
+     */
+    private static <T> T await(final CompletionStage<T> stage) throws SwordError, SwordServerException, SwordAuthException {
+        try {
+            return stage.toCompletableFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SwordServerException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof SwordError) {
+                throw (SwordError) cause;
+            } else if (cause instanceof SwordAuthException) {
+                throw (SwordAuthException) cause;
+            } else if (cause instanceof SwordServerException) {
+                throw (SwordServerException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SwordServerException(cause);
+        }
+    }
+
+    private static <T> CompletionStage<T> call(final ManagerCall<T> call) {
+        try {
+            return CompletableFuture.completedFuture(call.call());
+        } catch (SwordError | SwordServerException | SwordAuthException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * A call to a synchronous manager.
+     */
+    @FunctionalInterface
+    private interface ManagerCall<T> {
+        T call() throws SwordError, SwordServerException, SwordAuthException;
+    }
+}
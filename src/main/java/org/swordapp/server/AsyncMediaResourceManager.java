@@ -0,0 +1,34 @@
+package org.swordapp.server;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Asynchronous variant of {@link MediaResourceManager}, see {@link AsyncCollectionDepositManager} for the handling
+ * of the returned stages.
+ */
+public interface AsyncMediaResourceManager {
+    CompletionStage<MediaResource> getMediaResourceRepresentation(String uri, Map<String, String> accept, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<DepositReceipt> replaceMediaResource(String uri, Deposit deposit, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<Void> deleteMediaResource(String uri, AuthCredentials auth, SwordConfiguration config);
+
+    CompletionStage<DepositReceipt> addResource(String uri, Deposit deposit, AuthCredentials auth, SwordConfiguration config);
+
+    /**
+     * See {@link MediaResourceManager#validateReplaceMediaResource(String, Deposit, AuthCredentials, SwordConfiguration)}.
+     * This check is run on the request thread, and should not block.
+     */
+    default void validateReplaceMediaResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+            throws SwordError, SwordServerException, SwordAuthException {
+    }
+
+    /**
+     * See {@link MediaResourceManager#validateAddResource(String, Deposit, AuthCredentials, SwordConfiguration)}.
+     * This check is run on the request thread, and should not block.
+     */
+    default void validateAddResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+            throws SwordError, SwordServerException, SwordAuthException {
+    }
+}
@@ -0,0 +1,282 @@
+package org.swordapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Non-blocking reader for deposit bodies. It stores and hashes the body of a request as the data arrives, using a
+ * {@link ReadListener}, and dispatches the request to its servlet again once the body is complete (or has been
+ * refused). The outcome is left in a request attribute for {@link #claim(HttpServletRequest)}.
+ *
+ * <p>If the dispatched request does not claim the stored file, it is deleted when the request completes.</p>
+ */
+final class AsyncSpool implements ReadListener, AsyncListener {
+    private static Logger log = LoggerFactory.getLogger(AsyncSpool.class);
+    private static final String ATTRIBUTE = AsyncSpool.class.getName();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AsyncContext context;
+    private final ServletInputStream in;
+    private final OutputStream out;
+    private final File file;
+    private final long maxSize;
+    private final ContentDigests digests;
+    private final DepositPipeline pipeline;
+    private final SpoolDirectory.Reservation reservation;
+    private final RateLimiter.Permit permit;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long count = 0L;
+    private boolean done = false;
+
+    private AsyncSpool(final AsyncContext context, final File file, final long maxSize, final ContentDigests digests,
+                       final DepositPipeline pipeline, final SpoolDirectory.Reservation reservation, final RateLimiter.Permit permit)
+            throws IOException {
+        this.context = context;
+        this.file = file;
+        this.maxSize = maxSize;
+        this.digests = digests;
+        this.in = context.getRequest().getInputStream();
+        this.pipeline = pipeline;
+        this.reservation = reservation;
+        this.permit = permit;
+        // an upload of unknown length reserves more space as it grows
+        this.out = reservation == null ? new FileOutputStream(file) : reservation.guard(new FileOutputStream(file));
+    }
+
+    /**
+     * Put the request into asynchronous mode and start storing its body in the given file.
+     *
+     * @param maxSize the maximum number of bytes to accept, or -1 for no limit
+     * @param digests the digests to compute
+     * @param pipeline the processors to feed the body to, may be null
+     * @param reservation the space reserved for the file, released once it has been stored; may be null
+     * @param permit the permit of the upload under the rate limits, closed once the file has been stored; may be null
+     */
+    static void start(final HttpServletRequest req, final File file, final long maxSize, final ContentDigests digests, final DepositPipeline pipeline,
+                      final SpoolDirectory.Reservation reservation, final RateLimiter.Permit permit) throws IOException {
+        AsyncContext context = req.startAsync();
+        // uploads may take hours; stalled clients are dealt with by the connector's read timeout
+        context.setTimeout(0);
+        AsyncSpool spool = new AsyncSpool(context, file, maxSize, digests, pipeline, reservation, permit);
+        context.addListener(spool);
+        spool.in.setReadListener(spool);
+    }
+
+    /**
+     * Whether the body of this request has already been read by an {@link AsyncSpool}.
+     */
+    static boolean isSpooled(final HttpServletRequest req) {
+        return req.getDispatcherType() == DispatcherType.ASYNC || req.getAttribute(ATTRIBUTE) != null;
+    }
+
+    /**
+     * Take over the outcome of reading the body of this request. From here on, the caller is responsible for
+     * the stored file.
+     *
+     * @return the outcome, or null if the body has not been read by an {@link AsyncSpool}
+     */
+    static Result claim(final HttpServletRequest req) {
+        Result result = (Result) req.getAttribute(ATTRIBUTE);
+        if (result != null) {
+            req.removeAttribute(ATTRIBUTE);
+        }
+        return result;
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        this.read();
+    }
+
+    private void read() throws IOException {
+        while (!this.done && this.in.isReady()) {
+            if (this.pipeline != null && !this.pipeline.isReady()) {
+                // rather than block the container thread, stop reading until the processors have caught up
+                this.pipeline.whenReady(this::resume);
+                return;
+            }
+            int n = this.in.read(this.buffer);
+            if (n == -1) {
+                return;
+            }
+            this.count += n;
+            if (this.maxSize != -1 && this.count > this.maxSize) {
+                String msg = "The uploaded file exceeded the maximum file size this server will accept (the server will only accept files as large as "
+                    + this.maxSize + " bytes)";
+                this.finish(new Result(null, null, null, new SwordError(UriRegistry.ERROR_MAX_UPLOAD_SIZE_EXCEEDED, msg), null));
+                return;
+            }
+            this.digests.update(this.buffer, 0, n);
+            try {
+                this.out.write(this.buffer, 0, n);
+            } catch (SpoolDirectory.OutOfSpaceException e) {
+                this.finish(new Result(null, null, null, null, e));
+                return;
+            }
+            if (this.pipeline != null) {
+                try {
+                    this.pipeline.update(this.buffer, 0, n);
+                } catch (DepositPipeline.RejectedException e) {
+                    this.finish(new Result(null, null, null, e.getError(), null));
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Continue reading on a container thread. The container does not call {@link #onDataAvailable()} again, as
+     * reading stopped while data was available.
+     */
+    private void resume() {
+        try {
+            this.context.start(() -> {
+                try {
+                    this.read();
+                } catch (IOException | RuntimeException e) {
+                    this.onError(e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            // the request has failed in the meantime
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        if (this.done) {
+            return;
+        }
+        // the processors are finished by the dispatched request
+        this.finish(new Result(this.file, this.digests, this.pipeline, null, null));
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+        log.warn("Reading deposit body failed after " + this.count + " bytes: " + t.getMessage());
+        this.done = true;
+        this.discard();
+        try {
+            this.context.complete();
+        } catch (IllegalStateException e) {
+            // the container has already given up on this request
+        }
+    }
+
+    private void finish(final Result result) {
+        this.done = true;
+        this.release();
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            log.error("Could not write temporary deposit file " + this.file.getAbsolutePath(), e);
+            this.discard();
+            this.context.getRequest().setAttribute(ATTRIBUTE, new Result(null, null, null, null, e));
+            this.context.dispatch();
+            return;
+        }
+        if (result.getFile() == null) {
+            this.discard();
+        }
+        this.context.getRequest().setAttribute(ATTRIBUTE, result);
+        this.context.dispatch();
+    }
+
+    private void discard() {
+        this.release();
+        if (this.pipeline != null) {
+            this.pipeline.abort();
+        }
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            // we are deleting the file anyway
+        }
+        SpoolDirectory.delete(this.file);
+    }
+
+    private void release() {
+        if (this.reservation != null) {
+            this.reservation.close();
+        }
+        if (this.permit != null) {
+            this.permit.close();
+        }
+    }
+
+    @Override
+    public void onComplete(final AsyncEvent event) {
+        // the dispatched request did not take over the file, e.g. because the authentication failed
+        Object result = this.context.getRequest().getAttribute(ATTRIBUTE);
+        if (result != null) {
+            this.context.getRequest().removeAttribute(ATTRIBUTE);
+            this.discard();
+        }
+    }
+
+    @Override
+    public void onTimeout(final AsyncEvent event) {
+        this.discard();
+    }
+
+    @Override
+    public void onError(final AsyncEvent event) {
+        this.discard();
+    }
+
+    @Override
+    public void onStartAsync(final AsyncEvent event) {
+    }
+
+    /**
+     * The outcome of reading a body: either the stored file, its digests and the processors it was fed to, the error to report to the client or
+     * the failure to store the file.
+     */
+    static final class Result {
+        private final File file;
+        private final ContentDigests digests;
+        private final DepositPipeline pipeline;
+        private final SwordError error;
+        private final IOException failure;
+
+        Result(final File file, final ContentDigests digests, final DepositPipeline pipeline, final SwordError error, final IOException failure) {
+            this.file = file;
+            this.digests = digests;
+            this.pipeline = pipeline;
+            this.error = error;
+            this.failure = failure;
+        }
+
+        File getFile() {
+            return this.file;
+        }
+
+        ContentDigests getDigests() {
+            return this.digests;
+        }
+
+        DepositPipeline getPipeline() {
+            return this.pipeline;
+        }
+
+        SwordError getError() {
+            return this.error;
+        }
+
+        IOException getFailure() {
+            return this.failure;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.swordapp.server;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Asynchronous variant of {@link StatementManager}, see {@link AsyncCollectionDepositManager} for the handling of
+ * the returned stage.
+ */
+public interface AsyncStatementManager {
+    CompletionStage<Statement> getStatement(String iri, Map<String, String> accept, AuthCredentials auth, SwordConfiguration config);
+}
@@ -4,11 +4,24 @@ public class AuthCredentials {
     private final String username;
     private final String password;
     private final String onBehalfOf;
+    private final boolean authenticated;
+    private final String principal;
 
     public AuthCredentials(final String username, final String password, final String onBehalfOf) {
+        this(username, password, onBehalfOf, false);
+    }
+
+    public AuthCredentials(final String username, final String password, final String onBehalfOf, final boolean authenticated) {
+        this(username, password, onBehalfOf, authenticated, username);
+    }
+
+    public AuthCredentials(final String username, final String password, final String onBehalfOf, final boolean authenticated,
+                           final String principal) {
         this.username = username;
         this.password = password;
         this.onBehalfOf = onBehalfOf;
+        this.authenticated = authenticated;
+        this.principal = principal;
     }
 
     public String getUsername() {
@@ -22,4 +35,33 @@ public class AuthCredentials {
     public String getOnBehalfOf() {
         return onBehalfOf;
     }
+
+    /**
+     * Whether these credentials have already been verified, either by an {@link Authenticator} or because they
+     * were sent as a signed token or request (see {@link HmacAuthentication}).
+     * If so, managers do not need to check the password again.
+     */
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    /**
+     * The identity the request is made by. For Basic authentication this is the username (unless an
+     * {@link Authenticator} mapped it to something else), for Bearer tokens the subject of the token and for
+     * HMAC signed requests the id of the signing key.
+     */
+    public String getPrincipal() {
+        return principal;
+    }
+
+    /**
+     * Create a copy of these credentials which is marked as verified.
+     */
+    public AuthCredentials asAuthenticated() {
+        return new AuthCredentials(this.username, this.password, this.onBehalfOf, true, this.principal);
+    }
+
+    AuthCredentials withPassword(final String newPassword) {
+        return new AuthCredentials(this.username, newPassword, this.onBehalfOf, this.authenticated, this.principal);
+    }
 }
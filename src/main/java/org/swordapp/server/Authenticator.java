@@ -0,0 +1,24 @@
+package org.swordapp.server;
+
+/**
+ * Verifies the credentials sent with a request before they are handed to the *Manager implementations.
+ *
+ * If an authenticator is set on an API endpoint, it is called for every request carrying credentials, and the
+ * credentials it returns are passed on to the managers, which then no longer need to check the password themselves
+ * (see {@link AuthCredentials#isAuthenticated()}).
+ *
+ * The default servlets load an implementation from the "authenticator-impl" context parameter, wrapped into a
+ * {@link CachingAuthenticator} if the configuration enables the credential cache.
+ */
+public interface Authenticator {
+    /**
+     * Verify the given credentials.
+     *
+     * @param credentials the credentials as decoded from the request
+     * @param config the server configuration
+     * @return the verified credentials, usually a copy of the given ones marked as authenticated
+     * @throws SwordAuthException if the credentials are not valid. Throw it with retry set to true to send the
+     *                            client a 401 Unauthorized challenge.
+     */
+    AuthCredentials authenticate(AuthCredentials credentials, SwordConfiguration config) throws SwordAuthException;
+}
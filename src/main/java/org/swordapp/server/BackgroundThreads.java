@@ -0,0 +1,22 @@
+package org.swordapp.server;
+
+/**
+ * The threads the library keeps in the background, shared by all endpoints: the janitor of the temp directory, the
+ * workers feeding {@link DepositStreamProcessor}s, and the pool hashing {@link TreeDigest}s. They are started on first
+ * use, and again if needed after they have been shut down.
+ */
+public final class BackgroundThreads {
+
+    // Utility class - hiding default constructor.
+    private BackgroundThreads() { }
+
+    /**
+     * Stop all background threads once the work handed to them is done, so that a web application which is stopped
+     * does not leave them behind, see {@link org.swordapp.server.servlets.SwordServlet#destroy()}.
+     */
+    public static void shutdown() {
+        SpoolDirectory.shutdown();
+        DepositPipeline.shutdown();
+        TreeDigest.shutdown();
+    }
+}
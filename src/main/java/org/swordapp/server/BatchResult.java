@@ -0,0 +1,31 @@
+package org.swordapp.server;
+
+/**
+ * The outcome of one deposit of a batch: either the deposit receipt, or the error which refused the deposit.
+ */
+public final class BatchResult {
+    private final DepositReceipt receipt;
+    private final SwordError error;
+
+    public BatchResult(final DepositReceipt receipt) {
+        this.receipt = receipt;
+        this.error = null;
+    }
+
+    public BatchResult(final SwordError error) {
+        this.receipt = null;
+        this.error = error;
+    }
+
+    public DepositReceipt getReceipt() {
+        return this.receipt;
+    }
+
+    public SwordError getError() {
+        return this.error;
+    }
+
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+}
@@ -0,0 +1,118 @@
+package org.swordapp.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link Authenticator} which remembers successful verifications of another authenticator for a limited time,
+ * so that clients sending many requests in a row only cause one check against the backend (LDAP, database, ...).
+ *
+ * Entries are keyed by a salted SHA-256 hash of username, password and On-Behalf-Of, so no plain text passwords
+ * are kept in memory. The salt is random per instance. Entries expire after the given time to live; if the cache
+ * is full, the least recently used entry is evicted. Failed verifications are never cached.
+ */
+public class CachingAuthenticator implements Authenticator {
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final int SALT_LENGTH = 16;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Authenticator delegate;
+    private final long ttlNanos;
+    private final byte[] salt = new byte[SALT_LENGTH];
+    private final Map<String, CacheEntry> cache;
+
+    public CachingAuthenticator(final Authenticator delegate, final long ttl, final TimeUnit unit, final int maxSize) {
+        this.delegate = delegate;
+        this.ttlNanos = unit.toNanos(ttl);
+        RANDOM.nextBytes(this.salt);
+        this.cache = new LinkedHashMap<String, CacheEntry>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+                return super.size() > maxSize;
+            }
+        };
+    }
+
+    public AuthCredentials authenticate(final AuthCredentials credentials, final SwordConfiguration config) throws SwordAuthException {
+        String key = this.key(credentials);
+        long now = System.nanoTime();
+
+        synchronized (this.cache) {
+            CacheEntry entry = this.cache.get(key);
+            if (entry != null) {
+                if (now - entry.expires < 0) {
+                    return entry.credentials.withPassword(credentials.getPassword());
+                }
+                this.cache.remove(key);
+            }
+        }
+
+        // verify outside the lock, this is the slow part
+        AuthCredentials verified = this.delegate.authenticate(credentials, config);
+
+        synchronized (this.cache) {
+            // do not keep the password around
+            this.cache.put(key, new CacheEntry(verified.withPassword(null), now + this.ttlNanos));
+        }
+        return verified;
+    }
+
+    /**
+     * Remove all cached verifications, e.g. after a password change.
+     */
+    public void invalidateAll() {
+        synchronized (this.cache) {
+            this.cache.clear();
+        }
+    }
+
+    int size() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    private String key(final AuthCredentials credentials) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(this.salt);
+            this.update(digest, credentials.getUsername());
+            this.update(digest, credentials.getPassword());
+            this.update(digest, credentials.getOnBehalfOf());
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void update(final MessageDigest digest, final String value) {
+        // separate the fields, so that e.g. "ab" + "c" and "a" + "bc" do not collide
+        digest.update((byte) (value == null ? 0 : 1));
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+            digest.update(bytes);
+        }
+    }
+
+    private static final class CacheEntry {
+        private final AuthCredentials credentials;
+        private final long expires;
+
+        CacheEntry(final AuthCredentials credentials, final long expires) {
+            this.credentials = credentials;
+            this.expires = expires;
+        }
+    }
+}
@@ -1,17 +1,15 @@
 package org.swordapp.server;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,7 +37,7 @@ public final class ChecksumUtils {
 
     /**
      * Generate a hash for the data present in the input stream, before copying it to the output stream.
-     * The hash is returned as a String representation. The digest algorithm is MD5, see {@link #md}.
+     * The hash is returned as a String representation. The digest algorithm is MD5.
      * 
      * @param input The InputStream to checksum.
      * @param output The OutputStream to copy the input to.
@@ -48,36 +46,33 @@ public final class ChecksumUtils {
      *         If there is an error accessing the streams.
      */
     public static String hashAndCopy(final InputStream input, final OutputStream output) throws IOException {
-        if (md == null) {
-            throw new IllegalStateException("Cannot generate hash value as the digest is not available.");
-        }
-        // make sure we have a nice and fresh digester
-        md.reset();
-        
+        ContentDigests digests = new ContentDigests(List.of());
+        hashAndCopy(input, output, digests);
+        return digests.getMd5();
+    }
+
+    /**
+     * Copy the input stream to the output stream, computing the given digests in the same pass.
+     *
+     * @param input The InputStream to checksum.
+     * @param output The OutputStream to copy the input to.
+     * @param digests The digests to update with the input stream data.
+     * @throws IOException
+     *         If there is an error accessing the streams.
+     */
+    public static void hashAndCopy(final InputStream input, final OutputStream output, final ContentDigests digests) throws IOException {
         try (
-            DigestOutputStream digestStream = new DigestOutputStream(output, md);
-            ReadableByteChannel in = Channels.newChannel(input);
-            WritableByteChannel out = Channels.newChannel(digestStream);
+            InputStream in = input;
+            OutputStream out = output;
         ) {
-            ByteBuffer buffer = ByteBuffer.allocate(LARGE_BUFFER);
-        
-            while (in.read(buffer) != -1) {
-                // The read() call leaves the buffer in "fill mode". To prepare
-                // to write bytes from the bufferwe have to put it in "drain mode"
-                // by flipping it: setting limit to position and position to zero
-                buffer.flip();
-                // Push the data to the MD5 digester & towards file stream
-                out.write(buffer);
-                // Compact the buffer by discarding bytes that were written,
-                // and shifting any remaining bytes. This method also
-                // prepares the buffer for the next call to read() by setting the
-                // position to the limit and the limit to the buffer capacity.
-                buffer.compact();
+            byte[] buffer = new byte[LARGE_BUFFER];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                // Push the data to the digesters & towards file stream
+                digests.update(buffer, 0, n);
+                out.write(buffer, 0, n);
             }
         }
-    
-        // return the digest as a String representation
-        return formatAsHex(md.digest());
     }
     
     /**
@@ -93,8 +88,31 @@ public final class ChecksumUtils {
         return formatAsHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
     }
     
-    private static String formatAsHex(final byte[] digest) {
-        // MD5 = 32 chars. SHA-1 = 40 chars.
-        return String.format("%032x", new BigInteger(1, digest));
+    /**
+     * Generate a hash for the content of a file.
+     * The hash is returned as a String representation. The digest algorithm is MD5.
+     */
+    public static String hash(final File file) throws IOException {
+        ContentDigests digests = new ContentDigests(List.of());
+        hash(file, digests);
+        return digests.getMd5();
+    }
+
+    /**
+     * Compute the given digests over the content of a file.
+     */
+    public static void hash(final File file, final ContentDigests digests) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[LARGE_BUFFER];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digests.update(buffer, 0, n);
+            }
+        }
+    }
+
+    static String formatAsHex(final byte[] digest) {
+        // MD5 = 32 chars. SHA-1 = 40 chars. SHA-256 = 64 chars.
+        return String.format("%0" + digest.length * 2 + "x", new BigInteger(1, digest));
     }
 }
@@ -1,8 +1,10 @@
 package org.swordapp.server;
 
+import org.apache.abdera.Abdera;
 import org.apache.abdera.i18n.iri.IRI;
 import org.apache.abdera.model.Element;
 import org.apache.abdera.model.Entry;
+import org.apache.abdera.model.ExtensibleElement;
 import org.apache.abdera.model.Feed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,23 +12,46 @@ import org.slf4j.LoggerFactory;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 public class CollectionAPI extends SwordAPIEndpoint {
     private static Logger log = LoggerFactory.getLogger(CollectionAPI.class);
 
     protected final CollectionListManager clm;
+    /** The deposit manager, or a blocking view of it if it is asynchronous. */
     protected final CollectionDepositManager cdm;
+    /** The deposit manager the requests are served with. */
+    protected final AsyncCollectionDepositManager asyncCdm;
 
     public CollectionAPI(final CollectionListManager clm, final CollectionDepositManager cdm, final SwordConfiguration config) {
+        this(clm, cdm, AsyncManagers.adapt(cdm), config);
+    }
+
+    public CollectionAPI(final CollectionListManager clm, final AsyncCollectionDepositManager cdm, final SwordConfiguration config) {
+        this(clm, AsyncManagers.blocking(cdm), cdm, config);
+    }
+
+    private CollectionAPI(final CollectionListManager clm, final CollectionDepositManager cdm, final AsyncCollectionDepositManager asyncCdm,
+                          final SwordConfiguration config) {
         super(config);
         this.clm = clm;
         this.cdm = cdm;
+        this.asyncCdm = asyncCdm;
     }
 
     public void get(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
@@ -45,8 +70,7 @@ public class CollectionAPI extends SwordAPIEndpoint {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -54,6 +78,9 @@ public class CollectionAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
         try {
             Feed feed = this.clm.listCollectionContents(new IRI(this.getFullUrl(req)), auth, this.config);
@@ -70,8 +97,7 @@ public class CollectionAPI extends SwordAPIEndpoint {
             this.addGenerator(feed, this.config);
 
             resp.setHeader("Content-Type", "application/atom+xml;type=feed");
-            feed.writeTo(resp.getWriter());
-            resp.getWriter().flush();
+            this.writeDocument(req, resp, feed);
         } catch (SwordServerException e) {
             throw new ServletException(e);
         } catch (SwordAuthException e) {
@@ -87,14 +113,18 @@ public class CollectionAPI extends SwordAPIEndpoint {
         // let the superclass prepare the request/response objects
         super.post(req, resp);
 
+        if (this.isUploadRequest(req)) {
+            this.upload(req, resp);
+            return;
+        }
+
         // do the initial authentication
         AuthCredentials auth = null;
         try {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -102,9 +132,30 @@ public class CollectionAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
         Deposit deposit = null;
+        String idempotencyKey = null;
         try {
+            // an Atom feed carries a batch of metadata deposits
+            if (isAtomFeed(this.getContentType(req))) {
+                this.postBatch(req, resp, auth);
+                return;
+            }
+
+            // a retried deposit gets the receipt of the first attempt, without reading the body again
+            String key = this.getIdempotencyKey(req, auth);
+            if (key != null) {
+                StoredReceipt stored = this.claimIdempotencyKey(req, key);
+                if (stored != null) {
+                    this.writeStoredReceipt(req, resp, stored, false);
+                    return;
+                }
+                idempotencyKey = key;
+            }
+
             // the first thing to do is determine what the deposit type is:
             String contentType = this.getContentType(req);
             boolean isMultipart = contentType.startsWith("multipart/related");
@@ -121,59 +172,65 @@ public class CollectionAPI extends SwordAPIEndpoint {
             if (req.getHeader("Slug") != null) {
                 slug = URLDecoder.decode(req.getHeader("Slug"), StandardCharsets.UTF_8);
             }
-            boolean inProgress = this.getInProgress(req);
 
             deposit = new Deposit();
-            deposit.setInProgress(inProgress);
+            deposit.setInProgress(this.getInProgress(req));
             deposit.setSlug(slug);
-            DepositReceipt receipt = null;
 
-            // do the different kinds of deposit details extraction
             if (isMultipart) {
                 throw new SwordError(UriRegistry.ERROR_METHOD_NOT_ALLOWED, "This server does not support RFC2387 Multipart uploads, to be removed in SWORD v2.1");
-            } else if (isEntryOnly) {
-                this.addDepositPropertiesFromEntry(deposit, req);
             } else if (isBinaryOnly) {
-                this.addDepositPropertiesFromBinary(deposit, req);
+                this.addDepositPropertiesFromHeaders(deposit, req);
             }
 
-            // now send the deposit to the implementation for processing
+            // let the implementation refuse the deposit before we read the body (and not again once it has been read)
             String colUri = this.getFullUrl(req);
-            receipt = this.cdm.createNew(colUri, deposit, auth, this.config);
-            this.addGenerator(receipt, this.config);
-
-            // prepare and return the response
-            IRI location = receipt.getLocation();
-            if (location == null) {
-                throw new SwordServerException("No Location found in Deposit Receipt; unable to send valid response");
+            if (!AsyncSpool.isSpooled(req)) {
+                this.asyncCdm.validateNew(colUri, deposit, auth, this.config);
             }
 
-            resp.setStatus(HttpServletResponse.SC_CREATED); // Created
-            if (this.config.returnDepositReceipt() && !receipt.isEmpty()) {
-                resp.setHeader("Content-Type", "application/atom+xml;type=entry");
-                resp.setHeader("Location", location.toString());
-
-                // set the last modified header
-                // like: Last-Modified: Tue, 15 Nov 1994 12:45:26 GMT
-                SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z");
-                Date lastModified = receipt.getLastModified() != null ? receipt.getLastModified() : new Date();
-                resp.setHeader("Last-Modified", sdf.format(lastModified));
-
-                // to set the content-md5 header we need to write the output to
-                // a string and checksum it
-                StringWriter writer = new StringWriter();
-                Entry responseEntry = receipt.getAbderaEntry();
-                responseEntry.writeTo(writer);
-
-                // write the content-md5 header
-                String md5 = ChecksumUtils.hash(writer.toString());
-                resp.setHeader("Content-MD5", md5);
+            // do the different kinds of deposit details extraction
+            if (isEntryOnly) {
+                this.addDepositPropertiesFromEntry(deposit, req);
+            } else if (isBinaryOnly) {
+                if (this.spoolAsync(req, deposit)) {
+                    // the body is read in the background, and this request dispatched again once it is complete
+                    idempotencyKey = null;
+                    return;
+                }
+                this.addDepositContentFromBinary(deposit, req);
+            }
 
-                resp.getWriter().append(writer.toString());
-                resp.getWriter().flush();
-            } else {
-                resp.setHeader("Location", location.toString());
+            // deposits with a stored body may be processed in the background, if the implementation reserves a container
+            DepositReceipt provisional = null;
+            if (this.depositJobs != null && (isEntryOnly || deposit.getFile() != null)) {
+                // take a place in the queue first, so that a busy server does not leave a reserved container behind
+                try (DepositJobs.Slot slot = this.depositJobs.reserveSlot()) {
+                    provisional = this.asyncCdm.reserveNew(colUri, deposit, auth, this.config);
+                    if (provisional != null) {
+                        this.deferCreateNew(slot, colUri, deposit, auth, provisional);
+                    }
+                }
             }
+            if (provisional != null) {
+                // the job takes care of the deposit from here on
+                deposit = null;
+                StoredReceipt rendered = this.renderWithGenerator(provisional, HttpServletResponse.SC_ACCEPTED);
+                if (idempotencyKey != null) {
+                    this.idempotencyStore.store(idempotencyKey, rendered);
+                    idempotencyKey = null;
+                }
+                this.writeStoredReceipt(req, resp, rendered);
+                return;
+            }
+
+            // now send the deposit to the implementation for processing; the response takes care of it from here on
+            CompletionStage<StoredReceipt> stage = this.rememberReceipt(idempotencyKey, this.asyncCdm.createNew(colUri, deposit, auth, this.config),
+                receipt -> this.renderWithGenerator(receipt, HttpServletResponse.SC_CREATED));
+            idempotencyKey = null;
+            Deposit submitted = deposit;
+            deposit = null;
+            this.respond(req, resp, submitted, stage, rendered -> this.writeStoredReceipt(req, resp, rendered));
         } catch (SwordError se) {
             // get rid of any temp files used
             this.cleanup(deposit);
@@ -194,7 +251,293 @@ public class CollectionAPI extends SwordAPIEndpoint {
         } finally {
             // get rid of any temp files used
             this.cleanup(deposit);
+
+            // let a retry process the deposit, if it did not reach the manager
+            this.releaseIdempotencyKey(idempotencyKey);
+        }
+    }
+
+    /**
+     * The Col-IRI only accepts PUT for the segments of a resumable upload, see {@link #upload}.
+     */
+    @Override
+    public void put(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        super.put(req, resp);
+        if (this.isUploadRequest(req)) {
+            this.upload(req, resp);
+            return;
+        }
+        resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * The Col-IRI only accepts DELETE to abort a resumable upload, see {@link #upload}.
+     */
+    @Override
+    public void delete(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        super.delete(req, resp);
+        if (this.isUploadRequest(req)) {
+            this.upload(req, resp);
+            return;
+        }
+        resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * Requests to the Col-IRI, including the segments of resumable uploads sent to it, count against the limits of
+     * the collection.
+     */
+    @Override
+    protected String getRateLimitedCollection(final HttpServletRequest req) {
+        return req.getRequestURL().toString();
+    }
+
+    @Override
+    protected void prepareUpload(final HttpServletRequest req, final String method, final String target, final Deposit deposit,
+                                 final AuthCredentials auth) throws SwordError, SwordServerException, SwordAuthException {
+        if (!"POST".equals(method)) {
+            throw new SwordError(UriRegistry.ERROR_METHOD_NOT_ALLOWED, "Uploads to a collection have to be started with POST");
+        }
+        if (req.getHeader("Slug") != null) {
+            try {
+                deposit.setSlug(URLDecoder.decode(req.getHeader("Slug"), StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Illegally encoded Slug header");
+            }
+        }
+        deposit.setInProgress(this.getInProgress(req));
+        this.asyncCdm.validateNew(target, deposit, auth, this.config);
+    }
+
+    @Override
+    protected void completeUpload(final HttpServletRequest req, final HttpServletResponse resp, final String method, final String target,
+                                  final Deposit deposit, final AuthCredentials auth) throws ServletException, IOException {
+        CompletionStage<DepositReceipt> stage = this.asyncCdm.createNew(target, deposit, auth, this.config);
+        this.respond(req, resp, deposit, stage, receipt -> {
+            this.addGenerator(receipt, this.config);
+            this.writeDepositReceipt(req, resp, receipt, HttpServletResponse.SC_CREATED);
+        });
+    }
+
+    /**
+     * Whether the content type is that of an Atom feed: "application/atom+xml" with a "type" parameter of "feed".
+     * The media type, the parameter name and its value are case-insensitive, and the value may be quoted.
+     */
+    static boolean isAtomFeed(final String contentType) {
+        String[] parts = contentType.split(";");
+        if (!"application/atom+xml".equalsIgnoreCase(parts[0].trim())) {
+            return false;
+        }
+        for (int i = 1; i < parts.length; i++) {
+            String[] param = parts[i].split("=", 2);
+            if (param.length == 2 && "type".equalsIgnoreCase(param[0].trim())) {
+                String value = param[1].trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return "feed".equalsIgnoreCase(value);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deposit all entries of an Atom feed in one go, and respond with a feed of their receipts and errors, in the
+     * order of the entries. Each entry is checked with
+     * {@link CollectionDepositManager#validateNew(String, Deposit, AuthCredentials, SwordConfiguration)} as soon as it
+     * has been read; refused entries are reported as errors, and the others are passed to
+     * {@link CollectionDepositManager#createNewBatch(String, List, AuthCredentials, SwordConfiguration)} together.
+     *
+     * A retried batch with the same Idempotency-Key gets the results of the first attempt.
+     */
+    protected void postBatch(final HttpServletRequest req, final HttpServletResponse resp, final AuthCredentials auth)
+            throws SwordError, SwordServerException, SwordAuthException, IOException, ServletException {
+        String key = this.getIdempotencyKey(req, auth);
+        if (key != null) {
+            StoredReceipt stored = this.claimIdempotencyKey(req, key);
+            if (stored != null) {
+                this.writeStoredReceipt(req, resp, stored, true);
+                return;
+            }
+        }
+        try {
+            if (this.config.getMaxBatchEntries() == 0) {
+                throw new SwordError(UriRegistry.ERROR_CONTENT, "This server does not accept batch deposits");
+            }
+            // refuse announced feeds which are too large right away, instead of after having read them
+            long length = req.getContentLengthLong();
+            if (this.config.getMaxUploadSize() != -1 && length > this.config.getMaxUploadSize()) {
+                throw new SwordError(UriRegistry.ERROR_MAX_UPLOAD_SIZE_EXCEEDED, "The announced feed exceeds the maximum size this server will accept ("
+                    + length + " bytes but the server will only accept " + this.config.getMaxUploadSize() + " bytes)");
+            }
+
+            String colUri = this.getFullUrl(req);
+            boolean inProgress = this.getInProgress(req);
+            List<Deposit> deposits = new ArrayList<>();
+            // the refusal of each entry, or null where it has been accepted
+            List<SwordError> refused = new ArrayList<>();
+            try (RateLimiter.Permit permit = this.acquireUploadPermit(req)) {
+                InputStream body = HmacAuthentication.getSignedBody(req, req.getInputStream());
+                new SwordEntryReader(this.config).readFeed(body, this.config.getMaxBatchEntries(), this.config.getMaxUploadSize(), entry -> {
+                    Deposit deposit = new Deposit();
+                    deposit.setInProgress(inProgress);
+                    deposit.setEntry(entry);
+                    try {
+                        this.asyncCdm.validateNew(colUri, deposit, auth, this.config);
+                        deposits.add(deposit);
+                        refused.add(null);
+                    } catch (SwordError e) {
+                        refused.add(e);
+                    }
+                });
+                HmacAuthentication.verifySignedBody(body);
+            }
+
+            // the feed is rendered once, for the response and for retries
+            CompletionStage<StoredReceipt> stage = this.asyncCdm.createNewBatch(colUri, deposits, auth, this.config).thenApply(results -> {
+                try {
+                    return this.renderBatchResults(mergeBatchResults(refused, results));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+            if (key != null) {
+                String claimed = key;
+                stage = stage.whenComplete((rendered, failure) -> {
+                    if (failure == null && rendered != null) {
+                        this.idempotencyStore.store(claimed, rendered);
+                    } else {
+                        this.idempotencyStore.release(claimed);
+                    }
+                });
+                key = null;
+            }
+            this.respond(req, resp, null, stage, rendered -> this.writeStoredReceipt(req, resp, rendered));
+        } finally {
+            // let a retry process the batch, if it did not reach the manager
+            this.releaseIdempotencyKey(key);
+        }
+    }
+
+    /**
+     * Put the results of the manager in the places of the accepted entries.
+     *
+     * @param refused the refusal of each entry, or null where it was accepted
+     * @param results the results of the accepted entries, in order
+     */
+    private static List<BatchResult> mergeBatchResults(final List<SwordError> refused, final List<BatchResult> results) {
+        List<BatchResult> merged = new ArrayList<>(refused.size());
+        Iterator<BatchResult> accepted = results.iterator();
+        for (SwordError error : refused) {
+            merged.add(error != null ? new BatchResult(error) : accepted.next());
+        }
+        return merged;
+    }
+
+    /**
+     * Send the results of a batch deposit as a feed of receipts and errors, with "200 OK".
+     */
+    protected void writeBatchResults(final HttpServletRequest req, final HttpServletResponse resp, final List<BatchResult> results)
+            throws IOException {
+        this.writeStoredReceipt(req, resp, this.renderBatchResults(results));
+    }
+
+    /**
+     * Render the results of a batch deposit as a feed of receipts and errors.
+     */
+    protected StoredReceipt renderBatchResults(final List<BatchResult> results) throws IOException {
+        Feed feed = new Abdera().newFeed();
+        feed.setId("urn:uuid:" + UUID.randomUUID());
+        feed.setTitle("Batch deposit");
+        feed.setUpdated(new Date());
+        this.addGenerator(feed, this.config);
+
+        for (BatchResult result : results) {
+            if (result.isSuccess()) {
+                this.addGenerator(result.getReceipt(), this.config);
+                feed.addEntry(result.getReceipt().getAbderaEntry());
+            } else {
+                // the same content as a single error document, see ErrorDocument
+                SwordError error = result.getError();
+                ExtensibleElement element = feed.addExtension(UriRegistry.SWORD_TERMS_NAMESPACE, "error", UriRegistry.SWORD_PREFIX);
+                element.setAttributeValue("href", error.getErrorUri());
+                element.addSimpleExtension(new QName(UriRegistry.ATOM_NAMESPACE, "title"), "ERROR");
+                if (error.getMessage() != null) {
+                    element.addSimpleExtension(new QName(UriRegistry.ATOM_NAMESPACE, "summary"), error.getMessage());
+                }
+                element.addSimpleExtension(new QName(UriRegistry.SWORD_TERMS_NAMESPACE, "treatment", UriRegistry.SWORD_PREFIX),
+                    "Processing failed");
+            }
+        }
+
+        StringWriter writer = new StringWriter();
+        feed.writeTo(writer);
+        return new StoredReceipt(writer.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send the deposit receipt with the given status, i.e. "201 Created" or "202 Accepted" for deferred deposits.
+     */
+    protected void writeDepositReceipt(final HttpServletRequest req, final HttpServletResponse resp, final DepositReceipt receipt, final int status)
+            throws SwordServerException, IOException {
+        this.writeStoredReceipt(req, resp, this.renderDepositReceipt(receipt, status));
+    }
+
+    /**
+     * Render the deposit receipt for the response, with the given status.
+     */
+    protected StoredReceipt renderDepositReceipt(final DepositReceipt receipt, final int status) throws SwordServerException, IOException {
+        IRI location = receipt.getLocation();
+        if (location == null) {
+            throw new SwordServerException("No Location found in Deposit Receipt; unable to send valid response");
+        }
+        if (!this.config.returnDepositReceipt() || receipt.isEmpty()) {
+            return new StoredReceipt(status, location.toString(), null, null, false);
+        }
+
+        // set the last modified header
+        // like: Last-Modified: Tue, 15 Nov 1994 12:45:26 GMT
+        SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z");
+        Date lastModified = receipt.getLastModified() != null ? receipt.getLastModified() : new Date();
+
+        // write the document to a string first, for the content-md5 header
+        StringWriter writer = new StringWriter();
+        Entry responseEntry = receipt.getAbderaEntry();
+        responseEntry.writeTo(writer);
+        return new StoredReceipt(status, location.toString(), sdf.format(lastModified), writer.toString().getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    private StoredReceipt renderWithGenerator(final DepositReceipt receipt, final int status) throws SwordServerException, IOException {
+        this.addGenerator(receipt, this.config);
+        return this.renderDepositReceipt(receipt, status);
+    }
+
+    /**
+     * Queue the processing of a deposit for which the implementation has reserved a container.
+     */
+    protected void deferCreateNew(final String colUri, final Deposit deposit, final AuthCredentials auth, final DepositReceipt provisional)
+            throws SwordError, SwordServerException {
+        try (DepositJobs.Slot slot = this.depositJobs.reserveSlot()) {
+            this.deferCreateNew(slot, colUri, deposit, auth, provisional);
+        }
+    }
+
+    /**
+     * Queue the processing of a deposit for which the implementation has reserved a container, in the place in the
+     * queue taken before the container was reserved.
+     */
+    protected void deferCreateNew(final DepositJobs.Slot slot, final String colUri, final Deposit deposit, final AuthCredentials auth,
+                                  final DepositReceipt provisional) throws SwordServerException {
+        IRI location = provisional.getLocation();
+        if (location == null) {
+            throw new SwordServerException("No Location found in provisional Deposit Receipt; unable to send valid response");
+        }
+        Set<String> iris = new HashSet<>(provisional.getStatementURIs());
+        iris.add(location.toString());
+        if (provisional.getEditIRI() != null) {
+            iris.add(provisional.getEditIRI().toString());
         }
+        this.depositJobs.submit(slot, iris, () -> this.asyncCdm.createNew(colUri, deposit, auth, this.config), () -> this.cleanup(deposit));
     }
 
     protected void addGenerator(final DepositReceipt doc, final SwordConfiguration config) {
@@ -1,6 +1,54 @@
 package org.swordapp.server;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface CollectionDepositManager {
     DepositReceipt createNew(String collectionURI, Deposit deposit, AuthCredentials auth, SwordConfiguration config) throws SwordError, SwordServerException,
             SwordAuthException;
+
+    /**
+     * Validate a deposit before its body is read. The deposit only carries the properties given in the request
+     * headers (slug, in-progress and, for binary deposits, filename, mime type, packaging, MD5 and content length).
+     * Throwing here refuses the deposit before the client has sent it, if the client asked for "Expect: 100-continue".
+     * The default implementation accepts everything.
+     */
+    default void validateNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+            throws SwordError, SwordServerException, SwordAuthException {
+    }
+
+    /**
+     * Reserve a container for a deposit which is processed in the background, if
+     * {@link SwordConfiguration#useDeferredDeposits()} is enabled. The returned receipt is sent to the client with
+     * "202 Accepted" and must carry at least the Edit-IRI and the statement IRIs; the state of the background job is
+     * added to the statements served for these IRIs. {@link #createNew(String, Deposit, AuthCredentials, SwordConfiguration)}
+     * is then called on a worker thread and should fill the reserved container.
+     * The default implementation returns null, which processes the deposit while the client waits.
+     */
+    default DepositReceipt reserveNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+            throws SwordError, SwordServerException, SwordAuthException {
+        return null;
+    }
+
+    /**
+     * Create a container for each of the given metadata deposits, sent together as an Atom feed. Implementations
+     * may override this to e.g. store all of them in a single transaction.
+     * The default implementation calls {@link #createNew(String, Deposit, AuthCredentials, SwordConfiguration)} for
+     * each deposit in turn.
+     *
+     * @return one result per deposit, in the same order. Deposits refused with a {@link SwordError} are reported as
+     *         failed results; other exceptions fail the whole batch.
+     */
+    default List<BatchResult> createNewBatch(final String collectionURI, final List<Deposit> deposits, final AuthCredentials auth,
+                                             final SwordConfiguration config) throws SwordServerException, SwordAuthException {
+        List<BatchResult> results = new ArrayList<>(deposits.size());
+        for (Deposit deposit : deposits) {
+            try {
+                results.add(new BatchResult(this.createNew(collectionURI, deposit, auth, config)));
+            } catch (SwordError e) {
+                results.add(new BatchResult(e));
+            }
+        }
+        return results;
+    }
 }
@@ -14,14 +14,19 @@ import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 public class ContainerAPI extends SwordAPIEndpoint {
     private static Logger log = LoggerFactory.getLogger(ContainerAPI.class);
 
-    private final ContainerManager cm;
-    private final StatementManager sm;
+    private final AsyncContainerManager cm;
+    private final AsyncStatementManager sm;
 
     public ContainerAPI(final ContainerManager cm, final StatementManager sm, final SwordConfiguration config) {
+        this(AsyncManagers.adapt(cm), AsyncManagers.adapt(sm), config);
+    }
+
+    public ContainerAPI(final AsyncContainerManager cm, final AsyncStatementManager sm, final SwordConfiguration config) {
         super(config);
         this.cm = cm;
         this.sm = sm;
@@ -41,8 +46,7 @@ public class ContainerAPI extends SwordAPIEndpoint {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -50,16 +54,25 @@ public class ContainerAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
-        try {
-            // we allow content negotiation on this header
-            Map<String, String> accept = this.getAcceptHeaders(req);
-            String iri = this.getFullUrl(req);
-
-            // the content negotiation may be for the deposit receipt, OR for
-            // the Statement
-            if (this.cm.isStatementRequest(iri, accept, auth, this.config)) {
-                Statement statement = this.sm.getStatement(iri, accept, auth, this.config);
+        // we allow content negotiation on this header
+        Map<String, String> accept = this.getAcceptHeaders(req);
+        String iri = this.getFullUrl(req);
+
+        // the content negotiation may be for the deposit receipt, OR for
+        // the Statement
+        AuthCredentials credentials = auth;
+        CompletionStage<Object> stage = this.cm.isStatementRequest(iri, accept, credentials, this.config)
+            .thenCompose(isStatement -> isStatement
+                ? this.sm.getStatement(iri, accept, credentials, this.config).thenApply(Object.class::cast)
+                : this.cm.getEntry(iri, accept, credentials, this.config).thenApply(Object.class::cast));
+        this.respond(req, resp, null, stage, representation -> {
+            if (representation instanceof Statement) {
+                Statement statement = (Statement) representation;
+                this.addJobState(iri, statement);
 
                 // set the content type
                 resp.setHeader("Content-Type", statement.getContentType());
@@ -70,21 +83,12 @@ public class ContainerAPI extends SwordAPIEndpoint {
                 Date lastModified = statement.getLastModified() != null ? statement.getLastModified() : new Date();
                 resp.setHeader("Last-Modified", sdf.format(lastModified));
 
-                // to set the content-md5 header we need to write the output to
-                // a string and checksum it
+                // write the document to a string first, for the content-md5 header
                 StringWriter writer = new StringWriter();
                 statement.writeTo(writer);
-
-                // write the content-md5 header
-                String md5 = ChecksumUtils.hash(writer.toString());
-                resp.setHeader("Content-MD5", md5);
-
-                if (sendBody) {
-                    resp.getWriter().append(writer.toString());
-                    resp.getWriter().flush();
-                }
+                this.writeDocument(req, resp, writer.toString(), sendBody);
             } else {
-                DepositReceipt receipt = this.cm.getEntry(iri, accept, auth, this.config);
+                DepositReceipt receipt = (DepositReceipt) representation;
                 this.addGenerator(receipt, this.config);
 
                 IRI location = receipt.getLocation();
@@ -97,30 +101,13 @@ public class ContainerAPI extends SwordAPIEndpoint {
                 Date lastModified = receipt.getLastModified() != null ? receipt.getLastModified() : new Date();
                 resp.setHeader("Last-Modified", sdf.format(lastModified));
 
-                // to set the content-md5 header we need to write the output to
-                // a string and checksum it
+                // write the document to a string first, for the content-md5 header
                 StringWriter writer = new StringWriter();
                 Entry responseEntry = receipt.getAbderaEntry();
                 responseEntry.writeTo(writer);
-
-                // write the content-md5 header
-                String md5 = ChecksumUtils.hash(writer.toString());
-                resp.setHeader("Content-MD5", md5);
-
-                if (sendBody) {
-                    resp.getWriter().append(writer.toString());
-                    resp.getWriter().flush();
-                }
+                this.writeDocument(req, resp, writer.toString(), sendBody);
             }
-        } catch (SwordError se) {
-            this.swordError(req, resp, se);
-        } catch (SwordServerException e) {
-            throw new ServletException(e);
-        } catch (SwordAuthException e) {
-            // authentication actually failed at the server end; not a SwordError, but
-            // need to throw a 403 Forbidden
-            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
-        }
+        });
     }
 
     public void head(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
@@ -137,8 +124,7 @@ public class ContainerAPI extends SwordAPIEndpoint {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -146,6 +132,9 @@ public class ContainerAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
         Deposit deposit = null;
         try {
@@ -160,7 +149,7 @@ public class ContainerAPI extends SwordAPIEndpoint {
             deposit = new Deposit();
             deposit.setInProgress(inProgress);
             String iri = this.getFullUrl(req);
-            DepositReceipt receipt;
+            CompletionStage<DepositReceipt> stage;
 
             if (isMultipart) {
                 throw new SwordError(UriRegistry.ERROR_METHOD_NOT_ALLOWED, "This server does not support RFC2387 Multipart uploads, to be removed in SWORD v2.1");
@@ -173,60 +162,49 @@ public class ContainerAPI extends SwordAPIEndpoint {
                 this.addDepositPropertiesFromEntry(deposit, req);
 
                 // now defer to the implementation layer
-                receipt = this.cm.replaceMetadata(iri, deposit, auth, this.config);
+                stage = this.cm.replaceMetadata(iri, deposit, auth, this.config);
             } else {
                 // some other sort of deposit which is not supported
                 throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "PUT to Edit-IRI MUST be an Atom Entry");
             }
 
-            // prepare and return the response
-            IRI location = receipt.getLocation();
-            if (location == null) {
-                throw new SwordServerException("No Location found in Deposit Receipt; unable to send valid response");
-            }
-
-            if (this.config.returnDepositReceipt() && !receipt.isEmpty()) {
-                this.addGenerator(receipt, this.config);
-                resp.setStatus(HttpServletResponse.SC_OK);
-                resp.setHeader("Content-Type", "application/atom+xml;type=entry");
-                resp.setHeader("Location", location.toString());
-
-                // set the last modified header
-                // like: Last-Modified: Tue, 15 Nov 1994 12:45:26 GMT
-                SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z");
-                Date lastModified = receipt.getLastModified() != null ? receipt.getLastModified() : new Date();
-                resp.setHeader("Last-Modified", sdf.format(lastModified));
-
-                // to set the content-md5 header we need to write the output to
-                // a string and checksum it
-                StringWriter writer = new StringWriter();
-                Entry responseEntry = receipt.getAbderaEntry();
-                responseEntry.writeTo(writer);
+            // the response takes care of the deposit from here on
+            Deposit submitted = deposit;
+            deposit = null;
+            this.respond(req, resp, submitted, stage, receipt -> {
+                // prepare and return the response
+                IRI location = receipt.getLocation();
+                if (location == null) {
+                    throw new SwordServerException("No Location found in Deposit Receipt; unable to send valid response");
+                }
 
-                // write the content-md5 header
-                String md5 = ChecksumUtils.hash(writer.toString());
-                resp.setHeader("Content-MD5", md5);
+                if (this.config.returnDepositReceipt() && !receipt.isEmpty()) {
+                    this.addGenerator(receipt, this.config);
+                    resp.setStatus(HttpServletResponse.SC_OK);
+                    resp.setHeader("Content-Type", "application/atom+xml;type=entry");
+                    resp.setHeader("Location", location.toString());
 
-                resp.getWriter().append(writer.toString());
-                resp.getWriter().flush();
-            } else {
-                resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
-                resp.setHeader("Location", location.toString());
-            }
+                    // set the last modified header
+                    // like: Last-Modified: Tue, 15 Nov 1994 12:45:26 GMT
+                    SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z");
+                    Date lastModified = receipt.getLastModified() != null ? receipt.getLastModified() : new Date();
+                    resp.setHeader("Last-Modified", sdf.format(lastModified));
+
+                    // write the document to a string first, for the content-md5 header
+                    StringWriter writer = new StringWriter();
+                    Entry responseEntry = receipt.getAbderaEntry();
+                    responseEntry.writeTo(writer);
+                    this.writeDocument(req, resp, writer.toString(), true);
+                } else {
+                    resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                    resp.setHeader("Location", location.toString());
+                }
+            });
         } catch (SwordError se) {
             // get rid of any temp files used
             this.cleanup(deposit);
 
             this.swordError(req, resp, se);
-        } catch (SwordServerException e) {
-            throw new ServletException(e);
-        } catch (SwordAuthException e) {
-            // get rid of any temp files used
-            this.cleanup(deposit);
-
-            // authentication actually failed at the server end; not a SwordError, but
-            // need to throw a 403 Forbidden
-            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
         } finally {
             // get rid of any temp files used
             this.cleanup(deposit);
@@ -243,8 +221,7 @@ public class ContainerAPI extends SwordAPIEndpoint {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -252,6 +229,9 @@ public class ContainerAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
         Deposit deposit = null;
         try {
@@ -272,55 +252,58 @@ public class ContainerAPI extends SwordAPIEndpoint {
 
             deposit = new Deposit();
             deposit.setInProgress(inProgress);
-            DepositReceipt receipt;
+            CompletionStage<DepositReceipt> stage;
 
             // do the different kinds of deposit details extraction, and then delegate to the implementation
             // for handling
             if (isEntryOnly) {
                 this.addDepositPropertiesFromEntry(deposit, req);
-                receipt = this.cm.addMetadata(iri, deposit, auth, this.config);
+                stage = this.cm.addMetadata(iri, deposit, auth, this.config);
             } else if (headersOnly) {
-                receipt = this.cm.useHeaders(iri, deposit, auth, this.config);
+                stage = this.cm.useHeaders(iri, deposit, auth, this.config);
             } else {
                 // POST-ing additional partial deposits in a continued deposit
-                this.addDepositPropertiesFromBinary(deposit, req);
-                receipt = this.cm.addResources(iri, deposit, auth, this.config);
-            }
-
-            // prepare and return the response
-            IRI location = receipt.getLocation();
-
-            // NOTE that in this case, no Location header is required, so the editIRI MAY be null
-            if (this.config.returnDepositReceipt() && !receipt.isEmpty()) {
-                this.addGenerator(receipt, this.config);
-                resp.setHeader("Content-Type", "application/atom+xml;type=entry");
-                if (location != null) {
-                    resp.setHeader("Location", location.toString());
+                this.addDepositPropertiesFromHeaders(deposit, req);
+                if (this.spoolAsync(req, deposit)) {
+                    // the body is read in the background, and this request dispatched again once it is complete
+                    return;
                 }
+                this.addDepositContentFromBinary(deposit, req);
+                stage = this.cm.addResources(iri, deposit, auth, this.config);
+            }
 
-                // set the last modified header
-                // like: Last-Modified: Tue, 15 Nov 1994 12:45:26 GMT
-                SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z");
-                Date lastModified = receipt.getLastModified() != null ? receipt.getLastModified() : new Date();
-                resp.setHeader("Last-Modified", sdf.format(lastModified));
-
-                // to set the content-md5 header we need to write the output to
-                // a string and checksum it
-                StringWriter writer = new StringWriter();
-                Entry responseEntry = receipt.getAbderaEntry();
-                responseEntry.writeTo(writer);
-
-                // write the content-md5 header
-                String md5 = ChecksumUtils.hash(writer.toString());
-                resp.setHeader("Content-MD5", md5);
+            // the response takes care of the deposit from here on
+            Deposit submitted = deposit;
+            deposit = null;
+            this.respond(req, resp, submitted, stage, receipt -> {
+                // prepare and return the response
+                IRI location = receipt.getLocation();
 
-                resp.getWriter().append(writer.toString());
-                resp.getWriter().flush();
-            } else {
-                if (location != null) {
-                    resp.setHeader("Location", location.toString());
+                // NOTE that in this case, no Location header is required, so the editIRI MAY be null
+                if (this.config.returnDepositReceipt() && !receipt.isEmpty()) {
+                    this.addGenerator(receipt, this.config);
+                    resp.setHeader("Content-Type", "application/atom+xml;type=entry");
+                    if (location != null) {
+                        resp.setHeader("Location", location.toString());
+                    }
+
+                    // set the last modified header
+                    // like: Last-Modified: Tue, 15 Nov 1994 12:45:26 GMT
+                    SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z");
+                    Date lastModified = receipt.getLastModified() != null ? receipt.getLastModified() : new Date();
+                    resp.setHeader("Last-Modified", sdf.format(lastModified));
+
+                    // write the document to a string first, for the content-md5 header
+                    StringWriter writer = new StringWriter();
+                    Entry responseEntry = receipt.getAbderaEntry();
+                    responseEntry.writeTo(writer);
+                    this.writeDocument(req, resp, writer.toString(), true);
+                } else {
+                    if (location != null) {
+                        resp.setHeader("Location", location.toString());
+                    }
                 }
-            }
+            });
         } catch (SwordError se) {
             // get rid of any temp files used
             this.cleanup(deposit);
@@ -328,13 +311,6 @@ public class ContainerAPI extends SwordAPIEndpoint {
             this.swordError(req, resp, se);
         } catch (SwordServerException e) {
             throw new ServletException(e);
-        } catch (SwordAuthException e) {
-            // get rid of any temp files used
-            this.cleanup(deposit);
-
-            // authentication actually failed at the server end; not a SwordError, but
-            // need to throw a 403 Forbidden
-            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
         } finally {
             // get rid of any temp files used
             this.cleanup(deposit);
@@ -351,8 +327,7 @@ public class ContainerAPI extends SwordAPIEndpoint {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -360,24 +335,18 @@ public class ContainerAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
-        try {
-            String uri = this.getFullUrl(req);
-
-            // send it to the implementation
-            this.cm.deleteContainer(uri, auth, this.config);
+        String uri = this.getFullUrl(req);
 
+        // send it to the implementation
+        CompletionStage<Void> stage = this.cm.deleteContainer(uri, auth, this.config);
+        this.respond(req, resp, null, stage, nothing -> {
             // Not expecting any response, so if no error just return a 204
             resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
-        } catch (SwordError se) {
-            this.swordError(req, resp, se);
-        } catch (SwordServerException e) {
-            throw new ServletException(e);
-        } catch (SwordAuthException e) {
-            // authentication actually failed at the server end; not a SwordError, but
-            // need to throw a 403 Forbidden
-            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
-        }
+        });
     }
 
     protected void addGenerator(final DepositReceipt doc, final SwordConfiguration config) {
@@ -0,0 +1,170 @@
+package org.swordapp.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Decoding of deposits sent with a "Content-Encoding". The content is decoded as it is read, hashing the encoded
+ * bytes on the way in and counting the decoded bytes on the way out, so that a small, highly compressed body cannot
+ * expand beyond the maximum upload size.
+ */
+final class ContentCoding {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Utility class - hiding default constructor.
+    private ContentCoding() { }
+
+    /**
+     * The content coding named by a "Content-Encoding" header.
+     *
+     * @return the coding, or null if the content is not encoded
+     * @throws SwordError with status 415, if the coding is not supported
+     */
+    static String get(final String header) throws SwordError {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        String coding = header.trim().toLowerCase(Locale.ROOT);
+        switch (coding) {
+            case "identity":
+                return null;
+            case GZIP:
+            case "x-gzip":
+                return GZIP;
+            case DEFLATE:
+                return DEFLATE;
+            default:
+                // also refuses several codings, as in "gzip, gzip", which nobody has a reason to send
+                throw new SwordError(UriRegistry.ERROR_CONTENT, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+                    "Unsupported Content-Encoding " + header + ", only gzip and deflate are supported");
+        }
+    }
+
+    /**
+     * Wrap a stream of encoded content into a stream of the decoded content.
+     *
+     * @param digests updated with the encoded content, may be null
+     * @param maxSize the maximum number of decoded bytes, or -1 for no limit
+     */
+    static InputStream decode(final InputStream encoded, final String coding, final ContentDigests digests, final long maxSize)
+            throws IOException {
+        InputStream in = digests == null ? encoded : new DigestingInputStream(encoded, digests);
+        InputStream decoded = GZIP.equals(coding) ? new GZIPInputStream(in, BUFFER_SIZE) : new InflaterInputStream(in);
+        return new DecodedInputStream(decoded, in, maxSize);
+    }
+
+    /**
+     * Thrown when the decoded content exceeds the maximum upload size.
+     */
+    static final class LimitExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        LimitExceededException(final long limit) {
+            super("The decoded content exceeds " + limit + " bytes");
+        }
+    }
+
+    private static final class DigestingInputStream extends FilterInputStream {
+        private final ContentDigests digests;
+
+        DigestingInputStream(final InputStream in, final ContentDigests digests) {
+            super(in);
+            this.digests = digests;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                this.digests.update(new byte[] {(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.digests.update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // skipped bytes would be missing from the digests, so they are read instead
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int read = this.read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Counts the decoded bytes, and once they are complete, reads the rest of the encoded content (e.g. padding after
+     * the gzip trailer), so that the digests cover all of it.
+     */
+    private static final class DecodedInputStream extends FilterInputStream {
+        private final InputStream encoded;
+        private final long limit;
+        private long count = 0L;
+
+        DecodedInputStream(final InputStream decoded, final InputStream encoded, final long limit) {
+            super(decoded);
+            this.encoded = encoded;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = this.read(b, 0, 1);
+            return n == -1 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.count += n;
+                if (this.limit != -1 && this.count > this.limit) {
+                    throw new LimitExceededException(this.limit);
+                }
+            } else if (n == -1) {
+                // only read for the digests
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int drained;
+                do {
+                    drained = this.encoded.read(buffer, 0, buffer.length);
+                } while (drained != -1);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // skipped bytes have to be counted, so they are read instead
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int read = this.read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
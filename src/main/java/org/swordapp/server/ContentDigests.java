@@ -0,0 +1,238 @@
+package org.swordapp.server;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Digests of deposit content, computed in the same pass as the MD5 while the content is stored, and the HTTP fields
+ * carrying them: "Content-Digest", "Repr-Digest", "Want-Content-Digest" and "Want-Repr-Digest" of RFC 9530, and the
+ * "Digest" field of RFC 3230 it obsoletes. Digests are kept by their RFC 9530 algorithm key, e.g. {@link #SHA_256},
+ * with the base64 encoded digest as value; other algorithms are ignored.
+ */
+public final class ContentDigests {
+    public static final String SHA_256 = "sha-256";
+    public static final String SHA_512 = "sha-512";
+
+    private static final Map<String, String> ALGORITHMS = Map.of(SHA_256, "SHA-256", SHA_512, "SHA-512");
+    private static final Pattern MEMBER = Pattern.compile("(?<key>[a-z*][a-z0-9_.*-]*)\\s*=\\s*:(?<value>[A-Za-z0-9+/]*={0,2}):\\s*(;.*)?");
+    private static final Pattern WANT = Pattern.compile("(?<key>[a-z*][a-z0-9_.*-]*)\\s*=\\s*(?<weight>\\d+)\\s*(;.*)?");
+
+    private final MessageDigest md5;
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+    private String md5Hex = null;
+    private Map<String, String> values = null;
+
+    /**
+     * Prepare the computation of the MD5 and the given digests.
+     *
+     * @param algorithms RFC 9530 algorithm keys, unsupported ones are ignored
+     */
+    public ContentDigests(final Collection<String> algorithms) {
+        this.md5 = newDigest("MD5");
+        for (String algorithm : algorithms) {
+            if (isSupported(algorithm) && !this.digests.containsKey(algorithm)) {
+                this.digests.put(algorithm, newDigest(ALGORITHMS.get(algorithm)));
+            }
+        }
+    }
+
+    private ContentDigests(final ContentDigests other) {
+        this.md5 = copy(other.md5);
+        for (Map.Entry<String, MessageDigest> digest : other.digests.entrySet()) {
+            this.digests.put(digest.getKey(), copy(digest.getValue()));
+        }
+    }
+
+    /**
+     * A copy of the digests computed so far, which is updated independently of this one.
+     */
+    ContentDigests copy() {
+        return new ContentDigests(this);
+    }
+
+    public static boolean isSupported(final String algorithm) {
+        return ALGORITHMS.containsKey(algorithm);
+    }
+
+    public void update(final byte[] buffer, final int offset, final int length) {
+        this.md5.update(buffer, offset, length);
+        for (MessageDigest digest : this.digests.values()) {
+            digest.update(buffer, offset, length);
+        }
+    }
+
+    /**
+     * The hex encoded MD5 of the content. Ends the computation.
+     */
+    public String getMd5() {
+        this.finish();
+        return this.md5Hex;
+    }
+
+    /**
+     * The digests of the content, by algorithm key. Ends the computation.
+     */
+    public Map<String, String> getDigests() {
+        this.finish();
+        return this.values;
+    }
+
+    /**
+     * Check the content against the digests sent by the client. All digests must match; digests of algorithms which
+     * have not been computed are ignored.
+     *
+     * @throws SwordError {@link UriRegistry#ERROR_CHECKSUM_MISMATCH} if a digest does not match
+     */
+    public void verify(final Map<String, String> expected) throws SwordError {
+        for (Map.Entry<String, String> digest : expected.entrySet()) {
+            String actual = this.getDigests().get(digest.getKey());
+            if (actual != null && !MessageDigest.isEqual(Base64.getDecoder().decode(actual), Base64.getDecoder().decode(digest.getValue()))) {
+                throw new SwordError(UriRegistry.ERROR_CHECKSUM_MISMATCH,
+                    "The " + digest.getKey() + " digest of the deposited content did not match the digest sent by the deposit client");
+            }
+        }
+    }
+
+    private void finish() {
+        if (this.values != null) {
+            return;
+        }
+        this.md5Hex = ChecksumUtils.formatAsHex(this.md5.digest());
+        Map<String, String> computed = new LinkedHashMap<>();
+        for (Map.Entry<String, MessageDigest> digest : this.digests.entrySet()) {
+            computed.put(digest.getKey(), Base64.getEncoder().encodeToString(digest.getValue().digest()));
+        }
+        this.values = Collections.unmodifiableMap(computed);
+    }
+
+    /**
+     * Parse a "Content-Digest" or "Repr-Digest" field, like {@code sha-256=:X48E9q...=:, sha-512=:WZDPaV...=:}.
+     *
+     * @param field the field value, may be null
+     * @return the digests of the supported algorithms
+     * @throws SwordError if the field is malformed
+     */
+    public static Map<String, String> parse(final String field) throws SwordError {
+        Map<String, String> digests = new LinkedHashMap<>();
+        if (field == null || field.isBlank()) {
+            return digests;
+        }
+        for (String member : field.split(",")) {
+            Matcher matcher = MEMBER.matcher(member.trim());
+            if (!matcher.matches()) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Malformed digest field: " + field);
+            }
+            if (isSupported(matcher.group("key"))) {
+                digests.put(matcher.group("key"), checkBase64(matcher.group("value"), field));
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Parse an RFC 3230 "Digest" field, like {@code SHA-256=X48E9q...=}.
+     *
+     * @param field the field value, may be null
+     * @return the digests of the supported algorithms, by their RFC 9530 key
+     * @throws SwordError if the field is malformed
+     */
+    public static Map<String, String> parseLegacy(final String field) throws SwordError {
+        Map<String, String> digests = new LinkedHashMap<>();
+        if (field == null || field.isBlank()) {
+            return digests;
+        }
+        for (String member : field.split(",")) {
+            int separator = member.indexOf('=');
+            if (separator < 1) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Malformed Digest field: " + field);
+            }
+            String algorithm = member.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+            if (isSupported(algorithm)) {
+                digests.put(algorithm, checkBase64(member.substring(separator + 1).trim(), field));
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Format digests as "Content-Digest" or "Repr-Digest" field.
+     */
+    public static String format(final Map<String, String> digests) {
+        StringBuilder field = new StringBuilder();
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            if (field.length() > 0) {
+                field.append(", ");
+            }
+            field.append(digest.getKey()).append("=:").append(digest.getValue()).append(':');
+        }
+        return field.toString();
+    }
+
+    /**
+     * Select the digests to send for a "Want-Content-Digest" or "Want-Repr-Digest" field, like
+     * {@code sha-512=3, sha-256=10}: the available digest the client prefers most. Without the field, all
+     * available digests are sent.
+     *
+     * @param want the field value, may be null
+     * @param available the digests which are available, by algorithm key
+     * @return the digests to send, which may be empty
+     */
+    public static Map<String, String> select(final String want, final Map<String, String> available) {
+        if (want == null || want.isBlank()) {
+            return available;
+        }
+        String preferred = null;
+        int preferredWeight = 0;
+        for (String member : want.split(",")) {
+            Matcher matcher = WANT.matcher(member.trim());
+            if (!matcher.matches() || !available.containsKey(matcher.group("key"))) {
+                // preferences which cannot be understood or met are ignored
+                continue;
+            }
+            int weight;
+            try {
+                weight = Integer.parseInt(matcher.group("weight"));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (weight > preferredWeight) {
+                preferred = matcher.group("key");
+                preferredWeight = weight;
+            }
+        }
+        return preferred == null ? Map.of() : Map.of(preferred, available.get(preferred));
+    }
+
+    private static String checkBase64(final String value, final String field) throws SwordError {
+        try {
+            Base64.getDecoder().decode(value);
+            return value;
+        } catch (IllegalArgumentException e) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Malformed digest field: " + field);
+        }
+    }
+
+    private static MessageDigest copy(final MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Cannot copy " + digest.getAlgorithm() + " digest of this JVM.", e);
+        }
+    }
+
+    private static MessageDigest newDigest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot load " + algorithm + " digest from this JVM.", e);
+        }
+    }
+}
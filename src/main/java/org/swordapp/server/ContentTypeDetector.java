@@ -0,0 +1,106 @@
+package org.swordapp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Detects the media type of a deposit from the signature at its start (see
+ * {@link SwordConfiguration#detectContentType()}). Only the first bytes are looked at, so this costs next to nothing
+ * compared to storing the deposit; it is no replacement for a full detector like Tika, and only knows the formats
+ * deposits commonly come in.
+ */
+final class ContentTypeDetector implements DepositStreamProcessor {
+    static final String NAME = "content-type";
+
+    // long enough for the tar magic at offset 257
+    private static final int PREFIX_LENGTH = 512;
+    private static final int TAR_OFFSET = 257;
+    private static final int EPUB_OFFSET = 30;
+
+    private static final String ZIP = "application/zip";
+    // an EPUB is a zip archive whose first entry is named "mimetype" and stored, with the media type as content
+    private static final Signature EPUB = new Signature(EPUB_OFFSET, "mimetypeapplication/epub+zip", "application/epub+zip");
+
+    private static final List<Signature> SIGNATURES = List.of(
+        new Signature(0, "PK\u0003\u0004", ZIP),
+        new Signature(0, "PK\u0005\u0006", ZIP),
+        new Signature(0, "\u001f\u008b", "application/gzip"),
+        new Signature(0, "BZh", "application/x-bzip2"),
+        new Signature(0, "7z\u00bc\u00af'\u001c", "application/x-7z-compressed"),
+        new Signature(0, "\u00fd7zXZ\u0000", "application/x-xz"),
+        new Signature(TAR_OFFSET, "ustar", "application/x-tar"),
+        new Signature(0, "%PDF-", "application/pdf"),
+        new Signature(0, "\u0089PNG\r\n\u001a\n", "image/png"),
+        new Signature(0, "\u00ff\u00d8\u00ff", "image/jpeg"),
+        new Signature(0, "GIF87a", "image/gif"),
+        new Signature(0, "GIF89a", "image/gif"),
+        new Signature(0, "II*\u0000", "image/tiff"),
+        new Signature(0, "MM\u0000*", "image/tiff"),
+        new Signature(0, "\u00d0\u00cf\u0011\u00e0\u00a1\u00b1\u001a\u00e1", "application/x-ole-storage"),
+        new Signature(0, "<?xml", "application/xml"),
+        new Signature(0, "\u00ef\u00bb\u00bf<?xml", "application/xml")
+    );
+
+    private final byte[] prefix = new byte[PREFIX_LENGTH];
+    private int length = 0;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void update(final byte[] buffer, final int offset, final int len) {
+        int n = Math.min(len, PREFIX_LENGTH - this.length);
+        if (n > 0) {
+            System.arraycopy(buffer, offset, this.prefix, this.length, n);
+            this.length += n;
+        }
+    }
+
+    /**
+     * @return the detected media type, or null if the signature is unknown
+     */
+    @Override
+    public String finish() {
+        return detect(this.prefix, this.length);
+    }
+
+    /**
+     * Detect the media type from the start of some content.
+     *
+     * @return the detected media type, or null if the signature is unknown
+     */
+    static String detect(final byte[] prefix, final int length) {
+        for (Signature signature : SIGNATURES) {
+            if (signature.matches(prefix, length)) {
+                return ZIP.equals(signature.type) && EPUB.matches(prefix, length) ? EPUB.type : signature.type;
+            }
+        }
+        return null;
+    }
+
+    private static final class Signature {
+        private final byte[] magic;
+        private final int offset;
+        private final String type;
+
+        Signature(final int offset, final String magic, final String type) {
+            this.offset = offset;
+            this.magic = magic.getBytes(StandardCharsets.ISO_8859_1);
+            this.type = type;
+        }
+
+        boolean matches(final byte[] prefix, final int length) {
+            if (this.offset + this.magic.length > length) {
+                return false;
+            }
+            for (int i = 0; i < this.magic.length; i++) {
+                if (prefix[this.offset + i] != this.magic[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -6,6 +6,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class Deposit {
     private SwordEntry entry = null;
@@ -18,7 +26,13 @@ public class Deposit {
     private boolean inProgress = false;
     private boolean metadataRelevant = true;
     private File file = null;
+    private Path spoolDirectory = null;
     private long contentLength = -1L;
+    private TreeDigest treeDigest = null;
+    private Map<String, String> contentDigests = Map.of();
+    private String contentEncoding = null;
+    private Map<String, String> encodedDigests = Map.of();
+    private final Map<String, Object> processorResults = new LinkedHashMap<>();
 
     public Deposit() { }
 
@@ -55,6 +69,87 @@ public class Deposit {
         this.inputStream = null;
     }
 
+    /**
+     * The stored file, see {@link #getFile()}.
+     */
+    public Path getPath() {
+        return file == null ? null : file.toPath();
+    }
+
+    /**
+     * Move the stored file to its place in the repository, and take it over from the library: the deposit no longer
+     * refers to it, so it is not deleted once the deposit is done. If the target is on the same file system as the
+     * spool directory (see {@link #setSpoolDirectory(Path)}), the file is linked to the target and unlinked from the
+     * spool directory, which is as cheap as a rename but, unlike one, never replaces a file created at the target in
+     * the meantime. Otherwise it is copied to a temporary file next to the target first, which is then linked into
+     * place the same way.
+     *
+     * @param target the path to move the file to, which must not exist yet
+     * @return the target
+     * @throws FileAlreadyExistsException if the target exists
+     * @throws IllegalStateException if there is no stored file, e.g. because it has already been moved
+     */
+    public Path moveFile(final Path target) throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("The deposit has no stored file to move");
+        }
+        Path source = file.toPath();
+        if (!link(source, target)) {
+            Path directory = target.toAbsolutePath().getParent();
+            if (directory == null) {
+                // only the root has no parent
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            Path temp = Files.createTempFile(directory, ".sword-", ".tmp");
+            try {
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                if (!link(temp, target)) {
+                    // a file system without hard links: the rename checks for the target first, leaving a short window
+                    Files.move(temp, target);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        Files.delete(source);
+        this.setFile(null);
+        return target;
+    }
+
+    /**
+     * Create a hard link, which fails if the target exists, where a rename may silently replace it.
+     *
+     * @return false if the files are on different file systems, or the file system does not support hard links
+     */
+    private static boolean link(final Path source, final Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The directory to store the content of this deposit in, or null for the configured temp directory.
+     */
+    public Path getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Store the content of this deposit in the given directory rather than the configured temp directory. Managers
+     * set this in their validation hooks, like
+     * {@link CollectionDepositManager#validateNew(String, Deposit, AuthCredentials, SwordConfiguration)}, which are
+     * called before the content is read: a directory on the file system of the repository storage lets them
+     * {@link #moveFile(Path)} the stored file into place without copying it.
+     */
+    public void setSpoolDirectory(final Path spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
     public SwordEntry getSwordEntry() {
         return entry;
     }
@@ -114,6 +209,44 @@ public class Deposit {
         this.md5 = md5;
     }
 
+    /**
+     * The digests of the content by RFC 9530 algorithm key (see {@link ContentDigests}), base64 encoded. These are
+     * the digests sent by the client, and once the content has been stored, the digests computed from it, which
+     * include those of {@link SwordConfiguration#getDigestAlgorithms()} and have been checked against those of the
+     * client.
+     */
+    public Map<String, String> getContentDigests() {
+        return contentDigests;
+    }
+
+    public void setContentDigests(final Map<String, String> contentDigests) {
+        this.contentDigests = Map.copyOf(contentDigests);
+    }
+
+    /**
+     * The content coding the client sent the content with, e.g. "gzip", or null. The content is decoded before
+     * it is stored or handed to the manager.
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public void setContentEncoding(final String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * The digests of the content as sent, with the content coding applied, as sent by the client. They are checked
+     * while the content is decoded.
+     */
+    public Map<String, String> getEncodedDigests() {
+        return encodedDigests;
+    }
+
+    public void setEncodedDigests(final Map<String, String> encodedDigests) {
+        this.encodedDigests = Map.copyOf(encodedDigests);
+    }
+
     public String getPackaging() {
         return packaging;
     }
@@ -145,4 +278,49 @@ public class Deposit {
     public long getContentLength() {
         return contentLength;
     }
+
+    /**
+     * The hash tree of the stored file, if enabled by {@link SwordConfiguration#getTreeDigestChunkSize()}.
+     */
+    public TreeDigest getTreeDigest() {
+        return treeDigest;
+    }
+
+    public void setTreeDigest(final TreeDigest treeDigest) {
+        this.treeDigest = treeDigest;
+    }
+
+    /**
+     * The results of the {@link DepositStreamProcessor}s which processed the content while it was stored, by name.
+     */
+    public Map<String, Object> getProcessorResults() {
+        return Collections.unmodifiableMap(processorResults);
+    }
+
+    /**
+     * The result of the {@link DepositStreamProcessor} with the given name, or null if it has none.
+     */
+    public Object getProcessorResult(final String name) {
+        return processorResults.get(name);
+    }
+
+    public void setProcessorResult(final String name, final Object result) {
+        this.processorResults.put(name, result);
+    }
+
+    /**
+     * The entries of a {@link UriRegistry#PACKAGE_SIMPLE_ZIP} package, if enabled by
+     * {@link SwordConfiguration#inspectZipPackages()}.
+     */
+    public ZipManifest getZipManifest() {
+        return (ZipManifest) processorResults.get(ZipInspector.NAME);
+    }
+
+    /**
+     * The media type detected from the content, if enabled by {@link SwordConfiguration#detectContentType()}, or null
+     * if it could not be detected. Unlike {@link #getMimeType()}, this does not come from the client.
+     */
+    public String getDetectedMimeType() {
+        return (String) processorResults.get(ContentTypeDetector.NAME);
+    }
 }
@@ -0,0 +1,239 @@
+package org.swordapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.http.HttpServletResponse;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Background processing of deposits (see {@link SwordConfiguration#useDeferredDeposits()}). Jobs run on a fixed
+ * number of workers; if all workers are busy, up to a given number of jobs wait in a queue, and further jobs are
+ * refused with "503 Service Unavailable". A place for a job can be taken with {@link #reserveSlot()} before anything is
+ * done which would have to be undone if the job were refused, like reserving a container in the repository.
+ *
+ * <p>The state of each job is tracked under the IRIs of its provisional deposit receipt, so that it can be reported
+ * in the statement with one of the {@code STATE_*} URIs. Finished jobs are forgotten after the retention time.</p>
+ */
+public final class DepositJobs {
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+    public static final long DEFAULT_RETENTION = 3600L;
+
+    public static final String STATE_QUEUED = "urn:org.swordapp.server:state:queued";
+    public static final String STATE_PROCESSING = "urn:org.swordapp.server:state:processing";
+    public static final String STATE_COMPLETED = "urn:org.swordapp.server:state:completed";
+    public static final String STATE_FAILED = "urn:org.swordapp.server:state:failed";
+
+    private static Logger log = LoggerFactory.getLogger(DepositJobs.class);
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    // the places for jobs, running or queued; the executor never has more, so its queue is not bounded itself
+    private final Semaphore slots;
+    private final long retentionNanos;
+    private final Map<String, Status> jobs = new ConcurrentHashMap<>();
+
+    public DepositJobs(final int workers, final int queueSize, final long retention, final TimeUnit unit) {
+        this.retentionNanos = unit.toNanos(retention);
+        this.slots = new Semaphore(workers + queueSize);
+        String prefix = "sword-deposit-" + POOL_COUNT.incrementAndGet() + "-";
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public DepositJobs(final SwordConfiguration config) {
+        this(config.getDepositWorkers(), config.getDepositQueueSize(), config.getDepositJobRetention(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Take a place for a job, to be passed to {@link #submit(Slot, Collection, Supplier, Runnable)}.
+     *
+     * @return the slot, which must be closed if it is not used after all
+     * @throws SwordError with status 503, if all workers are busy and the queue is full
+     */
+    public Slot reserveSlot() throws SwordError {
+        if (!this.slots.tryAcquire()) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "The server is busy processing other deposits, please try again later");
+        }
+        return new Slot();
+    }
+
+    /**
+     * Queue a job. The worker holds on to the job until the stage returned by {@code work} has completed, so that
+     * no more than the given number of deposits are processed at the same time, even by asynchronous managers.
+     *
+     * @param iris the IRIs under which the state of the job is reported
+     * @param work starts the processing of the deposit
+     * @param cleanup run once the job has finished, e.g. to remove temporary files
+     * @throws SwordError with status 503, if the queue is full. The cleanup is not run in this case.
+     */
+    public void submit(final Collection<String> iris, final Supplier<? extends CompletionStage<?>> work, final Runnable cleanup) throws SwordError {
+        this.submit(this.reserveSlot(), iris, work, cleanup);
+    }
+
+    /**
+     * Queue a job in the place taken by {@link #reserveSlot()}, which is released once the job has finished.
+     *
+     * @param slot the slot, which must not have been used or closed before
+     * @param iris the IRIs under which the state of the job is reported
+     * @param work starts the processing of the deposit
+     * @param cleanup run once the job has finished, e.g. to remove temporary files
+     */
+    public void submit(final Slot slot, final Collection<String> iris, final Supplier<? extends CompletionStage<?>> work, final Runnable cleanup) {
+        if (!slot.take()) {
+            throw new IllegalStateException("The slot has already been used or closed");
+        }
+        this.purge();
+
+        Status status = new Status();
+        for (String iri : iris) {
+            this.jobs.put(iri, status);
+        }
+        try {
+            this.executor.execute(() -> {
+                try {
+                    this.run(status, work, cleanup);
+                } finally {
+                    this.slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // only after shutdown
+            this.slots.release();
+            for (String iri : iris) {
+                this.jobs.remove(iri, status);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The state of the job reported under the given IRI.
+     *
+     * @return the state, or null if there is no such job (any more)
+     */
+    public Status getStatus(final String iri) {
+        return this.jobs.get(iri);
+    }
+
+    /**
+     * Stop accepting jobs. Queued jobs are still processed.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    private void run(final Status status, final Supplier<? extends CompletionStage<?>> work, final Runnable cleanup) {
+        status.update(STATE_PROCESSING, "The deposit is being processed");
+        try {
+            work.get().toCompletableFuture().get();
+            status.finish(STATE_COMPLETED, "The deposit has been processed");
+        } catch (ExecutionException e) {
+            this.failed(status, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status.finish(STATE_FAILED, "The processing of the deposit was interrupted");
+        } catch (RuntimeException e) {
+            this.failed(status, e);
+        } finally {
+            cleanup.run();
+        }
+    }
+
+    private void failed(final Status status, final Throwable failure) {
+        Throwable cause = failure;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof SwordError || cause instanceof SwordAuthException) {
+            log.warn("Deferred deposit refused: " + cause.getMessage());
+        } else {
+            log.error("Deferred deposit failed", cause);
+        }
+        status.finish(STATE_FAILED, cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName());
+    }
+
+    private void purge() {
+        long now = System.nanoTime();
+        this.jobs.values().removeIf(status -> status.isExpired(now, this.retentionNanos));
+    }
+
+    /**
+     * A place for a job, taken by {@link #reserveSlot()}.
+     */
+    public final class Slot implements AutoCloseable {
+        private final AtomicBoolean open = new AtomicBoolean(true);
+
+        private Slot() {
+        }
+
+        private boolean take() {
+            return this.open.compareAndSet(true, false);
+        }
+
+        /**
+         * Give the place back, unless a job has been submitted in it.
+         */
+        @Override
+        public void close() {
+            if (this.take()) {
+                DepositJobs.this.slots.release();
+            }
+        }
+    }
+
+    /**
+     * The state of a job, as a URI and a human readable description.
+     */
+    public static final class Status {
+        private volatile String state = STATE_QUEUED;
+        private volatile String description = "The deposit is waiting to be processed";
+        private volatile long finished = 0L;
+        private volatile boolean done = false;
+
+        public String getState() {
+            return this.state;
+        }
+
+        public String getDescription() {
+            return this.description;
+        }
+
+        public boolean isDone() {
+            return this.done;
+        }
+
+        private void update(final String newState, final String newDescription) {
+            this.description = newDescription;
+            this.state = newState;
+        }
+
+        private void finish(final String newState, final String newDescription) {
+            this.finished = System.nanoTime();
+            this.done = true;
+            this.update(newState, newDescription);
+        }
+
+        private boolean isExpired(final long now, final long retention) {
+            return this.done && now - this.finished > retention;
+        }
+    }
+}
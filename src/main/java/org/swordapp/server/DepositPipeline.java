@@ -0,0 +1,332 @@
+package org.swordapp.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fans the buffers of a deposit being stored out to its {@link DepositStreamProcessor}s: in-line processors are called
+ * directly, parallel ones are fed through a bounded queue each, so that a slow processor holds up the upload rather
+ * than filling the heap.
+ *
+ * <p>The queues are drained by a fixed number of threads shared by all deposits, which only work on a queue while it
+ * has buffers, so that idle uploads do not hold a thread each. A blocking upload waits for room in the queues; a
+ * non-blocking one asks {@link #isReady()} before it reads more, and is called back by {@link #whenReady(Runnable)}.</p>
+ */
+final class DepositPipeline {
+    private static final int QUEUE_SIZE = 8;
+    private static final byte[] END = new byte[0];
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * The threads draining the queues, started on first use, or again after {@link #shutdown()}.
+     */
+    private static synchronized ThreadPoolExecutor getWorkers() {
+        if (executor == null || executor.isShutdown()) {
+            executor = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+                1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "sword-deposit-processor");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Stop the threads once the queues scheduled so far are drained, e.g. when the web application is stopped.
+     */
+    static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private final List<DepositStreamProcessor> inline = new ArrayList<>();
+    private final List<Worker> workers = new ArrayList<>();
+    private final AtomicReference<Runnable> waiting = new AtomicReference<>();
+    private boolean done = false;
+
+    DepositPipeline(final List<DepositStreamProcessor> processors) {
+        for (DepositStreamProcessor processor : processors) {
+            if (processor.isParallel()) {
+                this.workers.add(new Worker(processor, this::signalIfReady));
+            } else {
+                this.inline.add(processor);
+            }
+        }
+    }
+
+    /**
+     * Wrap the stream the deposit is stored to, so that everything written to it is processed as well.
+     */
+    OutputStream tee(final OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(final int b) throws IOException {
+                this.write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                this.out.write(b, off, len);
+                DepositPipeline.this.update(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Process the next part of the content.
+     *
+     * @throws RejectedException if a processor refused the deposit
+     */
+    void update(final byte[] buffer, final int offset, final int length) throws IOException {
+        for (DepositStreamProcessor processor : this.inline) {
+            try {
+                processor.update(buffer, offset, length);
+            } catch (SwordError e) {
+                throw new RejectedException(e);
+            }
+        }
+        if (this.workers.isEmpty() || length == 0) {
+            return;
+        }
+        // the buffer is reused by the caller, the copy is shared by all workers
+        byte[] copy = Arrays.copyOfRange(buffer, offset, offset + length);
+        for (Worker worker : this.workers) {
+            worker.put(copy);
+        }
+    }
+
+    /**
+     * Whether the parallel processors can take the next buffer, i.e. whether {@link #update(byte[], int, int)} returns
+     * without waiting for them.
+     */
+    boolean isReady() {
+        for (Worker worker : this.workers) {
+            if (!worker.hasRoom()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Call back once the pipeline {@link #isReady() is ready} again, on the thread of the processor which made room,
+     * or right away if it is ready already. Only the callback given last is called, and only once.
+     */
+    void whenReady(final Runnable callback) {
+        this.waiting.set(callback);
+        this.signalIfReady();
+    }
+
+    private void signalIfReady() {
+        if (this.waiting.get() != null && this.isReady()) {
+            Runnable callback = this.waiting.getAndSet(null);
+            if (callback != null) {
+                callback.run();
+            }
+        }
+    }
+
+    /**
+     * Wait for all processors to finish, and attach their results to the deposit.
+     */
+    void finish(final Deposit deposit) throws SwordError, SwordServerException {
+        this.done = true;
+        Throwable failure = null;
+        for (DepositStreamProcessor processor : this.inline) {
+            try {
+                if (failure == null) {
+                    deposit.setProcessorResult(processor.getName(), processor.finish());
+                } else {
+                    processor.abort();
+                }
+            } catch (IOException | SwordError e) {
+                failure = e;
+            }
+        }
+        for (Worker worker : this.workers) {
+            worker.end();
+        }
+        for (Worker worker : this.workers) {
+            try {
+                Object result = worker.result.get();
+                if (failure == null) {
+                    deposit.setProcessorResult(worker.processor.getName(), result);
+                }
+            } catch (ExecutionException e) {
+                failure = failure != null ? failure : e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.workers.forEach(Worker::cancel);
+                throw new SwordServerException(e);
+            }
+        }
+        if (failure instanceof SwordError) {
+            throw (SwordError) failure;
+        } else if (failure != null) {
+            throw new SwordServerException(failure);
+        }
+    }
+
+    /**
+     * Stop all processors, as the deposit has failed.
+     */
+    void abort() {
+        if (this.done) {
+            return;
+        }
+        this.done = true;
+        for (DepositStreamProcessor processor : this.inline) {
+            processor.abort();
+        }
+        for (Worker worker : this.workers) {
+            worker.cancel();
+        }
+    }
+
+    /**
+     * Thrown by {@link #update(byte[], int, int)} when a processor refuses the deposit.
+     */
+    static final class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final SwordError error;
+
+        RejectedException(final SwordError error) {
+            super(error.getMessage(), error);
+            this.error = error;
+        }
+
+        SwordError getError() {
+            return this.error;
+        }
+    }
+
+    /**
+     * Feeds a parallel processor. A task draining the queue is scheduled whenever there are buffers and none is
+     * scheduled yet; it gives up its thread after a queue's worth of buffers, so that busy uploads take turns.
+     */
+    private static final class Worker implements Runnable {
+        private final DepositStreamProcessor processor;
+        private final Runnable onTaken;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean cancelled = false;
+        // only used by the draining task, of which there is one at a time
+        private boolean failed = false;
+
+        Worker(final DepositStreamProcessor processor, final Runnable onTaken) {
+            this.processor = processor;
+            this.onTaken = onTaken;
+        }
+
+        boolean hasRoom() {
+            return this.queue.remainingCapacity() > 0;
+        }
+
+        void put(final byte[] buffer) throws RejectedException {
+            // a processor which has already refused the deposit fails the upload as early as possible
+            if (this.result.isCompletedExceptionally()) {
+                try {
+                    this.result.join();
+                } catch (RuntimeException e) {
+                    if (e.getCause() instanceof SwordError) {
+                        throw new RejectedException((SwordError) e.getCause());
+                    }
+                }
+            }
+            try {
+                this.queue.put(buffer);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.cancel();
+                return;
+            }
+            this.schedule();
+        }
+
+        void end() {
+            try {
+                this.queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.cancel();
+                return;
+            }
+            this.schedule();
+        }
+
+        void cancel() {
+            this.cancelled = true;
+            // make room for the end marker, even if the upload keeps putting buffers in the meantime
+            do {
+                this.queue.clear();
+            } while (!this.queue.offer(END));
+            this.schedule();
+        }
+
+        private void schedule() {
+            if (this.scheduled.compareAndSet(false, true)) {
+                getWorkers().execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < QUEUE_SIZE; i++) {
+                byte[] buffer = this.queue.poll();
+                if (buffer == null) {
+                    break;
+                }
+                this.onTaken.run();
+                if (buffer == END) {
+                    // stays scheduled, so that nothing runs after the end
+                    this.complete(this.failed || this.cancelled);
+                    return;
+                }
+                if (!this.failed && !this.cancelled) {
+                    try {
+                        this.processor.update(buffer, 0, buffer.length);
+                    } catch (Throwable e) {
+                        // keep taking buffers, so that the upload is not blocked until it notices
+                        this.failed = true;
+                        this.result.completeExceptionally(e);
+                    }
+                }
+            }
+            this.scheduled.set(false);
+            // buffers put after the last poll, or left by the turn being over
+            if (!this.queue.isEmpty()) {
+                this.schedule();
+            }
+        }
+
+        private void complete(final boolean aborted) {
+            try {
+                if (aborted) {
+                    this.processor.abort();
+                    this.result.cancel(false);
+                } else {
+                    this.result.complete(this.processor.finish());
+                }
+            } catch (Throwable e) {
+                this.result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -8,10 +8,12 @@ import org.apache.abdera.model.Link;
 
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class DepositReceipt {
     private List<String> packagingFormats = new ArrayList<>();
@@ -205,6 +207,10 @@ public class DepositReceipt {
         this.statements.put(statement, type);
     }
 
+    public Set<String> getStatementURIs() {
+        return Collections.unmodifiableSet(this.statements.keySet());
+    }
+
     public Element addSimpleExtension(final QName qname, final String value) {
         return this.entry.addSimpleExtension(qname, value);
     }
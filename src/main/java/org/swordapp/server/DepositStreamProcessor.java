@@ -0,0 +1,51 @@
+package org.swordapp.server;
+
+import java.io.IOException;
+
+/**
+ * Processes the content of a binary deposit in the same pass in which it is stored, like a format sniffer, a virus
+ * scanner or a package parser, so that it need not read the stored file again. The processors for a deposit are
+ * created by {@link SwordConfiguration#getDepositStreamProcessors(Deposit)}, and their results are attached to the
+ * deposit by their name (see {@link Deposit#getProcessorResult(String)}).
+ *
+ * <p>A processor sees the content as it is stored, i.e. after any content coding has been decoded. It is called from
+ * one thread at a time: in-line from the thread storing the deposit, or from a pool of worker threads if it
+ * {@link #isParallel() is parallel}.</p>
+ */
+public interface DepositStreamProcessor {
+
+    /**
+     * The key under which the result is attached to the deposit.
+     */
+    String getName();
+
+    /**
+     * Whether the processor runs on a pool of worker threads, fed through a bounded queue, rather than in-line.
+     * Worthwhile for processors which are about as expensive per byte as storing the content, like decompression or
+     * scanning; each buffer is copied for them.
+     */
+    default boolean isParallel() {
+        return false;
+    }
+
+    /**
+     * Process the next part of the content.
+     *
+     * @throws SwordError to refuse the deposit, e.g. because the content is malformed
+     */
+    void update(byte[] buffer, int offset, int length) throws IOException, SwordError;
+
+    /**
+     * Called once all of the content has been processed.
+     *
+     * @return the result to attach to the deposit, may be null
+     * @throws SwordError to refuse the deposit, e.g. because the content is incomplete
+     */
+    Object finish() throws IOException, SwordError;
+
+    /**
+     * Called instead of {@link #finish()} when the deposit has failed, to release any resources.
+     */
+    default void abort() {
+    }
+}
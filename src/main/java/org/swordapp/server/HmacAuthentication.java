@@ -0,0 +1,356 @@
+package org.swordapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stateless authentication schemes, which are verified with a shared secret (see
+ * {@link SwordConfiguration#getSigningKey(String)}) and thus need no round-trip to an identity service.
+ *
+ * <p>Bearer tokens are sent as {@code Authorization: Bearer <token>}, where the token is
+ * {@code base64url(keyId) "." base64url(subject) "." expiry "." base64url(signature)}. The expiry is given in
+ * seconds since the epoch, the signature is the HMAC-SHA256 of everything before the last dot. Use
+ * {@link #issueBearerToken(String, byte[], String, long)} to create such tokens.</p>
+ *
+ * <p>Signed requests are sent as {@code Authorization: HMAC <keyId>:<timestamp>:<signature>}, where the timestamp
+ * is given in seconds since the epoch and the signature is the base64 encoded HMAC-SHA256 of the request method,
+ * the request URI including the query string, the timestamp, the Content-MD5 and the On-Behalf-Of header (empty if
+ * absent), and the Content-Digest header if present, each followed by a newline. Use
+ * {@link #signRequest(byte[], String, String, long, String, String, String)} to compute the signature. Requests are
+ * accepted for {@link SwordConfiguration#getMaxSignatureAge()} seconds. Requests with a body must sign its Content-MD5
+ * or Content-Digest, against which the body is checked (see {@link SignedBody}). A signature of a request which
+ * changes anything (i.e. other than GET, HEAD and OPTIONS) is only accepted once, so that a captured request cannot be
+ * replayed within the time window.</p>
+ */
+public final class HmacAuthentication {
+    public static final long DEFAULT_MAX_SIGNATURE_AGE = 300L;
+
+    private static Logger log = LoggerFactory.getLogger(HmacAuthentication.class);
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int TOKEN_PARTS = 4;
+    private static final int MILLIS = 1000;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String SIGNED_BODY_ATTRIBUTE = HmacAuthentication.class.getName() + ".signedBody";
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+
+    // signatures of unsafe requests accepted within the time window, with the time (in seconds) they expire
+    private static final Map<String, Long> SEEN = new ConcurrentHashMap<>();
+    private static final int SWEEP_THRESHOLD = 10000;
+    private static final AtomicLong LAST_SWEEP = new AtomicLong();
+
+    // Utility class - hiding default constructor.
+    private HmacAuthentication() { }
+
+    /**
+     * Create a bearer token for the given subject, signed with the given key.
+     *
+     * @param keyId the id under which the verifying server finds the key
+     * @param key the shared secret
+     * @param subject the principal the token is issued to
+     * @param expires expiry of the token in seconds since the epoch
+     */
+    public static String issueBearerToken(final String keyId, final byte[] key, final String subject, final long expires) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String payload = encoder.encodeToString(keyId.getBytes(StandardCharsets.UTF_8)) + "."
+            + encoder.encodeToString(subject.getBytes(StandardCharsets.UTF_8)) + "." + expires;
+        return payload + "." + encoder.encodeToString(mac(key, payload));
+    }
+
+    /**
+     * Verify a bearer token and return its subject.
+     *
+     * @throws SwordAuthException (asking the client to retry) if the token is malformed, signed with an unknown
+     *                            key, has an invalid signature or has expired.
+     */
+    public static String verifyBearerToken(final String token, final SwordConfiguration config) throws SwordAuthException {
+        String[] parts = token.trim().split("\\.");
+        if (parts.length != TOKEN_PARTS) {
+            throw rejected("Malformed bearer token");
+        }
+
+        String keyId;
+        String subject;
+        long expires;
+        byte[] signature;
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            keyId = new String(decoder.decode(parts[0]), StandardCharsets.UTF_8);
+            subject = new String(decoder.decode(parts[1]), StandardCharsets.UTF_8);
+            expires = Long.parseLong(parts[2]);
+            signature = decoder.decode(parts[TOKEN_PARTS - 1]);
+        } catch (IllegalArgumentException e) {
+            throw rejected("Malformed bearer token");
+        }
+
+        byte[] key = config.getSigningKey(keyId);
+        if (key == null) {
+            throw rejected("Bearer token signed with unknown key " + keyId);
+        }
+        String payload = parts[0] + "." + parts[1] + "." + parts[2];
+        if (!MessageDigest.isEqual(mac(key, payload), signature)) {
+            throw rejected("Invalid bearer token signature for key " + keyId);
+        }
+        if (expires < System.currentTimeMillis() / MILLIS) {
+            throw rejected("Expired bearer token for " + subject);
+        }
+        return subject;
+    }
+
+    /**
+     * Compute the signature of a request for the HMAC scheme.
+     *
+     * @param key the shared secret
+     * @param method the HTTP method, e.g. "POST"
+     * @param requestUri the request URI (path and query string, without scheme and host)
+     * @param timestamp the time of signing in seconds since the epoch
+     * @param contentMd5 the Content-MD5 header of the request, may be null
+     * @param onBehalfOf the On-Behalf-Of header of the request, may be null
+     * @return the base64 encoded signature
+     */
+    public static String signRequest(final byte[] key, final String method, final String requestUri, final long timestamp,
+                                     final String contentMd5, final String onBehalfOf) {
+        return signRequest(key, method, requestUri, timestamp, contentMd5, null, onBehalfOf);
+    }
+
+    /**
+     * Compute the signature of a request for the HMAC scheme, which may carry a Content-Digest.
+     *
+     * @param contentDigest the Content-Digest header of the request, may be null
+     * @see #signRequest(byte[], String, String, long, String, String)
+     */
+    public static String signRequest(final byte[] key, final String method, final String requestUri, final long timestamp,
+                                     final String contentMd5, final String contentDigest, final String onBehalfOf) {
+        String stringToSign = method.toUpperCase() + "\n" + requestUri + "\n" + timestamp + "\n"
+            + (contentMd5 == null ? "" : contentMd5) + "\n" + (onBehalfOf == null ? "" : onBehalfOf) + "\n"
+            + (contentDigest == null ? "" : contentDigest + "\n");
+        return Base64.getEncoder().encodeToString(mac(key, stringToSign));
+    }
+
+    /**
+     * Verify the credentials of the HMAC scheme for the given request and return the id of the signing key. If the
+     * request has a body, it must have signed a digest of it; the body is then to be read through
+     * {@link #getSignedBody(HttpServletRequest, InputStream)}, unless it is checked against the digests otherwise.
+     *
+     * @param credentials the part of the Authorization header after the scheme, i.e. "keyId:timestamp:signature"
+     * @throws SwordAuthException (asking the client to retry) if the credentials are malformed, signed with an
+     *                            unknown key, have an invalid signature, are too old or have been used before, or
+     *                            the request has a body without a signed digest.
+     */
+    public static String verifyRequestSignature(final String credentials, final HttpServletRequest req, final SwordConfiguration config)
+            throws SwordAuthException {
+        String uri = req.getRequestURI();
+        if (req.getQueryString() != null && !"".equals(req.getQueryString())) {
+            uri += "?" + req.getQueryString();
+        }
+        String contentMd5 = req.getHeader("Content-MD5");
+        String contentDigest = req.getHeader("Content-Digest");
+        String keyId = verifyRequestSignature(credentials, req.getMethod(), uri, contentMd5, contentDigest, req.getHeader("On-Behalf-Of"), config);
+
+        if (req.getContentLengthLong() > 0 || req.getHeader("Transfer-Encoding") != null) {
+            Map<String, String> digests;
+            try {
+                digests = ContentDigests.parse(contentDigest);
+            } catch (SwordError e) {
+                throw rejected("Malformed Content-Digest in request signed with key " + keyId);
+            }
+            if (contentMd5 == null && digests.isEmpty()) {
+                throw rejected("Request signed with key " + keyId + " has a body, but no signed Content-MD5 or Content-Digest");
+            }
+            req.setAttribute(SIGNED_BODY_ATTRIBUTE, Boolean.TRUE);
+        }
+        return keyId;
+    }
+
+    static String verifyRequestSignature(final String credentials, final String method, final String requestUri, final String contentMd5,
+                                         final String contentDigest, final String onBehalfOf, final SwordConfiguration config)
+            throws SwordAuthException {
+        // the key id may contain colons, the timestamp and signature may not
+        String trimmed = credentials.trim();
+        int sigSep = trimmed.lastIndexOf(':');
+        int tsSep = sigSep > 0 ? trimmed.lastIndexOf(':', sigSep - 1) : -1;
+        if (tsSep <= 0) {
+            throw rejected("Malformed HMAC credentials");
+        }
+        String keyId = trimmed.substring(0, tsSep);
+        String signature = trimmed.substring(sigSep + 1);
+        long timestamp;
+        try {
+            timestamp = Long.parseLong(trimmed.substring(tsSep + 1, sigSep));
+        } catch (NumberFormatException e) {
+            throw rejected("Malformed HMAC credentials");
+        }
+
+        byte[] key = config.getSigningKey(keyId);
+        if (key == null) {
+            throw rejected("Request signed with unknown key " + keyId);
+        }
+        String expected = signRequest(key, method, requestUri, timestamp, contentMd5, contentDigest, onBehalfOf);
+        if (!MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII), signature.getBytes(StandardCharsets.US_ASCII))) {
+            throw rejected("Invalid request signature for key " + keyId);
+        }
+        long now = System.currentTimeMillis() / MILLIS;
+        if (Math.abs(now - timestamp) > config.getMaxSignatureAge()) {
+            throw rejected("Request signature for key " + keyId + " is outside the accepted time window");
+        }
+        if (!SAFE_METHODS.contains(method.toUpperCase())) {
+            sweepIfFull(now);
+            // the signature is rejected by the time window once it expires
+            if (SEEN.putIfAbsent(keyId + ":" + signature, timestamp + config.getMaxSignatureAge()) != null) {
+                throw rejected("Replayed request signature for key " + keyId);
+            }
+        }
+        return keyId;
+    }
+
+    private static void sweepIfFull(final long now) {
+        long last = LAST_SWEEP.get();
+        if (SEEN.size() >= SWEEP_THRESHOLD && now > last && LAST_SWEEP.compareAndSet(last, now)) {
+            SEEN.values().removeIf(expires -> expires < now);
+        }
+    }
+
+    /**
+     * The body of the request, which is checked against the digests signed by the client if the request has been
+     * verified by {@link #verifyRequestSignature(String, HttpServletRequest, SwordConfiguration)}.
+     *
+     * @param in the body of the request
+     * @return a {@link SignedBody} reading the given stream, or else the stream itself
+     */
+    static InputStream getSignedBody(final HttpServletRequest req, final InputStream in) throws SwordError {
+        return getSignedBody(req, in, true);
+    }
+
+    /**
+     * Like {@link #getSignedBody(HttpServletRequest, InputStream)}, for a body whose Content-MD5 may refer to the
+     * decoded content (see {@link SwordConfiguration#checksumEncodedContent()}) and is then left to be checked by the
+     * manager. The Content-Digest always refers to the content as sent.
+     *
+     * @param checkMd5 whether the Content-MD5 refers to the body as sent
+     */
+    static InputStream getSignedBody(final HttpServletRequest req, final InputStream in, final boolean checkMd5) throws SwordError {
+        if (req.getAttribute(SIGNED_BODY_ATTRIBUTE) == null) {
+            return in;
+        }
+        return new SignedBody(in, checkMd5 ? req.getHeader("Content-MD5") : null, ContentDigests.parse(req.getHeader("Content-Digest")));
+    }
+
+    /**
+     * Check the rest of a body returned by {@link #getSignedBody(HttpServletRequest, InputStream)}, if it is signed.
+     *
+     * @throws SwordError {@link UriRegistry#ERROR_CHECKSUM_MISMATCH} if the body does not match the signed digests
+     */
+    static void verifySignedBody(final InputStream in) throws SwordError, IOException {
+        if (in instanceof SignedBody) {
+            ((SignedBody) in).verify();
+        }
+    }
+
+    private static SwordAuthException rejected(final String message) {
+        log.warn(message);
+        return new SwordAuthException(true);
+    }
+
+    /**
+     * The body of a signed request, which is hashed while it is read and checked against the signed digests: once it
+     * has been read to the end, or when {@link #verify()} is called. A mismatch at the end of the stream fails the
+     * read with an {@link IOException}, so that a manager reading it does not take it for complete.
+     */
+    static final class SignedBody extends FilterInputStream {
+        private final String expectedMd5;
+        private final Map<String, String> expected;
+        private final ContentDigests digests;
+        private boolean checked = false;
+
+        SignedBody(final InputStream in, final String expectedMd5, final Map<String, String> expected) {
+            super(in);
+            this.expectedMd5 = expectedMd5;
+            this.expected = expected;
+            this.digests = new ContentDigests(expected.keySet());
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) == -1 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            int n = this.in.read(b, off, len);
+            if (n > 0) {
+                this.digests.update(b, off, n);
+            } else if (n == -1) {
+                try {
+                    this.check();
+                } catch (SwordError e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int read = this.read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Read the rest of the body, and check it.
+         *
+         * @throws SwordError {@link UriRegistry#ERROR_CHECKSUM_MISMATCH} if the body does not match
+         */
+        void verify() throws SwordError, IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n = this.in.read(buffer);
+            while (n != -1) {
+                this.digests.update(buffer, 0, n);
+                n = this.in.read(buffer);
+            }
+            this.check();
+        }
+
+        private void check() throws SwordError {
+            if (this.checked) {
+                return;
+            }
+            this.checked = true;
+            if (this.expectedMd5 != null && !this.expectedMd5.equalsIgnoreCase(this.digests.getMd5())) {
+                throw new SwordError(UriRegistry.ERROR_CHECKSUM_MISMATCH, "The body of the request does not match its signed Content-MD5");
+            }
+            this.digests.verify(this.expected);
+        }
+    }
+
+    private static byte[] mac(final byte[] key, final String data) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            // every JVM is required to support HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.swordapp.server;
+
+/**
+ * Remembers the outcome of deposits sent with an "Idempotency-Key" header, so that a client retrying a deposit
+ * (e.g. after a timeout) gets the receipt of the first attempt instead of creating a duplicate. The keys passed in
+ * are opaque hashes of the principal, the request method and IRI and the header value.
+ *
+ * <p>The default {@link InMemoryIdempotencyStore} only works for a single server; implement this interface on a
+ * shared store (a database, a cache cluster) if deposits are load balanced over several servers. Implementations
+ * must be thread safe.</p>
+ */
+public interface IdempotencyStore {
+    /**
+     * Claim a key for a deposit which is about to be processed. This must be atomic: of several concurrent claims
+     * for the same key, only one may succeed.
+     *
+     * @return true if the key was claimed, false if it is already claimed or has a stored receipt
+     */
+    boolean claim(String key);
+
+    /**
+     * The receipt stored for a key.
+     *
+     * @return the receipt, or null if there is none (yet)
+     */
+    StoredReceipt get(String key);
+
+    /**
+     * Store the receipt for a claimed key, once the deposit has been processed.
+     */
+    void store(String key, StoredReceipt receipt);
+
+    /**
+     * Release a claimed key without a receipt, because the deposit failed and may be retried.
+     */
+    void release(String key);
+}
@@ -0,0 +1,84 @@
+package org.swordapp.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link IdempotencyStore} keeping keys in memory. Keys expire after the given time to live, whether the deposit
+ * has completed or not; if the store is full, the least recently used key is evicted.
+ */
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final long ttlNanos;
+    private final Map<String, StoreEntry> entries;
+
+    public InMemoryIdempotencyStore(final long ttl, final TimeUnit unit, final int maxSize) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<String, StoreEntry>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, StoreEntry> eldest) {
+                return super.size() > maxSize;
+            }
+        };
+    }
+
+    public boolean claim(final String key) {
+        long now = System.nanoTime();
+        synchronized (this.entries) {
+            StoreEntry entry = this.entries.get(key);
+            if (entry != null && now - entry.expires < 0) {
+                return false;
+            }
+            this.entries.put(key, new StoreEntry(null, now + this.ttlNanos));
+            return true;
+        }
+    }
+
+    public StoredReceipt get(final String key) {
+        long now = System.nanoTime();
+        synchronized (this.entries) {
+            StoreEntry entry = this.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (now - entry.expires >= 0) {
+                this.entries.remove(key);
+                return null;
+            }
+            return entry.receipt;
+        }
+    }
+
+    public void store(final String key, final StoredReceipt receipt) {
+        synchronized (this.entries) {
+            this.entries.put(key, new StoreEntry(receipt, System.nanoTime() + this.ttlNanos));
+        }
+    }
+
+    public void release(final String key) {
+        synchronized (this.entries) {
+            this.entries.remove(key);
+        }
+    }
+
+    int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    private static final class StoreEntry {
+        private final StoredReceipt receipt;
+        private final long expires;
+
+        StoreEntry(final StoredReceipt receipt, final long expires) {
+            this.receipt = receipt;
+            this.expires = expires;
+        }
+    }
+}
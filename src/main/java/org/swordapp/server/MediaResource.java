@@ -2,6 +2,7 @@ package org.swordapp.server;
 
 import java.io.InputStream;
 import java.util.Date;
+import java.util.Map;
 
 public class MediaResource {
     private String packaging = UriRegistry.PACKAGE_SIMPLE_ZIP;
@@ -9,6 +10,7 @@ public class MediaResource {
     private InputStream inputStream = null;
     private boolean unpackaged = false;
     private String contentMD5;
+    private Map<String, String> digests = Map.of();
     private Date lastModified;
 
     public MediaResource(final InputStream in, final String contentType, final String packaging) {
@@ -30,6 +32,19 @@ public class MediaResource {
         this.contentMD5 = contentMD5;
     }
 
+    /**
+     * The digests of the representation by RFC 9530 algorithm key (see {@link ContentDigests}), base64 encoded.
+     * They are sent as "Repr-Digest", as far as the client wants them, and should have been computed in advance,
+     * e.g. from {@link Deposit#getContentDigests()} when the resource was deposited.
+     */
+    public Map<String, String> getDigests() {
+        return digests;
+    }
+
+    public void setDigests(final Map<String, String> digests) {
+        this.digests = Map.copyOf(digests);
+    }
+
     public Date getLastModified() {
         return lastModified == null ? null : new Date(lastModified.getTime());
     }
@@ -12,18 +12,33 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 public class MediaResourceAPI extends SwordAPIEndpoint {
     private static Logger log = LoggerFactory.getLogger(MediaResourceAPI.class);
 
+    /** The media resource manager, or a blocking view of it if it is asynchronous. */
     protected final MediaResourceManager mrm;
+    /** The media resource manager the requests are served with. */
+    protected final AsyncMediaResourceManager asyncMrm;
 
     public MediaResourceAPI(final MediaResourceManager mrm, final SwordConfiguration config) {
+        this(mrm, AsyncManagers.adapt(mrm), config);
+    }
+
+    public MediaResourceAPI(final AsyncMediaResourceManager mrm, final SwordConfiguration config) {
+        this(AsyncManagers.blocking(mrm), mrm, config);
+    }
+
+    private MediaResourceAPI(final MediaResourceManager mrm, final AsyncMediaResourceManager asyncMrm, final SwordConfiguration config) {
         super(config);
         this.mrm = mrm;
+        this.asyncMrm = asyncMrm;
     }
 
     public void get(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
@@ -49,8 +64,7 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
             log.debug("Authentication Credentials extracted: " + auth.getUsername() + " obo: " + auth.getOnBehalfOf());
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -58,17 +72,19 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
-        try {
-            // get all of the Accept- headers out for content negotiation
-            Map<String, String> acceptHeaders = this.getAcceptHeaders(req);
-
-            // get the original request URI
-            String editMediaURI = this.getFullUrl(req);
+        // get all of the Accept- headers out for content negotiation
+        Map<String, String> acceptHeaders = this.getAcceptHeaders(req);
 
-            // delegate to the implementation to get the resource representation
-            MediaResource resource = this.mrm.getMediaResourceRepresentation(editMediaURI, acceptHeaders, auth, this.config);
+        // get the original request URI
+        String editMediaURI = this.getFullUrl(req);
 
+        // delegate to the implementation to get the resource representation
+        CompletionStage<MediaResource> stage = this.asyncMrm.getMediaResourceRepresentation(editMediaURI, acceptHeaders, auth, this.config);
+        this.respond(req, resp, null, stage, resource -> {
             // now deliver the resource representation to the client
 
             // if this is a packaged resource, then write the package header
@@ -97,7 +113,22 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
             String md5 = resource.getContentMD5();
             resp.setHeader("Content-MD5", md5);
 
-            if (sendBody) {
+            // the body is sent without content coding, so the representation digests are the content digests too
+            Map<String, String> reprDigests = ContentDigests.select(req.getHeader("Want-Repr-Digest"), resource.getDigests());
+            if (!reprDigests.isEmpty()) {
+                resp.setHeader("Repr-Digest", ContentDigests.format(reprDigests));
+            }
+            if (req.getHeader("Want-Content-Digest") != null) {
+                Map<String, String> contentDigests = ContentDigests.select(req.getHeader("Want-Content-Digest"), resource.getDigests());
+                if (!contentDigests.isEmpty()) {
+                    resp.setHeader("Content-Digest", ContentDigests.format(contentDigests));
+                }
+            }
+
+            if (sendBody && this.config.useAsyncDownloads() && req.isAsyncSupported() && !req.isAsyncStarted()) {
+                // the body is written whenever the client can take more, without holding this thread
+                AsyncDelivery.start(req, resource.getInputStream());
+            } else if (sendBody) {
                 OutputStream out = resp.getOutputStream();
                 try (
                     InputStream in = resource.getInputStream();
@@ -110,19 +141,14 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
                     throw e;
                 }
             }
-        } catch (SwordError se) {
-            this.swordError(req, resp, se);
-            return;
-        } catch (SwordServerException e) {
-            throw new ServletException(e);
-        } catch (SwordAuthException e) {
-            // authentication actually failed at the server end; not a SwordError, but
-            // need to throw a 403 Forbidden
-            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
-        }
+        });
     }
 
     public void head(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        if (this.isUploadRequest(req)) {
+            this.upload(req, resp);
+            return;
+        }
         this.get(req, resp, false);
     }
 
@@ -130,14 +156,19 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
         // let the superclass prepare the request/response objects
         super.put(req, resp);
 
+        // requests on a resumable upload session
+        if (this.isUploadRequest(req)) {
+            this.upload(req, resp);
+            return;
+        }
+
         // do the initial authentication
         AuthCredentials auth = null;
         try {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -145,6 +176,9 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
         Deposit deposit = null;
 
@@ -152,16 +186,27 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
             String editMediaIRI = this.getFullUrl(req);
             deposit = new Deposit();
 
-            // add the properties from the binary deposit
-            this.addDepositPropertiesFromBinary(deposit, req);
-
-            // now fire the deposit object into the implementation
-            DepositReceipt receipt = this.mrm.replaceMediaResource(editMediaIRI, deposit, auth, this.config);
-
-            // no response is expected, if no errors get thrown we just return a success: 204 No Content
-            // and the appropriate location header
-            resp.setHeader("Location", receipt.getLocation().toString());
-            resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            // add the properties from the binary deposit, checking them before we read the body
+            this.addDepositPropertiesFromHeaders(deposit, req);
+            if (!AsyncSpool.isSpooled(req)) {
+                this.asyncMrm.validateReplaceMediaResource(editMediaIRI, deposit, auth, this.config);
+            }
+            if (this.spoolAsync(req, deposit)) {
+                // the body is read in the background, and this request dispatched again once it is complete
+                return;
+            }
+            this.addDepositContentFromBinary(deposit, req);
+
+            // now fire the deposit object into the implementation; the response takes care of it from here on
+            CompletionStage<DepositReceipt> stage = this.asyncMrm.replaceMediaResource(editMediaIRI, deposit, auth, this.config);
+            Deposit submitted = deposit;
+            deposit = null;
+            this.respond(req, resp, submitted, stage, receipt -> {
+                // no response is expected, if no errors get thrown we just return a success: 204 No Content
+                // and the appropriate location header
+                resp.setHeader("Location", receipt.getLocation().toString());
+                resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            });
         } catch (SwordError se) {
             // get rid of any temp files used
             this.cleanup(deposit);
@@ -186,14 +231,19 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
         // let the superclass prepare the request/response objects
         super.post(req, resp);
 
+        // requests on a resumable upload session
+        if (this.isUploadRequest(req)) {
+            this.upload(req, resp);
+            return;
+        }
+
         // do the initial authentication
         AuthCredentials auth = null;
         try {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -201,41 +251,59 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
         Deposit deposit = null;
+        String idempotencyKey = null;
         try {
+            // a retried deposit gets the receipt of the first attempt, without reading the body again
+            String key = this.getIdempotencyKey(req, auth);
+            if (key != null) {
+                StoredReceipt stored = this.claimIdempotencyKey(req, key);
+                if (stored != null) {
+                    this.writeStoredReceipt(req, resp, stored, false);
+                    return;
+                }
+                idempotencyKey = key;
+            }
+
             deposit = new Deposit();
 
             if (this.getContentType(req).startsWith("multipart/related")) {
                 throw new SwordError(UriRegistry.ERROR_METHOD_NOT_ALLOWED, "This server does not support RFC2387 Multipart uploads, to be removed in SWORD v2.1");
-            } else {
-                this.addDepositPropertiesFromBinary(deposit, req);
             }
 
             // this method has a special header (Metadata-Relevant) which we need to pull out
             boolean metadataRelevant = this.getMetadataRelevant(req);
             deposit.setMetadataRelevant(metadataRelevant);
 
-            // now send the deposit to the implementation for processing
-            DepositReceipt receipt = this.mrm.addResource(this.getFullUrl(req), deposit, auth, this.config);
-
-            // prepare and return the response
-            IRI location = receipt.getLocation();
-            if (location == null) {
-                throw new SwordServerException("No Edit-IRI found in Deposit Receipt; unable to send valid response");
+            // add the properties from the binary deposit, checking them before we read the body
+            String editMediaIRI = this.getFullUrl(req);
+            this.addDepositPropertiesFromHeaders(deposit, req);
+            if (!AsyncSpool.isSpooled(req)) {
+                this.asyncMrm.validateAddResource(editMediaIRI, deposit, auth, this.config);
             }
-
-            resp.setStatus(HttpServletResponse.SC_CREATED); // Created
-            if (this.config.returnDepositReceipt() && !receipt.isEmpty()) {
-                this.addGenerator(receipt, this.config);
-                resp.setHeader("Content-Type", "application/atom+xml;type=entry");
-                resp.setHeader("Location", location.toString());
-                Entry responseEntry = receipt.getAbderaEntry();
-                responseEntry.writeTo(resp.getWriter());
-                resp.getWriter().flush();
-            } else {
-                resp.setHeader("Location", location.toString());
+            if (this.spoolAsync(req, deposit)) {
+                // the body is read in the background, and this request dispatched again once it is complete
+                idempotencyKey = null;
+                return;
             }
+            this.addDepositContentFromBinary(deposit, req);
+
+            // now send the deposit to the implementation for processing; the response takes care of it from here on
+            CompletionStage<StoredReceipt> stage = this.rememberReceipt(idempotencyKey, this.asyncMrm.addResource(editMediaIRI, deposit, auth, this.config),
+                receipt -> {
+                    if (this.config.returnDepositReceipt() && !receipt.isEmpty()) {
+                        this.addGenerator(receipt, this.config);
+                    }
+                    return this.renderDepositReceipt(receipt, HttpServletResponse.SC_CREATED);
+                });
+            idempotencyKey = null;
+            Deposit submitted = deposit;
+            deposit = null;
+            this.respond(req, resp, submitted, stage, rendered -> this.writeStoredReceipt(req, resp, rendered));
         } catch (SwordError se) {
             // get rid of any temp files used
             this.cleanup(deposit);
@@ -253,6 +321,9 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
         } finally {
             // get rid of any temp files used
             this.cleanup(deposit);
+
+            // let a retry process the deposit, if it did not reach the manager
+            this.releaseIdempotencyKey(idempotencyKey);
         }
     }
 
@@ -260,14 +331,19 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
         // let the superclass prepare the request/response objects
         super.delete(req, resp);
 
+        // requests on a resumable upload session
+        if (this.isUploadRequest(req)) {
+            this.upload(req, resp);
+            return;
+        }
+
         // do the initial authentication
         AuthCredentials auth = null;
         try {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -275,26 +351,77 @@ public class MediaResourceAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
-        try {
-            String editMediaIRI = this.getFullUrl(req);
-
-            // delegate to the implementation
-            this.mrm.deleteMediaResource(editMediaIRI, auth, this.config);
+        String editMediaIRI = this.getFullUrl(req);
 
+        // delegate to the implementation
+        CompletionStage<Void> stage = this.asyncMrm.deleteMediaResource(editMediaIRI, auth, this.config);
+        this.respond(req, resp, null, stage, nothing -> {
             // no response is expected, if no errors get thrown then we just return a success: 204 No Content
             resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
-        } catch (SwordError se) {
-            this.swordError(req, resp, se);
-        } catch (SwordServerException e) {
-            throw new ServletException(e);
-        } catch (SwordAuthException e) {
-            // authentication actually failed at the server end; not a SwordError, but
-            // need to throw a 403 Forbidden
-            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+        });
+    }
+
+    @Override
+    protected void prepareUpload(final HttpServletRequest req, final String method, final String target, final Deposit deposit,
+                                 final AuthCredentials auth) throws SwordError, SwordServerException, SwordAuthException {
+        if ("POST".equals(method)) {
+            deposit.setMetadataRelevant(this.getMetadataRelevant(req));
+            this.asyncMrm.validateAddResource(target, deposit, auth, this.config);
+        } else {
+            this.asyncMrm.validateReplaceMediaResource(target, deposit, auth, this.config);
         }
     }
 
+    @Override
+    protected void completeUpload(final HttpServletRequest req, final HttpServletResponse resp, final String method, final String target,
+                                  final Deposit deposit, final AuthCredentials auth) throws ServletException, IOException {
+        if ("POST".equals(method)) {
+            CompletionStage<DepositReceipt> stage = this.asyncMrm.addResource(target, deposit, auth, this.config);
+            this.respond(req, resp, deposit, stage, receipt -> {
+                if (this.config.returnDepositReceipt() && !receipt.isEmpty()) {
+                    this.addGenerator(receipt, this.config);
+                }
+                this.writeDepositReceipt(req, resp, receipt, HttpServletResponse.SC_CREATED);
+            });
+        } else {
+            CompletionStage<DepositReceipt> stage = this.asyncMrm.replaceMediaResource(target, deposit, auth, this.config);
+            this.respond(req, resp, deposit, stage, receipt -> {
+                resp.setHeader("Location", receipt.getLocation().toString());
+                resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            });
+        }
+    }
+
+    /**
+     * Send the deposit receipt with the given status.
+     */
+    protected void writeDepositReceipt(final HttpServletRequest req, final HttpServletResponse resp, final DepositReceipt receipt, final int status)
+            throws SwordServerException, IOException {
+        this.writeStoredReceipt(req, resp, this.renderDepositReceipt(receipt, status));
+    }
+
+    /**
+     * Render the deposit receipt for the response, with the given status.
+     */
+    protected StoredReceipt renderDepositReceipt(final DepositReceipt receipt, final int status) throws SwordServerException, IOException {
+        IRI location = receipt.getLocation();
+        if (location == null) {
+            throw new SwordServerException("No Edit-IRI found in Deposit Receipt; unable to send valid response");
+        }
+        if (!this.config.returnDepositReceipt() || receipt.isEmpty()) {
+            return new StoredReceipt(status, location.toString(), null, null, false);
+        }
+
+        StringWriter writer = new StringWriter();
+        Entry responseEntry = receipt.getAbderaEntry();
+        responseEntry.writeTo(writer);
+        return new StoredReceipt(status, location.toString(), null, writer.toString().getBytes(StandardCharsets.UTF_8), false);
+    }
+
     protected void addGenerator(final DepositReceipt doc, final SwordConfiguration config) {
         Element generator = this.getGenerator(this.config);
         if (generator != null) {
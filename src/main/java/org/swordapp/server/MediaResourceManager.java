@@ -13,4 +13,22 @@ public interface MediaResourceManager {
 
     DepositReceipt addResource(String uri, Deposit deposit, AuthCredentials auth, SwordConfiguration config) throws SwordError, SwordServerException,
             SwordAuthException;
+
+    /**
+     * Validate a replacement of the media resource before the body is read, see
+     * {@link CollectionDepositManager#validateNew(String, Deposit, AuthCredentials, SwordConfiguration)}.
+     * The default implementation accepts everything.
+     */
+    default void validateReplaceMediaResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+            throws SwordError, SwordServerException, SwordAuthException {
+    }
+
+    /**
+     * Validate the addition of a resource before the body is read, see
+     * {@link CollectionDepositManager#validateNew(String, Deposit, AuthCredentials, SwordConfiguration)}.
+     * The default implementation accepts everything.
+     */
+    default void validateAddResource(final String uri, final Deposit deposit, final AuthCredentials auth, final SwordConfiguration config)
+            throws SwordError, SwordServerException, SwordAuthException {
+    }
 }
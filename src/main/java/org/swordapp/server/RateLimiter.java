@@ -0,0 +1,235 @@
+package org.swordapp.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of requests and the number of concurrent uploads per user and per collection, see
+ * {@link SwordConfiguration#getUserRequestRate()} and the options following it. The authenticated principal and the
+ * user a mediated deposit is made on behalf of are limited separately, so that a harvester acting for many users
+ * cannot starve them all, and the user whose name it passes along cannot either. Requests whose credentials have not
+ * been verified are limited by the address of the client, like users.
+ *
+ * <p>Request rates are limited by a token bucket per key, which is kept as the single timestamp at which the bucket
+ * will be full again, and updated by compare-and-set: a request never waits for a lock, and a refused one costs next to
+ * nothing. The instance is shared by all endpoints of a servlet context.</p>
+ */
+public final class RateLimiter {
+    static final int DEFAULT_BURST = 10;
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    // idle buckets and counters are dropped once there are this many
+    private static final int SWEEP_THRESHOLD = 10000;
+    // the count of an idle counter which has been swept
+    private static final int DETACHED = -1;
+    private static final String USER = "user:";
+    private static final String ON_BEHALF_OF = "on-behalf-of:";
+    private static final String COLLECTION = "collection:";
+    private static final String ADDRESS = "address:";
+
+    private final long userInterval;
+    private final long collectionInterval;
+    private final int burst;
+    private final int maxUserUploads;
+    private final int maxCollectionUploads;
+    private final LongSupplier clock;
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> uploads = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    public RateLimiter(final SwordConfiguration config) {
+        this(config, System::nanoTime);
+    }
+
+    RateLimiter(final SwordConfiguration config, final LongSupplier clock) {
+        this.userInterval = interval(config.getUserRequestRate());
+        this.collectionInterval = interval(config.getCollectionRequestRate());
+        this.burst = Math.max(config.getRequestBurst(), 1);
+        this.maxUserUploads = config.getMaxConcurrentUploadsPerUser();
+        this.maxCollectionUploads = config.getMaxConcurrentUploadsPerCollection();
+        this.clock = clock;
+    }
+
+    /**
+     * Whether the configuration sets any limits, i.e. whether a {@link RateLimiter} is needed at all.
+     */
+    public static boolean isEnabled(final SwordConfiguration config) {
+        return config.getUserRequestRate() > 0 || config.getCollectionRequestRate() > 0
+            || config.getMaxConcurrentUploadsPerUser() > 0 || config.getMaxConcurrentUploadsPerCollection() > 0;
+    }
+
+    private static long interval(final double perSecond) {
+        return perSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / perSecond) : 0L;
+    }
+
+    /**
+     * The keys a request is limited by: its principal and the user it is made on behalf of, and the collection, as
+     * far as they are known. Only verified principals are trusted (see {@link AuthCredentials#isAuthenticated()}):
+     * anybody can send somebody else's username with a wrong password, so that unverified requests are limited by
+     * the address they come from instead.
+     *
+     * @param address the address of the client, used if the principal has not been verified
+     * @param collection the IRI of the collection the request is made to, or null
+     */
+    static List<String> keys(final AuthCredentials auth, final String address, final String collection) {
+        List<String> keys = new ArrayList<>();
+        if (auth != null && auth.isAuthenticated() && auth.getPrincipal() != null) {
+            keys.add(USER + auth.getPrincipal());
+            if (auth.getOnBehalfOf() != null && !"".equals(auth.getOnBehalfOf())) {
+                keys.add(ON_BEHALF_OF + auth.getOnBehalfOf());
+            }
+        } else if (address != null) {
+            keys.add(ADDRESS + address);
+        }
+        if (collection != null) {
+            keys.add(COLLECTION + collection);
+        }
+        return keys;
+    }
+
+    /**
+     * Count a request against the rate limits of its keys. A request refused by one limit is not counted against
+     * the others.
+     *
+     * @return 0 if the request is admitted, or else the number of seconds after which the client may try again
+     */
+    long admit(final List<String> keys) {
+        long now = this.clock.getAsLong();
+        this.sweepIfFull(now);
+        for (int i = 0; i < keys.size(); i++) {
+            long interval = this.getInterval(keys.get(i));
+            if (interval == 0) {
+                continue;
+            }
+            AtomicLong bucket = this.buckets.computeIfAbsent(keys.get(i), k -> new AtomicLong(now));
+            long wait = take(bucket, now, interval, this.burst * interval);
+            if (wait > 0) {
+                this.refund(keys.subList(0, i));
+                // round up, so that the client does not come back too early
+                return TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1);
+            }
+        }
+        return 0L;
+    }
+
+    private long getInterval(final String key) {
+        return key.startsWith(COLLECTION) ? this.collectionInterval : this.userInterval;
+    }
+
+    private void refund(final List<String> keys) {
+        for (String key : keys) {
+            AtomicLong bucket = this.buckets.get(key);
+            if (bucket != null) {
+                bucket.addAndGet(-this.getInterval(key));
+            }
+        }
+    }
+
+    /**
+     * Take a token from the bucket, i.e. move the time at which it is full again one interval further, unless that
+     * is more than the burst ahead of now.
+     *
+     * @return 0 if a token was taken, or else the nanoseconds until one is available
+     */
+    private static long take(final AtomicLong bucket, final long now, final long interval, final long capacity) {
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + interval;
+            if (next - now > capacity) {
+                return next - now - capacity;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return 0L;
+            }
+        }
+    }
+
+    /**
+     * Start an upload, if none of its keys has reached its maximum number of concurrent uploads.
+     *
+     * @return the permit, to be closed once the upload has been stored, or null if a limit has been reached
+     */
+    Permit acquireUpload(final List<String> keys) {
+        this.sweepIfFull(this.clock.getAsLong());
+        List<AtomicInteger> acquired = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            int max = key.startsWith(COLLECTION) ? this.maxCollectionUploads : this.maxUserUploads;
+            if (max <= 0) {
+                continue;
+            }
+            AtomicInteger counter = this.increment(key, max);
+            if (counter == null) {
+                acquired.forEach(AtomicInteger::decrementAndGet);
+                return null;
+            }
+            acquired.add(counter);
+        }
+        return new Permit(acquired);
+    }
+
+    /**
+     * Count an upload against the counter of a key, unless it has reached the maximum.
+     *
+     * @return the counter, or null if the maximum has been reached
+     */
+    private AtomicInteger increment(final String key, final int max) {
+        while (true) {
+            AtomicInteger counter = this.uploads.computeIfAbsent(key, k -> new AtomicInteger());
+            int current = counter.get();
+            if (current == DETACHED) {
+                // swept after we got it: counting on it would not be seen by the next upload, which gets a new one
+                this.uploads.remove(key, counter);
+            } else if (current >= max) {
+                return null;
+            } else if (counter.compareAndSet(current, current + 1)) {
+                return counter;
+            }
+        }
+    }
+
+    private void sweepIfFull(final long now) {
+        if (this.buckets.size() + this.uploads.size() < SWEEP_THRESHOLD || !this.sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // a request racing with the removal of its bucket may get away with not being counted, which is harmless
+            this.buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+            // an idle counter is detached before it is removed, so that an upload which got it just before cannot
+            // count on it any more, but goes for a new one
+            this.uploads.forEach((key, counter) -> {
+                if (counter.compareAndSet(0, DETACHED)) {
+                    this.uploads.remove(key, counter);
+                }
+            });
+        } finally {
+            this.sweeping.set(false);
+        }
+    }
+
+    /**
+     * An upload admitted by {@link #acquireUpload(List)}, which counts against the limits until it is closed.
+     */
+    static final class Permit implements AutoCloseable {
+        private final List<AtomicInteger> counters;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(final List<AtomicInteger> counters) {
+            this.counters = counters;
+        }
+
+        @Override
+        public void close() {
+            // may be closed by both the request thread and the container, but is only released once
+            if (this.closed.compareAndSet(false, true)) {
+                this.counters.forEach(AtomicInteger::decrementAndGet);
+            }
+        }
+    }
+}
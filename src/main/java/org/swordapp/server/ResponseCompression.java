@@ -0,0 +1,174 @@
+package org.swordapp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compression of response documents (see {@link SwordConfiguration#useResponseCompression()}) with the content coding
+ * negotiated from the "Accept-Encoding" header of the request. Deflaters hold native memory and are expensive to set
+ * up, so they are pooled rather than created for every response.
+ */
+final class ResponseCompression {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+    static final int DEFAULT_MIN_SIZE = 1024;
+
+    private static final int POOL_SIZE = 64;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    // raw deflaters for gzip, which adds its own header and trailer, and zlib deflaters for deflate
+    private static final BlockingQueue<Deflater> RAW_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Deflater> ZLIB_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // Utility class - hiding default constructor.
+    private ResponseCompression() { }
+
+    /**
+     * The content coding to compress the response with.
+     *
+     * @param acceptEncoding the "Accept-Encoding" header of the request, may be null
+     * @return gzip or deflate, whichever the client prefers (gzip if both are equally fine), or null for no compression
+     */
+    static String negotiate(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        String preferred = null;
+        double preferredQuality = 0;
+        for (String member : acceptEncoding.split(",")) {
+            String[] parts = member.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!GZIP.equals(coding) && !DEFLATE.equals(coding) && !"x-gzip".equals(coding)) {
+                continue;
+            }
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            String normalized = DEFLATE.equals(coding) ? DEFLATE : GZIP;
+            if (quality > 0 && (quality > preferredQuality || quality == preferredQuality && GZIP.equals(normalized))) {
+                preferred = normalized;
+                preferredQuality = quality;
+            }
+        }
+        return preferred;
+    }
+
+    /**
+     * Compress a complete document.
+     */
+    static byte[] compress(final byte[] content, final String coding) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + GZIP_HEADER.length);
+        try (OutputStream compressed = open(out, coding)) {
+            compressed.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Compress everything written to the returned stream into the given one. Closing the returned stream writes
+     * the end of the compressed data and flushes the given stream, but does not close it.
+     */
+    static OutputStream open(final OutputStream out, final String coding) throws IOException {
+        return new CompressingOutputStream(out, GZIP.equals(coding));
+    }
+
+    private static Deflater borrow(final boolean gzip) {
+        Deflater deflater = (gzip ? RAW_DEFLATERS : ZLIB_DEFLATERS).poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+    }
+
+    private static void release(final Deflater deflater, final boolean gzip) {
+        deflater.reset();
+        if (!(gzip ? RAW_DEFLATERS : ZLIB_DEFLATERS).offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static final class CompressingOutputStream extends FilterOutputStream {
+        private final boolean gzip;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private Deflater deflater;
+
+        CompressingOutputStream(final OutputStream out, final boolean gzip) throws IOException {
+            super(out);
+            this.gzip = gzip;
+            this.deflater = borrow(gzip);
+            if (gzip) {
+                out.write(GZIP_HEADER);
+            }
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (this.deflater == null) {
+                throw new IOException("Stream closed");
+            }
+            if (this.gzip) {
+                this.crc.update(b, off, len);
+            }
+            this.deflater.setInput(b, off, len);
+            while (!this.deflater.needsInput()) {
+                this.deflate();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // a flush would cost compression; the document is sent at once when the stream is closed
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.deflater == null) {
+                return;
+            }
+            try {
+                this.deflater.finish();
+                while (!this.deflater.finished()) {
+                    this.deflate();
+                }
+                if (this.gzip) {
+                    ByteBuffer trailer = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    trailer.putInt((int) this.crc.getValue());
+                    trailer.putInt((int) this.deflater.getBytesRead());
+                    this.out.write(trailer.array());
+                }
+                this.out.flush();
+            } finally {
+                release(this.deflater, this.gzip);
+                this.deflater = null;
+            }
+        }
+
+        private void deflate() throws IOException {
+            int n = this.deflater.deflate(this.buffer, 0, this.buffer.length);
+            if (n > 0) {
+                this.out.write(this.buffer, 0, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package org.swordapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sessions of resumable uploads (see {@link SwordConfiguration#getUploadSessionTtl()}). A session is created with
+ * the header properties of a deposit and its total length; the content is then appended by any number of requests,
+ * each continuing where the previous one stopped. The content is written to a temporary file and hashed as it
+ * arrives (see {@link ContentDigests}), so completing the upload takes no further pass over the file.
+ *
+ * <p>Segmented sessions split the content into a given number of segments of equal size (except for the last one),
+ * which may be sent in any order and in parallel. Each segment is written at its position in the file,
+ * and checked against its own MD5 if the client sends one. The MD5 of the whole file can only be computed in order:
+ * the received segments at the start of the file are hashed in the background (on the pool of {@link TreeDigest}),
+ * and the rest once all segments have arrived.</p>
+ *
+ * <p>Sessions which have not been used for the time to live are discarded, together with their file.</p>
+ */
+final class ResumableUploads {
+    static final int DEFAULT_MAX_SEGMENTS = 1000;
+    private static Logger log = LoggerFactory.getLogger(ResumableUploads.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SEGMENT_MISSING = 0;
+    private static final int SEGMENT_RECEIVING = 1;
+    private static final int SEGMENT_RECEIVED = 2;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final Collection<String> algorithms;
+
+    ResumableUploads(final long ttl, final TimeUnit unit) {
+        this(ttl, unit, List.of());
+    }
+
+    /**
+     * @param algorithms the digests to compute for every upload, in addition to the MD5 and those sent by the client
+     */
+    ResumableUploads(final long ttl, final TimeUnit unit, final Collection<String> algorithms) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.algorithms = List.copyOf(algorithms);
+    }
+
+    /**
+     * Start a session.
+     *
+     * @param target the IRI the upload is for
+     * @param method the HTTP method the upload is for, i.e. PUT to replace or POST to add to the media resource
+     * @param deposit the deposit with the properties from the request headers
+     * @param length the total length of the upload in bytes
+     * @param file the (new) file to write the upload to
+     */
+    Session create(final String target, final String method, final AuthCredentials auth, final Deposit deposit, final long length,
+                   final File file) throws IOException {
+        return this.create(target, method, auth, deposit, length, 0, file);
+    }
+
+    /**
+     * Start a session, which is segmented if a number of segments is given.
+     *
+     * @param segments the number of segments, or 0 for an unsegmented session
+     */
+    Session create(final String target, final String method, final AuthCredentials auth, final Deposit deposit, final long length,
+                   final int segments, final File file) throws IOException {
+        return this.create(target, method, auth, deposit, length, segments, file, null);
+    }
+
+    /**
+     * Start a session, which holds the given reservation of space for its file until it ends.
+     *
+     * @param reservation the space reserved for the file, or null
+     */
+    Session create(final String target, final String method, final AuthCredentials auth, final Deposit deposit, final long length,
+                   final int segments, final File file, final SpoolDirectory.Reservation reservation) throws IOException {
+        this.purge();
+        Set<String> digests = new LinkedHashSet<>(deposit.getContentDigests().keySet());
+        digests.addAll(this.algorithms);
+        Session session = new Session(UUID.randomUUID().toString(), target, method, owner(auth), deposit, length, segments, file,
+            new ContentDigests(digests), reservation);
+        this.sessions.put(session.id, session);
+        return session;
+    }
+
+    /**
+     * Look up a session of the given client.
+     *
+     * @return the session, or null if there is no such session or it belongs to somebody else
+     */
+    Session get(final String id, final AuthCredentials auth) {
+        Session session = this.sessions.get(id);
+        if (session == null || !session.owner.equals(owner(auth))) {
+            return null;
+        }
+        if (session.isExpired(System.nanoTime(), this.ttlNanos) && this.discard(session)) {
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * End a complete session. The caller takes over its file.
+     *
+     * @return the MD5 and the other digests of the upload
+     */
+    ContentDigests finish(final Session session) throws IOException, SwordError {
+        if (!this.sessions.remove(session.id, session)) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_NOT_FOUND, "The upload session has been discarded");
+        }
+        session.release();
+        session.channel.close();
+        if (session.isSegmented()) {
+            // the segments may have arrived out of order; hash what the background has not hashed yet
+            session.hashReceived();
+        }
+        return session.digests;
+    }
+
+    /**
+     * End a session and delete its file, unless a request is writing to it. A session which has been finished or
+     * discarded already is left alone.
+     *
+     * @return false if a request is writing to the session
+     */
+    boolean discard(final Session session) {
+        if (!session.lock.writeLock().tryLock()) {
+            return false;
+        }
+        try {
+            if (!this.sessions.remove(session.id, session)) {
+                return true;
+            }
+            session.discarded = true;
+            session.release();
+            try {
+                session.channel.close();
+            } catch (IOException e) {
+                // we are deleting the file anyway
+            }
+            if (session.file.exists() && !session.file.delete()) {
+                log.error("Could not delete temporary upload file " + session.file.getAbsolutePath());
+            }
+            return true;
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    private void purge() {
+        long now = System.nanoTime();
+        for (Session session : this.sessions.values()) {
+            if (session.isExpired(now, this.ttlNanos) && this.discard(session)) {
+                log.info("Discarded expired upload session " + session.id + " for " + session.target);
+            }
+        }
+    }
+
+    private static String owner(final AuthCredentials auth) {
+        return auth == null ? "" : Objects.toString(auth.getPrincipal(), "") + "\n" + Objects.toString(auth.getOnBehalfOf(), "");
+    }
+
+    /**
+     * A resumable upload. Only one request at a time may append to an unsegmented session, see {@link #tryLock()};
+     * segments may be sent in parallel. A session is not discarded while a request is writing to it.
+     */
+    static final class Session {
+        private final String id;
+        private final String target;
+        private final String method;
+        private final String owner;
+        private final Deposit deposit;
+        private final long length;
+        private final File file;
+        private final FileChannel channel;
+        private volatile ContentDigests digests;
+        private final SpoolDirectory.Reservation reservation;
+        private final int segments;
+        private final long segmentSize;
+        private final AtomicIntegerArray segmentStates;
+        private final AtomicInteger segmentsReceived = new AtomicInteger();
+        // held exclusively to append or discard, and shared to write a segment
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile long offset = 0L;
+        private volatile long lastUsed = System.nanoTime();
+        // the received segments at the start of the file are hashed in order, holding this lock, up to this position
+        private final Object hashing = new Object();
+        private volatile long hashed = 0L;
+        private volatile boolean discarded = false;
+
+        private Session(final String id, final String target, final String method, final String owner, final Deposit deposit, final long length,
+                        final int segments, final File file, final ContentDigests digests, final SpoolDirectory.Reservation reservation)
+                throws IOException {
+            this.id = id;
+            this.target = target;
+            this.method = method;
+            this.owner = owner;
+            this.deposit = deposit;
+            this.length = length;
+            this.file = file;
+            this.digests = digests;
+            this.reservation = reservation;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.segments = segments;
+            this.segmentSize = segments > 0 ? (length + segments - 1) / segments : length;
+            this.segmentStates = new AtomicIntegerArray(Math.max(segments, 0));
+            if (segments > 0) {
+                // extend the file, so that segments can be written anywhere. On most file systems this creates a sparse
+                // file: the space is not allocated, but counted against the spool budget by the reservation of the session
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(length);
+                }
+            }
+        }
+
+        String getId() {
+            return this.id;
+        }
+
+        String getTarget() {
+            return this.target;
+        }
+
+        String getMethod() {
+            return this.method;
+        }
+
+        Deposit getDeposit() {
+            return this.deposit;
+        }
+
+        File getFile() {
+            return this.file;
+        }
+
+        long getLength() {
+            return this.length;
+        }
+
+        long getOffset() {
+            return this.offset;
+        }
+
+        boolean isComplete() {
+            if (this.isSegmented()) {
+                return this.segmentsReceived.get() == this.segments;
+            }
+            return this.offset == this.length;
+        }
+
+        boolean isSegmented() {
+            return this.segments > 0;
+        }
+
+        int getSegments() {
+            return this.segments;
+        }
+
+        long getSegmentSize() {
+            return this.segmentSize;
+        }
+
+        /**
+         * The number of bytes at the start of a segmented upload which have been hashed already.
+         */
+        long getHashed() {
+            return this.hashed;
+        }
+
+        /**
+         * The segments which have not been received yet, including those being received right now.
+         */
+        List<Integer> getMissingSegments() {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < this.segments; i++) {
+                if (this.segmentStates.get(i) != SEGMENT_RECEIVED) {
+                    missing.add(i);
+                }
+            }
+            return missing;
+        }
+
+        /**
+         * The index of the segment spanning exactly the given range.
+         *
+         * @return the index, or -1 if the range is not a segment
+         */
+        int getSegment(final long first, final long last) {
+            if (first % this.segmentSize != 0) {
+                return -1;
+            }
+            int index = (int) (first / this.segmentSize);
+            long end = Math.min(this.length, first + this.segmentSize) - 1;
+            return index < this.segments && last == end ? index : -1;
+        }
+
+        /**
+         * Receive a segment. The segment must not be received (or being received) already. If the stream ends early,
+         * fails, or the content does not match the given MD5, the segment has to be sent again.
+         *
+         * @param expectedMd5 the MD5 of the segment as sent by the client, or null
+         * @return true if this was the last missing segment
+         * @throws SwordError with status 409 if the segment is received already, or
+         *                    {@link UriRegistry#ERROR_CHECKSUM_MISMATCH} if the content does not match the MD5
+         */
+        boolean writeSegment(final int index, final InputStream in, final String expectedMd5) throws IOException, SwordError {
+            if (!this.segmentStates.compareAndSet(index, SEGMENT_MISSING, SEGMENT_RECEIVING)) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_CONFLICT,
+                    "Segment " + index + " has already been sent");
+            }
+            boolean received = false;
+            this.lock.readLock().lock();
+            try {
+                if (!this.channel.isOpen()) {
+                    throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_NOT_FOUND, "The upload session has been discarded");
+                }
+                MessageDigest segmentDigest = newMd5();
+                long position = index * this.segmentSize;
+                long end = Math.min(this.length, position + this.segmentSize);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (position < end) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                    if (n == -1) {
+                        throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Segment " + index + " ended after " + (position - index * this.segmentSize)
+                            + " bytes, please send it again");
+                    }
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                    while (data.hasRemaining()) {
+                        position += this.channel.write(data, position);
+                    }
+                    segmentDigest.update(buffer, 0, n);
+                    this.lastUsed = System.nanoTime();
+                }
+
+                String md5 = ChecksumUtils.formatAsHex(segmentDigest.digest());
+                if (expectedMd5 != null && !expectedMd5.equalsIgnoreCase(md5)) {
+                    throw new SwordError(UriRegistry.ERROR_CHECKSUM_MISMATCH, "The MD5 of segment " + index + " does not match, please send it again");
+                }
+                HmacAuthentication.verifySignedBody(in);
+                received = true;
+            } finally {
+                this.lock.readLock().unlock();
+                this.segmentStates.set(index, received ? SEGMENT_RECEIVED : SEGMENT_MISSING);
+            }
+            boolean last = this.segmentsReceived.incrementAndGet() == this.segments;
+            // the request of the last segment hashes the rest itself
+            if (!last && index * this.segmentSize == this.hashed) {
+                TreeDigest.getPool().execute(this::hashReceivedInBackground);
+            }
+            return last;
+        }
+
+        private void hashReceivedInBackground() {
+            try {
+                this.hashReceived();
+            } catch (IOException e) {
+                // whatever is left is hashed when the upload is finished
+                log.debug("Could not hash the segments of upload session " + this.id + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Hash the received segments following those hashed before, up to the first one still missing. The position
+         * is updated before the state of the next segment is looked at, and {@link #writeSegment} does it the other
+         * way round, so a segment completing the start of the file is either hashed by a running call, or starts
+         * another one.
+         */
+        private void hashReceived() throws IOException {
+            synchronized (this.hashing) {
+                if (this.discarded || this.hashed == this.length) {
+                    return;
+                }
+                try (FileChannel in = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                    long position = this.hashed;
+                    while (!this.discarded && position < this.length
+                            && this.segmentStates.get((int) (position / this.segmentSize)) == SEGMENT_RECEIVED) {
+                        long end = Math.min(this.length, position + this.segmentSize);
+                        while (position < end) {
+                            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                            int n = in.read(buffer, position);
+                            if (n == -1) {
+                                throw new IOException("Upload file ended at " + position + " bytes instead of " + this.length);
+                            }
+                            this.digests.update(buffer.array(), 0, n);
+                            position += n;
+                            this.hashed = position;
+                        }
+                    }
+                }
+            }
+        }
+
+        boolean tryLock() {
+            return this.lock.writeLock().tryLock();
+        }
+
+        void unlock() {
+            this.lock.writeLock().unlock();
+        }
+
+        /**
+         * Append the content of a request, which starts at the given position. Content before the current offset
+         * has been received before and is skipped. Everything written before the stream ends or fails is kept, so
+         * the client can resume from the new offset. A signed body (see {@link HmacAuthentication.SignedBody}) is
+         * only kept once it has been checked, so that a signed request which fails has to be sent again completely.
+         *
+         * @param start the position of the first byte of the stream, not after the current offset
+         * @param count the number of bytes to read from the stream
+         * @throws SwordError if a signed body does not match its signed digests, or with status 404 if the session
+         *                    has been discarded
+         */
+        void append(final InputStream in, final long start, final long count) throws IOException, SwordError {
+            if (!this.channel.isOpen()) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_NOT_FOUND, "The upload session has been discarded");
+            }
+            boolean signed = in instanceof HmacAuthentication.SignedBody;
+            ContentDigests appended = signed ? this.digests.copy() : this.digests;
+            long end = this.offset;
+            long skip = this.offset - start;
+            long remaining = count;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n == -1) {
+                        break;
+                    }
+                    remaining -= n;
+
+                    int from = 0;
+                    if (skip > 0) {
+                        from = (int) Math.min(skip, n);
+                        skip -= from;
+                    }
+                    if (from < n) {
+                        ByteBuffer data = ByteBuffer.wrap(buffer, from, n - from);
+                        while (data.hasRemaining()) {
+                            end += this.channel.write(data, end);
+                        }
+                        appended.update(buffer, from, n - from);
+                        if (!signed) {
+                            this.offset = end;
+                        }
+                    }
+                }
+                if (signed) {
+                    HmacAuthentication.verifySignedBody(in);
+                    this.digests = appended;
+                    this.offset = end;
+                }
+            } finally {
+                this.lastUsed = System.nanoTime();
+            }
+        }
+
+        private void release() {
+            if (this.reservation != null) {
+                this.reservation.close();
+            }
+        }
+
+        private boolean isExpired(final long now, final long ttl) {
+            return now - this.lastUsed > ttl;
+        }
+
+        private static MessageDigest newMd5() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Cannot load MD5 digest from this JVM.", e);
+            }
+        }
+    }
+}
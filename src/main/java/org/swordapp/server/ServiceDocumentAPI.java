@@ -29,8 +29,7 @@ public class ServiceDocumentAPI extends SwordAPIEndpoint {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -38,6 +37,9 @@ public class ServiceDocumentAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
         try {
             String sdUri = this.getFullUrl(req);
@@ -48,7 +50,7 @@ public class ServiceDocumentAPI extends SwordAPIEndpoint {
 
             // set the content-type and write the service document to the output stream
             resp.setHeader("Content-Type", "application/atomserv+xml");
-            serviceDocument.getAbderaService().writeTo(resp.getWriter());
+            this.writeDocument(req, resp, serviceDocument.getAbderaService());
         } catch (SwordError se) {
             // this is a SWORD level error, to be thrown to the client appropriately
             this.swordError(req, resp, se);
@@ -60,8 +62,8 @@ public class ServiceDocumentAPI extends SwordAPIEndpoint {
             // need to throw a 403 Forbidden
             resp.sendError(HttpServletResponse.SC_FORBIDDEN);
         } finally {
-            // flush the output stream
-            resp.getWriter().flush();
+            // flush the output stream, or writer
+            resp.flushBuffer();
         }
     }
 
@@ -0,0 +1,306 @@
+package org.swordapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The temp directory deposits are stored in (see {@link SwordConfiguration#getTempDirectory()}). Files are spread over
+ * 256 subdirectories by the first two hex digits of their random name, so that no directory grows large enough to slow
+ * down creating files. Files are deleted on a background thread rather than the request thread, and if
+ * {@link SwordConfiguration#getSpoolFileMaxAge()} is set, a janitor on the same thread deletes files which have not
+ * been modified for longer than that, like those left behind by a crash or a failed delete.
+ *
+ * <p>Uploads may {@link #reserve(long, long, long) reserve} the space they are going to take before they are stored,
+ * so that concurrent uploads are refused up front rather than filling the volume and failing each other midway.
+ * Reservations are counted per file system, which also covers the directories managers choose for their deposits
+ * (see {@link Deposit#setSpoolDirectory(Path)}) without keeping track of each of them.</p>
+ */
+final class SpoolDirectory {
+    static final long DEFAULT_RETRY_AFTER = 60L;
+
+    private static Logger log = LoggerFactory.getLogger(SpoolDirectory.class);
+    private static final String PREFIX = "SWORD-";
+    private static final int SHARD_LENGTH = 2;
+    private static final long MIN_SWEEP_INTERVAL = TimeUnit.MINUTES.toSeconds(1);
+    private static final int SWEEPS_PER_MAX_AGE = 4;
+
+    // a reservation without a known size grows by at least this much at a time
+    private static final long GROWTH_STEP = 8L * 1024 * 1024;
+
+    private static final Map<Path, SpoolDirectory> DIRECTORIES = new ConcurrentHashMap<>();
+    private static final Map<FileStore, AtomicLong> RESERVED = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService janitor;
+
+    private final Path root;
+    private final long maxAgeMillis;
+    private volatile FileStore store;
+
+    private SpoolDirectory(final Path root, final long maxAgeSeconds) {
+        this.root = root;
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+        if (maxAgeSeconds > 0) {
+            this.schedule(getJanitor());
+        }
+    }
+
+    private void schedule(final ScheduledExecutorService executor) {
+        long interval = Math.max(TimeUnit.MILLISECONDS.toSeconds(this.maxAgeMillis) / SWEEPS_PER_MAX_AGE, MIN_SWEEP_INTERVAL);
+        executor.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The thread files are deleted on, started on first use, or again after {@link #shutdown()} along with the sweeps
+     * of the directories known so far.
+     */
+    private static synchronized ScheduledExecutorService getJanitor() {
+        if (janitor == null || janitor.isShutdown()) {
+            janitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "sword-spool-janitor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (SpoolDirectory directory : DIRECTORIES.values()) {
+                if (directory.maxAgeMillis > 0) {
+                    directory.schedule(janitor);
+                }
+            }
+        }
+        return janitor;
+    }
+
+    /**
+     * Stop the janitor once the files waiting to be deleted are gone, e.g. when the web application is stopped.
+     */
+    static synchronized void shutdown() {
+        if (janitor != null) {
+            janitor.shutdown();
+        }
+    }
+
+    /**
+     * The spool directory at the given path. There is one instance per path, whose janitor is started with the
+     * maximum age given the first time.
+     *
+     * @param maxAgeSeconds the age after which files are deleted, or 0 to keep them
+     */
+    static SpoolDirectory get(final String path, final long maxAgeSeconds) {
+        Path root = Path.of(path).toAbsolutePath().normalize();
+        return DIRECTORIES.computeIfAbsent(root, r -> new SpoolDirectory(r, maxAgeSeconds));
+    }
+
+    /**
+     * Reserve a new file to store a deposit in. The file itself is not created.
+     */
+    File newFile() throws IOException {
+        String name = PREFIX + UUID.randomUUID();
+        Path shard = this.root.resolve(name.substring(PREFIX.length(), PREFIX.length() + SHARD_LENGTH));
+        Files.createDirectories(shard);
+        return shard.resolve(name).toFile();
+    }
+
+    /**
+     * Reserve space for a file which is about to be stored in this directory, see
+     * {@link #reserve(Path, long, long, long)}.
+     */
+    Reservation reserve(final long bytes, final long budget, final long minFreeSpace) throws IOException {
+        if (this.store == null) {
+            Files.createDirectories(this.root);
+            this.store = Files.getFileStore(this.root);
+        }
+        return reserve(this.store, bytes, budget, minFreeSpace);
+    }
+
+    /**
+     * Reserve space for a file which is about to be stored in the given directory. Reservations are counted per file
+     * system, whichever directory on it they are made for. A reservation is admitted if the total of all reservations
+     * stays within the budget, and the file system keeps at least the given usable space after all of them. The
+     * latter is conservative, as files being written take up space already while still being reserved.
+     *
+     * @param bytes the expected size of the file. If it is not known, the reservation grows as the file is written,
+     *              see {@link Reservation#guard(OutputStream)}.
+     * @param budget the maximum total size of the reservations, or -1 for no limit. A reservation larger than that
+     *               is admitted when there are no others, so that it is not refused forever.
+     * @param minFreeSpace the usable space to keep, or -1 to not check the file system
+     * @return the reservation, to be closed once the file has been written, or null if there is not enough space
+     */
+    static Reservation reserve(final Path directory, final long bytes, final long budget, final long minFreeSpace) throws IOException {
+        return reserve(Files.getFileStore(directory), bytes, budget, minFreeSpace);
+    }
+
+    private static Reservation reserve(final FileStore store, final long bytes, final long budget, final long minFreeSpace) throws IOException {
+        Reservation reservation = new Reservation(store, RESERVED.computeIfAbsent(store, s -> new AtomicLong()), budget, minFreeSpace);
+        return reservation.add(bytes) ? reservation : null;
+    }
+
+    /**
+     * Delete a stored file on the background thread. If that fails, the janitor will have another go.
+     */
+    static void delete(final File file) {
+        getJanitor().execute(() -> {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                log.error("Could not delete temporary deposit file " + file.getAbsolutePath(), e);
+            }
+        });
+    }
+
+    /**
+     * Delete all files which have not been modified for longer than the maximum age, including those of the flat
+     * layout used by earlier versions.
+     */
+    void sweep() {
+        long deadline = System.currentTimeMillis() - this.maxAgeMillis;
+        int deleted = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.root)) {
+            for (Path entry : entries) {
+                Path name = entry.getFileName();
+                if (name == null) {
+                    continue;
+                }
+                if (Files.isDirectory(entry) && name.toString().length() == SHARD_LENGTH) {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(entry, PREFIX + "*")) {
+                        for (Path file : files) {
+                            deleted += this.deleteIfStale(file, deadline);
+                        }
+                    }
+                } else if (name.toString().startsWith(PREFIX)) {
+                    deleted += this.deleteIfStale(entry, deadline);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not clean up the temp directory " + this.root + ": " + e.getMessage());
+        }
+        if (deleted > 0) {
+            log.info("Deleted " + deleted + " stale temporary deposit files from " + this.root);
+        }
+    }
+
+    private int deleteIfStale(final Path file, final long deadline) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.isRegularFile() && attributes.lastModifiedTime().toMillis() < deadline) {
+                return Files.deleteIfExists(file) ? 1 : 0;
+            }
+        } catch (IOException e) {
+            // deleted in the meantime, or to be tried again next time
+            log.debug("Could not delete temporary deposit file " + file + ": " + e.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * Space reserved by {@link #reserve(Path, long, long, long)}, which is released when closed.
+     */
+    static final class Reservation implements AutoCloseable {
+        private final FileStore store;
+        private final AtomicLong reserved;
+        private final long budget;
+        private final long minFreeSpace;
+        private long bytes = 0L;
+        private boolean closed = false;
+
+        private Reservation(final FileStore store, final AtomicLong reserved, final long budget, final long minFreeSpace) {
+            this.store = store;
+            this.reserved = reserved;
+            this.budget = budget;
+            this.minFreeSpace = minFreeSpace;
+        }
+
+        /**
+         * Grow the reservation to the given size, if there is enough space for it.
+         *
+         * @return false if there is not enough space, or the reservation has been closed
+         */
+        synchronized boolean extendTo(final long total) throws IOException {
+            return total <= this.bytes ? !this.closed : this.add(total - this.bytes);
+        }
+
+        private synchronized boolean add(final long more) throws IOException {
+            if (this.closed) {
+                return false;
+            }
+            long usable = this.minFreeSpace < 0 ? Long.MAX_VALUE : this.store.getUsableSpace();
+            long current;
+            long next;
+            do {
+                current = this.reserved.get();
+                next = current + more;
+                // a reservation alone may exceed the budget
+                boolean overBudget = this.budget >= 0 && next > this.budget && current > this.bytes;
+                if (overBudget || usable - next < this.minFreeSpace) {
+                    return false;
+                }
+            } while (!this.reserved.compareAndSet(current, next));
+            this.bytes += more;
+            return true;
+        }
+
+        /**
+         * Wrap the stream the file is written to, so that the reservation grows as needed while the file is written.
+         * Writes beyond what can be reserved fail with an {@link OutOfSpaceException}.
+         */
+        OutputStream guard(final OutputStream out) {
+            return new FilterOutputStream(out) {
+                private long written = 0L;
+
+                @Override
+                public void write(final int b) throws IOException {
+                    this.write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    if (this.written + len > Reservation.this.getBytes() && !Reservation.this.extendTo(this.written + Math.max(len, GROWTH_STEP))
+                            && !Reservation.this.extendTo(this.written + len)) {
+                        throw new OutOfSpaceException("Not enough space to store more than " + this.written + " bytes");
+                    }
+                    this.out.write(b, off, len);
+                    this.written += len;
+                }
+            };
+        }
+
+        synchronized long getBytes() {
+            return this.bytes;
+        }
+
+        @Override
+        public synchronized void close() {
+            // may be closed by both the request thread and the container, but is only released once
+            if (!this.closed) {
+                this.closed = true;
+                this.reserved.addAndGet(-this.bytes);
+            }
+        }
+    }
+
+    /**
+     * Thrown by the stream of {@link Reservation#guard(OutputStream)} when the file outgrows the space which could be
+     * reserved for it.
+     */
+    static final class OutOfSpaceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        OutOfSpaceException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -11,13 +11,18 @@ import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 public class StatementAPI extends SwordAPIEndpoint {
     private static Logger log = LoggerFactory.getLogger(CollectionAPI.class);
 
-    private final StatementManager sm;
+    private final AsyncStatementManager sm;
 
     public StatementAPI(final StatementManager sm, final SwordConfiguration config) {
+        this(AsyncManagers.adapt(sm), config);
+    }
+
+    public StatementAPI(final AsyncStatementManager sm, final SwordConfiguration config) {
         super(config);
         this.sm = sm;
     }
@@ -32,8 +37,7 @@ public class StatementAPI extends SwordAPIEndpoint {
             auth = this.getAuthCredentials(req);
         } catch (SwordAuthException e) {
             if (e.isRetry()) {
-                String s = "Basic realm=\"SWORD2\"";
-                resp.setHeader("WWW-Authenticate", s);
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
                 resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             } else {
@@ -41,13 +45,17 @@ public class StatementAPI extends SwordAPIEndpoint {
                 return;
             }
         }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
 
-        try {
-            // there may be some content negotiation going on
-            Map<String, String> accept = this.getAcceptHeaders(req);
-            String uri = this.getFullUrl(req);
+        // there may be some content negotiation going on
+        Map<String, String> accept = this.getAcceptHeaders(req);
+        String uri = this.getFullUrl(req);
 
-            Statement statement = this.sm.getStatement(uri, accept, auth, this.config);
+        CompletionStage<Statement> stage = this.sm.getStatement(uri, accept, auth, this.config);
+        this.respond(req, resp, null, stage, statement -> {
+            this.addJobState(uri, statement);
 
             // set the content type
             resp.setHeader("Content-Type", statement.getContentType());
@@ -58,26 +66,10 @@ public class StatementAPI extends SwordAPIEndpoint {
             Date lastModified = statement.getLastModified() != null ? statement.getLastModified() : new Date();
             resp.setHeader("Last-Modified", sdf.format(lastModified));
 
-            // to set the content-md5 header we need to write the output to
-            // a string and checksum it
+            // write the document to a string first, for the content-md5 header
             StringWriter writer = new StringWriter();
             statement.writeTo(writer);
-
-            // write the content-md5 header
-            String md5 = ChecksumUtils.hash(writer.toString());
-            resp.setHeader("Content-MD5", md5);
-
-            resp.getWriter().append(writer.toString());
-            resp.getWriter().flush();
-
-        } catch (SwordServerException e) {
-            throw new ServletException(e);
-        } catch (SwordError se) {
-            this.swordError(req, resp, se);
-        } catch (SwordAuthException e) {
-            // authentication actually failed at the server end; not a SwordError, but
-            // need to throw a 403 Forbidden
-            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
-        }
+            this.writeDocument(req, resp, writer.toString(), true);
+        });
     }
 }
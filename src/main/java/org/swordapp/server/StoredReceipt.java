@@ -0,0 +1,69 @@
+package org.swordapp.server;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * The response to a deposit, kept by an {@link IdempotencyStore}: the deposit receipt as it was rendered, together
+ * with the status and headers it was sent with, or the rendered feed of the results of a batch deposit (see
+ * {@link CollectionDepositManager#createNewBatch}), which is sent with "200 OK". It only holds strings and bytes, so
+ * that a shared store can persist it, and retries never share a document with the request which created it.
+ */
+public final class StoredReceipt {
+    private final int status;
+    private final String location;
+    private final String lastModified;
+    private final byte[] document;
+    private final boolean batch;
+
+    /**
+     * @param status the status the response was sent with
+     * @param location the Location header, or null
+     * @param lastModified the Last-Modified header, or null
+     * @param document the UTF-8 encoded document which was sent, or null if there was no body
+     * @param batch whether the document is the feed of a batch deposit instead of a deposit receipt
+     */
+    public StoredReceipt(final int status, final String location, final String lastModified, final byte[] document, final boolean batch) {
+        this.status = status;
+        this.location = location;
+        this.lastModified = lastModified;
+        this.document = document != null ? document.clone() : null;
+        this.batch = batch;
+    }
+
+    /**
+     * The results of a batch deposit, rendered as a feed.
+     */
+    public StoredReceipt(final byte[] feed) {
+        this(HttpServletResponse.SC_OK, null, null, feed, true);
+    }
+
+    public int getStatus() {
+        return this.status;
+    }
+
+    public String getLocation() {
+        return this.location;
+    }
+
+    public String getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * The UTF-8 encoded document, or null if the response had no body.
+     */
+    public byte[] getDocument() {
+        return this.document != null ? this.document.clone() : null;
+    }
+
+    /**
+     * Whether this is the outcome of a batch deposit, or the receipt of a single deposit.
+     */
+    public boolean isBatch() {
+        return this.batch;
+    }
+
+    public String getContentType() {
+        return this.batch ? "application/atom+xml;type=feed" : "application/atom+xml;type=entry";
+    }
+}
@@ -1,6 +1,7 @@
 package org.swordapp.server;
 
 import org.apache.abdera.Abdera;
+import org.apache.abdera.model.Base;
 import org.apache.abdera.model.Document;
 import org.apache.abdera.model.Element;
 import org.apache.abdera.model.Entry;
@@ -10,6 +11,10 @@ import org.glassfish.jersey.media.multipart.ContentDisposition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -19,22 +24,97 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipException;
 
 public class SwordAPIEndpoint {
     protected final SwordConfiguration config;
 
+    protected Authenticator authenticator = null;
+
+    protected DepositJobs depositJobs = null;
+
+    protected IdempotencyStore idempotencyStore = null;
+
+    protected RateLimiter rateLimiter = null;
+
+    private final UploadSessionHandler uploads;
+
     private static Logger log = LoggerFactory.getLogger(SwordAPIEndpoint.class);
+    private static final String IDEMPOTENCY_KEY_ATTRIBUTE = SwordAPIEndpoint.class.getName() + ".idempotencyKey";
+    private static final String AUTH_ATTRIBUTE = SwordAPIEndpoint.class.getName() + ".auth";
+    private static final String RATE_LIMIT_KEYS_ATTRIBUTE = SwordAPIEndpoint.class.getName() + ".rateLimitKeys";
+    private static final String TOO_MANY_REQUESTS = "Too many requests, please try again later";
+    private static final String TOO_MANY_UPLOADS = "Too many uploads are in progress, please try again once one has completed";
+
+    // the error documents sent when a rate limit is exceeded, rendered once but for their timestamp, as refusing a
+    // request must be cheap; errors with other messages, e.g. of managers, are not kept beyond this many
+    private static final int MAX_RATE_LIMIT_ERRORS = 16;
+    private final Map<String, RateLimitError> rateLimitErrors = new ConcurrentHashMap<>();
 
     protected SwordAPIEndpoint(final SwordConfiguration config) {
         this.config = config;
+        if (config.getUploadSessionTtl() > 0) {
+            this.uploads = new UploadSessionHandler(this, config);
+        } else {
+            this.uploads = null;
+        }
+    }
+
+    /**
+     * Set the {@link Authenticator} used to verify the credentials of incoming requests.
+     * If none is set, the credentials are passed on to the managers unverified.
+     */
+    public void setAuthenticator(final Authenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    /**
+     * Set the {@link DepositJobs} which process deposits in the background, and whose state is reported in statements.
+     */
+    public void setDepositJobs(final DepositJobs depositJobs) {
+        this.depositJobs = depositJobs;
+    }
+
+    /**
+     * Set the {@link IdempotencyStore} which remembers deposits sent with an "Idempotency-Key" header.
+     * If none is set, the header is ignored.
+     */
+    public void setIdempotencyStore(final IdempotencyStore idempotencyStore) {
+        this.idempotencyStore = idempotencyStore;
+    }
+
+    /**
+     * Set the {@link RateLimiter} which limits the requests and uploads of each user and collection.
+     * If none is set, requests are not limited.
+     */
+    public void setRateLimiter(final RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
     }
 
     public void get(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
@@ -57,9 +137,22 @@ public class SwordAPIEndpoint {
         return this.getAuthCredentials(request, false);
     }
 
+    /**
+     * Authenticate a request. A request dispatched again once its body has been read asynchronously (see
+     * {@link #spoolAsync}) gets the credentials verified before, rather than being authenticated a second time.
+     */
     protected AuthCredentials getAuthCredentials(final HttpServletRequest request, final boolean allowUnauthenticated) throws SwordAuthException {
+        if (request.getDispatcherType() == DispatcherType.ASYNC && request.getAttribute(AUTH_ATTRIBUTE) != null) {
+            return (AuthCredentials) request.getAttribute(AUTH_ATTRIBUTE);
+        }
+        AuthCredentials auth = this.authenticate(request, allowUnauthenticated);
+        request.setAttribute(AUTH_ATTRIBUTE, auth);
+        return auth;
+    }
+
+    private AuthCredentials authenticate(final HttpServletRequest request, final boolean allowUnauthenticated) throws SwordAuthException {
         AuthCredentials auth = null;
-        String authType = this.config.getAuthType(); // ideally Basic, but may be "none"
+        String authType = this.config.getAuthType(); // ideally Basic, but may be "none", or a list like "Basic, Bearer"
         String obo = "";
         log.info("Auth type = " + authType);
 
@@ -71,10 +164,14 @@ public class SwordAPIEndpoint {
             // Is there an On-Behalf-Of header?
             obo = request.getHeader("On-Behalf-Of");
 
-            // Which authentication scheme do we recognise (should only be Basic)
-            boolean isBasic = authType.equalsIgnoreCase("basic");
+            // Which authentication schemes do we recognise (Basic, Bearer and/or HMAC)
+            boolean isBasic = this.isAuthScheme(authType, "basic");
+            boolean isBearer = this.isAuthScheme(authType, "bearer");
+            boolean isHmac = this.isAuthScheme(authType, "hmac");
 
-            if (isBasic && (authHeader == null || authHeader.equals(""))) {
+            if (!isBasic && !isBearer && !isHmac) {
+                throw new SwordAuthException("Server is not properly configured for authentication");
+            } else if (authHeader == null || authHeader.equals("")) {
                 if (allowUnauthenticated) {
                     log.debug("No Authentication Credentials supplied/required");
                     auth = new AuthCredentials(null, null, obo);
@@ -82,12 +179,27 @@ public class SwordAPIEndpoint {
                 } else {
                     throw new SwordAuthException(true);
                 }
-            } else if (isBasic) {
+            }
+
+            String scheme = authHeader.trim().split(" ", 2)[0];
+            if (isBasic && "Basic".equalsIgnoreCase(scheme)) {
                 // decode the auth header and populate the authcredentials object for return
                 String[] userPass = this.decodeAuthHeader(authHeader);
                 auth = new AuthCredentials(userPass[0], userPass[1], obo);
+                if (this.authenticator != null) {
+                    auth = this.authenticator.authenticate(auth, this.config);
+                }
+            } else if (isBearer && "Bearer".equalsIgnoreCase(scheme)) {
+                // a signed token, which we can verify ourselves
+                String subject = HmacAuthentication.verifyBearerToken(this.getAuthHeaderCredentials(authHeader), this.config);
+                auth = new AuthCredentials(subject, null, obo, true, subject);
+            } else if (isHmac && "HMAC".equalsIgnoreCase(scheme)) {
+                // a signed request, which we can verify ourselves
+                String keyId = HmacAuthentication.verifyRequestSignature(this.getAuthHeaderCredentials(authHeader), request, this.config);
+                auth = new AuthCredentials(keyId, null, obo, true, keyId);
             } else {
-                throw new SwordAuthException("Server is not properly configured for authentication");
+                log.warn("Authentication method not supported: " + scheme);
+                throw new SwordAuthException("Authentication method not supported: " + scheme);
             }
         } else {
             log.debug("No Authentication Credentials supplied/required");
@@ -97,6 +209,156 @@ public class SwordAPIEndpoint {
         return auth;
     }
 
+    /**
+     * Count an authenticated request against the limits of the {@link RateLimiter}, if there is one, and refuse it
+     * with "429 Too Many Requests" if a limit has been exceeded. A request dispatched again once its body has been
+     * read asynchronously (see {@link #spoolAsync}) has been counted already.
+     *
+     * @return true if the request may proceed, false if it has been refused and the response has been written
+     */
+    protected boolean admit(final HttpServletRequest req, final HttpServletResponse resp, final AuthCredentials auth)
+            throws IOException, ServletException {
+        if (this.rateLimiter == null) {
+            return true;
+        }
+        List<String> keys = RateLimiter.keys(auth, req.getRemoteAddr(), this.getRateLimitedCollection(req));
+        req.setAttribute(RATE_LIMIT_KEYS_ATTRIBUTE, keys);
+        if (req.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        long retryAfter = this.rateLimiter.admit(keys);
+        if (retryAfter == 0) {
+            return true;
+        }
+        log.debug("Refusing a request of " + keys + ", which exceeds the rate limit");
+        this.writeRateLimitError(req, resp, UriRegistry.ERROR_BAD_REQUEST, TOO_MANY_REQUESTS, retryAfter);
+        return false;
+    }
+
+    /**
+     * The IRI of the collection a request is limited by, see {@link SwordConfiguration#getCollectionRequestRate()}.
+     * Only requests to a Col-IRI count against the limits of the collection.
+     *
+     * @return the IRI, or null if the request is not made to a collection
+     */
+    protected String getRateLimitedCollection(final HttpServletRequest req) {
+        return null;
+    }
+
+    /**
+     * Start an upload under the limits on concurrent uploads of the user and collection of a request admitted by
+     * {@link #admit}.
+     *
+     * @return the permit, to be closed once the body has been stored, or null if uploads are not limited
+     * @throws SwordError with status 429, if a limit has been reached
+     */
+    RateLimiter.Permit acquireUploadPermit(final HttpServletRequest req) throws SwordError {
+        @SuppressWarnings("unchecked")
+        List<String> keys = (List<String>) req.getAttribute(RATE_LIMIT_KEYS_ATTRIBUTE);
+        if (this.rateLimiter == null || keys == null) {
+            return null;
+        }
+        RateLimiter.Permit permit = this.rateLimiter.acquireUpload(keys);
+        if (permit == null) {
+            log.debug("Refusing an upload of " + keys + ", which exceeds the concurrent upload limit");
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, RateLimiter.SC_TOO_MANY_REQUESTS, TOO_MANY_UPLOADS);
+        }
+        return permit;
+    }
+
+    private void writeRateLimitError(final HttpServletRequest req, final HttpServletResponse resp, final String errorUri,
+                                     final String message, final long retryAfter) throws IOException, ServletException {
+        if (this.expectsContinue(req)) {
+            resp.setHeader("Connection", "close");
+        }
+        resp.setStatus(RateLimiter.SC_TOO_MANY_REQUESTS);
+        if (retryAfter > 0) {
+            resp.setHeader("Retry-After", Long.toString(retryAfter));
+        }
+        if (!this.config.returnErrorBody()) {
+            return;
+        }
+        String key = errorUri + " " + message;
+        RateLimitError error = this.rateLimitErrors.get(key);
+        if (error == null) {
+            try {
+                error = new RateLimitError(new ErrorDocument(errorUri, RateLimiter.SC_TOO_MANY_REQUESTS, message, null), this.config);
+            } catch (SwordServerException e) {
+                throw new ServletException(e);
+            }
+            if (this.rateLimitErrors.size() < MAX_RATE_LIMIT_ERRORS) {
+                this.rateLimitErrors.put(key, error);
+            }
+        }
+        byte[] updated = DateTimeFormatter.ISO_INSTANT.format(Instant.now().truncatedTo(ChronoUnit.SECONDS)).getBytes(StandardCharsets.UTF_8);
+        resp.setContentType("text/xml");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentLength(error.head.length + updated.length + error.tail.length);
+        OutputStream out = resp.getOutputStream();
+        out.write(error.head);
+        out.write(updated);
+        out.write(error.tail);
+    }
+
+    /**
+     * An error document sent when a rate limit is exceeded, split around the timestamp of its atom:updated element,
+     * which is filled in for each response.
+     */
+    private static final class RateLimitError {
+        private final byte[] head;
+        private final byte[] tail;
+
+        RateLimitError(final ErrorDocument doc, final SwordConfiguration config) throws SwordServerException {
+            StringWriter writer = new StringWriter();
+            doc.writeTo(writer, config);
+            String body = writer.toString();
+            String updated = ">" + doc.getDateUpdated() + "<";
+            int found = body.indexOf(updated);
+            if (found == -1) {
+                // splitting anywhere else would send a broken document with every refusal
+                throw new SwordServerException("The timestamp " + doc.getDateUpdated() + " was not found in the rate limit error document");
+            }
+            int start = found + 1;
+            this.head = body.substring(0, start).getBytes(StandardCharsets.UTF_8);
+            this.tail = body.substring(start + updated.length() - 2).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Get the value of the WWW-Authenticate header to send along with a 401 Unauthorized response, naming the
+     * first of the configured authentication schemes.
+     */
+    protected String getAuthChallenge() {
+        String authType = this.config.getAuthType();
+        String scheme = "Basic";
+        if (authType != null && !this.isAuthScheme(authType, "basic")) {
+            if (this.isAuthScheme(authType, "bearer")) {
+                scheme = "Bearer";
+            } else if (this.isAuthScheme(authType, "hmac")) {
+                scheme = "HMAC";
+            }
+        }
+        return scheme + " realm=\"SWORD2\"";
+    }
+
+    private boolean isAuthScheme(final String authType, final String scheme) {
+        for (String configured : authType.split(",")) {
+            if (configured.trim().equalsIgnoreCase(scheme)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getAuthHeaderCredentials(final String authHeader) throws SwordAuthException {
+        String[] authBits = authHeader.trim().split(" ", 2);
+        if (authBits.length != 2 || "".equals(authBits[1].trim())) {
+            log.error("Malformed Authorization header");
+            throw new SwordAuthException("Malformed Authorization header");
+        }
+        return authBits[1].trim();
+    }
+
     protected String[] decodeAuthHeader(final String encodedHeader) throws SwordAuthException {
         // we have an authentication header, so parse it
         String[] authBits = encodedHeader.split(" ");
@@ -143,50 +405,255 @@ public class SwordAPIEndpoint {
         }
 
         if (!config.storeAndCheckBinary()) {
+            if (deposit.getContentEncoding() != null) {
+                // the manager reads the decoded content, without any digests being checked
+                try {
+                    deposit.setInputStream(ContentCoding.decode(deposit.getInputStream(), deposit.getContentEncoding(), null, config.getMaxUploadSize()));
+                } catch (IOException e) {
+                    throw new SwordError(UriRegistry.ERROR_CONTENT, "The content could not be decoded: " + e.getMessage());
+                }
+            }
             return;
         }
 
-        String tempDirectory = config.getTempDirectory();
-        if (tempDirectory == null) {
-            throw new SwordServerException("Store and Check operation requested, but no tempDirectory specified in config");
+        SpoolDirectory.Reservation reservation = null;
+        File file;
+        ContentDigests received;
+        ContentDigests encoded;
+        try {
+            reservation = this.reserveSpoolSpace(deposit, config);
+            file = this.newSpoolFile(deposit, config);
+            received = this.newContentDigests(deposit, config);
+            // encoded content is decoded while it is stored, hashing both the encoded and the decoded bytes
+            encoded = deposit.getContentEncoding() == null ? null : new ContentDigests(deposit.getEncodedDigests().keySet());
+            this.storeBinary(deposit, file, received, encoded, reservation, config);
+        } finally {
+            // from here on, the stored file shows in the usable space
+            if (reservation != null) {
+                reservation.close();
+            }
         }
 
-        String filename = tempDirectory + File.separator + "SWORD-" + UUID.randomUUID();
-            
+        this.checkStoredBinary(deposit, file, received, encoded, config);
+    }
+
+    /**
+     * Store the content of a deposit in the given file, feeding it to the {@link DepositPipeline} on the way.
+     */
+    private void storeBinary(final Deposit deposit, final File file, final ContentDigests received, final ContentDigests encoded,
+                             final SpoolDirectory.Reservation reservation, final SwordConfiguration config) throws SwordServerException, SwordError {
+        DepositPipeline pipeline = this.newDepositPipeline(deposit, config);
         try (
-            InputStream inputStream = deposit.getInputStream();
-            OutputStream outputStream = new FileOutputStream(filename);
+            InputStream inputStream = encoded == null ? deposit.getInputStream()
+                : ContentCoding.decode(deposit.getInputStream(), deposit.getContentEncoding(), encoded, config.getMaxUploadSize());
+            OutputStream fileStream = reservation == null ? new FileOutputStream(file) : reservation.guard(new FileOutputStream(file));
         ) {
-            // get the things we might want to compare
-            String receivedMD5 = ChecksumUtils.hashAndCopy(inputStream, outputStream);
-            log.debug("Received filechecksum: " + receivedMD5);
-            String md5 = deposit.getMd5();
-            log.debug("Received file checksum header: " + md5);
-
-            if (md5 != null && !md5.equals(receivedMD5)) {
-                log.debug("Bad MD5 for file. Aborting with appropriate error message");
-                String msg = "The received MD5 checksum for the deposited file did not match the checksum sent by the deposit client";
-                throw new SwordError(UriRegistry.ERROR_CHECKSUM_MISMATCH, msg);
+            ChecksumUtils.hashAndCopy(inputStream, pipeline == null ? fileStream : pipeline.tee(fileStream), received);
+            if (pipeline != null) {
+                pipeline.finish(deposit);
             }
+        } catch (DepositPipeline.RejectedException e) {
+            this.discardSpoolFile(file, pipeline);
+            throw e.getError();
+        } catch (SwordError | SwordServerException e) {
+            this.discardSpoolFile(file, pipeline);
+            throw e;
+        } catch (ContentCoding.LimitExceededException e) {
+            this.discardSpoolFile(file, pipeline);
+            String msg = "The decoded file exceeded the maximum file size this server will accept (the server will only accept files as large as "
+                + config.getMaxUploadSize() + " bytes)";
+            throw new SwordError(UriRegistry.ERROR_MAX_UPLOAD_SIZE_EXCEEDED, msg);
+        } catch (SpoolDirectory.OutOfSpaceException e) {
+            this.discardSpoolFile(file, pipeline);
+            throw this.newOutOfSpaceError(config);
+        } catch (ZipException e) {
+            this.discardSpoolFile(file, pipeline);
+            throw new SwordError(UriRegistry.ERROR_CONTENT, "The content could not be decoded as " + deposit.getContentEncoding() + ": " + e.getMessage());
         } catch (IOException e) {
+            this.discardSpoolFile(file, pipeline);
             throw new SwordServerException(e);
         }
+    }
 
-        // Check the size is OK
-        File file = new File(filename);
+    private void discardSpoolFile(final File file, final DepositPipeline pipeline) {
+        if (pipeline != null) {
+            pipeline.abort();
+        }
+        this.deleteSpoolFile(file);
+    }
+
+    private void deleteSpoolFile(final File file) {
+        SpoolDirectory.delete(file);
+    }
+
+    /**
+     * Set up the {@link DepositStreamProcessor}s to read the content of the deposit while it is stored: those of
+     * {@link SwordConfiguration#getDepositStreamProcessors(Deposit)}, the content type detection of
+     * {@link SwordConfiguration#detectContentType()} and the zip inspection of {@link SwordConfiguration#inspectZipPackages()}.
+     *
+     * @return the pipeline, or null if there is nothing to process
+     */
+    DepositPipeline newDepositPipeline(final Deposit deposit, final SwordConfiguration config) {
+        List<DepositStreamProcessor> processors = new ArrayList<>(config.getDepositStreamProcessors(deposit));
+        if (config.detectContentType()) {
+            processors.add(new ContentTypeDetector());
+        }
+        if (config.inspectZipPackages() && UriRegistry.PACKAGE_SIMPLE_ZIP.equals(deposit.getPackaging())) {
+            processors.add(new ZipInspector());
+        }
+        return processors.isEmpty() ? null : new DepositPipeline(processors);
+    }
+
+    /**
+     * Prepare the digests to compute while storing the content of a deposit: the MD5, the digests the client sent,
+     * and those of {@link SwordConfiguration#getDigestAlgorithms()}.
+     */
+    protected ContentDigests newContentDigests(final Deposit deposit, final SwordConfiguration config) {
+        Set<String> algorithms = new LinkedHashSet<>(deposit.getContentDigests().keySet());
+        algorithms.addAll(config.getDigestAlgorithms());
+        return new ContentDigests(algorithms);
+    }
+
+    /**
+     * Reserve a new file in the configured temp directory to store a deposit in, see {@link SpoolDirectory}.
+     */
+    protected File newSpoolFile(final SwordConfiguration config) throws SwordServerException {
+        try {
+            return this.getSpoolDirectory(config).newFile();
+        } catch (IOException e) {
+            throw new SwordServerException("Could not create a directory for temporary deposit files in " + config.getTempDirectory(), e);
+        }
+    }
+
+    private SpoolDirectory getSpoolDirectory(final SwordConfiguration config) throws SwordServerException {
+        String tempDirectory = config.getTempDirectory();
+        if (tempDirectory == null) {
+            throw new SwordServerException("Store and Check operation requested, but no tempDirectory specified in config");
+        }
+        // files of paused resumable uploads must outlive their sessions, and those of queued deposits their jobs
+        long maxAge = 0L;
+        if (config.getSpoolFileMaxAge() > 0) {
+            maxAge = Math.max(config.getSpoolFileMaxAge(), config.getUploadSessionTtl());
+            if (config.useDeferredDeposits()) {
+                maxAge = Math.max(maxAge, config.getDepositJobRetention());
+            }
+        }
+        return SpoolDirectory.get(tempDirectory, maxAge);
+    }
+
+    /**
+     * Reserve a new file to store a deposit in: in the spool directory the manager chose for the deposit (see
+     * {@link Deposit#setSpoolDirectory(java.nio.file.Path)}), or else in the configured temp directory.
+     */
+    protected File newSpoolFile(final Deposit deposit, final SwordConfiguration config) throws SwordServerException {
+        if (deposit.getSpoolDirectory() == null) {
+            return this.newSpoolFile(config);
+        }
+        return deposit.getSpoolDirectory().resolve("SWORD-" + UUID.randomUUID()).toFile();
+    }
+
+    /**
+     * Reserve space for the content of a deposit in the directory it is going to be stored in, before its body is
+     * read, if {@link SwordConfiguration#getSpoolBudget()} or {@link SwordConfiguration#getSpoolMinFreeSpace()} is set.
+     * The declared Content-Length is reserved, or else the maximum upload size. If neither is known, the reservation
+     * grows while the content is stored (see {@link SpoolDirectory.Reservation#guard(OutputStream)}).
+     *
+     * @return the reservation, to be closed once the content has been stored, or null if no space is reserved
+     * @throws SwordError with status 503 and a Retry-After, if there is not enough space
+     */
+    SpoolDirectory.Reservation reserveSpoolSpace(final Deposit deposit, final SwordConfiguration config) throws SwordError, SwordServerException {
+        if (config.getSpoolBudget() < 0 && config.getSpoolMinFreeSpace() < 0) {
+            return null;
+        }
+        long length = deposit.getContentLength() >= 0 ? deposit.getContentLength() : Math.max(config.getMaxUploadSize(), 0);
+        SpoolDirectory.Reservation reservation;
+        try {
+            reservation = deposit.getSpoolDirectory() == null
+                ? this.getSpoolDirectory(config).reserve(length, config.getSpoolBudget(), config.getSpoolMinFreeSpace())
+                : SpoolDirectory.reserve(deposit.getSpoolDirectory(), length, config.getSpoolBudget(), config.getSpoolMinFreeSpace());
+        } catch (IOException e) {
+            throw new SwordServerException("Could not determine the free space for temporary deposit files", e);
+        }
+        if (reservation == null) {
+            log.warn("Refusing an upload of " + length + " bytes, as there is not enough space to store it");
+            throw this.newOutOfSpaceError(config);
+        }
+        return reservation;
+    }
+
+    private SwordError newOutOfSpaceError(final SwordConfiguration config) {
+        return new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+            "The server does not have enough space to store the deposit right now, please try again later")
+            .setRetryAfter(config.getSpoolRetryAfter());
+    }
+
+    /**
+     * Attach a stored deposit file to the deposit and check it against the MD5 sent by the client and the
+     * maximum upload size. The file is attached first, so that {@link #cleanup(Deposit)} removes it if a check fails.
+     * The tree digest of the file is attached as well, if enabled.
+     */
+    protected void checkStoredBinary(final Deposit deposit, final File file, final String receivedMD5, final SwordConfiguration config)
+            throws SwordError, SwordServerException {
         // Set the file to be deposited
         deposit.setFile(file);
 
+        // get the things we might want to compare
+        log.debug("Received filechecksum: " + receivedMD5);
+        String md5 = deposit.getMd5();
+        log.debug("Received file checksum header: " + md5);
+
+        if (md5 != null && !md5.equals(receivedMD5)) {
+            log.debug("Bad MD5 for file. Aborting with appropriate error message");
+            String msg = "The received MD5 checksum for the deposited file did not match the checksum sent by the deposit client";
+            throw new SwordError(UriRegistry.ERROR_CHECKSUM_MISMATCH, msg);
+        }
+
+        // Check the size is OK
         long fLength = file.length(); // in bytes
         if (config.getMaxUploadSize() != -1 && fLength > config.getMaxUploadSize()) {
             String msg = "The uploaded file exceeded the maximum file size this server will accept (the file is " + fLength
                     + " bytes but the server will only accept files as large as " + config.getMaxUploadSize() + " bytes)";
             throw new SwordError(UriRegistry.ERROR_MAX_UPLOAD_SIZE_EXCEEDED, msg);
         }
-    
-        log.debug("Package temporarily stored as: " + filename);
+
+        if (config.getTreeDigestChunkSize() > 0) {
+            try {
+                deposit.setTreeDigest(TreeDigest.compute(file, config.getTreeDigestChunkSize()));
+            } catch (IOException e) {
+                throw new SwordServerException("Could not hash the stored deposit file " + file.getAbsolutePath(), e);
+            }
+        }
+
+        log.debug("Package temporarily stored as: " + file.getAbsolutePath());
     }
-    
+
+    /**
+     * Like {@link #checkStoredBinary(Deposit, File, String, SwordConfiguration)}, and check the file against the
+     * digests sent by the client as well. The digests of the deposit are replaced by the computed ones.
+     */
+    protected void checkStoredBinary(final Deposit deposit, final File file, final ContentDigests received, final SwordConfiguration config)
+            throws SwordError, SwordServerException {
+        this.checkStoredBinary(deposit, file, received, null, config);
+    }
+
+    /**
+     * Like {@link #checkStoredBinary(Deposit, File, ContentDigests, SwordConfiguration)}, for content which was sent
+     * with a content coding and decoded while it was stored.
+     *
+     * @param encoded the digests of the content as sent, or null if it was not encoded
+     */
+    protected void checkStoredBinary(final Deposit deposit, final File file, final ContentDigests received, final ContentDigests encoded,
+                                     final SwordConfiguration config) throws SwordError, SwordServerException {
+        boolean md5OfEncoded = encoded != null && config.checksumEncodedContent();
+        this.checkStoredBinary(deposit, file, md5OfEncoded ? encoded.getMd5() : received.getMd5(), config);
+        if (encoded != null) {
+            encoded.verify(deposit.getEncodedDigests());
+            deposit.setContentLength(file.length());
+        }
+        received.verify(deposit.getContentDigests());
+        deposit.setContentDigests(received.getDigests());
+    }
+
     protected void cleanup(final Deposit deposit) {
         if (deposit == null) {
             return;
@@ -197,12 +664,167 @@ public class SwordAPIEndpoint {
             return;
         }
 
-        if (!tmp.delete()) {
-            log.error("Could not delete temporary deposit file " + tmp.getAbsolutePath());
-        }
+        // off the request thread, as deleting a large file can take a while
+        SpoolDirectory.delete(tmp);
         deposit.setFile(null);
     }
 
+    /**
+     * The key under which the outcome of this request is kept in the {@link IdempotencyStore}. It is scoped to the
+     * principal, the request method and the IRI, so that clients cannot see each other's receipts. Only verified
+     * principals are trusted (see {@link AuthCredentials#isAuthenticated()}): a stored receipt is sent before any
+     * manager has checked the password, so that anybody could otherwise read somebody else's receipts by sending
+     * their username. Requests without credentials, e.g. with the auth type "None", share the anonymous scope.
+     *
+     * @return the key, or null if the request has no "Idempotency-Key" header, there is no store, or the request
+     *         has credentials which have not been verified
+     */
+    protected String getIdempotencyKey(final HttpServletRequest req, final AuthCredentials auth) {
+        String header = req.getHeader("Idempotency-Key");
+        if (this.idempotencyStore == null || header == null || "".equals(header.trim())) {
+            return null;
+        }
+        if (auth != null && !auth.isAuthenticated() && auth.getUsername() != null) {
+            log.debug("Ignoring the Idempotency-Key of a request whose credentials have not been verified");
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String value : new String[] {auth == null ? null : auth.getPrincipal(), auth == null ? null : auth.getOnBehalfOf(),
+                                              req.getMethod(), this.getFullUrl(req), header.trim()}) {
+                // separate the fields, so that e.g. "ab" + "c" and "a" + "bc" do not collide
+                digest.update((byte) (value == null ? 0 : 1));
+                if (value != null) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+                    digest.update(bytes);
+                }
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Claim the idempotency key for this request, before its body is read.
+     *
+     * @return the receipt of an earlier request with the same key, which should be sent instead of processing
+     *         the deposit again, or null if this request holds the key now
+     * @throws SwordError with status 409, if an earlier request with the same key is still being processed
+     */
+    protected StoredReceipt claimIdempotencyKey(final HttpServletRequest req, final String key) throws SwordError {
+        // the request may come back after its body has been read asynchronously, still holding the key; from here on
+        // it is released by this request, see IdempotencyKeyRelease
+        if (key.equals(req.getAttribute(IDEMPOTENCY_KEY_ATTRIBUTE))) {
+            req.removeAttribute(IDEMPOTENCY_KEY_ATTRIBUTE);
+            return null;
+        }
+        if (this.idempotencyStore.claim(key)) {
+            req.setAttribute(IDEMPOTENCY_KEY_ATTRIBUTE, key);
+            return null;
+        }
+        StoredReceipt stored = this.idempotencyStore.get(key);
+        if (stored == null) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_CONFLICT,
+                "A deposit with the same Idempotency-Key is still being processed");
+        }
+        return stored;
+    }
+
+    /**
+     * Renders a deposit receipt for the response, see {@link #rememberReceipt}.
+     */
+    protected interface ReceiptRenderer {
+        StoredReceipt render(DepositReceipt receipt) throws SwordServerException, IOException;
+    }
+
+    /**
+     * Render the receipt once the stage has completed, and store the rendering under the idempotency key, or release
+     * the key if the deposit failed. The rendering is what gets sent, by this request and by any retry, so the
+     * receipt is never shared between requests.
+     *
+     * @param key the claimed key, or null
+     */
+    protected CompletionStage<StoredReceipt> rememberReceipt(final String key, final CompletionStage<DepositReceipt> stage,
+                                                             final ReceiptRenderer renderer) {
+        CompletionStage<StoredReceipt> rendered = stage.thenApply(receipt -> {
+            try {
+                return renderer.render(receipt);
+            } catch (SwordServerException | IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        if (key == null) {
+            return rendered;
+        }
+        return rendered.whenComplete((stored, failure) -> {
+            if (failure == null && stored != null) {
+                this.idempotencyStore.store(key, stored);
+            } else {
+                this.idempotencyStore.release(key);
+            }
+        });
+    }
+
+    /**
+     * Send the outcome of the first attempt of a retried deposit, which must have been of the same kind.
+     *
+     * @param isBatch whether this request is a batch deposit
+     * @throws SwordError with status 409, if the key has been used for a different kind of deposit
+     */
+    protected void writeStoredReceipt(final HttpServletRequest req, final HttpServletResponse resp, final StoredReceipt stored, final boolean isBatch)
+            throws SwordError, IOException {
+        if (isBatch != stored.isBatch()) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_CONFLICT,
+                "The Idempotency-Key has been used for a different kind of deposit");
+        }
+        this.writeStoredReceipt(req, resp, stored);
+    }
+
+    /**
+     * Send a rendered receipt, with the status and headers it was rendered with.
+     */
+    protected void writeStoredReceipt(final HttpServletRequest req, final HttpServletResponse resp, final StoredReceipt stored) throws IOException {
+        resp.setStatus(stored.getStatus());
+        if (stored.getLocation() != null) {
+            resp.setHeader("Location", stored.getLocation());
+        }
+        byte[] document = stored.getDocument();
+        if (document != null) {
+            resp.setHeader("Content-Type", stored.getContentType());
+            if (stored.getLastModified() != null) {
+                resp.setHeader("Last-Modified", stored.getLastModified());
+            }
+            this.writeDocument(req, resp, new String(document, StandardCharsets.UTF_8), true);
+        }
+    }
+
+    /**
+     * Release a claimed idempotency key, because the deposit failed before it reached the manager.
+     *
+     * @param key the claimed key, or null
+     */
+    protected void releaseIdempotencyKey(final String key) {
+        if (key != null) {
+            this.idempotencyStore.release(key);
+        }
+    }
+
+    /**
+     * Add the state of the background job for the given IRI to the statement, if there is one.
+     */
+    protected void addJobState(final String iri, final Statement statement) {
+        if (this.depositJobs == null) {
+            return;
+        }
+        DepositJobs.Status status = this.depositJobs.getStatus(iri);
+        if (status != null) {
+            statement.addState(status.getState(), status.getDescription());
+        }
+    }
+
     protected Element getGenerator(final SwordConfiguration config) {
         String generatorUri = config.generator();
         String generatorVersion = config.generatorVersion();
@@ -223,7 +845,9 @@ public class SwordAPIEndpoint {
     }
 
     protected void addDepositPropertiesFromEntry(final Deposit deposit, final HttpServletRequest req) throws IOException, SwordError {
-        parseEntryFromInputStream(deposit, req.getInputStream());
+        InputStream body = HmacAuthentication.getSignedBody(req, req.getInputStream());
+        parseEntryFromInputStream(deposit, body);
+        HmacAuthentication.verifySignedBody(body);
     }
     
     /**
@@ -234,6 +858,11 @@ public class SwordAPIEndpoint {
      * @throws SwordError when parsing fails.
      */
     private void parseEntryFromInputStream(final Deposit deposit, final InputStream entryPart) throws SwordError {
+        if (this.config.useStreamingEntryReader()) {
+            deposit.setEntry(new SwordEntryReader(this.config).read(entryPart));
+            return;
+        }
+
         Abdera abdera = new Abdera();
         Parser parser = abdera.getParser();
         Document<Entry> entryDoc = null;
@@ -247,6 +876,16 @@ public class SwordAPIEndpoint {
     }
     
     protected void addDepositPropertiesFromBinary(final Deposit deposit, final HttpServletRequest req) throws ServletException, IOException, SwordError {
+        this.addDepositPropertiesFromHeaders(deposit, req);
+        this.addDepositContentFromBinary(deposit, req);
+    }
+
+    /**
+     * Fill the deposit with the properties of a binary deposit which are given in the request headers, without
+     * touching the request body. As long as the body has not been read, a client which sent
+     * "Expect: 100-continue" has not sent it yet either, so any error raised from here on is cheap.
+     */
+    protected void addDepositPropertiesFromHeaders(final Deposit deposit, final HttpServletRequest req) throws SwordError {
         String contentType = this.getContentType(req);
         String contentDisposition = req.getHeader("Content-Disposition");
         String md5 = req.getHeader("Content-MD5");
@@ -261,8 +900,6 @@ public class SwordAPIEndpoint {
             } catch (NumberFormatException e) { }
         }
 
-        InputStream file = req.getInputStream();
-
         // now let's interpret and deal with the headers that we have
         String filename;
         try {
@@ -274,21 +911,424 @@ public class SwordAPIEndpoint {
             throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Filename could not be extracted from Content-Disposition: " + e.getMessage());
         }
 
+        // refuse announced uploads which are too large right away, instead of after having read them
+        if (this.config.getMaxUploadSize() != -1 && len > this.config.getMaxUploadSize()) {
+            String msg = "The announced file exceeds the maximum file size this server will accept (the file is " + len
+                    + " bytes but the server will only accept files as large as " + this.config.getMaxUploadSize() + " bytes)";
+            throw new SwordError(UriRegistry.ERROR_MAX_UPLOAD_SIZE_EXCEEDED, msg);
+        }
+
+        // the digests of the content as sent, and those of the representation, which is what gets stored; without
+        // a content coding, both are the same
+        String contentEncoding = ContentCoding.get(req.getHeader("Content-Encoding"));
+        Map<String, String> encodedDigests = new LinkedHashMap<>();
+        Map<String, String> digests = new LinkedHashMap<>();
+        Map<String, String> legacyDigests = ContentDigests.parseLegacy(req.getHeader("Digest"));
+        if (contentEncoding != null && this.config.checksumEncodedContent()) {
+            encodedDigests.putAll(legacyDigests);
+        } else {
+            digests.putAll(legacyDigests);
+        }
+        digests.putAll(ContentDigests.parse(req.getHeader("Repr-Digest")));
+        if (contentEncoding != null) {
+            encodedDigests.putAll(ContentDigests.parse(req.getHeader("Content-Digest")));
+        } else {
+            digests.putAll(ContentDigests.parse(req.getHeader("Content-Digest")));
+        }
+
         deposit.setFilename(filename);
         deposit.setMd5(md5);
+        deposit.setContentEncoding(contentEncoding);
+        deposit.setContentDigests(digests);
+        deposit.setEncodedDigests(encodedDigests);
         deposit.setPackaging(packaging);
-        deposit.setInputStream(file);
         deposit.setMimeType(contentType);
-        deposit.setContentLength(len);
+        // the length of the decoded content is only known once it has been stored
+        deposit.setContentLength(contentEncoding == null ? len : -1L);
+    }
+
+    /**
+     * Read the body of a binary deposit, whose header properties have already been added with
+     * {@link #addDepositPropertiesFromHeaders(Deposit, HttpServletRequest)}.
+     */
+    protected void addDepositContentFromBinary(final Deposit deposit, final HttpServletRequest req) throws ServletException, IOException, SwordError {
+        // the body may already have been read asynchronously, see spoolAsync()
+        AsyncSpool.Result spooled = AsyncSpool.claim(req);
+        if (spooled != null) {
+            if (spooled.getError() != null) {
+                throw spooled.getError();
+            } else if (spooled.getFailure() instanceof SpoolDirectory.OutOfSpaceException) {
+                throw this.newOutOfSpaceError(this.config);
+            } else if (spooled.getFailure() != null) {
+                throw new ServletException(spooled.getFailure());
+            }
+        }
+
+        try {
+            if (spooled != null) {
+                if (spooled.getPipeline() != null) {
+                    try {
+                        spooled.getPipeline().finish(deposit);
+                    } catch (SwordError | SwordServerException e) {
+                        this.deleteSpoolFile(spooled.getFile());
+                        throw e;
+                    }
+                }
+                this.checkStoredBinary(deposit, spooled.getFile(), spooled.getDigests(), this.config);
+                return;
+            }
+            // a stored body is checked against the signed digests like against any others
+            deposit.setInputStream(this.config.storeAndCheckBinary() ? req.getInputStream() : HmacAuthentication.getSignedBody(req, req.getInputStream(),
+                deposit.getContentEncoding() == null || this.config.checksumEncodedContent()));
+            try (RateLimiter.Permit permit = this.config.storeAndCheckBinary() ? this.acquireUploadPermit(req) : null) {
+                this.storeAndCheckBinary(deposit, this.config);
+            }
+        } catch (SwordServerException e) {
+            throw new ServletException(e);
+        }
+    }
+
+    /**
+     * Start reading the body of a binary deposit asynchronously, if {@link SwordConfiguration#useAsyncUploads()} is
+     * enabled and the request allows it. The body is then stored and hashed as it arrives, without holding a container
+     * thread, and the request is dispatched to the servlet again once it is complete. There, the endpoint method runs
+     * once more, with the credentials verified before (see {@link #getAuthCredentials(HttpServletRequest, boolean)})
+     * and without validating the deposit again (see {@link AsyncSpool#isSpooled(HttpServletRequest)}), and
+     * {@link #addDepositContentFromBinary(Deposit, HttpServletRequest)} picks up the stored file.
+     *
+     * @return true if the body is being read asynchronously, in which case the caller must return without writing
+     *         a response.
+     */
+    protected boolean spoolAsync(final HttpServletRequest req, final Deposit deposit) throws SwordServerException, SwordError, IOException {
+        // encoded content is decoded by a blocking stream, see storeAndCheckBinary()
+        if (!this.config.useAsyncUploads() || !this.config.storeAndCheckBinary() || !req.isAsyncSupported()
+                || req.isAsyncStarted() || AsyncSpool.isSpooled(req) || deposit.getContentEncoding() != null) {
+            return false;
+        }
+        RateLimiter.Permit permit = this.acquireUploadPermit(req);
+        SpoolDirectory.Reservation reservation = null;
+        try {
+            reservation = this.reserveSpoolSpace(deposit, this.config);
+            AsyncSpool.start(req, this.newSpoolFile(deposit, this.config), this.config.getMaxUploadSize(),
+                this.newContentDigests(deposit, this.config), this.newDepositPipeline(deposit, this.config), reservation, permit);
+        } catch (SwordError | SwordServerException | IOException | RuntimeException e) {
+            if (reservation != null) {
+                reservation.close();
+            }
+            if (permit != null) {
+                permit.close();
+            }
+            throw e;
+        }
+        String key = (String) req.getAttribute(IDEMPOTENCY_KEY_ATTRIBUTE);
+        if (key != null) {
+            req.getAsyncContext().addListener(new IdempotencyKeyRelease(req, key));
+        }
+        return true;
+    }
+
+    /**
+     * Releases the idempotency key claimed by a request whose body is read asynchronously, unless the request
+     * dispatched once the body has been read has taken it over (see {@link #claimIdempotencyKey}). Otherwise a client
+     * which lost its connection while sending the body, or whose dispatched request failed before the deposit was
+     * processed, would have its retry refused as a duplicate until the key expired.
+     */
+    private final class IdempotencyKeyRelease implements AsyncListener {
+        private final HttpServletRequest req;
+        private final String key;
+
+        IdempotencyKeyRelease(final HttpServletRequest req, final String key) {
+            this.req = req;
+            this.key = key;
+        }
+
+        private void release() {
+            if (this.key.equals(this.req.getAttribute(IDEMPOTENCY_KEY_ATTRIBUTE))) {
+                this.req.removeAttribute(IDEMPOTENCY_KEY_ATTRIBUTE);
+                SwordAPIEndpoint.this.idempotencyStore.release(this.key);
+            }
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            this.release();
+        }
 
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            this.release();
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            this.release();
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            // the listeners are dropped when the dispatched request starts another asynchronous cycle
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    /**
+     * Whether the client announced with "Expect: 100-continue" that it waits for our go before sending the body.
+     */
+    protected boolean expectsContinue(final HttpServletRequest req) {
+        String expect = req.getHeader("Expect");
+        return expect != null && "100-continue".equalsIgnoreCase(expect.trim());
+    }
+
+    /**
+     * Whether the request is part of a resumable upload: it either starts one (a PUT or POST with an
+     * "Upload-Length" header), or addresses an upload session (an IRI with an "upload" query parameter).
+     * Always false if resumable uploads are disabled, see {@link SwordConfiguration#getUploadSessionTtl()}.
+     */
+    public boolean isUploadRequest(final HttpServletRequest req) {
+        return this.uploads != null && this.uploads.isUploadRequest(req);
+    }
+
+    /**
+     * Handle a request of a resumable upload: start an upload session, report its progress, append to it or abort
+     * it. The protocol is implemented by {@code UploadSessionHandler}; the endpoint authenticates the request and
+     * provides the deposit specific parts, see {@link #prepareUpload} and {@link #completeUpload}.
+     */
+    public void upload(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        // do the initial authentication
+        AuthCredentials auth = null;
+        try {
+            auth = this.getAuthCredentials(req);
+        } catch (SwordAuthException e) {
+            if (e.isRetry()) {
+                resp.setHeader("WWW-Authenticate", this.getAuthChallenge());
+                resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                return;
+            } else {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+        }
+        if (!this.admit(req, resp, auth)) {
+            return;
+        }
+
+        try {
+            this.uploads.handle(req, resp, auth);
+        } catch (SwordError se) {
+            this.swordError(req, resp, se);
+        } catch (SwordServerException e) {
+            throw new ServletException(e);
+        } catch (SwordAuthException e) {
+            // authentication actually failed at the server end; not a SwordError, but
+            // need to throw a 403 Forbidden
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+        }
+    }
+
+    /**
+     * Add the endpoint specific properties of the request to a deposit sent as resumable upload, and let the
+     * manager validate it, before the upload session is created. The default implementation refuses uploads.
+     *
+     * @param method the method which started the upload, i.e. PUT or POST
+     * @param target the IRI the upload was started on
+     */
+    protected void prepareUpload(final HttpServletRequest req, final String method, final String target, final Deposit deposit,
+                                 final AuthCredentials auth) throws SwordError, SwordServerException, SwordAuthException {
+        throw new SwordError(UriRegistry.ERROR_METHOD_NOT_ALLOWED, "This endpoint does not accept resumable uploads");
+    }
+
+    /**
+     * Hand a completed resumable upload to the manager and send the response, like for a deposit sent in a single
+     * request. The stored file has been checked already.
+     *
+     * @param deposit the deposit, which this method has to clean up (see {@link #respond})
+     */
+    protected void completeUpload(final HttpServletRequest req, final HttpServletResponse resp, final String method, final String target,
+                                  final Deposit deposit, final AuthCredentials auth)
+            throws SwordError, SwordServerException, SwordAuthException, IOException, ServletException {
+        this.cleanup(deposit);
+        throw new SwordError(UriRegistry.ERROR_METHOD_NOT_ALLOWED, "This endpoint does not accept resumable uploads");
+    }
+
+    /**
+     * Write the response for the outcome of an (asynchronous) manager call.
+     */
+    @FunctionalInterface
+    protected interface ResponseWriter<T> {
+        void write(T result) throws SwordError, SwordServerException, SwordAuthException, IOException, ServletException;
+    }
+
+    /**
+     * Write the response once the given stage has completed, and clean up the deposit afterwards. Failures of the stage
+     * are handled as if thrown by a synchronous manager. If the stage is not complete yet, the request is put into
+     * asynchronous mode, so that no container thread waits for the manager. Requests which are already asynchronous
+     * (see {@link SwordConfiguration#useVirtualThreads()}) simply wait.
+     *
+     * @param deposit the deposit handed to the manager, or null. From here on, this method takes care of its cleanup.
+     */
+    protected <T> void respond(final HttpServletRequest req, final HttpServletResponse resp, final Deposit deposit, final CompletionStage<T> stage,
+                               final ResponseWriter<T> writer) throws ServletException, IOException {
+        CompletableFuture<T> future = stage.toCompletableFuture();
+        if (future.isDone() || req.isAsyncStarted() || !req.isAsyncSupported()) {
+            T result = null;
+            Throwable failure = null;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.cleanup(deposit);
+                throw new ServletException(e);
+            }
+            this.respond(req, resp, deposit, result, failure, writer);
+            return;
+        }
+
+        AsyncContext context = req.startAsync();
+        // the manager decides how long it takes
+        context.setTimeout(0);
+        future.whenComplete((result, failure) -> {
+            try {
+                this.respond(req, resp, deposit, result, failure, writer);
+            } catch (ServletException | IOException | RuntimeException e) {
+                log.error("Unable to complete " + req.getMethod() + " " + req.getRequestURI(), e);
+                if (!resp.isCommitted()) {
+                    try {
+                        resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    } catch (IOException ioe) {
+                        log.warn("Unable to send error response: " + ioe.getMessage());
+                    }
+                }
+            } finally {
+                context.complete();
+            }
+        });
+    }
+
+    private <T> void respond(final HttpServletRequest req, final HttpServletResponse resp, final Deposit deposit, final T result,
+                             final Throwable failure, final ResponseWriter<T> writer) throws ServletException, IOException {
         try {
-            this.storeAndCheckBinary(deposit, this.config);
+            if (failure != null) {
+                throw this.unwrapFailure(failure);
+            }
+            writer.write(result);
+        } catch (SwordError se) {
+            this.swordError(req, resp, se);
         } catch (SwordServerException e) {
             throw new ServletException(e);
+        } catch (SwordAuthException e) {
+            // authentication actually failed at the server end; not a SwordError, but
+            // need to throw a 403 Forbidden
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+        } finally {
+            // get rid of any temp files used
+            this.cleanup(deposit);
+        }
+    }
+
+    private SwordServerException unwrapFailure(final Throwable failure) throws SwordError, SwordServerException, SwordAuthException {
+        Throwable cause = failure;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof SwordError) {
+            throw (SwordError) cause;
+        } else if (cause instanceof SwordAuthException) {
+            throw (SwordAuthException) cause;
+        } else if (cause instanceof SwordServerException) {
+            throw (SwordServerException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new SwordServerException(cause);
+    }
+
+    /**
+     * Send a document which has been written to a string, with a Content-MD5 of the bytes sent. If
+     * {@link SwordConfiguration#useResponseCompression()} is on and the document is large enough, it is compressed
+     * with the coding the client accepts.
+     *
+     * @param sendBody false to only send the headers, as for a HEAD request
+     */
+    protected void writeDocument(final HttpServletRequest req, final HttpServletResponse resp, final String document, final boolean sendBody)
+            throws IOException {
+        String coding = this.getResponseCoding(req, resp);
+        if (coding == null || document.length() < this.config.getResponseCompressionMinSize()) {
+            resp.setHeader("Content-MD5", md5(document.getBytes(StandardCharsets.UTF_8)));
+            if (sendBody) {
+                resp.getWriter().append(document);
+                resp.getWriter().flush();
+            }
+            return;
+        }
+
+        // Content-MD5 covers the entity as sent, i.e. after the content coding has been applied
+        String charset = resp.getCharacterEncoding() != null ? resp.getCharacterEncoding() : StandardCharsets.UTF_8.name();
+        byte[] compressed = ResponseCompression.compress(document.getBytes(charset), coding);
+        resp.setHeader("Content-Encoding", coding);
+        resp.setHeader("Content-MD5", md5(compressed));
+        resp.setContentLength(compressed.length);
+        if (sendBody) {
+            resp.getOutputStream().write(compressed);
+            resp.getOutputStream().flush();
+        }
+    }
+
+    /**
+     * Stream a document, like a feed of the collection contents, which may be too large to be written to a string
+     * first. If {@link SwordConfiguration#useResponseCompression()} is on, it is compressed while it is written.
+     */
+    protected void writeDocument(final HttpServletRequest req, final HttpServletResponse resp, final Base document) throws IOException {
+        String coding = this.getResponseCoding(req, resp);
+        if (coding == null) {
+            document.writeTo(resp.getWriter());
+            resp.getWriter().flush();
+            return;
+        }
+
+        resp.setHeader("Content-Encoding", coding);
+        String charset = resp.getCharacterEncoding() != null ? resp.getCharacterEncoding() : StandardCharsets.UTF_8.name();
+        try (Writer writer = new OutputStreamWriter(ResponseCompression.open(resp.getOutputStream(), coding), charset)) {
+            document.writeTo(writer);
         }
     }
 
+    /**
+     * The content coding to compress the response with, or null if it is sent as it is.
+     */
+    private String getResponseCoding(final HttpServletRequest req, final HttpServletResponse resp) {
+        if (!this.config.useResponseCompression()) {
+            return null;
+        }
+        // the representation depends on Accept-Encoding, whether it is compressed this time or not
+        resp.addHeader("Vary", "Accept-Encoding");
+        return ResponseCompression.negotiate(req.getHeader("Accept-Encoding"));
+    }
+
+    private static String md5(final byte[] content) {
+        ContentDigests digests = new ContentDigests(List.of());
+        digests.update(content, 0, content.length);
+        return digests.getMd5();
+    }
+
     protected void swordError(final HttpServletRequest req, final HttpServletResponse resp, final SwordError e) throws IOException, ServletException {
+        // refusals of the rate limiter, or of managers under load, must be cheap
+        if (e.getStatus() == RateLimiter.SC_TOO_MANY_REQUESTS && e.hasBody() && !this.config.returnStackTraceInError()) {
+            this.writeRateLimitError(req, resp, e.getErrorUri(), e.getMessage(), e.getRetryAfter());
+            return;
+        }
+        // a client waiting for "100 Continue" may still be about to send the body; don't keep the connection
+        // around just to drain it
+        if (this.expectsContinue(req)) {
+            resp.setHeader("Connection", "close");
+        }
+        if (e.getRetryAfter() >= 0) {
+            resp.setHeader("Retry-After", Long.toString(e.getRetryAfter()));
+        }
+
         try {
             if (!this.config.returnErrorBody() || !e.hasBody()) {
                 ErrorDocument doc = new ErrorDocument(e.getErrorUri(), e.getStatus());
@@ -1,5 +1,7 @@
 package org.swordapp.server;
 
+import java.util.List;
+
 public interface SwordConfiguration {
     boolean returnDepositReceipt();
 
@@ -26,4 +28,309 @@ public interface SwordConfiguration {
     String getAlternateUrlContentType();
 
     boolean allowUnauthenticatedMediaAccess();
+
+    /**
+     * Use the streaming {@link SwordEntryReader} for Atom entries instead of the Abdera parser. The streaming reader
+     * only keeps the title, summary and extension elements of an entry and enforces the limits below.
+     */
+    default boolean useStreamingEntryReader() {
+        return false;
+    }
+
+    /**
+     * Maximum size in bytes of an Atom entry read by the streaming entry reader, or -1 for no limit.
+     */
+    default long getMaxEntrySize() {
+        return -1L;
+    }
+
+    /**
+     * Maximum element nesting depth of an Atom entry read by the streaming entry reader, or -1 for no limit.
+     */
+    default int getMaxEntryDepth() {
+        return -1;
+    }
+
+    /**
+     * Maximum number of elements in an Atom entry read by the streaming entry reader, or -1 for no limit.
+     */
+    default int getMaxEntryElements() {
+        return -1;
+    }
+
+    /**
+     * Maximum number of entries in an Atom feed sent to a collection as batch deposit, or -1 for no limit.
+     * 0 disables batch deposits. Batches are always read by the streaming entry reader.
+     */
+    default int getMaxBatchEntries() {
+        return 0;
+    }
+
+    /**
+     * How long, in seconds, a successful verification by the {@link Authenticator} is remembered.
+     * 0 disables the credential cache.
+     */
+    default long getAuthCacheTtl() {
+        return 0L;
+    }
+
+    /**
+     * Maximum number of verified credentials to remember, see {@link #getAuthCacheTtl()}.
+     */
+    default int getAuthCacheMaxSize() {
+        return CachingAuthenticator.DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * Get the shared secret for the given key id, used to verify Bearer tokens and HMAC signed requests
+     * (see {@link HmacAuthentication}). Return null for unknown keys.
+     */
+    default byte[] getSigningKey(final String keyId) {
+        return null;
+    }
+
+    /**
+     * How many seconds the timestamp of an HMAC signed request may differ from the server time.
+     */
+    default long getMaxSignatureAge() {
+        return HmacAuthentication.DEFAULT_MAX_SIGNATURE_AGE;
+    }
+
+    /**
+     * Read the bodies of binary deposits without blocking a container thread, and call the managers once the body
+     * is complete. Requires {@link #storeAndCheckBinary()} and servlets which are marked as async-supported.
+     */
+    default boolean useAsyncUploads() {
+        return false;
+    }
+
+    /**
+     * Write media resources to the client without blocking a container thread. Requires servlets which are marked as
+     * async-supported.
+     */
+    default boolean useAsyncDownloads() {
+        return false;
+    }
+
+    /**
+     * Serve requests on virtual threads instead of container threads, so that blocking manager calls do not limit
+     * the number of concurrent requests. Requires JDK 21 or newer and servlets which are marked as async-supported;
+     * requests are served on container threads otherwise. Request bodies are then read blocking on the virtual
+     * thread, regardless of {@link #useAsyncUploads()} and {@link #useAsyncDownloads()}.
+     */
+    default boolean useVirtualThreads() {
+        return false;
+    }
+
+    /**
+     * Process new deposits in the background: the client gets "202 Accepted" with the provisional receipt from
+     * {@link CollectionDepositManager#reserveNew(String, Deposit, AuthCredentials, SwordConfiguration)} as soon as
+     * the deposit is stored, and follows the progress in the statement.
+     */
+    default boolean useDeferredDeposits() {
+        return false;
+    }
+
+    /**
+     * Number of deposits processed in parallel if {@link #useDeferredDeposits()} is enabled.
+     */
+    default int getDepositWorkers() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Number of deposits waiting for a worker before further deposits are refused with "503 Service Unavailable".
+     */
+    default int getDepositQueueSize() {
+        return DepositJobs.DEFAULT_QUEUE_SIZE;
+    }
+
+    /**
+     * Number of seconds the outcome of a background deposit is reported in its statement.
+     */
+    default long getDepositJobRetention() {
+        return DepositJobs.DEFAULT_RETENTION;
+    }
+
+    /**
+     * How long, in seconds, the receipts of deposits sent with an "Idempotency-Key" header are remembered, so that
+     * retries get the same receipt. 0 disables idempotency keys, unless an {@link IdempotencyStore} is configured.
+     */
+    default long getIdempotencyKeyTtl() {
+        return 0L;
+    }
+
+    /**
+     * Maximum number of idempotency keys to remember in memory, see {@link #getIdempotencyKeyTtl()}.
+     */
+    default int getIdempotencyStoreMaxSize() {
+        return InMemoryIdempotencyStore.DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * How long, in seconds, an unfinished resumable upload is kept after its last request.
+     * 0 disables resumable uploads.
+     */
+    default long getUploadSessionTtl() {
+        return 0L;
+    }
+
+    /**
+     * Maximum number of segments a resumable upload may be split into, see {@link #getUploadSessionTtl()}.
+     */
+    default int getMaxUploadSegments() {
+        return ResumableUploads.DEFAULT_MAX_SEGMENTS;
+    }
+
+    /**
+     * Size in bytes of the chunks of the {@link TreeDigest} computed for stored deposit files, in parallel to the MD5.
+     * 0 (the default) disables the tree digest, {@link TreeDigest#DEFAULT_CHUNK_SIZE} is a reasonable choice.
+     */
+    default int getTreeDigestChunkSize() {
+        return 0;
+    }
+
+    /**
+     * Digest algorithms (RFC 9530 keys, see {@link ContentDigests}) to compute for every stored deposit file, in
+     * the same pass as the MD5, in addition to those the client sends digests for.
+     */
+    default List<String> getDigestAlgorithms() {
+        return List.of();
+    }
+
+    /**
+     * Whether the Content-MD5 and the RFC 3230 Digest of a deposit sent with a Content-Encoding are checked against
+     * the encoded content as sent, rather than against the decoded content which is stored (the default).
+     * Content-Digest always covers the encoded content, Repr-Digest the decoded one.
+     */
+    default boolean checksumEncodedContent() {
+        return false;
+    }
+
+    /**
+     * Whether deposit receipts, statements, feeds and service documents are compressed with gzip or deflate for
+     * clients which send a matching Accept-Encoding. Off by default, as a proxy in front of the server may already do so.
+     */
+    default boolean useResponseCompression() {
+        return false;
+    }
+
+    /**
+     * The minimum size, in characters, of a response document to be compressed; smaller documents are not worth it.
+     * Documents which are streamed, like feeds, are compressed regardless of their size.
+     */
+    default int getResponseCompressionMinSize() {
+        return ResponseCompression.DEFAULT_MIN_SIZE;
+    }
+
+    /**
+     * Whether {@link UriRegistry#PACKAGE_SIMPLE_ZIP} deposits are read as zip archives while they are stored, checking
+     * the CRCs and sizes of all entries. Corrupt archives are refused, and managers find the entries of the others as
+     * {@link Deposit#getZipManifest()}.
+     */
+    default boolean inspectZipPackages() {
+        return false;
+    }
+
+    /**
+     * The processors which read the content of a binary deposit while it is stored, see {@link DepositStreamProcessor}.
+     * Called once for every deposit which is stored, so it has to return new instances. Nothing is processed if
+     * {@link #storeAndCheckBinary()} is off.
+     *
+     * @param deposit the deposit, with the properties from the request headers, like its packaging
+     */
+    default List<DepositStreamProcessor> getDepositStreamProcessors(final Deposit deposit) {
+        return List.of();
+    }
+
+    /**
+     * Whether the media type of binary deposits is detected from the signature at the start of their content while
+     * they are stored. Managers find it as {@link Deposit#getDetectedMimeType()}, next to the Content-Type the client
+     * declared as {@link Deposit#getMimeType()}.
+     */
+    default boolean detectContentType() {
+        return false;
+    }
+
+    /**
+     * The age in seconds after which files in the temp directory which have not been modified any more are deleted
+     * by a background janitor, e.g. those left behind when the server crashed during an upload. It must be longer
+     * than managers take to process a deposit; it is at least {@link #getUploadSessionTtl()}, and with
+     * {@link #useDeferredDeposits()} at least {@link #getDepositJobRetention()}. 0 (the default) keeps
+     * files until they are deleted along with their deposit.
+     */
+    default long getSpoolFileMaxAge() {
+        return 0L;
+    }
+
+    /**
+     * The maximum total size in bytes of the deposits being stored on the file system of the temp directory (or of
+     * the spool directory a manager chose) at the same time. Every upload reserves its Content-Length (or the maximum
+     * upload size, if it does not declare one) before its body is read, and uploads which do not fit are refused with
+     * "503 Service Unavailable" and a Retry-After header. Uploads of unknown size reserve space as they are written.
+     * -1 (the default) sets no budget.
+     */
+    default long getSpoolBudget() {
+        return -1L;
+    }
+
+    /**
+     * The usable space in bytes the file system of the temp directory must keep after all reservations (see
+     * {@link #getSpoolBudget()}), or uploads are refused like those exceeding the budget. -1 (the default) does not
+     * check the file system.
+     */
+    default long getSpoolMinFreeSpace() {
+        return -1L;
+    }
+
+    /**
+     * The number of seconds after which clients are told to try again, when their upload has been refused for lack
+     * of space (see {@link #getSpoolBudget()}).
+     */
+    default long getSpoolRetryAfter() {
+        return SpoolDirectory.DEFAULT_RETRY_AFTER;
+    }
+
+    /**
+     * The number of requests per second each user may send, averaged over {@link #getRequestBurst()} requests. The
+     * authenticated principal and the user named in On-Behalf-Of are limited separately; requests whose credentials
+     * have not been verified (see {@link AuthCredentials#isAuthenticated()}) are limited by the address of the client
+     * instead. Requests exceeding the limit are refused with "429 Too Many Requests" and a Retry-After header. 0 (the
+     * default) sets no limit.
+     */
+    default double getUserRequestRate() {
+        return 0;
+    }
+
+    /**
+     * The number of requests per second which may be sent to each collection, by all users together, averaged like
+     * {@link #getUserRequestRate()}. 0 (the default) sets no limit.
+     */
+    default double getCollectionRequestRate() {
+        return 0;
+    }
+
+    /**
+     * The number of requests a user or collection may send in a row before the request rate is enforced.
+     */
+    default int getRequestBurst() {
+        return RateLimiter.DEFAULT_BURST;
+    }
+
+    /**
+     * The number of binary deposits each user may be uploading at the same time, counting the principal and the
+     * user named in On-Behalf-Of separately. Further uploads are refused with "429 Too Many Requests" before their body
+     * is read. 0 (the default) sets no limit.
+     */
+    default int getMaxConcurrentUploadsPerUser() {
+        return 0;
+    }
+
+    /**
+     * The number of binary deposits which may be uploaded to each collection at the same time, by all users
+     * together. 0 (the default) sets no limit.
+     */
+    default int getMaxConcurrentUploadsPerCollection() {
+        return 0;
+    }
 }
@@ -3,15 +3,19 @@ package org.swordapp.server;
 import org.apache.abdera.model.Element;
 import org.apache.abdera.model.Entry;
 
+import javax.xml.namespace.QName;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class SwordEntry {
     private final Entry entry;
+    private volatile Map<String, Map<String, List<String>>> extensionIndex = null;
 
     public SwordEntry(final Entry entry) {
         this.entry = entry;
@@ -39,25 +43,71 @@ public class SwordEntry {
         }
     }
 
-    // put the code in for getting a dublin core record out
+    /**
+     * Get the Dublin Core terms of this entry, keyed by their local name (e.g. "creator").
+     * The returned map and its value lists are immutable and computed only once, see {@link #getExtensionValues(String)}.
+     */
     public Map<String, List<String>> getDublinCore() {
-        Map<String, List<String>> dc = new HashMap<String, List<String>>();
-        List<Element> extensions = this.entry.getExtensions();
-        for (Element element : extensions) {
-            if (UriRegistry.DC_NAMESPACE.equals(element.getQName().getNamespaceURI())) {
-                // we have a dublin core extension
-                String field = element.getQName().getLocalPart();
-                String value = element.getText();
-
-                if (dc.containsKey(field)) {
-                    dc.get(field).add(value);
-                } else {
-                    ArrayList<String> values = new ArrayList<String>();
-                    values.add(value);
-                    dc.put(field, values);
-                }
+        return this.getExtensionValues(UriRegistry.DC_NAMESPACE);
+    }
+
+    /**
+     * Get the values of a single Dublin Core term, or an empty list if the entry does not contain the term.
+     */
+    public List<String> getDublinCore(final String field) {
+        return this.getExtensionValues(UriRegistry.DC_NAMESPACE, field);
+    }
+
+    /**
+     * Get the text values of all extension elements in the given namespace, keyed by their local name.
+     *
+     * The index over all extension elements of the entry is built on first access and reused afterwards, so
+     * changes made to the wrapped Abdera entry after that are not reflected here.
+     * @param namespace the namespace URI of the extension elements
+     * @return an immutable map from local name to the immutable list of values, in document order
+     */
+    public Map<String, List<String>> getExtensionValues(final String namespace) {
+        Map<String, List<String>> values = this.getExtensionIndex().get(namespace);
+        return values == null ? Collections.emptyMap() : values;
+    }
+
+    /**
+     * Get the text values of the extension elements with the given namespace and local name,
+     * or an empty list if there are none.
+     */
+    public List<String> getExtensionValues(final String namespace, final String field) {
+        List<String> values = this.getExtensionValues(namespace).get(field);
+        return values == null ? Collections.emptyList() : values;
+    }
+
+    private Map<String, Map<String, List<String>>> getExtensionIndex() {
+        Map<String, Map<String, List<String>>> index = this.extensionIndex;
+        if (index == null) {
+            // building the index twice in a race is harmless, as the result is the same
+            index = this.buildExtensionIndex();
+            this.extensionIndex = index;
+        }
+        return index;
+    }
+
+    private Map<String, Map<String, List<String>>> buildExtensionIndex() {
+        Map<String, Map<String, List<String>>> index = new HashMap<>();
+        for (Element element : this.entry.getExtensions()) {
+            QName qname = element.getQName();
+            index.computeIfAbsent(qname.getNamespaceURI(), ns -> new LinkedHashMap<>())
+                .computeIfAbsent(qname.getLocalPart(), field -> new ArrayList<>())
+                .add(element.getText());
+        }
+
+        // freeze the index
+        Map<String, Map<String, List<String>>> frozen = new HashMap<>();
+        for (Map.Entry<String, Map<String, List<String>>> namespace : index.entrySet()) {
+            Map<String, List<String>> fields = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> field : namespace.getValue().entrySet()) {
+                fields.put(field.getKey(), Collections.unmodifiableList(field.getValue()));
             }
+            frozen.put(namespace.getKey(), Collections.unmodifiableMap(fields));
         }
-        return dc;
+        return Collections.unmodifiableMap(frozen);
     }
 }
@@ -0,0 +1,355 @@
+package org.swordapp.server;
+
+import org.apache.abdera.Abdera;
+import org.apache.abdera.factory.Factory;
+import org.apache.abdera.model.Entry;
+import org.apache.abdera.model.ExtensibleElement;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for Atom entries sent as metadata deposits.
+ *
+ * Instead of handing the request stream to the Abdera parser, which keeps a full DOM of the document, this reader
+ * walks the stream with StAX and only builds the parts of the entry which are used by the server implementations:
+ * the title, the summary and all foreign markup (Dublin Core terms and any other extension elements).
+ * Everything else in the Atom namespace is skipped.
+ *
+ * The reader enforces limits on the number of bytes read, the nesting depth and the number of elements, and fails
+ * as soon as one of them is exceeded. A limit of -1 (or any negative value) disables the respective check.
+ */
+public class SwordEntryReader {
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+    private static final Abdera ABDERA = new Abdera();
+
+    static {
+        // we never need DTDs or external entities in an Atom entry, and they are an attack vector
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
+
+    private final long maxSize;
+    private final int maxDepth;
+    private final int maxElements;
+
+    public SwordEntryReader(final long maxSize, final int maxDepth, final int maxElements) {
+        this.maxSize = maxSize;
+        this.maxDepth = maxDepth;
+        this.maxElements = maxElements;
+    }
+
+    public SwordEntryReader(final SwordConfiguration config) {
+        this(config.getMaxEntrySize(), config.getMaxEntryDepth(), config.getMaxEntryElements());
+    }
+
+    /**
+     * Read a single Atom entry document from the given stream.
+     *
+     * @param in the stream to read from. It is not closed by this method.
+     * @return an Abdera {@link Entry} holding the title, summary and extension elements of the document.
+     * @throws SwordError with {@link UriRegistry#ERROR_BAD_REQUEST} if the document is not a well-formed Atom entry
+     *                    or exceeds one of the configured limits.
+     */
+    public Entry read(final InputStream in) throws SwordError {
+        LimitedInputStream limited = new LimitedInputStream(in, this.maxSize);
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(limited);
+            reader.nextTag();
+            if (!UriRegistry.ATOM_NAMESPACE.equals(reader.getNamespaceURI()) || !"entry".equals(reader.getLocalName())) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Unable to parse SWORD entry: root element is not an Atom entry");
+            }
+            return this.readEntry(reader, new Counter());
+        } catch (XMLStreamException e) {
+            if (limited.isExceeded()) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Atom entry exceeds the maximum size of " + this.maxSize + " bytes");
+            }
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Unable to parse SWORD entry", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // nothing left to do with this reader anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the entries of a feed from {@link #readFeed(InputStream, int, long, EntryHandler)}, each as soon as it
+     * has been read.
+     */
+    @FunctionalInterface
+    public interface EntryHandler {
+        void entry(Entry entry) throws SwordError, SwordServerException, SwordAuthException;
+    }
+
+    /**
+     * Read the entries of an Atom feed document from the given stream, for batch deposits. The limits on size, depth
+     * and number of elements apply to each entry on its own; the other children of the feed are skipped.
+     *
+     * @param in the stream to read from. It is not closed by this method.
+     * @param maxEntries the maximum number of entries to accept, or -1 for no limit
+     * @return the entries in document order, each as returned by {@link #read(InputStream)}
+     * @throws SwordError with {@link UriRegistry#ERROR_BAD_REQUEST} if the document is not a well-formed Atom feed,
+     *                    has too many entries or one of the entries exceeds one of the configured limits.
+     */
+    public List<Entry> readFeed(final InputStream in, final int maxEntries) throws SwordError {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            this.readFeed(in, maxEntries, -1L, entries::add);
+        } catch (SwordServerException | SwordAuthException e) {
+            // not thrown by adding to the list
+            throw new IllegalStateException(e);
+        }
+        return entries;
+    }
+
+    /**
+     * Read the entries of an Atom feed document from the given stream, and pass each to the handler as soon as it has
+     * been read, so that only one entry at a time is held by the reader. Exceptions of the handler end the reading.
+     *
+     * @param maxEntries the maximum number of entries to accept, or -1 for no limit
+     * @param maxFeedSize the maximum size of the whole document in bytes, or -1 for no limit
+     * @throws SwordError with {@link UriRegistry#ERROR_BAD_REQUEST} as {@link #readFeed(InputStream, int)}, or with
+     *                    {@link UriRegistry#ERROR_MAX_UPLOAD_SIZE_EXCEEDED} if the document exceeds the maximum size
+     * @see #readFeed(InputStream, int)
+     */
+    public void readFeed(final InputStream in, final int maxEntries, final long maxFeedSize, final EntryHandler handler)
+            throws SwordError, SwordServerException, SwordAuthException {
+        LimitedInputStream total = new LimitedInputStream(in, maxFeedSize);
+        LimitedInputStream limited = new LimitedInputStream(total, this.maxSize);
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(limited);
+            reader.nextTag();
+            if (!UriRegistry.ATOM_NAMESPACE.equals(reader.getNamespaceURI()) || !"feed".equals(reader.getLocalName())) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Unable to parse SWORD batch: root element is not an Atom feed");
+            }
+
+            int entries = 0;
+            while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (UriRegistry.ATOM_NAMESPACE.equals(reader.getNamespaceURI()) && "entry".equals(reader.getLocalName())) {
+                    if (maxEntries >= 0 && entries >= maxEntries) {
+                        throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Atom feed exceeds the maximum number of " + maxEntries + " entries");
+                    }
+                    entries++;
+                    handler.entry(this.readEntry(reader, new Counter()));
+                } else {
+                    this.skipElement(reader, new Counter());
+                }
+                // the size limit applies to each entry (give or take what the parser has read ahead)
+                limited.restart();
+            }
+        } catch (XMLStreamException e) {
+            if (total.isExceeded()) {
+                throw new SwordError(UriRegistry.ERROR_MAX_UPLOAD_SIZE_EXCEEDED, "The Atom feed exceeds the maximum size of " + maxFeedSize + " bytes");
+            }
+            if (limited.isExceeded()) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Atom entry exceeds the maximum size of " + this.maxSize + " bytes");
+            }
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Unable to parse SWORD batch", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // nothing left to do with this reader anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the children of an atom:entry element. The reader must be positioned on the start tag of the entry,
+     * and is left on its end tag.
+     */
+    private Entry readEntry(final XMLStreamReader reader, final Counter counter) throws XMLStreamException, SwordError {
+        Factory factory = ABDERA.getFactory();
+        Entry entry = factory.newEntry();
+        counter.enter(this);
+
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            QName name = reader.getName();
+            if (UriRegistry.ATOM_NAMESPACE.equals(name.getNamespaceURI())) {
+                if ("title".equals(name.getLocalPart())) {
+                    entry.setTitle(this.readText(reader, counter));
+                } else if ("summary".equals(name.getLocalPart())) {
+                    entry.setSummary(this.readText(reader, counter));
+                } else {
+                    this.skipElement(reader, counter);
+                }
+            } else {
+                this.readExtension(reader, factory, entry, counter);
+            }
+        }
+
+        counter.leave();
+        return entry;
+    }
+
+    /**
+     * Copy a foreign element (and all of its descendants) into the given parent.
+     * Text is only kept for elements without child elements; the whitespace between child elements is dropped.
+     */
+    private void readExtension(final XMLStreamReader reader, final Factory factory, final ExtensibleElement parent, final Counter counter)
+            throws XMLStreamException, SwordError {
+        counter.enter(this);
+        ExtensibleElement element = factory.newExtensionElement(reader.getName(), parent);
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeValue(reader.getAttributeName(i), reader.getAttributeValue(i));
+        }
+
+        StringBuilder text = new StringBuilder();
+        boolean hasChildren = false;
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    hasChildren = true;
+                    this.readExtension(reader, factory, element, counter);
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!hasChildren && text.length() > 0) {
+            element.setText(text.toString());
+        }
+        counter.leave();
+    }
+
+    /**
+     * Collect all text content of the current element, including the content of nested (e.g. XHTML) elements.
+     */
+    private String readText(final XMLStreamReader reader, final Counter counter) throws XMLStreamException, SwordError {
+        counter.enter(this);
+        StringBuilder text = new StringBuilder();
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    text.append(this.readText(reader, counter));
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+        counter.leave();
+        return text.toString();
+    }
+
+    private void skipElement(final XMLStreamReader reader, final Counter counter) throws XMLStreamException, SwordError {
+        counter.enter(this);
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                this.skipElement(reader, counter);
+            }
+        }
+        counter.leave();
+    }
+
+    /**
+     * Keeps track of the current depth and the number of elements seen while reading a document.
+     */
+    private static final class Counter {
+        private int depth = 0;
+        private int elements = 0;
+
+        void enter(final SwordEntryReader limits) throws SwordError {
+            this.depth++;
+            this.elements++;
+            if (limits.maxDepth >= 0 && this.depth > limits.maxDepth) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Atom entry exceeds the maximum nesting depth of " + limits.maxDepth);
+            }
+            if (limits.maxElements >= 0 && this.elements > limits.maxElements) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Atom entry exceeds the maximum number of " + limits.maxElements + " elements");
+            }
+        }
+
+        void leave() {
+            this.depth--;
+        }
+    }
+
+    /**
+     * Fails with an {@link IOException} once more than the given number of bytes have been read.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count = 0L;
+        private boolean exceeded = false;
+
+        LimitedInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                this.count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            long skipped = super.skip(n);
+            this.count(skipped);
+            return skipped;
+        }
+
+        private void count(final long n) throws IOException {
+            this.count += n;
+            if (this.limit >= 0 && this.count > this.limit) {
+                this.exceeded = true;
+                throw new IOException("Read limit of " + this.limit + " bytes exceeded");
+            }
+        }
+
+        boolean isExceeded() {
+            return this.exceeded;
+        }
+
+        void restart() {
+            this.count = 0L;
+        }
+    }
+}
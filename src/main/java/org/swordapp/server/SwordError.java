@@ -4,6 +4,7 @@ public final class SwordError extends Exception {
     private String errorUri;
     private int status = -1;
     private boolean hasBody = true;
+    private long retryAfter = -1L;
 
     public SwordError() {
         super();
@@ -70,4 +71,16 @@ public final class SwordError extends Exception {
     public boolean hasBody() {
         return hasBody;
     }
+
+    /**
+     * The number of seconds after which the client may try again, sent as "Retry-After" header, or -1 for none.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    public SwordError setRetryAfter(final long seconds) {
+        this.retryAfter = seconds;
+        return this;
+    }
 }
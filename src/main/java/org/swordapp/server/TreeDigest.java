@@ -0,0 +1,233 @@
+package org.swordapp.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A SHA-256 hash tree (Merkle tree) over the chunks of a file, see {@link SwordConfiguration#getTreeDigestChunkSize()}.
+ * Unlike the MD5 of the whole file, which has to be computed in one pass from start to end, the chunks are hashed
+ * independently of each other on a fork-join pool, so that hashing a large deposit scales with the number of cores.
+ * The pool is a dedicated one rather than the common pool, so that hashing does not starve other users of the common
+ * pool, like parallel streams, and is not starved by them.
+ *
+ * <p>Each chunk digest is the SHA-256 of a zero byte followed by the content of the chunk; each inner node is the
+ * SHA-256 of a one byte followed by the digests of its two children (as in RFC 6962). The digests of the chunks
+ * also serve as a manifest, which tells the repository which part of a stored copy differs from the deposit.</p>
+ */
+public final class TreeDigest {
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+    private static final int READ_BUFFER = 1024 * 1024;
+
+    private static ForkJoinPool pool;
+
+    private final int chunkSize;
+    private final List<byte[]> chunks;
+    private final byte[] root;
+
+    private TreeDigest(final int chunkSize, final List<byte[]> chunks, final byte[] root) {
+        this.chunkSize = chunkSize;
+        this.chunks = chunks;
+        this.root = root;
+    }
+
+    /**
+     * Hash a file on the pool of this class, which has one thread per core.
+     */
+    public static TreeDigest compute(final File file, final int chunkSize) throws IOException {
+        return compute(file, chunkSize, getPool());
+    }
+
+    /**
+     * The pool files are hashed on by {@link #compute(File, int)}, started on first use.
+     */
+    static synchronized ForkJoinPool getPool() {
+        if (pool == null || pool.isShutdown()) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), p -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("sword-tree-digest-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return pool;
+    }
+
+    /**
+     * Stop the threads of the pool once the files being hashed are done, e.g. when the web application is stopped.
+     * The pool is started again if another file is hashed later.
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Hash a file on the given pool.
+     *
+     * @param chunkSize the size of the chunks in bytes, the last chunk may be shorter
+     */
+    public static TreeDigest compute(final File file, final int chunkSize, final ForkJoinPool pool) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // an empty file still has one (empty) chunk, so that there is a root
+            int count = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+            byte[][] leaves = new byte[count][];
+            byte[] root = pool.invoke(new Node(channel, size, chunkSize, leaves, 0, count));
+            List<byte[]> chunks = new ArrayList<>(count);
+            Collections.addAll(chunks, leaves);
+            return new TreeDigest(chunkSize, Collections.unmodifiableList(chunks), root);
+        } catch (UncheckedIOException e) {
+            // the pool may rethrow a copy of the exception of another thread, with the original one as cause
+            Throwable cause = e;
+            while (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw e;
+        }
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    public int getChunkCount() {
+        return this.chunks.size();
+    }
+
+    /**
+     * The root of the tree, as hex string.
+     */
+    public String getRoot() {
+        return ChecksumUtils.formatAsHex(this.root);
+    }
+
+    /**
+     * The digests of the chunks in the order of the file, as hex strings.
+     */
+    public List<String> getChunkDigests() {
+        List<String> digests = new ArrayList<>(this.chunks.size());
+        for (byte[] chunk : this.chunks) {
+            digests.add(ChecksumUtils.formatAsHex(chunk));
+        }
+        return digests;
+    }
+
+    /**
+     * The indexes of the chunks which differ from the other tree, e.g. the tree of a stored copy. Chunks only
+     * present in one of the trees differ, too.
+     *
+     * @throws IllegalArgumentException if the trees have different chunk sizes
+     */
+    public List<Integer> diff(final TreeDigest other) {
+        if (other.chunkSize != this.chunkSize) {
+            throw new IllegalArgumentException("Cannot compare trees of different chunk sizes");
+        }
+        List<Integer> differing = new ArrayList<>();
+        int count = Math.max(this.chunks.size(), other.chunks.size());
+        for (int i = 0; i < count; i++) {
+            if (i >= this.chunks.size() || i >= other.chunks.size()
+                || !MessageDigest.isEqual(this.chunks.get(i), other.chunks.get(i))) {
+                differing.add(i);
+            }
+        }
+        return differing;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot load " + ALGORITHM + " digest from this JVM.", e);
+        }
+    }
+
+    /**
+     * Computes the subtree over the chunks from {@code first} (inclusive) to {@code last} (exclusive), splitting the
+     * range at the largest power of two below its size, so that the shape of the tree only depends on the number of
+     * chunks.
+     */
+    private static final class Node extends RecursiveTask<byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long size;
+        private final int chunkSize;
+        private final byte[][] leaves;
+        private final int first;
+        private final int last;
+
+        Node(final FileChannel channel, final long size, final int chunkSize, final byte[][] leaves, final int first, final int last) {
+            this.channel = channel;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.leaves = leaves;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected byte[] compute() {
+            if (this.last - this.first == 1) {
+                this.leaves[this.first] = this.hashChunk();
+                return this.leaves[this.first];
+            }
+            int split = this.first + Integer.highestOneBit(this.last - this.first - 1);
+            Node left = new Node(this.channel, this.size, this.chunkSize, this.leaves, this.first, split);
+            Node right = new Node(this.channel, this.size, this.chunkSize, this.leaves, split, this.last);
+            right.fork();
+            byte[] leftDigest = left.compute();
+            byte[] rightDigest = right.join();
+
+            MessageDigest digest = newDigest();
+            digest.update(NODE_PREFIX);
+            digest.update(leftDigest);
+            digest.update(rightDigest);
+            return digest.digest();
+        }
+
+        private byte[] hashChunk() {
+            MessageDigest digest = newDigest();
+            digest.update(LEAF_PREFIX);
+            long position = (long) this.first * this.chunkSize;
+            long end = Math.min(this.size, position + this.chunkSize);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER, this.chunkSize));
+            try {
+                while (position < end) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                    int n = this.channel.read(buffer, position);
+                    if (n == -1) {
+                        throw new IOException("The file was truncated while it was hashed");
+                    }
+                    position += n;
+                    buffer.flip();
+                    digest.update(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return digest.digest();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.swordapp.server;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The HTTP protocol of resumable uploads (see {@link SwordConfiguration#getUploadSessionTtl()}), on top of the
+ * sessions of {@link ResumableUploads}. The endpoints delegate upload requests to it, see
+ * {@link SwordAPIEndpoint#upload}, and provide the parts specific to them: {@link SwordAPIEndpoint#prepareUpload}
+ * checks a deposit before its session is created, and {@link SwordAPIEndpoint#completeUpload} hands the complete
+ * upload to the manager.
+ */
+final class UploadSessionHandler {
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(?<first>\\d+)-(?<last>\\d+)/(?<length>\\d+|\\*)");
+
+    private final SwordAPIEndpoint endpoint;
+    private final SwordConfiguration config;
+    private final ResumableUploads uploads;
+
+    UploadSessionHandler(final SwordAPIEndpoint endpoint, final SwordConfiguration config) {
+        this.endpoint = endpoint;
+        this.config = config;
+        this.uploads = new ResumableUploads(config.getUploadSessionTtl(), TimeUnit.SECONDS, config.getDigestAlgorithms());
+    }
+
+    /**
+     * Whether the request is part of a resumable upload: it either starts one (a PUT or POST with an
+     * "Upload-Length" header), or addresses an upload session (an IRI with an "upload" query parameter).
+     */
+    boolean isUploadRequest(final HttpServletRequest req) {
+        boolean starts = req.getHeader("Upload-Length") != null && ("PUT".equals(req.getMethod()) || "POST".equals(req.getMethod()));
+        return starts || this.getUploadId(req) != null;
+    }
+
+    /**
+     * Handle a request of a resumable upload, which has been authenticated and admitted by the endpoint. The
+     * protocol is:
+     * <ul>
+     *     <li>PUT or POST on the target IRI with an "Upload-Length" header and the usual deposit headers, but
+     *     without a body, creates an upload session. With an additional "Upload-Segments" header the upload is
+     *     split into that many segments of equal size, which may be sent in parallel. The response is
+     *     "201 Created" with the IRI of the session as Location.</li>
+     *     <li>HEAD on the session returns the number of bytes received so far as "Upload-Offset", or for segmented
+     *     uploads the segments still missing as "Upload-Segments-Missing".</li>
+     *     <li>PUT on the session with a "Content-Range: bytes first-last/length" header appends the content. The
+     *     range must not start after the current offset; for segmented uploads it must span exactly one segment,
+     *     and may come with a Content-MD5 of the segment. Until the upload is complete, the response is
+     *     "204 No Content"; the last request gets the response of a regular deposit.</li>
+     *     <li>DELETE on the session aborts the upload, unless a request is writing to it ("409 Conflict").</li>
+     * </ul>
+     */
+    void handle(final HttpServletRequest req, final HttpServletResponse resp, final AuthCredentials auth)
+            throws SwordError, SwordServerException, SwordAuthException, IOException, ServletException {
+        String id = this.getUploadId(req);
+        if (id == null) {
+            this.start(req, resp, auth);
+            return;
+        }
+
+        ResumableUploads.Session session = this.uploads.get(id, auth);
+        if (session == null) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_NOT_FOUND, "No such upload session, it may have expired");
+        }
+        resp.setHeader("Cache-Control", "no-store");
+        if ("HEAD".equals(req.getMethod())) {
+            this.setUploadHeaders(resp, session);
+            resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } else if ("DELETE".equals(req.getMethod())) {
+            if (!this.uploads.discard(session)) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_CONFLICT, "A request is writing to this upload");
+            }
+            resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } else if ("PUT".equals(req.getMethod())) {
+            try (RateLimiter.Permit permit = this.endpoint.acquireUploadPermit(req)) {
+                this.append(req, resp, auth, session);
+            }
+        } else {
+            throw new SwordError(UriRegistry.ERROR_METHOD_NOT_ALLOWED, "Upload sessions only support HEAD, PUT and DELETE");
+        }
+    }
+
+    private void start(final HttpServletRequest req, final HttpServletResponse resp, final AuthCredentials auth)
+            throws SwordError, SwordServerException, SwordAuthException, IOException {
+        long length = this.getLongHeader(req, "Upload-Length");
+        if (length <= 0) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Upload-Length must be positive");
+        }
+        if (this.config.getMaxUploadSize() != -1 && length > this.config.getMaxUploadSize()) {
+            String msg = "The announced file exceeds the maximum file size this server will accept (the file is " + length
+                + " bytes but the server will only accept files as large as " + this.config.getMaxUploadSize() + " bytes)";
+            throw new SwordError(UriRegistry.ERROR_MAX_UPLOAD_SIZE_EXCEEDED, msg);
+        }
+        int segments = 0;
+        if (req.getHeader("Upload-Segments") != null) {
+            long requested = this.getLongHeader(req, "Upload-Segments");
+            if (requested < 1 || requested > this.config.getMaxUploadSegments() || requested > length) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Upload-Segments must be between 1 and "
+                    + Math.min(length, this.config.getMaxUploadSegments()));
+            }
+            // segments of ceil(length / n) bytes may cover the file with fewer than n, leaving the last ones empty
+            long segmentSize = (length + requested - 1) / requested;
+            if ((requested - 1) * segmentSize >= length) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, length + " bytes cannot be split into " + requested
+                    + " segments of " + segmentSize + " bytes, send " + ((length + segmentSize - 1) / segmentSize) + " segments instead");
+            }
+            segments = (int) requested;
+        }
+
+        // check the deposit the same way as a deposit in a single request
+        String target = this.endpoint.getFullUrl(req);
+        Deposit deposit = new Deposit();
+        this.endpoint.addDepositPropertiesFromHeaders(deposit, req);
+        if (deposit.getContentEncoding() != null) {
+            throw new SwordError(UriRegistry.ERROR_CONTENT, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+                "Resumable uploads do not support a Content-Encoding");
+        }
+        deposit.setContentLength(length);
+        this.endpoint.prepareUpload(req, req.getMethod(), target, deposit, auth);
+        // the session holds the space for the whole file, as its parts may arrive over hours
+        SpoolDirectory.Reservation reservation = null;
+        ResumableUploads.Session session;
+        try {
+            reservation = this.endpoint.reserveSpoolSpace(deposit, this.config);
+            session = this.uploads.create(target, req.getMethod(), auth, deposit, length, segments, this.endpoint.newSpoolFile(deposit, this.config),
+                reservation);
+        } catch (SwordError | SwordServerException | IOException | RuntimeException e) {
+            if (reservation != null) {
+                reservation.close();
+            }
+            throw e;
+        }
+        resp.setStatus(HttpServletResponse.SC_CREATED);
+        resp.setHeader("Location", target + (target.contains("?") ? "&" : "?") + "upload=" + session.getId());
+        this.setUploadHeaders(resp, session);
+    }
+
+    private void append(final HttpServletRequest req, final HttpServletResponse resp, final AuthCredentials auth,
+                        final ResumableUploads.Session session)
+            throws SwordError, SwordServerException, SwordAuthException, IOException, ServletException {
+        long[] range = this.getContentRange(req, session.getLength());
+        if (session.isSegmented()) {
+            int segment = session.getSegment(range[0], range[1]);
+            if (segment == -1) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Content-Range must span exactly one segment of "
+                    + session.getSegmentSize() + " bytes");
+            }
+            if (session.writeSegment(segment, HmacAuthentication.getSignedBody(req, req.getInputStream()), req.getHeader("Content-MD5"))) {
+                this.finish(req, resp, auth, session);
+            } else {
+                this.setUploadHeaders(resp, session);
+                resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            }
+            return;
+        }
+
+        if (!session.tryLock()) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_CONFLICT, "Another request is appending to this upload");
+        }
+        try {
+            if (range[0] > session.getOffset()) {
+                this.setUploadHeaders(resp, session);
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_CONFLICT,
+                    "The upload has to continue at offset " + session.getOffset());
+            }
+            session.append(HmacAuthentication.getSignedBody(req, req.getInputStream()), range[0], range[1] - range[0] + 1);
+            if (session.isComplete()) {
+                this.finish(req, resp, auth, session);
+            } else {
+                this.setUploadHeaders(resp, session);
+                resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            }
+        } finally {
+            session.unlock();
+        }
+    }
+
+    private void finish(final HttpServletRequest req, final HttpServletResponse resp, final AuthCredentials auth,
+                        final ResumableUploads.Session session)
+            throws SwordError, SwordServerException, SwordAuthException, IOException, ServletException {
+        // the upload is complete: from here on it is a regular deposit
+        Deposit deposit = session.getDeposit();
+        ContentDigests received = this.uploads.finish(session);
+        try {
+            this.endpoint.checkStoredBinary(deposit, session.getFile(), received, this.config);
+        } catch (SwordError e) {
+            this.endpoint.cleanup(deposit);
+            throw e;
+        }
+        this.endpoint.completeUpload(req, resp, session.getMethod(), session.getTarget(), deposit, auth);
+    }
+
+    private void setUploadHeaders(final HttpServletResponse resp, final ResumableUploads.Session session) {
+        resp.setHeader("Upload-Length", Long.toString(session.getLength()));
+        if (session.isSegmented()) {
+            resp.setHeader("Upload-Segments", Integer.toString(session.getSegments()));
+            StringBuilder missing = new StringBuilder();
+            for (Integer segment : session.getMissingSegments()) {
+                missing.append(missing.length() == 0 ? "" : ",").append(segment);
+            }
+            resp.setHeader("Upload-Segments-Missing", missing.toString());
+        } else {
+            resp.setHeader("Upload-Offset", Long.toString(session.getOffset()));
+        }
+    }
+
+    private long getLongHeader(final HttpServletRequest req, final String name) throws SwordError {
+        try {
+            return Long.parseLong(req.getHeader(name).trim());
+        } catch (NumberFormatException e) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, name + " is not a number");
+        }
+    }
+
+    /**
+     * The id of the upload session addressed by the request, from the "upload" query parameter. The query string is
+     * parsed here, as asking the container for parameters may consume the body.
+     */
+    private String getUploadId(final HttpServletRequest req) {
+        String query = req.getQueryString();
+        if (query == null) {
+            return null;
+        }
+        for (String param : query.split("&")) {
+            if (param.startsWith("upload=")) {
+                return URLDecoder.decode(param.substring("upload=".length()), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse a "Content-Range: bytes first-last/length" header.
+     *
+     * @return the first and last byte position
+     */
+    private long[] getContentRange(final HttpServletRequest req, final long length) throws SwordError {
+        String header = req.getHeader("Content-Range");
+        if (header == null) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Appending to an upload requires a Content-Range header");
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(header.trim());
+        if (!matcher.matches()) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Malformed Content-Range header: " + header);
+        }
+        try {
+            long first = Long.parseLong(matcher.group("first"));
+            long last = Long.parseLong(matcher.group("last"));
+            if (!"*".equals(matcher.group("length")) && Long.parseLong(matcher.group("length")) != length) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Content-Range does not match the Upload-Length of " + length);
+            }
+            if (first > last || last >= length) {
+                throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+                    "Content-Range lies outside of the upload of " + length + " bytes");
+            }
+            return new long[] {first, last};
+        } catch (NumberFormatException e) {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, "Malformed Content-Range header: " + header);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.swordapp.server;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads the local headers and the content of a zip archive, so that a
+ * {@link UriRegistry#PACKAGE_SIMPLE_ZIP} deposit is listed and checked in the same pass in which it is stored, rather
+ * than by reading the stored file again. Every entry is inflated to check its CRC and sizes; the inflated content is
+ * discarded. Everything after the last entry, i.e. the central directory, is ignored.
+ */
+final class ZipInspector implements DepositStreamProcessor {
+    static final String NAME = "zip-manifest";
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int LOCAL_HEADER_LENGTH = 26;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int ZIP64_EXTRA = 1;
+    private static final long ZIP64_SIZE = 0xFFFFFFFFL;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private enum State { SIGNATURE, HEADER, ENTRY_NAME, DATA, DESCRIPTOR, TRAILER }
+
+    private final List<ZipManifest.Entry> entries = new ArrayList<>();
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] inflated = new byte[BUFFER_SIZE];
+
+    // the fixed size part being collected, and how long it is going to be
+    private State state = State.SIGNATURE;
+    private byte[] field = new byte[LOCAL_HEADER_LENGTH];
+    private int fieldLength = 0;
+    private int fieldNeeded = Integer.BYTES;
+
+    // the entry being read
+    private int flags;
+    private int method;
+    private int nameLength;
+    private String name;
+    private boolean zip64;
+    private long expectedCrc;
+    private long expectedCompressedSize;
+    private long expectedSize;
+    private long compressedSize;
+    private long size;
+    private boolean descriptorStarted;
+    private boolean descriptorHasCrc;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isParallel() {
+        // inflating costs about as much as storing and hashing
+        return true;
+    }
+
+    @Override
+    public void update(final byte[] b, final int off, final int len) throws SwordError {
+        int pos = off;
+        int end = off + len;
+        while (pos < end && this.state != State.TRAILER) {
+            if (this.state == State.DATA) {
+                pos = this.readData(b, pos, end);
+            } else {
+                int n = Math.min(this.fieldNeeded - this.fieldLength, end - pos);
+                System.arraycopy(b, pos, this.field, this.fieldLength, n);
+                this.fieldLength += n;
+                pos += n;
+                if (this.fieldLength == this.fieldNeeded) {
+                    this.readField(ByteBuffer.wrap(this.field, 0, this.fieldLength).order(ByteOrder.LITTLE_ENDIAN));
+                }
+            }
+        }
+    }
+
+    /**
+     * The entries of the archive, once all of it has been processed.
+     *
+     * @throws SwordError if the archive ended before its central directory
+     */
+    @Override
+    public ZipManifest finish() throws SwordError {
+        this.inflater.end();
+        if (this.state != State.TRAILER) {
+            throw new SwordError(UriRegistry.ERROR_CONTENT, "The zip archive is truncated");
+        }
+        return new ZipManifest(this.entries);
+    }
+
+    @Override
+    public void abort() {
+        this.inflater.end();
+    }
+
+    private void expect(final State next, final int length) {
+        this.state = next;
+        this.fieldLength = 0;
+        this.fieldNeeded = length;
+        if (this.field.length < length) {
+            this.field = new byte[length];
+        }
+    }
+
+    private void readField(final ByteBuffer f) throws SwordError {
+        switch (this.state) {
+            case SIGNATURE:
+                this.readSignature(f.getInt());
+                break;
+            case HEADER:
+                this.readHeader(f);
+                break;
+            case ENTRY_NAME:
+                this.readName(f);
+                break;
+            case DESCRIPTOR:
+                this.readDescriptor(f);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected state " + this.state);
+        }
+    }
+
+    private void readSignature(final int signature) throws SwordError {
+        if (signature == LOCAL_HEADER) {
+            this.expect(State.HEADER, LOCAL_HEADER_LENGTH);
+        } else if (signature == CENTRAL_HEADER || signature == END_OF_CENTRAL_DIRECTORY || signature == ZIP64_END_OF_CENTRAL_DIRECTORY) {
+            this.state = State.TRAILER;
+        } else {
+            throw new SwordError(UriRegistry.ERROR_CONTENT, this.entries.isEmpty() ? "Not a zip archive"
+                : "Unexpected data after the entry " + this.name + " of the zip archive");
+        }
+    }
+
+    private void readHeader(final ByteBuffer f) throws SwordError {
+        // version needed to extract
+        f.getShort();
+        this.flags = Short.toUnsignedInt(f.getShort());
+        this.method = Short.toUnsignedInt(f.getShort());
+        // modification time and date
+        f.getInt();
+        this.expectedCrc = Integer.toUnsignedLong(f.getInt());
+        this.expectedCompressedSize = Integer.toUnsignedLong(f.getInt());
+        this.expectedSize = Integer.toUnsignedLong(f.getInt());
+        this.nameLength = Short.toUnsignedInt(f.getShort());
+        int extraLength = Short.toUnsignedInt(f.getShort());
+
+        if ((this.flags & FLAG_ENCRYPTED) != 0) {
+            throw new SwordError(UriRegistry.ERROR_CONTENT, "The zip archive contains encrypted entries");
+        } else if (this.method != ZipEntry.STORED && this.method != ZipEntry.DEFLATED) {
+            throw new SwordError(UriRegistry.ERROR_CONTENT, "The zip archive uses the unsupported compression method " + this.method);
+        } else if (this.method == ZipEntry.STORED && (this.flags & FLAG_DATA_DESCRIPTOR) != 0) {
+            // the end of the entry could only be guessed
+            throw new SwordError(UriRegistry.ERROR_CONTENT, "The zip archive contains stored entries without their sizes");
+        }
+        this.expect(State.ENTRY_NAME, this.nameLength + extraLength);
+    }
+
+    private void readName(final ByteBuffer f) throws SwordError {
+        byte[] bytes = new byte[this.nameLength];
+        f.get(bytes);
+        // like ZipInputStream, names are read as UTF-8 whether the language encoding flag is set or not
+        this.name = new String(bytes, StandardCharsets.UTF_8);
+
+        this.zip64 = false;
+        while (f.remaining() >= 2 * Short.BYTES) {
+            int id = Short.toUnsignedInt(f.getShort());
+            int length = Short.toUnsignedInt(f.getShort());
+            if (length > f.remaining()) {
+                throw new SwordError(UriRegistry.ERROR_CONTENT, "Malformed extra field of the entry " + this.name + " of the zip archive");
+            }
+            int next = f.position() + length;
+            if (id == ZIP64_EXTRA) {
+                this.zip64 = true;
+                if (this.expectedSize == ZIP64_SIZE && f.remaining() >= Long.BYTES) {
+                    this.expectedSize = f.getLong();
+                }
+                if (this.expectedCompressedSize == ZIP64_SIZE && f.remaining() >= Long.BYTES) {
+                    this.expectedCompressedSize = f.getLong();
+                }
+            }
+            f.position(next);
+        }
+
+        this.crc.reset();
+        this.inflater.reset();
+        this.compressedSize = 0L;
+        this.size = 0L;
+        this.state = State.DATA;
+    }
+
+    private int readData(final byte[] b, final int pos, final int end) throws SwordError {
+        if (this.method == ZipEntry.STORED) {
+            int n = (int) Math.min(this.expectedCompressedSize - this.compressedSize, end - pos);
+            this.crc.update(b, pos, n);
+            this.compressedSize += n;
+            this.size += n;
+            if (this.compressedSize == this.expectedCompressedSize) {
+                this.endEntry();
+            }
+            return pos + n;
+        }
+
+        this.inflater.setInput(b, pos, end - pos);
+        try {
+            while (!this.inflater.finished() && !this.inflater.needsInput()) {
+                int n = this.inflater.inflate(this.inflated);
+                if (n == 0 && this.inflater.needsDictionary()) {
+                    throw new SwordError(UriRegistry.ERROR_CONTENT, "The entry " + this.name + " of the zip archive is corrupt");
+                }
+                this.crc.update(this.inflated, 0, n);
+                this.size += n;
+            }
+        } catch (DataFormatException e) {
+            throw new SwordError(UriRegistry.ERROR_CONTENT, "The entry " + this.name + " of the zip archive is corrupt: " + e.getMessage());
+        }
+        int next = end - this.inflater.getRemaining();
+        if (this.inflater.finished()) {
+            this.compressedSize = this.inflater.getBytesRead();
+            if ((this.flags & FLAG_DATA_DESCRIPTOR) != 0) {
+                this.descriptorStarted = false;
+                this.expect(State.DESCRIPTOR, Integer.BYTES);
+            } else {
+                this.endEntry();
+            }
+        }
+        return next;
+    }
+
+    private void readDescriptor(final ByteBuffer f) throws SwordError {
+        // like ZipInputStream, the sizes are taken to be 8 bytes if they do not fit into 4
+        boolean longSizes = this.zip64 || this.size >= ZIP64_SIZE || this.compressedSize >= ZIP64_SIZE;
+        int sizesLength = 2 * (longSizes ? Long.BYTES : Integer.BYTES);
+        if (!this.descriptorStarted) {
+            // the signature of the data descriptor is optional, without it the descriptor starts with the CRC
+            this.descriptorStarted = true;
+            int first = f.getInt();
+            this.descriptorHasCrc = first == DATA_DESCRIPTOR;
+            if (!this.descriptorHasCrc) {
+                this.expectedCrc = Integer.toUnsignedLong(first);
+            }
+            this.expect(State.DESCRIPTOR, sizesLength + (this.descriptorHasCrc ? Integer.BYTES : 0));
+            return;
+        }
+        if (this.descriptorHasCrc) {
+            this.expectedCrc = Integer.toUnsignedLong(f.getInt());
+        }
+        this.expectedCompressedSize = longSizes ? f.getLong() : Integer.toUnsignedLong(f.getInt());
+        this.expectedSize = longSizes ? f.getLong() : Integer.toUnsignedLong(f.getInt());
+        this.endEntry();
+    }
+
+    private void endEntry() throws SwordError {
+        if (this.crc.getValue() != this.expectedCrc) {
+            throw new SwordError(UriRegistry.ERROR_CONTENT, "The CRC of the entry " + this.name + " of the zip archive does not match its content");
+        } else if (this.size != this.expectedSize || this.compressedSize != this.expectedCompressedSize) {
+            throw new SwordError(UriRegistry.ERROR_CONTENT, "The size of the entry " + this.name + " of the zip archive does not match its content");
+        }
+        this.entries.add(new ZipManifest.Entry(this.name, this.size, this.compressedSize, this.crc.getValue()));
+        this.expect(State.SIGNATURE, Integer.BYTES);
+    }
+}
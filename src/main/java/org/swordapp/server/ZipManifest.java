@@ -0,0 +1,74 @@
+package org.swordapp.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The entries of a {@link UriRegistry#PACKAGE_SIMPLE_ZIP} package, as read from its local headers while the deposit
+ * was stored (see {@link SwordConfiguration#inspectZipPackages()}). The sizes and CRCs of all entries have been
+ * checked against the content of the entries.
+ */
+public final class ZipManifest {
+    private final List<Entry> entries;
+
+    public ZipManifest(final List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * The entries in the order they appear in the archive.
+     */
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * The total uncompressed size of all entries, in bytes.
+     */
+    public long getSize() {
+        long size = 0L;
+        for (Entry entry : this.entries) {
+            size += entry.getSize();
+        }
+        return size;
+    }
+
+    public static final class Entry {
+        private final String name;
+        private final long size;
+        private final long compressedSize;
+        private final long crc;
+
+        public Entry(final String name, final long size, final long compressedSize, final long crc) {
+            this.name = name;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.crc = crc;
+        }
+
+        /**
+         * The path of the entry within the archive, as given by the archive; it is not checked for ".." or absolute
+         * paths, which managers have to refuse when unpacking.
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        public long getSize() {
+            return this.size;
+        }
+
+        public long getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        public long getCrc() {
+            return this.crc;
+        }
+
+        public boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+    }
+}
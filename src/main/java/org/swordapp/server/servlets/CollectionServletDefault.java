@@ -2,6 +2,8 @@ package org.swordapp.server.servlets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.swordapp.server.AsyncCollectionDepositManager;
+import org.swordapp.server.AsyncManagers;
 import org.swordapp.server.CollectionAPI;
 import org.swordapp.server.CollectionDepositManager;
 import org.swordapp.server.CollectionListManager;
@@ -24,11 +26,18 @@ public class CollectionServletDefault extends SwordServlet {
         Object possibleClm = this.loadImplClass("collection-list-impl", true); // allow null
         CollectionListManager clm = possibleClm == null ? null : (CollectionListManager) possibleClm;
 
-        // load the deposit manager implementation
-        CollectionDepositManager cdm = (CollectionDepositManager) this.loadImplClass("collection-deposit-impl", false);
+        // load the deposit manager implementation, which may be synchronous or asynchronous
+        Object possibleCdm = this.loadImplClass("collection-deposit-impl", false);
+        AsyncCollectionDepositManager cdm = possibleCdm instanceof AsyncCollectionDepositManager
+            ? (AsyncCollectionDepositManager) possibleCdm
+            : AsyncManagers.adapt((CollectionDepositManager) possibleCdm);
 
         // load the API
         this.api = new CollectionAPI(clm, cdm, this.config);
+        this.api.setAuthenticator(this.authenticator);
+        this.api.setRateLimiter(this.rateLimiter);
+        this.api.setIdempotencyStore(this.idempotencyStore);
+        this.api.setDepositJobs(this.depositJobs);
     }
 
     @Override
@@ -40,4 +49,24 @@ public class CollectionServletDefault extends SwordServlet {
     protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
         this.api.post(req, resp);
     }
+
+    @Override
+    protected void doHead(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        // HEAD on an upload session reports its progress, otherwise it is a GET without body
+        if (this.api.isUploadRequest(req)) {
+            this.api.upload(req, resp);
+            return;
+        }
+        super.doHead(req, resp);
+    }
+
+    @Override
+    protected void doPut(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        this.api.put(req, resp);
+    }
+
+    @Override
+    protected void doDelete(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        this.api.delete(req, resp);
+    }
 }
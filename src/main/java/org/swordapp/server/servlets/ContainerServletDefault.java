@@ -2,6 +2,9 @@ package org.swordapp.server.servlets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.swordapp.server.AsyncContainerManager;
+import org.swordapp.server.AsyncManagers;
+import org.swordapp.server.AsyncStatementManager;
 import org.swordapp.server.ContainerAPI;
 import org.swordapp.server.ContainerManager;
 import org.swordapp.server.StatementManager;
@@ -21,13 +24,22 @@ public class ContainerServletDefault extends SwordServlet {
         super.init();
 
         // load the container manager implementation
-        ContainerManager cm = (ContainerManager) this.loadImplClass("container-impl", false);
+        Object possibleCm = this.loadImplClass("container-impl", false);
+        AsyncContainerManager cm = possibleCm instanceof AsyncContainerManager
+            ? (AsyncContainerManager) possibleCm
+            : AsyncManagers.adapt((ContainerManager) possibleCm);
 
         // load the container manager implementation
-        StatementManager sm = (StatementManager) this.loadImplClass("statement-impl", false);
+        Object possibleSm = this.loadImplClass("statement-impl", false);
+        AsyncStatementManager sm = possibleSm instanceof AsyncStatementManager
+            ? (AsyncStatementManager) possibleSm
+            : AsyncManagers.adapt((StatementManager) possibleSm);
 
         // initialise the underlying servlet processor
         this.api = new ContainerAPI(cm, sm, this.config);
+        this.api.setAuthenticator(this.authenticator);
+        this.api.setRateLimiter(this.rateLimiter);
+        this.api.setDepositJobs(this.depositJobs);
     }
 
     @Override
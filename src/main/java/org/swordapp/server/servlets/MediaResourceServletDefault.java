@@ -2,6 +2,8 @@ package org.swordapp.server.servlets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.swordapp.server.AsyncManagers;
+import org.swordapp.server.AsyncMediaResourceManager;
 import org.swordapp.server.MediaResourceAPI;
 import org.swordapp.server.MediaResourceManager;
 
@@ -20,10 +22,16 @@ public class MediaResourceServletDefault extends SwordServlet {
         super.init();
 
         // load the Media Resource Manager
-        MediaResourceManager mrm = (MediaResourceManager) this.loadImplClass("media-resource-impl", false);
+        Object possibleMrm = this.loadImplClass("media-resource-impl", false);
+        AsyncMediaResourceManager mrm = possibleMrm instanceof AsyncMediaResourceManager
+            ? (AsyncMediaResourceManager) possibleMrm
+            : AsyncManagers.adapt((MediaResourceManager) possibleMrm);
 
         // load the api
         this.api = new MediaResourceAPI(mrm, this.config);
+        this.api.setAuthenticator(this.authenticator);
+        this.api.setRateLimiter(this.rateLimiter);
+        this.api.setIdempotencyStore(this.idempotencyStore);
     }
 
     @Override
@@ -20,6 +20,8 @@ public class ServiceDocumentServletDefault extends SwordServlet {
 
         // load the api
         this.api = new ServiceDocumentAPI(sdm, this.config);
+        this.api.setAuthenticator(this.authenticator);
+        this.api.setRateLimiter(this.rateLimiter);
     }
 
     @Override
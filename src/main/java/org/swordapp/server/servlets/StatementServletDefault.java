@@ -6,6 +6,8 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.swordapp.server.AsyncManagers;
+import org.swordapp.server.AsyncStatementManager;
 import org.swordapp.server.StatementAPI;
 import org.swordapp.server.StatementManager;
 
@@ -19,10 +21,16 @@ public class StatementServletDefault extends SwordServlet {
         super.init();
 
         // load the container manager implementation
-        StatementManager sm = (StatementManager) this.loadImplClass("statement-impl", false);
+        Object possibleSm = this.loadImplClass("statement-impl", false);
+        AsyncStatementManager sm = possibleSm instanceof AsyncStatementManager
+            ? (AsyncStatementManager) possibleSm
+            : AsyncManagers.adapt((StatementManager) possibleSm);
 
         // initialise the underlying servlet processor
         this.statementApi = new StatementAPI(sm, this.config);
+        this.statementApi.setAuthenticator(this.authenticator);
+        this.statementApi.setRateLimiter(this.rateLimiter);
+        this.statementApi.setDepositJobs(this.depositJobs);
     }
 
     @Override
@@ -2,20 +2,243 @@ package org.swordapp.server.servlets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.swordapp.server.Authenticator;
+import org.swordapp.server.BackgroundThreads;
+import org.swordapp.server.CachingAuthenticator;
+import org.swordapp.server.DepositJobs;
+import org.swordapp.server.IdempotencyStore;
+import org.swordapp.server.InMemoryIdempotencyStore;
+import org.swordapp.server.RateLimiter;
 import org.swordapp.server.SwordConfiguration;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class SwordServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
     private static Logger log = LoggerFactory.getLogger(SwordServlet.class);
 
-    protected SwordConfiguration config;
+    /**
+     * The number of initialised servlets of the context, which share its resources.
+     */
+    private static final String SERVLETS_ATTRIBUTE = SwordServlet.class.getName() + ".servlets";
+
+    protected transient SwordConfiguration config;
+
+    protected transient Authenticator authenticator;
+
+    protected transient ExecutorService executor;
+
+    protected transient DepositJobs depositJobs;
+
+    protected transient IdempotencyStore idempotencyStore;
+
+    protected transient RateLimiter rateLimiter;
 
     public void init() throws ServletException {
         // load the configuration implementation
         this.config = (SwordConfiguration) this.loadImplClass("config-impl", false);
+
+        // load the (optional) authenticator
+        this.authenticator = this.loadAuthenticator();
+
+        // load the (optional) store for idempotency keys
+        this.idempotencyStore = this.loadIdempotencyStore();
+
+        // limit the requests and uploads of each user and collection, if asked for
+        if (RateLimiter.isEnabled(this.config)) {
+            this.rateLimiter = this.loadRateLimiter();
+        }
+
+        // process deposits in the background, if asked for
+        if (this.config.useDeferredDeposits()) {
+            this.depositJobs = this.loadDepositJobs();
+        }
+
+        // run requests on virtual threads, if asked for and available
+        if (this.config.useVirtualThreads()) {
+            this.executor = VirtualThreads.newExecutor();
+            if (this.executor == null) {
+                log.warn("Virtual threads are not available on this JVM, serving requests on container threads");
+            }
+        }
+
+        this.countServlets(1);
+    }
+
+    /**
+     * Stop the executor of this servlet. The resources shared by the servlets of the context, i.e. the
+     * {@link DepositJobs} and the {@link BackgroundThreads}, are stopped along with the last of them, so that
+     * unloading a single servlet does not stop the work of the others.
+     */
+    @Override
+    public void destroy() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
+        if (this.countServlets(-1) == 0) {
+            ServletContext context = getServletContext();
+            DepositJobs shared = (DepositJobs) context.getAttribute(DepositJobs.class.getName());
+            if (shared != null) {
+                context.removeAttribute(DepositJobs.class.getName());
+                shared.shutdown();
+            }
+            BackgroundThreads.shutdown();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Add to the number of initialised servlets of the context.
+     *
+     * @return the number of servlets left
+     */
+    private int countServlets(final int delta) {
+        ServletContext context = getServletContext();
+        synchronized (context) {
+            Integer servlets = (Integer) context.getAttribute(SERVLETS_ATTRIBUTE);
+            int count = (servlets != null ? servlets : 0) + delta;
+            if (count > 0) {
+                context.setAttribute(SERVLETS_ATTRIBUTE, count);
+            } else {
+                context.removeAttribute(SERVLETS_ATTRIBUTE);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Serve the request on a virtual thread if {@link SwordConfiguration#useVirtualThreads()} is enabled, so that
+     * the container thread is released while the managers wait for databases or storage.
+     */
+    @Override
+    protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        if (this.executor == null || !req.isAsyncSupported()) {
+            super.service(req, resp);
+            return;
+        }
+
+        AsyncContext context = req.startAsync();
+        context.setTimeout(0);
+        try {
+            this.executor.execute(() -> this.serviceOnExecutor(context, req, resp));
+        } catch (RejectedExecutionException e) {
+            // we are being shut down
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            context.complete();
+        }
+    }
+
+    private void serviceOnExecutor(final AsyncContext context, final HttpServletRequest req, final HttpServletResponse resp) {
+        try {
+            super.service(req, resp);
+        } catch (ServletException | IOException | RuntimeException e) {
+            log.error("Unable to serve " + req.getMethod() + " " + req.getRequestURI(), e);
+            if (!resp.isCommitted()) {
+                try {
+                    resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                } catch (IOException ioe) {
+                    log.warn("Unable to send error response: " + ioe.getMessage());
+                }
+            }
+        } finally {
+            context.complete();
+        }
+    }
+
+    /**
+     * Load the {@link Authenticator} from the "authenticator-impl" context parameter, if there is one.
+     * The instance is shared by all servlets of the context, so that they also share the credential cache.
+     */
+    protected Authenticator loadAuthenticator() throws ServletException {
+        ServletContext context = getServletContext();
+        synchronized (context) {
+            Authenticator shared = (Authenticator) context.getAttribute(Authenticator.class.getName());
+            if (shared != null) {
+                return shared;
+            }
+
+            Authenticator impl = (Authenticator) this.loadImplClass("authenticator-impl", true);
+            if (impl == null) {
+                return null;
+            }
+            if (this.config.getAuthCacheTtl() > 0) {
+                impl = new CachingAuthenticator(impl, this.config.getAuthCacheTtl(), TimeUnit.SECONDS, this.config.getAuthCacheMaxSize());
+            }
+            context.setAttribute(Authenticator.class.getName(), impl);
+            return impl;
+        }
+    }
+
+    /**
+     * Load the {@link IdempotencyStore} from the "idempotency-store-impl" context parameter, or create an
+     * {@link InMemoryIdempotencyStore} if {@link SwordConfiguration#getIdempotencyKeyTtl()} is set. The instance is
+     * shared by all servlets of the context.
+     */
+    protected IdempotencyStore loadIdempotencyStore() throws ServletException {
+        ServletContext context = getServletContext();
+        synchronized (context) {
+            IdempotencyStore shared = (IdempotencyStore) context.getAttribute(IdempotencyStore.class.getName());
+            if (shared != null) {
+                return shared;
+            }
+
+            IdempotencyStore impl = (IdempotencyStore) this.loadImplClass("idempotency-store-impl", true);
+            if (impl == null && this.config.getIdempotencyKeyTtl() > 0) {
+                impl = new InMemoryIdempotencyStore(this.config.getIdempotencyKeyTtl(), TimeUnit.SECONDS, this.config.getIdempotencyStoreMaxSize());
+            }
+            if (impl != null) {
+                context.setAttribute(IdempotencyStore.class.getName(), impl);
+            }
+            return impl;
+        }
+    }
+
+    /**
+     * Get the {@link DepositJobs} shared by all servlets of the context, so that the statement can report the state
+     * of deposits queued by the collection.
+     */
+    protected DepositJobs loadDepositJobs() {
+        ServletContext context = getServletContext();
+        synchronized (context) {
+            DepositJobs shared = (DepositJobs) context.getAttribute(DepositJobs.class.getName());
+            if (shared == null) {
+                shared = new DepositJobs(this.config);
+                context.setAttribute(DepositJobs.class.getName(), shared);
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * Get the {@link RateLimiter} shared by all servlets of the context, so that the limits apply to all requests of
+     * a user, whichever endpoint they are sent to.
+     */
+    protected RateLimiter loadRateLimiter() {
+        ServletContext context = getServletContext();
+        synchronized (context) {
+            RateLimiter shared = (RateLimiter) context.getAttribute(RateLimiter.class.getName());
+            if (shared == null) {
+                shared = new RateLimiter(this.config);
+                context.setAttribute(RateLimiter.class.getName(), shared);
+                // without an authenticator, hardly any credentials are verified, see RateLimiter.keys
+                boolean perUser = this.config.getUserRequestRate() > 0 || this.config.getMaxConcurrentUploadsPerUser() > 0;
+                if (perUser && this.authenticator == null) {
+                    log.warn("Per-user rate and upload limits are configured, but there is no 'authenticator-impl': only requests with "
+                        + "signed tokens or signatures count as a user, all others are limited by the address of the client");
+                }
+            }
+            return shared;
+        }
     }
 
     protected Object loadImplClass(final String paramName, final boolean allowNull) throws ServletException {
@@ -0,0 +1,51 @@
+package org.swordapp.server.servlets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to the virtual threads of JDK 21 and newer, while the library itself is built for JDK 17.
+ */
+public final class VirtualThreads {
+    private static Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+    private static final Method NEW_EXECUTOR = findExecutorFactory();
+
+    // Utility class - hiding default constructor.
+    private VirtualThreads() { }
+
+    /**
+     * Whether the running JVM supports virtual threads.
+     */
+    public static boolean isAvailable() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * Create an executor which starts a new virtual thread for each task.
+     *
+     * @return the executor, or null if the running JVM does not support virtual threads.
+     */
+    public static ExecutorService newExecutor() {
+        if (NEW_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Unable to create a virtual thread executor: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Method findExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
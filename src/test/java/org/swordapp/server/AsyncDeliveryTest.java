@@ -0,0 +1,94 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncDeliveryTest {
+
+    // more than three buffers of the delivery, so that it pauses several times
+    static final byte[] CONTENT = new byte[200 * 1024];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    /**
+     * A source which remembers whether it has been closed.
+     */
+    static final class Source extends ByteArrayInputStream {
+        boolean closed = false;
+
+        Source(final byte[] content) {
+            super(content);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.closed = true;
+            super.close();
+        }
+    }
+
+    FakeServlet.Request req = new FakeServlet.Request("GET", "http://localhost/sword/edit-media/1").async();
+    FakeServlet.Response resp = new FakeServlet.Response(this.req);
+    Source source = new Source(CONTENT);
+
+    @Test
+    @DisplayName("The body is written whenever the client can take more, and the request completed once it has been sent")
+    void deliver() throws Exception {
+        // given
+        AsyncDelivery.start(this.req.proxy, this.source);
+
+        // when
+        this.resp.accept(1);
+        int first = this.resp.body.size();
+        for (int i = 0; i < 10 && !this.req.async.completed; i++) {
+            this.resp.accept(1);
+        }
+
+        // then: nothing more was read than the client could take
+        assertTrue(first > 0 && first < CONTENT.length, Integer.toString(first));
+        assertArrayEquals(CONTENT, this.resp.body.toByteArray());
+        assertTrue(this.req.async.completed);
+        assertTrue(this.source.closed);
+    }
+
+    @Test
+    @DisplayName("The source is closed and the request completed if writing fails")
+    void writeFails() throws Exception {
+        // given
+        AsyncDelivery.start(this.req.proxy, this.source);
+        this.resp.accept(1);
+
+        // when
+        this.resp.fail(new IOException("Broken pipe"));
+
+        // then
+        assertTrue(this.source.closed);
+        assertTrue(this.req.async.completed);
+        assertTrue(this.resp.body.size() < CONTENT.length);
+    }
+
+    @Test
+    @DisplayName("The source is closed if the request is completed before the body has been sent")
+    void completedEarly() throws Exception {
+        // given
+        AsyncDelivery.start(this.req.proxy, this.source);
+        this.resp.accept(1);
+        int written = this.resp.body.size();
+
+        // when the container gives up on the request
+        this.req.async.proxy.complete();
+        this.resp.accept(1);
+
+        // then
+        assertTrue(this.source.closed);
+        assertEquals(written, this.resp.body.size());
+    }
+}
@@ -0,0 +1,134 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncManagersTest {
+
+    @Test
+    @DisplayName("Results of a synchronous manager are returned as completed stage")
+    void adapt_result() throws Exception {
+        // given
+        Statement statement = new OREStatement("http://localhost/rem", "http://localhost/agg");
+        AsyncStatementManager sm = AsyncManagers.adapt((StatementManager) (iri, accept, auth, config) -> statement);
+
+        // when
+        CompletableFuture<Statement> future = sm.getStatement("http://localhost/statement", null, null, null).toCompletableFuture();
+
+        // then
+        assertTrue(future.isDone());
+        assertSame(statement, future.get());
+    }
+
+    @Test
+    @DisplayName("Exceptions of a synchronous manager complete the stage exceptionally")
+    void adapt_failure() {
+        // given
+        SwordError error = new SwordError(UriRegistry.ERROR_BAD_REQUEST);
+        AsyncContainerManager cm = AsyncManagers.adapt(new ContainerManagerStub(error));
+
+        // when
+        CompletableFuture<Void> future = cm.deleteContainer("http://localhost/edit", null, null).toCompletableFuture();
+
+        // then
+        assertTrue(future.isCompletedExceptionally());
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertSame(error, e.getCause());
+    }
+
+    @Test
+    @DisplayName("Missing managers stay missing")
+    void adapt_null() {
+        assertNull(AsyncManagers.adapt((StatementManager) null));
+        assertNull(AsyncManagers.adapt((CollectionDepositManager) null));
+    }
+
+    @Test
+    @DisplayName("Blocking views wait for the stage of an asynchronous manager and throw what it failed with")
+    void blocking() throws Exception {
+        // given
+        DepositReceipt receipt = new DepositReceipt();
+        SwordError error = new SwordError(UriRegistry.ERROR_BAD_REQUEST);
+        CollectionDepositManager accepting = AsyncManagers.blocking(
+            (AsyncCollectionDepositManager) (uri, deposit, auth, config) -> CompletableFuture.supplyAsync(() -> receipt));
+        CollectionDepositManager refusing = AsyncManagers.blocking(
+            (AsyncCollectionDepositManager) (uri, deposit, auth, config) -> CompletableFuture.failedFuture(error));
+
+        // when
+        DepositReceipt created = accepting.createNew("http://localhost/col", null, null, null);
+        SwordError thrown = assertThrows(SwordError.class, () -> refusing.createNew("http://localhost/col", null, null, null));
+
+        // then
+        assertSame(receipt, created);
+        assertSame(error, thrown);
+        assertNull(AsyncManagers.blocking((AsyncCollectionDepositManager) null));
+    }
+
+    @Test
+    @DisplayName("Subclasses of the API classes still find the managers they were constructed with")
+    void managerFields() {
+        // given
+        CollectionDepositManager cdm = (uri, deposit, auth, config) -> new DepositReceipt();
+        AsyncCollectionDepositManager asyncCdm = (uri, deposit, auth, config) -> CompletableFuture.completedFuture(new DepositReceipt());
+
+        // when
+        CollectionAPI sync = new CollectionAPI(null, cdm, new SwordTestConfiguration());
+        CollectionAPI async = new CollectionAPI(null, asyncCdm, new SwordTestConfiguration());
+
+        // then
+        assertSame(cdm, sync.cdm);
+        assertNotNull(sync.asyncCdm);
+        assertSame(asyncCdm, async.asyncCdm);
+        assertNotNull(async.cdm);
+    }
+
+    static class ContainerManagerStub implements ContainerManager {
+        final SwordError error;
+
+        ContainerManagerStub(SwordError error) {
+            this.error = error;
+        }
+
+        public DepositReceipt getEntry(String editIRI, Map<String, String> accept, AuthCredentials auth, SwordConfiguration config) {
+            return null;
+        }
+
+        public DepositReceipt replaceMetadata(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config) {
+            return null;
+        }
+
+        public DepositReceipt replaceMetadataAndMediaResource(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config) {
+            return null;
+        }
+
+        public DepositReceipt addMetadataAndResources(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config) {
+            return null;
+        }
+
+        public DepositReceipt addMetadata(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config) {
+            return null;
+        }
+
+        public DepositReceipt addResources(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config) {
+            return null;
+        }
+
+        public void deleteContainer(String editIRI, AuthCredentials auth, SwordConfiguration config) throws SwordError {
+            throw this.error;
+        }
+
+        public DepositReceipt useHeaders(String editIRI, Deposit deposit, AuthCredentials auth, SwordConfiguration config) {
+            return null;
+        }
+
+        public boolean isStatementRequest(String editIRI, Map<String, String> accept, AuthCredentials auth, SwordConfiguration config) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncSpoolTest {
+
+    private static final int SIZE = 2 * 1024 * 1024;
+
+    @TempDir
+    File tempDir;
+
+    private static byte[] newContent() {
+        byte[] content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+
+    private static RateLimiter.Permit newPermit(final RateLimiter limiter) {
+        return limiter.acquireUpload(List.of("user:depositor"));
+    }
+
+    private static RateLimiter newLimiter() {
+        return new RateLimiter(new SwordTestConfiguration() {
+            @Override
+            public int getMaxConcurrentUploadsPerUser() {
+                return 1;
+            }
+        });
+    }
+
+    private void awaitDeleted(final File file) throws InterruptedException {
+        // files are deleted in the background
+        for (int i = 0; i < 100 && file.exists(); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    @DisplayName("The body is stored and hashed as it arrives in pieces, and the request dispatched once it is complete")
+    void readInPieces() throws Exception {
+        // given
+        byte[] content = newContent();
+        FakeServlet.Request req = new FakeServlet.Request("POST", "http://localhost/col/1").body(content).async();
+        new FakeServlet.Response(req);
+        File file = new File(this.tempDir, "upload");
+        RateLimiter limiter = newLimiter();
+        AsyncSpool.start(req.proxy, file, SIZE, new ContentDigests(List.of()), null, null, newPermit(limiter));
+
+        // when
+        for (int i = 0; i < 4; i++) {
+            req.body.deliver(SIZE / 8);
+        }
+        boolean dispatchedEarly = req.async.dispatched;
+        req.body.finish();
+
+        // then
+        assertFalse(dispatchedEarly);
+        assertTrue(req.async.dispatched);
+        assertTrue(AsyncSpool.isSpooled(req.proxy));
+        AsyncSpool.Result result = AsyncSpool.claim(req.proxy);
+        assertNotNull(result);
+        assertNull(result.getError());
+        assertNull(result.getFailure());
+        assertEquals(file, result.getFile());
+        assertEquals(ChecksumUtils.hash(file), result.getDigests().getMd5());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertNull(AsyncSpool.claim(req.proxy));
+        // the upload no longer counts against the limit once it has been stored
+        assertNotNull(newPermit(limiter));
+    }
+
+    @Test
+    @DisplayName("A body exceeding the maximum size is refused as soon as it does, and its file deleted")
+    void maxSize() throws Exception {
+        // given
+        FakeServlet.Request req = new FakeServlet.Request("POST", "http://localhost/col/1").body(newContent()).async();
+        new FakeServlet.Response(req);
+        File file = new File(this.tempDir, "upload");
+        RateLimiter limiter = newLimiter();
+        AsyncSpool.start(req.proxy, file, SIZE / 2, new ContentDigests(List.of()), null, null, newPermit(limiter));
+
+        // when
+        req.body.deliver(SIZE / 2);
+        boolean dispatchedAtLimit = req.async.dispatched;
+        req.body.deliver(1);
+
+        // then
+        assertFalse(dispatchedAtLimit);
+        assertTrue(req.async.dispatched);
+        AsyncSpool.Result result = AsyncSpool.claim(req.proxy);
+        assertNotNull(result);
+        assertNull(result.getFile());
+        assertEquals(UriRegistry.ERROR_MAX_UPLOAD_SIZE_EXCEEDED, result.getError().getErrorUri());
+        this.awaitDeleted(file);
+        assertFalse(file.exists());
+        assertNotNull(newPermit(limiter));
+    }
+
+    @Test
+    @DisplayName("A failed read completes the request without dispatching it, and deletes the file")
+    void readError() throws Exception {
+        // given
+        FakeServlet.Request req = new FakeServlet.Request("POST", "http://localhost/col/1").body(newContent()).async();
+        new FakeServlet.Response(req);
+        File file = new File(this.tempDir, "upload");
+        RateLimiter limiter = newLimiter();
+        AsyncSpool.start(req.proxy, file, -1, new ContentDigests(List.of()), null, null, newPermit(limiter));
+        req.body.deliver(SIZE / 4);
+
+        // when
+        req.body.fail(new IOException("Connection reset by peer"));
+
+        // then
+        assertFalse(req.async.dispatched);
+        assertTrue(req.async.completed);
+        assertNull(AsyncSpool.claim(req.proxy));
+        this.awaitDeleted(file);
+        assertFalse(file.exists());
+        assertNotNull(newPermit(limiter));
+    }
+
+    @Test
+    @DisplayName("A stored file the dispatched request does not take over is deleted when the request completes")
+    void unclaimed() throws Exception {
+        // given
+        FakeServlet.Request req = new FakeServlet.Request("POST", "http://localhost/col/1").body(newContent()).async();
+        new FakeServlet.Response(req);
+        File file = new File(this.tempDir, "upload");
+        AsyncSpool.start(req.proxy, file, -1, new ContentDigests(List.of()), null, null, null);
+        req.body.finish();
+
+        // when the dispatched request fails before it claims the file
+        req.redispatch();
+        req.async.completeAfterDispatch();
+
+        // then
+        this.awaitDeleted(file);
+        assertFalse(file.exists());
+        assertNull(AsyncSpool.claim(req.proxy));
+    }
+
+    @Test
+    @DisplayName("Reading stops while a parallel processor lags behind, and continues once it has caught up")
+    void backPressure() throws Exception {
+        // given a processor which blocks until released
+        byte[] content = newContent();
+        CountDownLatch release = new CountDownLatch(1);
+        DepositPipelineTest.Collector slow = new DepositPipelineTest.Collector("slow", true, null) {
+            @Override
+            public void update(final byte[] buffer, final int offset, final int length) throws SwordError {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.update(buffer, offset, length);
+            }
+        };
+        DepositPipeline pipeline = new DepositPipeline(List.of(slow));
+        FakeServlet.Request req = new FakeServlet.Request("POST", "http://localhost/col/1").body(content).async();
+        new FakeServlet.Response(req);
+        File file = new File(this.tempDir, "upload");
+        AsyncSpool.start(req.proxy, file, -1, new ContentDigests(List.of()), pipeline, null, null);
+
+        // when all of the body has arrived
+        req.body.deliver(SIZE);
+        boolean stalled = req.body.isStalled();
+        release.countDown();
+        req.async.awaitIdle();
+        req.body.finish();
+
+        // then
+        assertTrue(stalled);
+        assertTrue(req.async.dispatched);
+        AsyncSpool.Result result = AsyncSpool.claim(req.proxy);
+        assertNotNull(result);
+        assertNull(result.getError());
+        result.getPipeline().finish(new Deposit());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertArrayEquals(content, slow.content.toByteArray());
+    }
+}
@@ -0,0 +1,77 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingAuthenticatorTest {
+
+    SwordConfiguration config = new SwordTestConfiguration();
+    AtomicInteger calls = new AtomicInteger();
+
+    // accepts everybody whose password is "secret"
+    Authenticator backend = (credentials, config) -> {
+        calls.incrementAndGet();
+        if (!"secret".equals(credentials.getPassword())) {
+            throw new SwordAuthException(true);
+        }
+        return credentials.asAuthenticated();
+    };
+
+    @Test
+    @DisplayName("Successful verifications are cached")
+    void authenticate_cached() throws SwordAuthException {
+        // given
+        CachingAuthenticator authenticator = new CachingAuthenticator(backend, 1, TimeUnit.HOURS, 10);
+
+        // when
+        AuthCredentials first = authenticator.authenticate(new AuthCredentials("ana", "secret", null), config);
+        AuthCredentials second = authenticator.authenticate(new AuthCredentials("ana", "secret", null), config);
+
+        // then
+        assertEquals(1, calls.get());
+        assertTrue(first.isAuthenticated());
+        assertTrue(second.isAuthenticated());
+        assertEquals("ana", second.getUsername());
+        assertEquals("secret", second.getPassword());
+    }
+
+    @Test
+    @DisplayName("Failed verifications and other credentials are not served from the cache")
+    void authenticate_notCached() throws SwordAuthException {
+        CachingAuthenticator authenticator = new CachingAuthenticator(backend, 1, TimeUnit.HOURS, 10);
+        authenticator.authenticate(new AuthCredentials("ana", "secret", null), config);
+
+        assertThrows(SwordAuthException.class, () -> authenticator.authenticate(new AuthCredentials("ana", "wrong", null), config));
+        assertThrows(SwordAuthException.class, () -> authenticator.authenticate(new AuthCredentials("ana", "wrong", null), config));
+        authenticator.authenticate(new AuthCredentials("ana", "secret", "bob"), config);
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    @DisplayName("Cached verifications expire")
+    void authenticate_expired() throws SwordAuthException {
+        CachingAuthenticator authenticator = new CachingAuthenticator(backend, 0, TimeUnit.SECONDS, 10);
+        authenticator.authenticate(new AuthCredentials("ana", "secret", null), config);
+        authenticator.authenticate(new AuthCredentials("ana", "secret", null), config);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    @DisplayName("The cache does not grow beyond its maximum size")
+    void authenticate_evicted() throws SwordAuthException {
+        CachingAuthenticator authenticator = new CachingAuthenticator(backend, 1, TimeUnit.HOURS, 2);
+        authenticator.authenticate(new AuthCredentials("ana", "secret", null), config);
+        authenticator.authenticate(new AuthCredentials("bob", "secret", null), config);
+        authenticator.authenticate(new AuthCredentials("eve", "secret", null), config);
+        assertEquals(2, authenticator.size());
+
+        // ana was the least recently used entry
+        authenticator.authenticate(new AuthCredentials("ana", "secret", null), config);
+        assertEquals(4, calls.get());
+    }
+}
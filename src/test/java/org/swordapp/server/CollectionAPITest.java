@@ -0,0 +1,486 @@
+package org.swordapp.server;
+
+import org.apache.abdera.i18n.iri.IRI;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CollectionAPITest {
+
+    private static final String COLLECTION = "http://localhost/sword/collection/1";
+    private static final byte[] CONTENT = "some deposit content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    File tempDir;
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger authenticated = new AtomicInteger();
+    private final AtomicInteger validated = new AtomicInteger();
+    private int maxUploadSize = -1;
+    private String authType = null;
+    private SwordError refusal = null;
+    private InMemoryIdempotencyStore store;
+
+    private final CollectionDepositManager cdm = new CollectionDepositManager() {
+        @Override
+        public DepositReceipt createNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth,
+                                        final SwordConfiguration config) {
+            DepositReceipt receipt = new DepositReceipt();
+            receipt.setLocation(new IRI(COLLECTION + "/item/" + CollectionAPITest.this.created.incrementAndGet()));
+            return receipt;
+        }
+
+        @Override
+        public void validateNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth,
+                                final SwordConfiguration config) throws SwordError {
+            CollectionAPITest.this.validated.incrementAndGet();
+            if (CollectionAPITest.this.refusal != null) {
+                throw CollectionAPITest.this.refusal;
+            }
+        }
+    };
+
+    @BeforeEach
+    void setUp() {
+        this.store = new InMemoryIdempotencyStore(1, TimeUnit.HOURS, 10);
+    }
+
+    private CollectionAPI newApi(final Authenticator authenticator) {
+        SwordConfiguration config = new SwordTestConfiguration() {
+            @Override
+            public String getAuthType() {
+                if (CollectionAPITest.this.authType != null) {
+                    return CollectionAPITest.this.authType;
+                }
+                return authenticator == null ? "None" : "Basic";
+            }
+
+            @Override
+            public String getTempDirectory() {
+                return CollectionAPITest.this.tempDir.getAbsolutePath();
+            }
+
+            @Override
+            public boolean useAsyncUploads() {
+                return true;
+            }
+
+            @Override
+            public int getMaxUploadSize() {
+                return CollectionAPITest.this.maxUploadSize;
+            }
+        };
+        CollectionAPI api = new CollectionAPI(null, this.cdm, config);
+        api.setIdempotencyStore(this.store);
+        api.setAuthenticator(authenticator);
+        return api;
+    }
+
+    private static FakeServlet.Request newDeposit(final String idempotencyKey) {
+        return new FakeServlet.Request("POST", COLLECTION)
+            .header("Content-Type", "application/octet-stream")
+            .header("Content-Disposition", "attachment; filename=example.bin")
+            .header("Packaging", UriRegistry.PACKAGE_BINARY)
+            .header("Authorization", "Basic " + Base64.getEncoder().encodeToString("user:secret".getBytes(StandardCharsets.UTF_8)))
+            .header("Idempotency-Key", idempotencyKey)
+            .body(CONTENT);
+    }
+
+    private int retry(final CollectionAPI api, final String idempotencyKey) throws Exception {
+        FakeServlet.Request req = newDeposit(idempotencyKey);
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        api.post(req.proxy, resp.proxy);
+        return resp.status;
+    }
+
+    private long countSpoolFiles() throws IOException {
+        // files are deleted in the background
+        try (Stream<Path> files = Files.walk(this.tempDir.toPath())) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    @DisplayName("The idempotency key of an upload the client broke off is released, so that the client can retry")
+    void releaseKeyOnReadError() throws Exception {
+        // given
+        CollectionAPI api = this.newApi(null);
+        FakeServlet.Request req = newDeposit("upload-1").async();
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        api.post(req.proxy, resp.proxy);
+        assertNotNull(req.async);
+
+        // when
+        req.body.deliver(4);
+        req.body.fail(new IOException("Connection reset by peer"));
+
+        // then
+        assertTrue(req.async.completed);
+        for (int i = 0; i < 100 && this.countSpoolFiles() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, this.countSpoolFiles());
+        assertEquals(HttpServletResponse.SC_CREATED, this.retry(api, "upload-1"));
+        assertEquals(1, this.created.get());
+    }
+
+    @Test
+    @DisplayName("The idempotency key is released if the dispatched request fails before the deposit is processed")
+    void releaseKeyOnFailedDispatch() throws Exception {
+        // given a body of unknown length, which turns out to be too large while it is read
+        this.maxUploadSize = CONTENT.length - 1;
+        CollectionAPI api = this.newApi(null);
+        FakeServlet.Request req = newDeposit("upload-2").async();
+        req.headers.remove("Content-Length");
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        api.post(req.proxy, resp.proxy);
+
+        // when
+        req.body.finish();
+        assertTrue(req.async.dispatched);
+        req.redispatch();
+        api.post(req.proxy, resp.proxy);
+        req.async.completeAfterDispatch();
+
+        // then
+        assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, resp.status);
+        assertEquals(0, this.created.get());
+        this.maxUploadSize = -1;
+        assertEquals(HttpServletResponse.SC_CREATED, this.retry(api, "upload-2"));
+        assertEquals(1, this.created.get());
+    }
+
+    @Test
+    @DisplayName("The dispatched request keeps the verified credentials, and the deposit is validated once")
+    void authenticateOnce() throws Exception {
+        // given
+        CollectionAPI api = this.newApi((credentials, config) -> {
+            this.authenticated.incrementAndGet();
+            return new AuthCredentials(credentials.getUsername(), credentials.getPassword(), credentials.getOnBehalfOf(), true,
+                credentials.getUsername());
+        });
+        FakeServlet.Request req = newDeposit("upload-4").async();
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        api.post(req.proxy, resp.proxy);
+
+        // when
+        req.body.finish();
+        req.redispatch();
+        api.post(req.proxy, resp.proxy);
+        req.async.completeAfterDispatch();
+
+        // then
+        assertEquals(HttpServletResponse.SC_CREATED, resp.status);
+        assertEquals(1, this.authenticated.get());
+        assertEquals(1, this.validated.get());
+        assertEquals(1, this.created.get());
+    }
+
+    @Test
+    @DisplayName("The dispatched request keeps the idempotency key, and a retry gets its receipt")
+    void keepKeyOnDispatch() throws Exception {
+        // given
+        CollectionAPI api = this.newApi(null);
+        FakeServlet.Request req = newDeposit("upload-3").async();
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        api.post(req.proxy, resp.proxy);
+
+        // when
+        req.body.finish();
+        req.redispatch();
+        api.post(req.proxy, resp.proxy);
+        req.async.completeAfterDispatch();
+
+        // then
+        assertEquals(HttpServletResponse.SC_CREATED, resp.status);
+        assertEquals(HttpServletResponse.SC_CREATED, this.retry(api, "upload-3"));
+        assertEquals(1, this.created.get());
+    }
+
+    @Test
+    @DisplayName("A deposit refused by validateNew gets its error before the body is read, and a client waiting to send it is let go")
+    void validateNewBeforeBody() throws Exception {
+        // given
+        this.refusal = new SwordError(UriRegistry.ERROR_CONTENT, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Refused by validateNew");
+        CollectionAPI api = this.newApi(null);
+        FakeServlet.Request req = newDeposit("upload-7").header("Expect", "100-continue").async();
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+
+        // when
+        api.post(req.proxy, resp.proxy);
+
+        // then
+        assertEquals(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, resp.status);
+        assertTrue(resp.getBody().contains("Refused by validateNew"), resp.getBody());
+        assertEquals("close", resp.headers.get("Connection"));
+        assertEquals(0, req.body.getBytesRead());
+        assertNull(req.async);
+        assertEquals(0, this.created.get());
+        // a client which is sending the body anyway may keep the connection
+        FakeServlet.Request sending = newDeposit("upload-8");
+        FakeServlet.Response refused = new FakeServlet.Response(sending);
+        api.post(sending.proxy, refused.proxy);
+        assertEquals(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, refused.status);
+        assertNull(refused.headers.get("Connection"));
+    }
+
+    @Test
+    @DisplayName("A deposit announced larger than the maximum upload size gets 413 before the body is read or validated")
+    void tooLargeBeforeBody() throws Exception {
+        // given
+        this.maxUploadSize = CONTENT.length - 1;
+        CollectionAPI api = this.newApi(null);
+        FakeServlet.Request req = newDeposit("upload-9").header("Expect", "100-continue");
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+
+        // when
+        api.post(req.proxy, resp.proxy);
+
+        // then
+        assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, resp.status);
+        assertEquals("close", resp.headers.get("Connection"));
+        assertEquals(0, req.body.getBytesRead());
+        assertEquals(0, this.validated.get());
+        assertEquals(0, this.created.get());
+    }
+
+    @Test
+    @DisplayName("A retry gets the receipt as it was rendered for the first attempt")
+    void retryGetsRenderedReceipt() throws Exception {
+        // given
+        CollectionAPI api = this.newApi(null);
+        FakeServlet.Request req = newDeposit("upload-6");
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        api.post(req.proxy, resp.proxy);
+
+        // when
+        FakeServlet.Request retry = newDeposit("upload-6");
+        FakeServlet.Response retried = new FakeServlet.Response(retry);
+        api.post(retry.proxy, retried.proxy);
+
+        // then
+        assertEquals(HttpServletResponse.SC_CREATED, retried.status);
+        assertEquals(resp.getBody(), retried.getBody());
+        assertEquals(resp.headers.get("Location"), retried.headers.get("Location"));
+        assertEquals(resp.headers.get("Last-Modified"), retried.headers.get("Last-Modified"));
+        // the generator was added once, before the receipt was rendered
+        assertEquals(2, resp.getBody().split("<generator", -1).length, resp.getBody());
+        assertEquals(1, this.created.get());
+    }
+
+    @Test
+    @DisplayName("A retry with the username of the first attempt but another password does not get its receipt, unless verified")
+    void idempotencyKeyNeedsVerifiedCredentials() throws Exception {
+        // given Basic credentials nobody verifies, which are left to the manager to check
+        this.authType = "Basic";
+        CollectionAPI api = this.newApi(null);
+        assertEquals(HttpServletResponse.SC_CREATED, this.retry(api, "upload-5"));
+
+        // when
+        FakeServlet.Request req = newDeposit("upload-5")
+            .header("Authorization", "Basic " + Base64.getEncoder().encodeToString("user:wrong".getBytes(StandardCharsets.UTF_8)));
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        api.post(req.proxy, resp.proxy);
+
+        // then the request is passed to the manager instead
+        assertEquals(HttpServletResponse.SC_CREATED, resp.status);
+        assertEquals(2, this.created.get());
+        assertFalse(resp.headers.get("Location").endsWith("/item/1"), resp.headers.get("Location"));
+    }
+
+    @Test
+    @DisplayName("A deferred deposit is refused before the manager reserves a container, if the queue is full")
+    void busyBeforeReserve() throws Exception {
+        // given
+        AtomicInteger reserved = new AtomicInteger();
+        CollectionDepositManager deferring = new CollectionDepositManager() {
+            @Override
+            public DepositReceipt createNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth,
+                                            final SwordConfiguration config) {
+                return null;
+            }
+
+            @Override
+            public DepositReceipt reserveNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth,
+                                             final SwordConfiguration config) {
+                reserved.incrementAndGet();
+                return null;
+            }
+        };
+        CollectionAPI api = new CollectionAPI(null, deferring, new SwordTestConfiguration() {
+            @Override
+            public String getTempDirectory() {
+                return CollectionAPITest.this.tempDir.getAbsolutePath();
+            }
+        });
+        DepositJobs jobs = new DepositJobs(1, 0, 1, TimeUnit.HOURS);
+        api.setDepositJobs(jobs);
+        DepositJobs.Slot busy = jobs.reserveSlot();
+        FakeServlet.Request req = newDeposit("busy");
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+
+        // when
+        api.post(req.proxy, resp.proxy);
+        busy.close();
+        jobs.shutdown();
+
+        // then
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, resp.status);
+        assertEquals(0, reserved.get());
+    }
+
+    @Test
+    @DisplayName("A 429 of a manager is sent like those of the rate limiter, with the time of each response")
+    void tooManyRequests() throws Exception {
+        // given
+        CollectionDepositManager busy = (collectionURI, deposit, auth, config) -> {
+            throw new SwordError(UriRegistry.ERROR_BAD_REQUEST, RateLimiter.SC_TOO_MANY_REQUESTS, "Busy").setRetryAfter(5);
+        };
+        CollectionAPI api = new CollectionAPI(null, busy, new SwordTestConfiguration() {
+            @Override
+            public String getTempDirectory() {
+                return CollectionAPITest.this.tempDir.getAbsolutePath();
+            }
+        });
+        FakeServlet.Request first = newDeposit("busy-1");
+        FakeServlet.Response refused = new FakeServlet.Response(first);
+        api.post(first.proxy, refused.proxy);
+        Thread.sleep(1100);
+
+        // when
+        FakeServlet.Request second = newDeposit("busy-2");
+        FakeServlet.Response refusedAgain = new FakeServlet.Response(second);
+        api.post(second.proxy, refusedAgain.proxy);
+
+        // then
+        assertEquals(RateLimiter.SC_TOO_MANY_REQUESTS, refusedAgain.status);
+        assertEquals("5", refusedAgain.headers.get("Retry-After"));
+        assertTrue(refusedAgain.getBody().contains("Busy"));
+        String updated = "<updated>";
+        String before = refused.getBody().substring(refused.getBody().indexOf(updated));
+        String after = refusedAgain.getBody().substring(refusedAgain.getBody().indexOf(updated));
+        assertNotEquals(before, after);
+        assertEquals(before.length(), after.length());
+    }
+
+    private CollectionAPI newBatchApi() {
+        CollectionDepositManager validating = new CollectionDepositManager() {
+            @Override
+            public DepositReceipt createNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth,
+                                            final SwordConfiguration config) throws SwordError, SwordServerException, SwordAuthException {
+                DepositReceipt receipt = CollectionAPITest.this.cdm.createNew(collectionURI, deposit, auth, config);
+                receipt.setTreatment("Created " + deposit.getSwordEntry().getTitle());
+                return receipt;
+            }
+
+            @Override
+            public void validateNew(final String collectionURI, final Deposit deposit, final AuthCredentials auth,
+                                    final SwordConfiguration config) throws SwordError {
+                if ("Refused".equals(deposit.getSwordEntry().getTitle())) {
+                    throw new SwordError(UriRegistry.ERROR_CONTENT, "Refused by validateNew");
+                }
+            }
+        };
+        CollectionAPI api = new CollectionAPI(null, validating, new SwordTestConfiguration() {
+            @Override
+            public int getMaxBatchEntries() {
+                return 10;
+            }
+        });
+        api.setIdempotencyStore(this.store);
+        return api;
+    }
+
+    private static FakeServlet.Request newBatch(final String idempotencyKey) {
+        String feed = "<feed xmlns=\"http://www.w3.org/2005/Atom\">"
+            + "<entry><title>First</title></entry><entry><title>Refused</title></entry><entry><title>Third</title></entry></feed>";
+        FakeServlet.Request req = new FakeServlet.Request("POST", COLLECTION)
+            .header("Content-Type", "application/atom+xml; Type=\"Feed\"")
+            .body(feed.getBytes(StandardCharsets.UTF_8));
+        return idempotencyKey == null ? req : req.header("Idempotency-Key", idempotencyKey);
+    }
+
+    @Test
+    @DisplayName("Entries of a batch refused by validateNew are reported in their place, the others are created")
+    void batch() throws Exception {
+        // given
+        CollectionAPI api = this.newBatchApi();
+        FakeServlet.Request req = newBatch(null);
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+
+        // when
+        api.post(req.proxy, resp.proxy);
+
+        // then
+        assertEquals(HttpServletResponse.SC_OK, resp.status);
+        assertEquals(2, this.created.get());
+        String body = resp.getBody();
+        int first = body.indexOf("Created First");
+        int refused = body.indexOf("Refused by validateNew");
+        int third = body.indexOf("Created Third");
+        assertTrue(first >= 0 && first < refused && refused < third, body);
+    }
+
+    @Test
+    @DisplayName("A retried batch gets the results of the first attempt, and the key cannot be reused for a single deposit")
+    void batchIdempotent() throws Exception {
+        // given
+        CollectionAPI api = this.newBatchApi();
+        FakeServlet.Request req = newBatch("batch-1");
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        api.post(req.proxy, resp.proxy);
+
+        // when
+        FakeServlet.Request retry = newBatch("batch-1");
+        FakeServlet.Response retried = new FakeServlet.Response(retry);
+        api.post(retry.proxy, retried.proxy);
+
+        // then
+        assertEquals(HttpServletResponse.SC_OK, retried.status);
+        assertEquals(2, this.created.get());
+        assertTrue(retried.getBody().contains("Created Third"));
+        assertTrue(retried.getBody().contains("Refused by validateNew"));
+        assertEquals(HttpServletResponse.SC_CONFLICT, this.retry(api, "batch-1"));
+    }
+
+    @Test
+    @DisplayName("A batch announced larger than the maximum upload size is refused before it is read")
+    void batchTooLarge() throws Exception {
+        // given
+        CollectionAPI api = this.newBatchApi();
+        FakeServlet.Request req = newBatch("batch-2").header("Content-Length", "4096");
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+
+        // when
+        api.post(req.proxy, resp.proxy);
+
+        // then
+        assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, resp.status);
+        assertEquals(0, this.created.get());
+        assertTrue(this.store.claim(api.getIdempotencyKey(req.proxy, null)));
+    }
+
+    @Test
+    @DisplayName("Feeds are recognized by the type parameter, whatever its case and quoting")
+    void isAtomFeed() {
+        assertTrue(CollectionAPI.isAtomFeed("application/atom+xml;type=feed"));
+        assertTrue(CollectionAPI.isAtomFeed("Application/Atom+XML; charset=UTF-8; TYPE=\"feed\""));
+        assertFalse(CollectionAPI.isAtomFeed("application/atom+xml;type=entry"));
+        assertFalse(CollectionAPI.isAtomFeed("application/atom+xml"));
+        assertFalse(CollectionAPI.isAtomFeed("application/xml;type=feed"));
+    }
+}
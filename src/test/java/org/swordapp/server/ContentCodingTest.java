@@ -0,0 +1,81 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentCodingTest {
+
+    static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    static byte[] gzip(byte[] content) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    @DisplayName("Gzip content is decoded, and the digests cover the encoded bytes")
+    void decode_gzip() throws Exception {
+        // given
+        byte[] encoded = gzip(CONTENT);
+        ContentDigests digests = new ContentDigests(List.of());
+
+        // when
+        byte[] decoded;
+        try (InputStream in = ContentCoding.decode(new ByteArrayInputStream(encoded), ContentCoding.GZIP, digests, -1)) {
+            decoded = in.readAllBytes();
+        }
+
+        // then
+        assertArrayEquals(CONTENT, decoded);
+        assertEquals(ChecksumUtils.hashAndCopy(new ByteArrayInputStream(encoded), new ByteArrayOutputStream()), digests.getMd5());
+    }
+
+    @Test
+    @DisplayName("Deflate content is decoded")
+    void decode_deflate() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out)) {
+            deflate.write(CONTENT);
+        }
+
+        try (InputStream in = ContentCoding.decode(new ByteArrayInputStream(out.toByteArray()), ContentCoding.DEFLATE, null, -1)) {
+            assertArrayEquals(CONTENT, in.readAllBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("Decoding stops as soon as the decoded content exceeds the limit")
+    void decode_limit() throws Exception {
+        // 10 MB of zeros compress to a few KB
+        byte[] bomb = gzip(new byte[10 * 1024 * 1024]);
+
+        try (InputStream in = ContentCoding.decode(new ByteArrayInputStream(bomb), ContentCoding.GZIP, null, 1024 * 1024)) {
+            assertThrows(ContentCoding.LimitExceededException.class, in::readAllBytes);
+        }
+    }
+
+    @Test
+    @DisplayName("Identity is no coding, and unsupported codings are refused with 415")
+    void get() throws Exception {
+        assertNull(ContentCoding.get(null));
+        assertNull(ContentCoding.get("identity"));
+        assertEquals(ContentCoding.GZIP, ContentCoding.get(" X-GZIP "));
+
+        SwordError e = assertThrows(SwordError.class, () -> ContentCoding.get("zstd"));
+        assertEquals(415, e.getStatus());
+        assertThrows(SwordError.class, () -> ContentCoding.get("gzip, gzip"));
+    }
+}
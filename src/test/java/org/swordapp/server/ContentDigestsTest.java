@@ -0,0 +1,76 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentDigestsTest {
+
+    static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+    static final String SHA_256 = "16j7swfXgJRpypq8sAguT41WUeRtPNt2LQLQvzfJ5ZI=";
+    static final String SHA_512 = "B+VH2VhvanP3P7rAQ17XaVEhj7fQyNeIownXhUNru2Quk6JSqVTyORJUfR6KO17W4b/XCXghIz+gU489uFT+5g==";
+
+    @Test
+    @DisplayName("The MD5 and the requested digests are computed in the same pass as the copy")
+    void hashAndCopy() throws Exception {
+        // given
+        ContentDigests digests = new ContentDigests(List.of(ContentDigests.SHA_512, "md5", ContentDigests.SHA_256));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // when
+        ChecksumUtils.hashAndCopy(new ByteArrayInputStream(CONTENT), out, digests);
+
+        // then
+        assertArrayEquals(CONTENT, out.toByteArray());
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", digests.getMd5());
+        assertEquals(Map.of(ContentDigests.SHA_256, SHA_256, ContentDigests.SHA_512, SHA_512), digests.getDigests());
+    }
+
+    @Test
+    @DisplayName("Content-Digest fields are parsed, ignoring unsupported algorithms and parameters")
+    void parse() throws Exception {
+        Map<String, String> digests = ContentDigests.parse("sha-256=:" + SHA_256 + ":, md5=:nhB9nTcrtoJr2B01QqQZ1g==: , sha-512=:" + SHA_512 + ":;x=1");
+
+        assertEquals(Map.of(ContentDigests.SHA_256, SHA_256, ContentDigests.SHA_512, SHA_512), digests);
+        assertEquals(Map.of(), ContentDigests.parse(null));
+        assertThrows(SwordError.class, () -> ContentDigests.parse("sha-256=" + SHA_256));
+        assertThrows(SwordError.class, () -> ContentDigests.parse("sha-256=:a:"));
+    }
+
+    @Test
+    @DisplayName("RFC 3230 Digest fields are parsed by their RFC 9530 keys")
+    void parseLegacy() throws Exception {
+        assertEquals(Map.of(ContentDigests.SHA_256, SHA_256), ContentDigests.parseLegacy("MD5=nhB9nTcrtoJr2B01QqQZ1g==, SHA-256=" + SHA_256));
+        assertThrows(SwordError.class, () -> ContentDigests.parseLegacy("SHA-256"));
+    }
+
+    @Test
+    @DisplayName("A digest which does not match is a checksum mismatch")
+    void verify() throws Exception {
+        ContentDigests digests = new ContentDigests(List.of(ContentDigests.SHA_256));
+        digests.update(CONTENT, 0, CONTENT.length);
+
+        digests.verify(Map.of(ContentDigests.SHA_256, SHA_256, ContentDigests.SHA_512, "AAAA"));
+        SwordError e = assertThrows(SwordError.class, () -> digests.verify(Map.of(ContentDigests.SHA_256, SHA_512)));
+        assertEquals(UriRegistry.ERROR_CHECKSUM_MISMATCH, e.getErrorUri());
+    }
+
+    @Test
+    @DisplayName("The available digest with the highest weight is selected, all of them if nothing is wanted")
+    void select() {
+        Map<String, String> available = Map.of(ContentDigests.SHA_256, SHA_256, ContentDigests.SHA_512, SHA_512);
+
+        assertEquals(Map.of(ContentDigests.SHA_512, SHA_512), ContentDigests.select("sha-256=3, sha-512=10, md5=10", available));
+        assertEquals(Map.of(ContentDigests.SHA_256, SHA_256), ContentDigests.select("sha-256=1, sha-512=0", available));
+        assertEquals(Map.of(), ContentDigests.select("md5=10", available));
+        assertSame(available, ContentDigests.select(null, available));
+        assertEquals("sha-256=:" + SHA_256 + ":", ContentDigests.format(Map.of(ContentDigests.SHA_256, SHA_256)));
+    }
+}
@@ -0,0 +1,73 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentTypeDetectorTest {
+
+    static String detect(final byte[] content) {
+        return ContentTypeDetector.detect(content, content.length);
+    }
+
+    @Test
+    @DisplayName("Common deposit formats are detected from their signature")
+    void detect() throws Exception {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("data.txt"));
+        }
+        byte[] tar = new byte[512];
+        System.arraycopy("ustar".getBytes(StandardCharsets.US_ASCII), 0, tar, 257, 5);
+
+        assertEquals("application/zip", detect(zip.toByteArray()));
+        assertEquals("application/pdf", detect("%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("application/x-tar", detect(tar));
+        assertEquals("application/xml", detect("\uFEFF<?xml version=\"1.0\"?><mets/>".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("image/png", detect(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'}));
+        assertNull(detect("Just some text".getBytes(StandardCharsets.US_ASCII)));
+        assertNull(detect(new byte[0]));
+    }
+
+    @Test
+    @DisplayName("An EPUB is told from other zip archives by its first entry")
+    void detect_epub() throws Exception {
+        byte[] mimetype = "application/epub+zip".getBytes(StandardCharsets.US_ASCII);
+        ZipEntry entry = new ZipEntry("mimetype");
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(mimetype.length);
+        CRC32 crc = new CRC32();
+        crc.update(mimetype);
+        entry.setCrc(crc.getValue());
+        ByteArrayOutputStream epub = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(epub)) {
+            out.putNextEntry(entry);
+            out.write(mimetype);
+        }
+
+        assertEquals("application/epub+zip", detect(epub.toByteArray()));
+    }
+
+    @Test
+    @DisplayName("Only the start of the content is kept, however it is split into buffers")
+    void update() {
+        // given
+        ContentTypeDetector detector = new ContentTypeDetector();
+        byte[] content = ("%PDF-1.7\n" + "x".repeat(10000)).getBytes(StandardCharsets.US_ASCII);
+
+        // when
+        for (int off = 0; off < content.length; off += 3) {
+            detector.update(content, off, Math.min(3, content.length - off));
+        }
+
+        // then
+        assertEquals("application/pdf", detector.finish());
+    }
+}
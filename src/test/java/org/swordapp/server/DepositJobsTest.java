@@ -0,0 +1,113 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepositJobsTest {
+
+    DepositJobs jobs = new DepositJobs(1, 1, 1, TimeUnit.HOURS);
+
+    @AfterEach
+    void shutdown() {
+        jobs.shutdown();
+    }
+
+    @Test
+    @DisplayName("The state of a job is reported under all of its IRIs until it has completed")
+    void submit_completes() throws Exception {
+        // given
+        CompletableFuture<DepositReceipt> result = new CompletableFuture<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cleaned = new CountDownLatch(1);
+
+        // when
+        jobs.submit(List.of("http://localhost/edit/1", "http://localhost/statement/1"), () -> {
+            started.countDown();
+            return result;
+        }, cleaned::countDown);
+
+        // then
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(DepositJobs.STATE_PROCESSING, jobs.getStatus("http://localhost/edit/1").getState());
+        assertSame(jobs.getStatus("http://localhost/edit/1"), jobs.getStatus("http://localhost/statement/1"));
+        assertNull(jobs.getStatus("http://localhost/edit/2"));
+
+        result.complete(null);
+        assertTrue(cleaned.await(5, TimeUnit.SECONDS));
+        assertEquals(DepositJobs.STATE_COMPLETED, jobs.getStatus("http://localhost/statement/1").getState());
+        assertTrue(jobs.getStatus("http://localhost/statement/1").isDone());
+    }
+
+    @Test
+    @DisplayName("Failures of the manager are reported as failed state with the message")
+    void submit_fails() throws Exception {
+        // given
+        CountDownLatch cleaned = new CountDownLatch(1);
+
+        // when
+        jobs.submit(List.of("http://localhost/edit/1"),
+            () -> CompletableFuture.failedFuture(new SwordError(UriRegistry.ERROR_CONTENT, "Not a zip file")), cleaned::countDown);
+
+        // then
+        assertTrue(cleaned.await(5, TimeUnit.SECONDS));
+        DepositJobs.Status status = jobs.getStatus("http://localhost/edit/1");
+        assertEquals(DepositJobs.STATE_FAILED, status.getState());
+        assertEquals("Not a zip file", status.getDescription());
+    }
+
+    @Test
+    @DisplayName("Jobs are refused with 503 when the worker is busy and the queue is full")
+    void submit_queueFull() throws Exception {
+        // given
+        CompletableFuture<DepositReceipt> blocker = new CompletableFuture<>();
+        CountDownLatch started = new CountDownLatch(1);
+        jobs.submit(List.of("http://localhost/edit/1"), () -> {
+            started.countDown();
+            return blocker;
+        }, () -> { });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        jobs.submit(List.of("http://localhost/edit/2"), () -> blocker, () -> { });
+
+        // when
+        SwordError e = assertThrows(SwordError.class,
+            () -> jobs.submit(List.of("http://localhost/edit/3"), () -> blocker, () -> { }));
+
+        // then
+        assertEquals(503, e.getStatus());
+        assertEquals(DepositJobs.STATE_QUEUED, jobs.getStatus("http://localhost/edit/2").getState());
+        assertNull(jobs.getStatus("http://localhost/edit/3"));
+        blocker.complete(null);
+    }
+
+    @Test
+    @DisplayName("A slot taken for a job counts against the queue until it is used or closed")
+    void reserveSlot() throws Exception {
+        // given
+        CompletableFuture<DepositReceipt> blocker = new CompletableFuture<>();
+        DepositJobs.Slot first = jobs.reserveSlot();
+        DepositJobs.Slot second = jobs.reserveSlot();
+
+        // when
+        SwordError e = assertThrows(SwordError.class, () -> jobs.reserveSlot());
+        second.close();
+        second.close();
+        jobs.submit(first, List.of("http://localhost/edit/1"), () -> blocker, () -> { });
+        first.close();
+        DepositJobs.Slot third = jobs.reserveSlot();
+
+        // then
+        assertEquals(503, e.getStatus());
+        assertThrows(SwordError.class, () -> jobs.reserveSlot());
+        assertThrows(IllegalStateException.class, () -> jobs.submit(first, List.of("http://localhost/edit/2"), () -> blocker, () -> { }));
+        third.close();
+        blocker.complete(null);
+    }
+}
@@ -0,0 +1,200 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepositPipelineTest {
+
+    static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Collects the content, and refuses it if it contains the given text.
+     */
+    static class Collector implements DepositStreamProcessor {
+        final String name;
+        final boolean parallel;
+        final String refused;
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final AtomicBoolean aborted = new AtomicBoolean();
+
+        Collector(final String name, final boolean parallel, final String refused) {
+            this.name = name;
+            this.parallel = parallel;
+            this.refused = refused;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public boolean isParallel() {
+            return this.parallel;
+        }
+
+        @Override
+        public void update(final byte[] buffer, final int offset, final int length) throws SwordError {
+            if (this.refused != null && new String(buffer, offset, length, StandardCharsets.UTF_8).contains(this.refused)) {
+                throw new SwordError(UriRegistry.ERROR_CONTENT, "Refused");
+            }
+            this.content.write(buffer, offset, length);
+        }
+
+        @Override
+        public Object finish() {
+            return this.content.toByteArray();
+        }
+
+        @Override
+        public void abort() {
+            this.aborted.set(true);
+        }
+    }
+
+    static void write(final OutputStream out, final byte[] content) throws Exception {
+        // the buffer is reused, like in ChecksumUtils.hashAndCopy()
+        byte[] buffer = new byte[100];
+        for (int off = 0; off < content.length; off += buffer.length) {
+            int n = Math.min(buffer.length, content.length - off);
+            System.arraycopy(content, off, buffer, 0, n);
+            out.write(buffer, 0, n);
+        }
+    }
+
+    @Test
+    @DisplayName("In-line and parallel processors see all of the content, and their results are attached to the deposit")
+    void finish() throws Exception {
+        // given
+        DepositPipeline pipeline = new DepositPipeline(List.of(new Collector("inline", false, null), new Collector("parallel", true, null)));
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        Deposit deposit = new Deposit();
+
+        // when
+        try (OutputStream out = pipeline.tee(stored)) {
+            write(out, CONTENT);
+        }
+        pipeline.finish(deposit);
+
+        // then
+        assertArrayEquals(CONTENT, stored.toByteArray());
+        assertArrayEquals(CONTENT, (byte[]) deposit.getProcessorResult("inline"));
+        assertArrayEquals(CONTENT, (byte[]) deposit.getProcessorResult("parallel"));
+    }
+
+    @Test
+    @DisplayName("A parallel processor which refuses the content fails the deposit, and the others are aborted")
+    void refused() throws Exception {
+        // given
+        Collector inline = new Collector("inline", false, null);
+        DepositPipeline pipeline = new DepositPipeline(List.of(inline, new Collector("parallel", true, "lazy")));
+        Deposit deposit = new Deposit();
+
+        // when
+        try (OutputStream out = pipeline.tee(OutputStream.nullOutputStream())) {
+            write(out, CONTENT);
+        } catch (DepositPipeline.RejectedException e) {
+            // the refusal may already be noticed while the content is written
+            pipeline.abort();
+            assertTrue(inline.aborted.get());
+            return;
+        }
+        SwordError e = assertThrows(SwordError.class, () -> pipeline.finish(deposit));
+
+        // then
+        assertEquals(UriRegistry.ERROR_CONTENT, e.getErrorUri());
+        assertTrue(deposit.getProcessorResults().isEmpty());
+    }
+
+    @Test
+    @DisplayName("An in-line processor which refuses the content fails the write")
+    void refused_inline() {
+        DepositPipeline pipeline = new DepositPipeline(List.of(new Collector("inline", false, "fox")));
+
+        DepositPipeline.RejectedException e = assertThrows(DepositPipeline.RejectedException.class,
+            () -> pipeline.tee(OutputStream.nullOutputStream()).write(CONTENT));
+        assertEquals(UriRegistry.ERROR_CONTENT, e.getError().getErrorUri());
+    }
+
+    @Test
+    @DisplayName("The pipeline is not ready while a parallel processor lags behind, and calls back once it has caught up")
+    void whenReady() throws Exception {
+        // given a processor which blocks until released
+        CountDownLatch release = new CountDownLatch(1);
+        Collector slow = new Collector("slow", true, null) {
+            @Override
+            public void update(final byte[] buffer, final int offset, final int length) throws SwordError {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.update(buffer, offset, length);
+            }
+        };
+        DepositPipeline pipeline = new DepositPipeline(List.of(slow));
+        int buffers = 0;
+        while (pipeline.isReady()) {
+            pipeline.update(CONTENT, 0, 10);
+            buffers++;
+        }
+        CountDownLatch ready = new CountDownLatch(1);
+
+        // when
+        pipeline.whenReady(ready::countDown);
+        boolean readyBefore = ready.getCount() == 0;
+        release.countDown();
+
+        // then
+        assertFalse(readyBefore);
+        assertTrue(ready.await(10, TimeUnit.SECONDS));
+        pipeline.finish(new Deposit());
+        assertEquals(buffers * 10, slow.content.size());
+    }
+
+    @Test
+    @DisplayName("Uploads in progress do not hold a worker thread each")
+    void manyUploads() {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            // given more uploads than worker threads, each with more buffers than its queue takes
+            int uploads = Runtime.getRuntime().availableProcessors() * 4;
+            List<DepositPipeline> pipelines = new ArrayList<>();
+            List<OutputStream> streams = new ArrayList<>();
+            for (int i = 0; i < uploads; i++) {
+                DepositPipeline pipeline = new DepositPipeline(List.of(new Collector("parallel", true, null)));
+                pipelines.add(pipeline);
+                streams.add(pipeline.tee(OutputStream.nullOutputStream()));
+            }
+
+            // when they are written in turns
+            for (int off = 0; off < CONTENT.length; off += 100) {
+                for (OutputStream out : streams) {
+                    out.write(CONTENT, off, Math.min(100, CONTENT.length - off));
+                }
+            }
+            List<Deposit> deposits = new ArrayList<>();
+            for (DepositPipeline pipeline : pipelines) {
+                Deposit deposit = new Deposit();
+                pipeline.finish(deposit);
+                deposits.add(deposit);
+            }
+
+            // then
+            for (Deposit deposit : deposits) {
+                assertArrayEquals(CONTENT, (byte[]) deposit.getProcessorResult("parallel"));
+            }
+        });
+    }
+}
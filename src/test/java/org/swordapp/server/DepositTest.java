@@ -0,0 +1,60 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepositTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("Moving the stored file hands it over to the manager")
+    void moveFile() throws Exception {
+        // given
+        Path spooled = Files.writeString(dir.resolve("SWORD-1"), "content");
+        Deposit deposit = new Deposit();
+        deposit.setFile(spooled.toFile());
+
+        // when
+        Path target = deposit.moveFile(dir.resolve("object.zip"));
+
+        // then
+        assertEquals("content", Files.readString(target, StandardCharsets.UTF_8));
+        assertFalse(Files.exists(spooled));
+        assertNull(deposit.getFile());
+        assertNull(deposit.getPath());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(List.of(target), files.collect(Collectors.toList()));
+        }
+        assertThrows(IllegalStateException.class, () -> deposit.moveFile(dir.resolve("again.zip")));
+    }
+
+    @Test
+    @DisplayName("An existing file is not replaced by the move")
+    void moveFile_exists() throws Exception {
+        // given
+        Path spooled = Files.writeString(dir.resolve("SWORD-1"), "content");
+        Path existing = Files.writeString(dir.resolve("object.zip"), "existing");
+        Deposit deposit = new Deposit();
+        deposit.setFile(spooled.toFile());
+
+        // when
+        assertThrows(FileAlreadyExistsException.class, () -> deposit.moveFile(existing));
+
+        // then
+        assertEquals("existing", Files.readString(existing, StandardCharsets.UTF_8));
+        assertEquals(spooled, deposit.getPath());
+    }
+}
@@ -0,0 +1,498 @@
+package org.swordapp.server;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-ins for the servlet API, to drive the endpoints in tests. Only the methods the endpoints call are
+ * implemented; calling any other fails the test with an {@link UnsupportedOperationException}.
+ */
+final class FakeServlet {
+
+    private FakeServlet() {
+    }
+
+    /**
+     * A request, whose body is read either blocking, or through a {@link ReadListener} which the test feeds with
+     * {@link Body#deliver(int)}, {@link Body#finish()} and {@link Body#fail(Throwable)}.
+     */
+    static final class Request {
+        final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final Map<String, Object> attributes = new HashMap<>();
+        final HttpServletRequest proxy;
+        String method;
+        String url;
+        String query;
+        String remoteAddr = "192.0.2.1";
+        boolean asyncSupported = false;
+        DispatcherType dispatcherType = DispatcherType.REQUEST;
+        Body body = new Body(new byte[0]);
+        Async async;
+        Response response;
+
+        Request(final String method, final String url) {
+            this.method = method;
+            this.url = url;
+            this.proxy = (HttpServletRequest) Proxy.newProxyInstance(FakeServlet.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, (p, m, args) -> this.invoke(m, args));
+        }
+
+        Request header(final String name, final String value) {
+            this.headers.put(name, value);
+            return this;
+        }
+
+        Request body(final byte[] content) {
+            this.body = new Body(content);
+            this.headers.put("Content-Length", Integer.toString(content.length));
+            return this;
+        }
+
+        Request query(final String queryString) {
+            this.query = queryString;
+            return this;
+        }
+
+        Request async() {
+            this.asyncSupported = true;
+            return this;
+        }
+
+        /**
+         * Prepare the request to be served again after {@link AsyncContext#dispatch()}, like the container does.
+         */
+        void redispatch() {
+            this.dispatcherType = DispatcherType.ASYNC;
+            this.async.dispatched = false;
+            this.async.restarted = false;
+        }
+
+        private String getParameter(final String name) {
+            if (this.query == null) {
+                return null;
+            }
+            for (String pair : this.query.split("&")) {
+                String[] kv = pair.split("=", 2);
+                if (kv[0].equals(name)) {
+                    return kv.length == 2 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "";
+                }
+            }
+            return null;
+        }
+
+        private Object invoke(final Method m, final Object[] args) throws IOException {
+            switch (m.getName()) {
+                case "getMethod":
+                    return this.method;
+                case "getRequestURL":
+                    return new StringBuffer(this.url);
+                case "getRequestURI":
+                    return this.url.replaceFirst("^[a-z]+://[^/]+", "");
+                case "getQueryString":
+                    return this.query;
+                case "getParameter":
+                    return this.getParameter((String) args[0]);
+                case "getHeader":
+                    return this.headers.get((String) args[0]);
+                case "getHeaders":
+                    String value = this.headers.get((String) args[0]);
+                    return Collections.enumeration(value == null ? List.of() : List.of(value));
+                case "getHeaderNames":
+                    return Collections.enumeration(new ArrayList<>(this.headers.keySet()));
+                case "getContentType":
+                    return this.headers.get("Content-Type");
+                case "getContentLength":
+                    return this.headers.containsKey("Content-Length") ? Integer.parseInt(this.headers.get("Content-Length")) : -1;
+                case "getContentLengthLong":
+                    return this.headers.containsKey("Content-Length") ? Long.parseLong(this.headers.get("Content-Length")) : -1L;
+                case "getCharacterEncoding":
+                    return null;
+                case "getAttribute":
+                    return this.attributes.get((String) args[0]);
+                case "setAttribute":
+                    if (args[1] == null) {
+                        this.attributes.remove((String) args[0]);
+                    } else {
+                        this.attributes.put((String) args[0], args[1]);
+                    }
+                    return null;
+                case "removeAttribute":
+                    this.attributes.remove((String) args[0]);
+                    return null;
+                case "getInputStream":
+                    return this.body;
+                case "getRemoteAddr":
+                    return this.remoteAddr;
+                case "getDispatcherType":
+                    return this.dispatcherType;
+                case "isAsyncSupported":
+                    return this.asyncSupported;
+                case "isAsyncStarted":
+                    return this.async != null && !this.async.dispatched && !this.async.completed
+                        && (this.dispatcherType == DispatcherType.REQUEST || this.async.restarted);
+                case "startAsync":
+                    if (!this.asyncSupported) {
+                        throw new IllegalStateException("Async is not supported");
+                    }
+                    this.async = this.async == null ? new Async(this) : this.async.restart();
+                    return this.async.proxy;
+                case "getAsyncContext":
+                    return this.async.proxy;
+                case "toString":
+                    return this.method + " " + this.url;
+                case "hashCode":
+                    return System.identityHashCode(this);
+                case "equals":
+                    return args[0] == this.proxy;
+                default:
+                    throw new UnsupportedOperationException("HttpServletRequest." + m.getName());
+            }
+        }
+    }
+
+    /**
+     * The body of a request.
+     */
+    static final class Body extends ServletInputStream {
+        private final ByteArrayInputStream in;
+        private final int length;
+        private ReadListener listener;
+        // reads may continue on another thread, see AsyncContext#start()
+        private volatile int available = 0;
+        private volatile boolean finished = false;
+
+        Body(final byte[] content) {
+            this.in = new ByteArrayInputStream(content);
+            this.length = content.length;
+        }
+
+        /**
+         * The number of bytes the endpoint has read so far.
+         */
+        int getBytesRead() {
+            return this.length - this.in.available();
+        }
+
+        /**
+         * Let the listener read the next bytes of the body, as if they had just arrived.
+         */
+        void deliver(final int length) throws IOException {
+            this.available = Math.min(length, this.in.available());
+            if (this.available > 0) {
+                this.listener.onDataAvailable();
+            }
+        }
+
+        /**
+         * Let the listener read the rest of the body, and tell it that there is no more.
+         */
+        void finish() throws IOException {
+            this.deliver(this.in.available());
+            if (this.in.available() == 0 && !this.finished) {
+                this.finished = true;
+                this.listener.onAllDataRead();
+            }
+        }
+
+        /**
+         * Tell the listener that reading has failed, e.g. because the client went away.
+         */
+        void fail(final Throwable t) {
+            this.listener.onError(t);
+        }
+
+        /**
+         * Whether the listener has stopped reading although there is data available.
+         */
+        boolean isStalled() {
+            return this.available > 0;
+        }
+
+        @Override
+        public int read() {
+            return this.in.read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (this.listener == null) {
+                return this.in.read(b, off, len);
+            }
+            if (this.available == 0) {
+                throw new IllegalStateException("Read while not ready");
+            }
+            int n = this.in.read(b, off, Math.min(len, this.available));
+            this.available -= n;
+            return n;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return this.listener == null ? this.in.available() == 0 : this.finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return this.listener == null || this.available > 0;
+        }
+
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+            this.listener = readListener;
+        }
+    }
+
+    /**
+     * The asynchronous cycle of a request. The test plays the container: after {@link AsyncContext#dispatch()}, it
+     * calls {@link Request#redispatch()} and the endpoint again, and then {@link #completeAfterDispatch()}.
+     */
+    static final class Async {
+        final List<AsyncListener> listeners = new ArrayList<>();
+        final AsyncContext proxy;
+        private final AtomicInteger running = new AtomicInteger();
+        private final Request request;
+        boolean dispatched = false;
+        boolean completed = false;
+        boolean restarted = false;
+
+        Async(final Request request) {
+            this.request = request;
+            this.proxy = (AsyncContext) Proxy.newProxyInstance(FakeServlet.class.getClassLoader(), new Class<?>[] {AsyncContext.class},
+                (p, m, args) -> this.invoke(m, args));
+        }
+
+        Async restart() throws IOException {
+            List<AsyncListener> previous = new ArrayList<>(this.listeners);
+            this.listeners.clear();
+            this.dispatched = false;
+            this.restarted = true;
+            for (AsyncListener listener : previous) {
+                listener.onStartAsync(new AsyncEvent(this.proxy));
+            }
+            return this;
+        }
+
+        /**
+         * Wait until no task passed to {@link AsyncContext#start(Runnable)} is running, and the body is not stalled.
+         */
+        void awaitIdle() throws InterruptedException {
+            while (this.running.get() > 0 || this.request.body.isStalled()) {
+                Thread.sleep(1);
+            }
+        }
+
+        /**
+         * Complete the request once the dispatched request has returned, unless it started another asynchronous cycle.
+         */
+        void completeAfterDispatch() throws IOException {
+            if (!this.restarted) {
+                this.complete();
+            }
+        }
+
+        private void complete() throws IOException {
+            if (this.completed) {
+                return;
+            }
+            this.completed = true;
+            for (AsyncListener listener : new ArrayList<>(this.listeners)) {
+                listener.onComplete(new AsyncEvent(this.proxy));
+            }
+        }
+
+        private Object invoke(final Method m, final Object[] args) throws IOException {
+            switch (m.getName()) {
+                case "addListener":
+                    this.listeners.add((AsyncListener) args[0]);
+                    return null;
+                case "setTimeout":
+                    return null;
+                case "dispatch":
+                    this.dispatched = true;
+                    return null;
+                case "complete":
+                    this.complete();
+                    return null;
+                case "getRequest":
+                    return this.request.proxy;
+                case "getResponse":
+                    return this.request.response == null ? null : this.request.response.proxy;
+                case "start":
+                    this.running.incrementAndGet();
+                    try {
+                        ((Runnable) args[0]).run();
+                    } finally {
+                        this.running.decrementAndGet();
+                    }
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(this);
+                case "equals":
+                    return args[0] == this.proxy;
+                default:
+                    throw new UnsupportedOperationException("AsyncContext." + m.getName());
+            }
+        }
+    }
+
+    /**
+     * A response, whose status, headers and body can be inspected. Its body is written either blocking, or through a
+     * {@link WriteListener} which the test drives with {@link #accept(int)} and {@link #fail(Throwable)}.
+     */
+    static final class Response {
+        final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServletResponse proxy;
+        int status = HttpServletResponse.SC_OK;
+        boolean committed = false;
+        private String characterEncoding = "ISO-8859-1";
+        private PrintWriter writer;
+        private WriteListener listener;
+        // the bytes the client takes before the output is no longer ready
+        private int writable = 0;
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                Response.this.committed = true;
+                Response.this.body.write(b);
+                Response.this.writable--;
+            }
+
+            @Override
+            public boolean isReady() {
+                return Response.this.listener == null || Response.this.writable > 0;
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener writeListener) {
+                Response.this.listener = writeListener;
+            }
+        };
+
+        Response(final Request request) {
+            request.response = this;
+            this.proxy = (HttpServletResponse) Proxy.newProxyInstance(FakeServlet.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class}, (p, m, args) -> this.invoke(m, args));
+        }
+
+        /**
+         * Let the listener write, until it has written at least the given number of bytes, as if the client had
+         * taken everything sent before.
+         */
+        void accept(final int length) throws IOException {
+            this.writable = length;
+            this.listener.onWritePossible();
+        }
+
+        /**
+         * Tell the listener that writing has failed, e.g. because the client went away.
+         */
+        void fail(final Throwable t) {
+            this.listener.onError(t);
+        }
+
+        /**
+         * Whether the body is written through a {@link WriteListener}.
+         */
+        boolean isWrittenAsync() {
+            return this.listener != null;
+        }
+
+        String getBody() {
+            if (this.writer != null) {
+                this.writer.flush();
+            }
+            return this.body.toString(StandardCharsets.UTF_8);
+        }
+
+        private Object invoke(final Method m, final Object[] args) throws IOException {
+            switch (m.getName()) {
+                case "setStatus":
+                    this.status = (Integer) args[0];
+                    return null;
+                case "getStatus":
+                    return this.status;
+                case "sendError":
+                    this.status = (Integer) args[0];
+                    this.committed = true;
+                    return null;
+                case "setHeader":
+                case "addHeader":
+                    this.headers.put((String) args[0], (String) args[1]);
+                    return null;
+                case "setIntHeader":
+                case "addIntHeader":
+                    this.headers.put((String) args[0], Integer.toString((Integer) args[1]));
+                    return null;
+                case "setDateHeader":
+                case "addDateHeader":
+                    this.headers.put((String) args[0], Long.toString((Long) args[1]));
+                    return null;
+                case "getHeader":
+                    return this.headers.get((String) args[0]);
+                case "containsHeader":
+                    return this.headers.containsKey((String) args[0]);
+                case "setContentType":
+                    this.headers.put("Content-Type", (String) args[0]);
+                    return null;
+                case "getContentType":
+                    return this.headers.get("Content-Type");
+                case "setCharacterEncoding":
+                    this.characterEncoding = (String) args[0];
+                    return null;
+                case "getCharacterEncoding":
+                    return this.characterEncoding;
+                case "setContentLength":
+                case "setContentLengthLong":
+                    this.headers.put("Content-Length", args[0].toString());
+                    return null;
+                case "getOutputStream":
+                    return this.out;
+                case "getWriter":
+                    if (this.writer == null) {
+                        this.writer = new PrintWriter(new OutputStreamWriter(this.out, this.characterEncoding));
+                    }
+                    return this.writer;
+                case "isCommitted":
+                    return this.committed;
+                case "flushBuffer":
+                    if (this.writer != null) {
+                        this.writer.flush();
+                    }
+                    this.committed = true;
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(this);
+                case "equals":
+                    return args[0] == this.proxy;
+                default:
+                    throw new UnsupportedOperationException("HttpServletResponse." + m.getName());
+            }
+        }
+    }
+}
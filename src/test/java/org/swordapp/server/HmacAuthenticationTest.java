@@ -0,0 +1,160 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HmacAuthenticationTest {
+
+    static final byte[] KEY = "not-so-secret".getBytes(StandardCharsets.UTF_8);
+
+    SwordConfiguration config = new SwordTestConfiguration() {
+        @Override
+        public byte[] getSigningKey(final String keyId) {
+            return "client:1".equals(keyId) ? KEY : null;
+        }
+    };
+
+    long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    @Test
+    @DisplayName("Bearer tokens are verified and yield their subject")
+    void verifyBearerToken() throws SwordAuthException {
+        String token = HmacAuthentication.issueBearerToken("client:1", KEY, "ana", now() + 60);
+        assertEquals("ana", HmacAuthentication.verifyBearerToken(token, config));
+    }
+
+    @Test
+    @DisplayName("Expired, tampered and foreign bearer tokens are rejected")
+    void verifyBearerToken_rejected() {
+        String expired = HmacAuthentication.issueBearerToken("client:1", KEY, "ana", now() - 1);
+        assertTrue(assertThrows(SwordAuthException.class, () -> HmacAuthentication.verifyBearerToken(expired, config)).isRetry());
+
+        String valid = HmacAuthentication.issueBearerToken("client:1", KEY, "ana", now() + 60);
+        String other = HmacAuthentication.issueBearerToken("client:1", KEY, "eve", now() + 60);
+        String tampered = other.substring(0, other.lastIndexOf('.')) + valid.substring(valid.lastIndexOf('.'));
+        assertThrows(SwordAuthException.class, () -> HmacAuthentication.verifyBearerToken(tampered, config));
+
+        String unknownKey = HmacAuthentication.issueBearerToken("client:2", KEY, "ana", now() + 60);
+        assertThrows(SwordAuthException.class, () -> HmacAuthentication.verifyBearerToken(unknownKey, config));
+
+        assertThrows(SwordAuthException.class, () -> HmacAuthentication.verifyBearerToken("garbage", config));
+    }
+
+    @Test
+    @DisplayName("Signed requests are verified and yield the key id")
+    void verifyRequestSignature() throws SwordAuthException {
+        long ts = now();
+        String signature = HmacAuthentication.signRequest(KEY, "POST", "/sword/collection/1?x=y", ts, "abc", null);
+        String credentials = "client:1:" + ts + ":" + signature;
+        assertEquals("client:1", HmacAuthentication.verifyRequestSignature(credentials, "POST", "/sword/collection/1?x=y", "abc", null, null, config));
+    }
+
+    @Test
+    @DisplayName("Requests with a signature over other values or an old timestamp are rejected")
+    void verifyRequestSignature_rejected() {
+        long ts = now();
+        String signature = HmacAuthentication.signRequest(KEY, "POST", "/sword/collection/1", ts, null, null);
+        String credentials = "client:1:" + ts + ":" + signature;
+        assertThrows(SwordAuthException.class,
+            () -> HmacAuthentication.verifyRequestSignature(credentials, "PUT", "/sword/collection/1", null, null, null, config));
+        assertThrows(SwordAuthException.class,
+            () -> HmacAuthentication.verifyRequestSignature(credentials, "POST", "/sword/collection/2", null, null, null, config));
+        assertThrows(SwordAuthException.class,
+            () -> HmacAuthentication.verifyRequestSignature(credentials, "POST", "/sword/collection/1", null, null, "eve", config));
+
+        long old = ts - 3600;
+        String oldSignature = HmacAuthentication.signRequest(KEY, "POST", "/sword/collection/1", old, null, null);
+        assertThrows(SwordAuthException.class,
+            () -> HmacAuthentication.verifyRequestSignature("client:1:" + old + ":" + oldSignature, "POST", "/sword/collection/1", null, null, null, config));
+
+        assertThrows(SwordAuthException.class,
+            () -> HmacAuthentication.verifyRequestSignature("nonsense", "POST", "/sword/collection/1", null, null, null, config));
+    }
+
+    @Test
+    @DisplayName("A signature of a request which changes something is only accepted once")
+    void verifyRequestSignature_replayed() throws SwordAuthException {
+        long ts = now();
+        String post = "client:1:" + ts + ":" + HmacAuthentication.signRequest(KEY, "POST", "/sword/collection/3", ts, "abc", null);
+        String get = "client:1:" + ts + ":" + HmacAuthentication.signRequest(KEY, "GET", "/sword/collection/3", ts, null, null);
+
+        HmacAuthentication.verifyRequestSignature(post, "POST", "/sword/collection/3", "abc", null, null, config);
+        assertTrue(assertThrows(SwordAuthException.class,
+            () -> HmacAuthentication.verifyRequestSignature(post, "POST", "/sword/collection/3", "abc", null, null, config)).isRetry());
+
+        HmacAuthentication.verifyRequestSignature(get, "GET", "/sword/collection/3", null, null, null, config);
+        HmacAuthentication.verifyRequestSignature(get, "GET", "/sword/collection/3", null, null, null, config);
+    }
+
+    @Test
+    @DisplayName("The Content-Digest is part of the signature, if the request has one")
+    void signRequest_contentDigest() throws SwordAuthException {
+        long ts = now();
+        String digest = "sha-256=:" + Base64.getEncoder().encodeToString(new byte[32]) + ":";
+        String signature = HmacAuthentication.signRequest(KEY, "PUT", "/sword/edit/1", ts, null, digest, null);
+
+        assertNotEquals(HmacAuthentication.signRequest(KEY, "PUT", "/sword/edit/1", ts, null, null), signature);
+        assertEquals("client:1", HmacAuthentication.verifyRequestSignature("client:1:" + ts + ":" + signature, "PUT", "/sword/edit/1", null,
+            digest, null, config));
+    }
+
+    FakeServlet.Request signedRequest(final byte[] body, final String contentMd5, final String contentDigest) {
+        long ts = now();
+        String signature = HmacAuthentication.signRequest(KEY, "POST", "/sword/collection/4", ts, contentMd5, contentDigest, null);
+        FakeServlet.Request req = new FakeServlet.Request("POST", "http://localhost/sword/collection/4").body(body);
+        if (contentMd5 != null) {
+            req.header("Content-MD5", contentMd5);
+        }
+        if (contentDigest != null) {
+            req.header("Content-Digest", contentDigest);
+        }
+        return req.header("Authorization", "HMAC client:1:" + ts + ":" + signature);
+    }
+
+    @Test
+    @DisplayName("A signed request with a body must sign a digest of it")
+    void verifyRequestSignature_unsignedBody() {
+        // given
+        FakeServlet.Request req = signedRequest("<entry/>".getBytes(StandardCharsets.UTF_8), null, null);
+
+        // when
+        SwordAuthException e = assertThrows(SwordAuthException.class,
+            () -> HmacAuthentication.verifyRequestSignature(req.proxy.getHeader("Authorization").substring(5), req.proxy, config));
+
+        // then
+        assertTrue(e.isRetry());
+    }
+
+    @Test
+    @DisplayName("The body of a signed request is checked against the signed digest")
+    void getSignedBody() throws Exception {
+        // given
+        String content = "<entry/>";
+        String digest = "sha-256=:" + Base64.getEncoder().encodeToString(
+            MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8))) + ":";
+        FakeServlet.Request req = signedRequest(content.getBytes(StandardCharsets.UTF_8), ChecksumUtils.hash(content), digest);
+        String credentials = req.proxy.getHeader("Authorization").substring(5);
+        FakeServlet.Request tampered = signedRequest("<entry>evil</entry>".getBytes(StandardCharsets.UTF_8), ChecksumUtils.hash(content), null);
+
+        // when
+        HmacAuthentication.verifyRequestSignature(credentials, req.proxy, config);
+        InputStream body = HmacAuthentication.getSignedBody(req.proxy, req.proxy.getInputStream());
+        HmacAuthentication.verifyRequestSignature(tampered.proxy.getHeader("Authorization").substring(5), tampered.proxy, config);
+        InputStream tamperedBody = HmacAuthentication.getSignedBody(tampered.proxy, tampered.proxy.getInputStream());
+
+        // then
+        assertEquals(content, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        HmacAuthentication.verifySignedBody(body);
+        SwordError e = assertThrows(SwordError.class, () -> HmacAuthentication.verifySignedBody(tamperedBody));
+        assertEquals(UriRegistry.ERROR_CHECKSUM_MISMATCH, e.getErrorUri());
+    }
+}
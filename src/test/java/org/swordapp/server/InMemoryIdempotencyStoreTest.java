@@ -0,0 +1,70 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryIdempotencyStoreTest {
+
+    @Test
+    @DisplayName("A key can only be claimed once, and its receipt is returned afterwards")
+    void claim_once() {
+        // given
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(1, TimeUnit.HOURS, 10);
+        StoredReceipt receipt = new StoredReceipt(201, "http://example.org/edit", null, null, false);
+
+        // when
+        boolean first = store.claim("key");
+        boolean second = store.claim("key");
+        StoredReceipt pending = store.get("key");
+        store.store("key", receipt);
+
+        // then
+        assertTrue(first);
+        assertFalse(second);
+        assertNull(pending);
+        assertSame(receipt, store.get("key"));
+        assertFalse(store.claim("key"));
+    }
+
+    @Test
+    @DisplayName("Released keys can be claimed again")
+    void release() {
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(1, TimeUnit.HOURS, 10);
+        store.claim("key");
+
+        store.release("key");
+
+        assertNull(store.get("key"));
+        assertTrue(store.claim("key"));
+    }
+
+    @Test
+    @DisplayName("Expired keys can be claimed again")
+    void claim_expired() {
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(0, TimeUnit.SECONDS, 10);
+        store.claim("key");
+        store.store("key", new StoredReceipt(201, "http://example.org/edit", null, null, false));
+
+        assertNull(store.get("key"));
+        assertTrue(store.claim("key"));
+    }
+
+    @Test
+    @DisplayName("The least recently used key is evicted when the store is full")
+    void claim_evicts() {
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(1, TimeUnit.HOURS, 2);
+        store.claim("a");
+        store.claim("b");
+        store.get("a");
+
+        store.claim("c");
+
+        assertEquals(2, store.size());
+        assertFalse(store.claim("a"));
+        assertTrue(store.claim("b"));
+    }
+}
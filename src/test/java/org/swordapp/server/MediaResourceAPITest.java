@@ -0,0 +1,252 @@
+package org.swordapp.server;
+
+import org.apache.abdera.i18n.iri.IRI;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaResourceAPITest {
+
+    private static final String EDIT_MEDIA = "http://localhost/sword/edit-media/1";
+    private static final byte[] CONTENT = "some deposit content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    File tempDir;
+
+    private final AtomicInteger stored = new AtomicInteger();
+    private final AtomicInteger validated = new AtomicInteger();
+    private int maxUploadSize = -1;
+    private SwordError refusal = null;
+    private final AsyncDeliveryTest.Source source = new AsyncDeliveryTest.Source(CONTENT);
+
+    private final MediaResourceManager mrm = new MediaResourceManager() {
+        @Override
+        public MediaResource getMediaResourceRepresentation(final String uri, final Map<String, String> accept, final AuthCredentials auth,
+                                                            final SwordConfiguration config) {
+            return new MediaResource(MediaResourceAPITest.this.source, "application/octet-stream", null);
+        }
+
+        @Override
+        public DepositReceipt replaceMediaResource(final String uri, final Deposit deposit, final AuthCredentials auth,
+                                                   final SwordConfiguration config) {
+            return MediaResourceAPITest.this.store();
+        }
+
+        @Override
+        public void deleteMediaResource(final String uri, final AuthCredentials auth, final SwordConfiguration config) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DepositReceipt addResource(final String uri, final Deposit deposit, final AuthCredentials auth,
+                                          final SwordConfiguration config) {
+            return MediaResourceAPITest.this.store();
+        }
+
+        @Override
+        public void validateReplaceMediaResource(final String uri, final Deposit deposit, final AuthCredentials auth,
+                                                 final SwordConfiguration config) throws SwordError {
+            MediaResourceAPITest.this.validate();
+        }
+
+        @Override
+        public void validateAddResource(final String uri, final Deposit deposit, final AuthCredentials auth,
+                                        final SwordConfiguration config) throws SwordError {
+            MediaResourceAPITest.this.validate();
+        }
+    };
+
+    private DepositReceipt store() {
+        DepositReceipt receipt = new DepositReceipt();
+        receipt.setLocation(new IRI(EDIT_MEDIA + "/" + this.stored.incrementAndGet()));
+        return receipt;
+    }
+
+    private void validate() throws SwordError {
+        this.validated.incrementAndGet();
+        if (this.refusal != null) {
+            throw this.refusal;
+        }
+    }
+
+    private MediaResourceAPI newApi() {
+        return new MediaResourceAPI(this.mrm, new SwordTestConfiguration() {
+            @Override
+            public String getAuthType() {
+                return "None";
+            }
+
+            @Override
+            public String getTempDirectory() {
+                return MediaResourceAPITest.this.tempDir.getAbsolutePath();
+            }
+
+            @Override
+            public int getMaxUploadSize() {
+                return MediaResourceAPITest.this.maxUploadSize;
+            }
+
+            @Override
+            public boolean useAsyncDownloads() {
+                return true;
+            }
+        });
+    }
+
+    private static FakeServlet.Request newDeposit(final String method) {
+        return new FakeServlet.Request(method, EDIT_MEDIA)
+            .header("Content-Type", "application/octet-stream")
+            .header("Content-Disposition", "attachment; filename=example.bin")
+            .header("Packaging", UriRegistry.PACKAGE_BINARY)
+            .header("Expect", "100-continue")
+            .body(CONTENT);
+    }
+
+    private FakeServlet.Response send(final FakeServlet.Request req) throws Exception {
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        if ("PUT".equals(req.method)) {
+            this.newApi().put(req.proxy, resp.proxy);
+        } else {
+            this.newApi().post(req.proxy, resp.proxy);
+        }
+        return resp;
+    }
+
+    @Test
+    @DisplayName("A resource refused by validateAddResource gets its error before the body is read")
+    void validateAddResourceBeforeBody() throws Exception {
+        // given
+        this.refusal = new SwordError(UriRegistry.ERROR_CONTENT, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Refused by validateAddResource");
+        FakeServlet.Request req = newDeposit("POST");
+
+        // when
+        FakeServlet.Response resp = this.send(req);
+
+        // then
+        assertEquals(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, resp.status);
+        assertTrue(resp.getBody().contains("Refused by validateAddResource"), resp.getBody());
+        assertEquals("close", resp.headers.get("Connection"));
+        assertEquals(0, req.body.getBytesRead());
+        assertEquals(0, this.stored.get());
+    }
+
+    @Test
+    @DisplayName("A replacement refused by validateReplaceMediaResource gets its error before the body is read")
+    void validateReplaceMediaResourceBeforeBody() throws Exception {
+        // given
+        this.refusal = new SwordError(UriRegistry.ERROR_CONTENT, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Refused by validateReplaceMediaResource");
+        FakeServlet.Request req = newDeposit("PUT");
+
+        // when
+        FakeServlet.Response resp = this.send(req);
+
+        // then
+        assertEquals(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, resp.status);
+        assertTrue(resp.getBody().contains("Refused by validateReplaceMediaResource"), resp.getBody());
+        assertEquals("close", resp.headers.get("Connection"));
+        assertEquals(0, req.body.getBytesRead());
+        assertEquals(0, this.stored.get());
+    }
+
+    @Test
+    @DisplayName("Resources announced larger than the maximum upload size get 413 before the body is read or validated")
+    void tooLargeBeforeBody() throws Exception {
+        // given
+        this.maxUploadSize = CONTENT.length - 1;
+        FakeServlet.Request post = newDeposit("POST");
+        FakeServlet.Request put = newDeposit("PUT");
+
+        // when
+        FakeServlet.Response added = this.send(post);
+        FakeServlet.Response replaced = this.send(put);
+
+        // then
+        for (FakeServlet.Response resp : new FakeServlet.Response[] {added, replaced}) {
+            assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, resp.status);
+            assertEquals("close", resp.headers.get("Connection"));
+        }
+        assertEquals(0, post.body.getBytesRead());
+        assertEquals(0, put.body.getBytesRead());
+        assertEquals(0, this.validated.get());
+        assertEquals(0, this.stored.get());
+    }
+
+    @Test
+    @DisplayName("An accepted resource is validated once and then read")
+    void validateThenRead() throws Exception {
+        // given
+        FakeServlet.Request req = newDeposit("POST");
+
+        // when
+        FakeServlet.Response resp = this.send(req);
+
+        // then
+        assertEquals(HttpServletResponse.SC_CREATED, resp.status);
+        assertEquals(CONTENT.length, req.body.getBytesRead());
+        assertEquals(1, this.validated.get());
+        assertEquals(1, this.stored.get());
+    }
+
+    @Test
+    @DisplayName("With asynchronous downloads, the media resource is written whenever the client can take more")
+    void getAsync() throws Exception {
+        // given
+        FakeServlet.Request req = new FakeServlet.Request("GET", EDIT_MEDIA).async();
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+
+        // when
+        this.newApi().get(req.proxy, resp.proxy);
+
+        // then
+        assertTrue(resp.isWrittenAsync());
+        assertEquals(0, resp.body.size());
+        resp.accept(CONTENT.length);
+        resp.accept(1);
+        assertArrayEquals(CONTENT, resp.body.toByteArray());
+        assertTrue(this.source.closed);
+        assertTrue(req.async.completed);
+    }
+
+    @Test
+    @DisplayName("The media resource is written blocking if the container does not support asynchronous requests")
+    void getWithoutAsyncSupport() throws Exception {
+        // given
+        FakeServlet.Request req = new FakeServlet.Request("GET", EDIT_MEDIA);
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+
+        // when
+        this.newApi().get(req.proxy, resp.proxy);
+
+        // then
+        assertFalse(resp.isWrittenAsync());
+        assertArrayEquals(CONTENT, resp.body.toByteArray());
+        assertTrue(this.source.closed);
+    }
+
+    @Test
+    @DisplayName("The media resource is written blocking if the request is already asynchronous, as on a virtual thread")
+    void getOnStartedAsync() throws Exception {
+        // given
+        FakeServlet.Request req = new FakeServlet.Request("GET", EDIT_MEDIA).async();
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        req.proxy.startAsync();
+
+        // when
+        this.newApi().get(req.proxy, resp.proxy);
+
+        // then
+        assertFalse(resp.isWrittenAsync());
+        assertArrayEquals(CONTENT, resp.body.toByteArray());
+        assertTrue(this.source.closed);
+        // completing the request is left to whoever started it
+        assertFalse(req.async.completed);
+    }
+}
@@ -0,0 +1,159 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    static final String ADDRESS = "192.0.2.1";
+
+    AtomicLong now = new AtomicLong(42);
+
+    SwordConfiguration config = new SwordTestConfiguration() {
+        @Override
+        public double getUserRequestRate() {
+            return 2;
+        }
+
+        @Override
+        public double getCollectionRequestRate() {
+            return 1;
+        }
+
+        @Override
+        public int getRequestBurst() {
+            return 3;
+        }
+
+        @Override
+        public int getMaxConcurrentUploadsPerUser() {
+            return 2;
+        }
+    };
+
+    RateLimiter limiter = new RateLimiter(this.config, this.now::get);
+
+    static AuthCredentials verified(final String principal, final String onBehalfOf) {
+        return new AuthCredentials(principal, null, onBehalfOf, true);
+    }
+
+    @Test
+    @DisplayName("Unverified credentials are limited by the address of the client, not by the username they claim")
+    void unverified() {
+        // given
+        AuthCredentials claimed = new AuthCredentials("alice", "wrong password", "bob");
+
+        // when
+        List<String> keys = RateLimiter.keys(claimed, ADDRESS, null);
+
+        // then
+        assertEquals(List.of("address:" + ADDRESS), keys);
+        assertEquals(List.of("user:alice"), RateLimiter.keys(claimed.asAuthenticated().withPassword(null), ADDRESS, null).subList(0, 1));
+    }
+
+    @Test
+    @DisplayName("A burst of requests is admitted, after which the rate is enforced")
+    void admit() {
+        // given
+        List<String> keys = RateLimiter.keys(verified("harvester", null), ADDRESS, null);
+
+        // when
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, this.limiter.admit(keys));
+        }
+        long retryAfter = this.limiter.admit(keys);
+        this.now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+
+        // then
+        assertEquals(1, retryAfter);
+        assertEquals(0, this.limiter.admit(keys));
+        assertNotEquals(0, this.limiter.admit(keys));
+        // other users are not affected
+        assertEquals(0, this.limiter.admit(RateLimiter.keys(verified("depositor", null), ADDRESS, null)));
+    }
+
+    @Test
+    @DisplayName("The principal, the user it acts for and the collection are limited separately")
+    void keys() {
+        // given
+        String collection = "http://example.org/col";
+        List<String> mediated = RateLimiter.keys(verified("harvester", "alice"), ADDRESS, collection);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, this.limiter.admit(mediated));
+        }
+
+        // when
+        List<String> other = RateLimiter.keys(verified("mirror", "bob"), ADDRESS, collection);
+        long refused = this.limiter.admit(other);
+
+        // then
+        assertEquals(List.of("user:harvester", "on-behalf-of:alice", "collection:" + collection), mediated);
+        assertNotEquals(0, refused);
+        // the refused request did not count against its users
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, this.limiter.admit(RateLimiter.keys(verified("mirror", "bob"), ADDRESS, null)));
+        }
+        // a user acting for themselves is not limited by what others do on their behalf
+        assertNotEquals(0, this.limiter.admit(List.of("on-behalf-of:alice")));
+        assertEquals(0, this.limiter.admit(RateLimiter.keys(verified("alice", null), ADDRESS, null)));
+    }
+
+    @Test
+    @DisplayName("Concurrent uploads are capped until their permits are closed")
+    void acquireUpload() {
+        // given
+        List<String> keys = RateLimiter.keys(verified("harvester", null), ADDRESS, "http://example.org/col");
+        RateLimiter.Permit first = this.limiter.acquireUpload(keys);
+        RateLimiter.Permit second = this.limiter.acquireUpload(keys);
+
+        // when
+        RateLimiter.Permit third = this.limiter.acquireUpload(keys);
+        first.close();
+        first.close();
+        RateLimiter.Permit fourth = this.limiter.acquireUpload(keys);
+
+        // then
+        assertNotNull(second);
+        assertNull(third);
+        assertNotNull(fourth);
+        assertNull(this.limiter.acquireUpload(keys));
+    }
+
+    @Test
+    @DisplayName("Sweeping idle counters keeps the uploads in progress counted")
+    void acquireUpload_sweep() {
+        // given
+        List<String> keys = List.of("user:harvester");
+        RateLimiter.Permit first = this.limiter.acquireUpload(keys);
+        RateLimiter.Permit idle = this.limiter.acquireUpload(List.of("user:idle"));
+        idle.close();
+
+        // when enough keys are seen to sweep
+        for (int i = 0; i < 10000; i++) {
+            this.limiter.admit(List.of("user:" + i));
+        }
+        this.now.addAndGet(TimeUnit.HOURS.toNanos(1));
+        RateLimiter.Permit second = this.limiter.acquireUpload(keys);
+        RateLimiter.Permit other = this.limiter.acquireUpload(List.of("user:idle"));
+
+        // then
+        assertNotNull(second);
+        assertNull(this.limiter.acquireUpload(keys));
+        assertNotNull(other);
+        first.close();
+        assertNotNull(this.limiter.acquireUpload(keys));
+    }
+
+    @Test
+    @DisplayName("Limits are only enforced if configured")
+    void isEnabled() {
+        assertTrue(RateLimiter.isEnabled(this.config));
+        assertFalse(RateLimiter.isEnabled(new SwordTestConfiguration()));
+    }
+}
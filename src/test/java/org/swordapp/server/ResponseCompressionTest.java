@@ -0,0 +1,74 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCompressionTest {
+
+    static final byte[] DOCUMENT = "<entry xmlns=\"http://www.w3.org/2005/Atom\"><title>Receipt</title></entry>".repeat(100)
+        .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    @DisplayName("The coding the client prefers is chosen, gzip if it does not mind")
+    void negotiate() {
+        assertNull(ResponseCompression.negotiate(null));
+        assertNull(ResponseCompression.negotiate("br, identity"));
+        assertNull(ResponseCompression.negotiate("gzip;q=0, deflate;q=0"));
+        assertEquals(ResponseCompression.GZIP, ResponseCompression.negotiate("deflate, gzip"));
+        assertEquals(ResponseCompression.GZIP, ResponseCompression.negotiate("x-gzip"));
+        assertEquals(ResponseCompression.DEFLATE, ResponseCompression.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ResponseCompression.DEFLATE, ResponseCompression.negotiate("gzip;q=0, deflate;q=0.1"));
+    }
+
+    @Test
+    @DisplayName("Compressed documents can be read by the standard gzip and zlib decoders")
+    void compress() throws Exception {
+        // given
+        byte[] gzip = ResponseCompression.compress(DOCUMENT, ResponseCompression.GZIP);
+        byte[] deflate = ResponseCompression.compress(DOCUMENT, ResponseCompression.DEFLATE);
+
+        // then
+        assertTrue(gzip.length < DOCUMENT.length);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            assertArrayEquals(DOCUMENT, in.readAllBytes());
+        }
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(deflate))) {
+            assertArrayEquals(DOCUMENT, in.readAllBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("Pooled deflaters start afresh for every document, and closing does not close the response stream")
+    void open() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            // given
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    fail("The response stream must not be closed");
+                }
+            };
+
+            // when
+            try (OutputStream compressed = ResponseCompression.open(out, ResponseCompression.GZIP)) {
+                compressed.write(DOCUMENT, 0, 10);
+                compressed.write(DOCUMENT, 10, DOCUMENT.length - 10);
+            }
+
+            // then
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                assertArrayEquals(DOCUMENT, in.readAllBytes());
+            }
+        }
+    }
+}
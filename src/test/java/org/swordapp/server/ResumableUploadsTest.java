@@ -0,0 +1,249 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResumableUploadsTest {
+
+    static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    AuthCredentials ana = new AuthCredentials("ana", "secret", null);
+
+    ByteArrayInputStream range(int first, int last) {
+        return new ByteArrayInputStream(CONTENT, first, last - first + 1);
+    }
+
+    @Test
+    @DisplayName("Appended ranges are assembled and hashed, skipping content received before")
+    void append() throws Exception {
+        // given
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        File file = tempDir.resolve("upload").toFile();
+        ResumableUploads.Session session = uploads.create("http://localhost/em/1", "PUT", ana, new Deposit(), CONTENT.length, file);
+
+        // when
+        session.append(range(0, 9), 0, 10);
+        session.append(range(5, 19), 5, 15);
+        boolean completeBefore = session.isComplete();
+        session.append(range(20, CONTENT.length - 1), 20, CONTENT.length - 20);
+        String md5 = uploads.finish(session).getMd5();
+
+        // then
+        assertFalse(completeBefore);
+        assertTrue(session.isComplete());
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", md5);
+        assertNull(uploads.get(session.getId(), ana));
+    }
+
+    @Test
+    @DisplayName("Content received before a stream ends early is kept")
+    void append_truncated() throws Exception {
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        ResumableUploads.Session session = uploads.create("http://localhost/em/1", "PUT", ana, new Deposit(), CONTENT.length,
+            tempDir.resolve("upload").toFile());
+
+        session.append(range(0, 9), 0, CONTENT.length);
+
+        assertEquals(10, session.getOffset());
+    }
+
+    @Test
+    @DisplayName("A signed range is only kept once it matches its signed digest")
+    void append_signed() throws Exception {
+        // given
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        File file = tempDir.resolve("upload").toFile();
+        ResumableUploads.Session session = uploads.create("http://localhost/em/1", "PUT", ana, new Deposit(), CONTENT.length, file);
+        String md5 = ChecksumUtils.hash(new String(CONTENT, 0, 10, StandardCharsets.UTF_8));
+
+        // when
+        SwordError e = assertThrows(SwordError.class,
+            () -> session.append(new HmacAuthentication.SignedBody(range(10, 19), md5, Map.of()), 0, 10));
+        long offsetAfterMismatch = session.getOffset();
+        session.append(new HmacAuthentication.SignedBody(range(0, 9), md5, Map.of()), 0, 10);
+
+        // then
+        assertEquals(UriRegistry.ERROR_CHECKSUM_MISMATCH, e.getErrorUri());
+        assertEquals(0, offsetAfterMismatch);
+        assertEquals(10, session.getOffset());
+        session.append(range(10, CONTENT.length - 1), 10, CONTENT.length - 10);
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", uploads.finish(session).getMd5());
+    }
+
+    @Test
+    @DisplayName("Sessions are only found by their owner, and discarding deletes the file")
+    void get_owner() throws Exception {
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        File file = tempDir.resolve("upload").toFile();
+        ResumableUploads.Session session = uploads.create("http://localhost/em/1", "POST", ana, new Deposit(), CONTENT.length, file);
+
+        assertSame(session, uploads.get(session.getId(), new AuthCredentials("ana", "other", null)));
+        assertNull(uploads.get(session.getId(), new AuthCredentials("bob", "secret", null)));
+        assertNull(uploads.get(session.getId(), new AuthCredentials("ana", "secret", "bob")));
+
+        uploads.discard(session);
+        assertNull(uploads.get(session.getId(), ana));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    @DisplayName("Expired sessions are discarded")
+    void get_expired() throws Exception {
+        ResumableUploads uploads = new ResumableUploads(0, TimeUnit.SECONDS);
+        File file = tempDir.resolve("upload").toFile();
+        ResumableUploads.Session session = uploads.create("http://localhost/em/1", "PUT", ana, new Deposit(), CONTENT.length, file);
+        Thread.sleep(1);
+
+        assertNull(uploads.get(session.getId(), ana));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    @DisplayName("Segments sent out of order are assembled, and the MD5 of the whole file is computed at the end")
+    void writeSegment_outOfOrder() throws Exception {
+        // given
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        File file = tempDir.resolve("upload").toFile();
+        ResumableUploads.Session session = uploads.create("http://localhost/col/1", "POST", ana, new Deposit(), CONTENT.length, 3, file);
+
+        // when
+        boolean last1 = session.writeSegment(2, range(30, CONTENT.length - 1), null);
+        boolean last2 = session.writeSegment(0, range(0, 14), null);
+        boolean last3 = session.writeSegment(1, range(15, 29), null);
+        String md5 = uploads.finish(session).getMd5();
+
+        // then
+        assertEquals(15, session.getSegmentSize());
+        assertFalse(last1);
+        assertFalse(last2);
+        assertTrue(last3);
+        assertTrue(session.isComplete());
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", md5);
+    }
+
+    @Test
+    @DisplayName("Segments at the start of the file are hashed in the background as they arrive")
+    void writeSegment_hashedInBackground() throws Exception {
+        // given
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        File file = tempDir.resolve("upload").toFile();
+        ResumableUploads.Session session = uploads.create("http://localhost/col/1", "POST", ana, new Deposit(), CONTENT.length, 3, file);
+
+        // when
+        session.writeSegment(1, range(15, 29), null);
+        session.writeSegment(0, range(0, 14), null);
+        for (int i = 0; i < 100 && session.getHashed() < 30; i++) {
+            Thread.sleep(10);
+        }
+        long hashed = session.getHashed();
+        session.writeSegment(2, range(30, CONTENT.length - 1), null);
+        String md5 = uploads.finish(session).getMd5();
+
+        // then: only the last segment was left to hash when the upload was finished
+        assertEquals(30, hashed);
+        assertEquals(CONTENT.length, session.getHashed());
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", md5);
+    }
+
+    @Test
+    @DisplayName("Only ranges spanning exactly one segment are segments")
+    void getSegment() throws Exception {
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        ResumableUploads.Session session = uploads.create("http://localhost/col/1", "POST", ana, new Deposit(), CONTENT.length, 3,
+            tempDir.resolve("upload").toFile());
+
+        assertEquals(0, session.getSegment(0, 14));
+        assertEquals(2, session.getSegment(30, CONTENT.length - 1));
+        assertEquals(-1, session.getSegment(0, 13));
+        assertEquals(-1, session.getSegment(5, 19));
+        assertEquals(-1, session.getSegment(30, 44));
+    }
+
+    @Test
+    @DisplayName("A segment received already is refused with 409")
+    void writeSegment_duplicate() throws Exception {
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        ResumableUploads.Session session = uploads.create("http://localhost/col/1", "POST", ana, new Deposit(), CONTENT.length, 3,
+            tempDir.resolve("upload").toFile());
+        session.writeSegment(0, range(0, 14), null);
+
+        SwordError e = assertThrows(SwordError.class, () -> session.writeSegment(0, range(0, 14), null));
+
+        assertEquals(409, e.getStatus());
+        assertEquals(List.of(1, 2), session.getMissingSegments());
+    }
+
+    @Test
+    @DisplayName("A segment not matching its MD5 is refused and can be sent again")
+    void writeSegment_checksumMismatch() throws Exception {
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        ResumableUploads.Session session = uploads.create("http://localhost/col/1", "POST", ana, new Deposit(), CONTENT.length, 3,
+            tempDir.resolve("upload").toFile());
+
+        SwordError e = assertThrows(SwordError.class,
+            () -> session.writeSegment(1, range(15, 29), "00000000000000000000000000000000"));
+
+        assertEquals(UriRegistry.ERROR_CHECKSUM_MISMATCH, e.getErrorUri());
+        assertEquals(List.of(0, 1, 2), session.getMissingSegments());
+        assertFalse(session.writeSegment(1, range(15, 29), null));
+    }
+
+    @Test
+    @DisplayName("A session is not discarded while a segment is being written to it")
+    void discard_whileWriting() throws Exception {
+        // given a segment which arrives slowly
+        ResumableUploads uploads = new ResumableUploads(1, TimeUnit.HOURS);
+        File file = tempDir.resolve("upload").toFile();
+        ResumableUploads.Session session = uploads.create("http://localhost/col/1", "POST", ana, new Deposit(), CONTENT.length, 3, file);
+        PipedOutputStream client = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(client);
+        CompletableFuture<Boolean> writing = CompletableFuture.supplyAsync(() -> {
+            try {
+                return session.writeSegment(0, in, null);
+            } catch (IOException | SwordError e) {
+                throw new CompletionException(e);
+            }
+        });
+        client.write(CONTENT, 0, 5);
+        client.flush();
+        while (in.available() > 0) {
+            Thread.sleep(1);
+        }
+
+        // when
+        boolean discardedWhileWriting = uploads.discard(session);
+        client.write(CONTENT, 5, 10);
+        client.close();
+        writing.get(5, TimeUnit.SECONDS);
+
+        // then
+        assertFalse(discardedWhileWriting);
+        assertEquals(List.of(1, 2), session.getMissingSegments());
+        assertTrue(uploads.discard(session));
+        assertFalse(file.exists());
+        SwordError e = assertThrows(SwordError.class, () -> session.writeSegment(1, range(15, 29), null));
+        assertEquals(404, e.getStatus());
+    }
+}
@@ -0,0 +1,164 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpoolDirectoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("New files are spread over subdirectories by the start of their random name")
+    void newFile() throws Exception {
+        // given
+        SpoolDirectory spool = SpoolDirectory.get(this.tempDir.toString(), 0);
+
+        // when
+        File file = spool.newFile();
+
+        // then
+        String name = file.getName();
+        assertTrue(name.startsWith("SWORD-"));
+        assertEquals(this.tempDir.resolve(name.substring(6, 8)).resolve(name), file.toPath());
+        assertTrue(Files.isDirectory(file.toPath().getParent()));
+        assertFalse(file.exists());
+        assertSame(spool, SpoolDirectory.get(this.tempDir.resolve(".").toString(), 0));
+    }
+
+    @Test
+    @DisplayName("The janitor deletes stale spool files, in subdirectories and the flat layout, and nothing else")
+    void sweep() throws Exception {
+        // given
+        SpoolDirectory spool = SpoolDirectory.get(this.tempDir.toString(), 3600);
+        Path stale = Files.createFile(spool.newFile().toPath());
+        Path fresh = Files.createFile(spool.newFile().toPath());
+        Path flat = Files.createFile(this.tempDir.resolve("SWORD-flat"));
+        Path other = Files.createFile(this.tempDir.resolve("other"));
+        FileTime yesterday = FileTime.from(Instant.now().minus(1, ChronoUnit.DAYS));
+        for (Path path : new Path[] {stale, flat, other}) {
+            Files.setLastModifiedTime(path, yesterday);
+        }
+
+        // when
+        spool.sweep();
+
+        // then
+        assertFalse(Files.exists(stale));
+        assertFalse(Files.exists(flat));
+        assertTrue(Files.exists(fresh));
+        assertTrue(Files.exists(other));
+    }
+
+    @Test
+    @DisplayName("Files are deleted in the background")
+    void delete() throws Exception {
+        // given
+        Path file = Files.createFile(SpoolDirectory.get(this.tempDir.toString(), 0).newFile().toPath());
+
+        // when
+        SpoolDirectory.delete(file.toFile());
+
+        // then
+        for (int i = 0; i < 100 && Files.exists(file); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    @DisplayName("Files deleted after the background threads were shut down are deleted by a new janitor")
+    void deleteAfterShutdown() throws Exception {
+        // given
+        Path first = Files.createFile(SpoolDirectory.get(this.tempDir.toString(), 0).newFile().toPath());
+        Path second = Files.createFile(SpoolDirectory.get(this.tempDir.toString(), 0).newFile().toPath());
+        SpoolDirectory.delete(first.toFile());
+
+        // when
+        BackgroundThreads.shutdown();
+        SpoolDirectory.delete(second.toFile());
+
+        // then: the file handed over before the shutdown is deleted, too
+        for (int i = 0; i < 100 && (Files.exists(first) || Files.exists(second)); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(Files.exists(first));
+        assertFalse(Files.exists(second));
+    }
+
+    @Test
+    @DisplayName("Uploads are admitted as long as their reservations fit into the budget")
+    void reserve() throws Exception {
+        // given
+        SpoolDirectory spool = SpoolDirectory.get(this.tempDir.toString(), 0);
+        SpoolDirectory.Reservation first = spool.reserve(600, 1000, -1);
+
+        // when
+        SpoolDirectory.Reservation second = spool.reserve(600, 1000, -1);
+        first.close();
+        first.close();
+        SpoolDirectory.Reservation third = spool.reserve(1000, 1000, -1);
+        SpoolDirectory.Reservation fourth = spool.reserve(1, 1000, -1);
+        third.close();
+
+        // then
+        assertNotNull(first);
+        assertNull(second);
+        assertNotNull(third);
+        assertNull(fourth);
+        // a reservation larger than the budget is admitted on its own
+        SpoolDirectory.Reservation large = spool.reserve(2000, 1000, -1);
+        assertNotNull(large);
+        large.close();
+    }
+
+    @Test
+    @DisplayName("A reservation grows while the file is written, until it no longer fits into the budget")
+    void reserveWhileWriting() throws Exception {
+        // given
+        SpoolDirectory spool = SpoolDirectory.get(this.tempDir.toString(), 0);
+        SpoolDirectory.Reservation other = spool.reserve(500, 1000, -1);
+        SpoolDirectory.Reservation reservation = spool.reserve(0, 1000, -1);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        // when
+        try (OutputStream out = reservation.guard(file)) {
+            out.write(new byte[400]);
+            assertThrows(SpoolDirectory.OutOfSpaceException.class, () -> out.write(new byte[200]));
+        }
+        long reserved = reservation.getBytes();
+        reservation.close();
+        other.close();
+
+        // then
+        assertEquals(400, file.size());
+        assertEquals(400, reserved);
+    }
+
+    @Test
+    @DisplayName("Uploads are refused if the file system would run short of space")
+    void reserveUsableSpace() throws Exception {
+        // given
+        SpoolDirectory spool = SpoolDirectory.get(this.tempDir.toString(), 0);
+        long usable = Files.getFileStore(this.tempDir).getUsableSpace();
+
+        // then
+        assertNull(spool.reserve(usable + usable, -1, 0));
+        assertNull(spool.reserve(0, -1, usable + usable));
+        SpoolDirectory.Reservation reservation = spool.reserve(1, -1, 0);
+        assertNotNull(reservation);
+        reservation.close();
+    }
+}
@@ -0,0 +1,152 @@
+package org.swordapp.server;
+
+import org.apache.abdera.model.Entry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SwordEntryReaderTest {
+
+    static final String ENTRY = "<?xml version=\"1.0\"?>\n" +
+        "<entry xmlns=\"http://www.w3.org/2005/Atom\" xmlns:dcterms=\"http://purl.org/dc/terms/\">\n" +
+        "  <title>My Title</title>\n" +
+        "  <id>urn:uuid:1225c695-cfb8-4ebb-aaaa-80da344efa6a</id>\n" +
+        "  <author><name>Ana</name></author>\n" +
+        "  <summary type=\"text\">My Summary</summary>\n" +
+        "  <dcterms:creator>Alice</dcterms:creator>\n" +
+        "  <dcterms:creator>Bob</dcterms:creator>\n" +
+        "  <x:foo xmlns:x=\"urn:example\"><x:bar>baz</x:bar></x:foo>\n" +
+        "</entry>\n";
+
+    InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Title, summary and extensions are read")
+    void read() throws SwordError {
+        // given
+        SwordEntryReader reader = new SwordEntryReader(-1, -1, -1);
+
+        // when
+        Entry entry = reader.read(stream(ENTRY));
+
+        // then
+        SwordEntry swordEntry = new SwordEntry(entry);
+        assertEquals("My Title", swordEntry.getTitle());
+        assertEquals("My Summary", swordEntry.getSummary());
+        Map<String, List<String>> dc = swordEntry.getDublinCore();
+        assertEquals(List.of("Alice", "Bob"), dc.get("creator"));
+        assertEquals(3, entry.getExtensions().size());
+    }
+
+    @Test
+    @DisplayName("Entries larger than the size limit are rejected")
+    void read_tooLarge() {
+        SwordEntryReader reader = new SwordEntryReader(100, -1, -1);
+        SwordError e = assertThrows(SwordError.class, () -> reader.read(stream(ENTRY)));
+        assertEquals(UriRegistry.ERROR_BAD_REQUEST, e.getErrorUri());
+    }
+
+    @Test
+    @DisplayName("Entries nested deeper than the depth limit are rejected")
+    void read_tooDeep() {
+        SwordEntryReader reader = new SwordEntryReader(-1, 2, -1);
+        SwordError e = assertThrows(SwordError.class, () -> reader.read(stream(ENTRY)));
+        assertEquals(UriRegistry.ERROR_BAD_REQUEST, e.getErrorUri());
+    }
+
+    @Test
+    @DisplayName("Entries with more elements than allowed are rejected")
+    void read_tooManyElements() {
+        SwordEntryReader reader = new SwordEntryReader(-1, -1, 5);
+        SwordError e = assertThrows(SwordError.class, () -> reader.read(stream(ENTRY)));
+        assertEquals(UriRegistry.ERROR_BAD_REQUEST, e.getErrorUri());
+    }
+
+    @Test
+    @DisplayName("Documents which are not an Atom entry are rejected")
+    void read_notAnEntry() {
+        SwordEntryReader reader = new SwordEntryReader(-1, -1, -1);
+        assertThrows(SwordError.class, () -> reader.read(stream("<feed xmlns=\"http://www.w3.org/2005/Atom\"/>")));
+        assertThrows(SwordError.class, () -> reader.read(stream("<entry xmlns=\"http://www.w3.org/2005/Atom\">")));
+    }
+
+    @Test
+    @DisplayName("External entities are not resolved")
+    void read_noExternalEntities() {
+        SwordEntryReader reader = new SwordEntryReader(-1, -1, -1);
+        String xml = "<!DOCTYPE entry [<!ENTITY e SYSTEM \"file:///etc/passwd\">]>" +
+            "<entry xmlns=\"http://www.w3.org/2005/Atom\"><title>&e;</title></entry>";
+        // depending on the StAX implementation the reference is either rejected or left unresolved
+        try {
+            Entry entry = reader.read(stream(xml));
+            assertFalse(String.valueOf(entry.getTitle()).contains("root:"));
+        } catch (SwordError e) {
+            assertEquals(UriRegistry.ERROR_BAD_REQUEST, e.getErrorUri());
+        }
+    }
+
+    static final String FEED = "<?xml version=\"1.0\"?>\n" +
+        "<feed xmlns=\"http://www.w3.org/2005/Atom\">\n" +
+        "  <title>Batch</title>\n" +
+        "  <entry><title>First</title></entry>\n" +
+        "  <entry><title>Second</title><summary>Two</summary></entry>\n" +
+        "  <entry><title>Third</title></entry>\n" +
+        "</feed>\n";
+
+    @Test
+    @DisplayName("The entries of a feed are read in document order")
+    void readFeed() throws SwordError {
+        // given
+        SwordEntryReader reader = new SwordEntryReader(-1, -1, -1);
+
+        // when
+        List<Entry> entries = reader.readFeed(stream(FEED), -1);
+
+        // then
+        assertEquals(3, entries.size());
+        assertEquals("First", new SwordEntry(entries.get(0)).getTitle());
+        assertEquals("Two", new SwordEntry(entries.get(1)).getSummary());
+        assertEquals("Third", new SwordEntry(entries.get(2)).getTitle());
+    }
+
+    @Test
+    @DisplayName("Feeds with more entries than allowed, and documents which are not a feed, are rejected")
+    void readFeed_rejected() {
+        SwordEntryReader reader = new SwordEntryReader(-1, -1, -1);
+        assertThrows(SwordError.class, () -> reader.readFeed(stream(FEED), 2));
+        assertThrows(SwordError.class, () -> reader.readFeed(stream(ENTRY), -1));
+    }
+
+    @Test
+    @DisplayName("Each entry of a feed is handed over as soon as it has been read, and the feed size is limited as a whole")
+    void readFeed_handler() throws Exception {
+        // given a feed of about 100 KiB
+        StringBuilder feed = new StringBuilder("<feed xmlns=\"http://www.w3.org/2005/Atom\">");
+        for (int i = 0; i < 2000; i++) {
+            feed.append("<entry><title>Entry ").append(i).append("</title></entry>");
+        }
+        feed.append("</feed>");
+        SwordEntryReader reader = new SwordEntryReader(-1, -1, -1);
+        List<String> titles = new ArrayList<>();
+
+        // when
+        SwordError e = assertThrows(SwordError.class,
+            () -> reader.readFeed(stream(feed.toString()), -1, 50 * 1024, entry -> titles.add(entry.getTitle())));
+
+        // then the first entries got through before the limit was hit
+        assertEquals(UriRegistry.ERROR_MAX_UPLOAD_SIZE_EXCEEDED, e.getErrorUri());
+        assertFalse(titles.isEmpty());
+        assertTrue(titles.size() < 2000);
+        assertEquals("Entry 0", titles.get(0));
+    }
+}
@@ -0,0 +1,57 @@
+package org.swordapp.server;
+
+import org.apache.abdera.Abdera;
+import org.apache.abdera.model.Entry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.namespace.QName;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SwordEntryTest {
+
+    SwordEntry entry() {
+        Entry entry = new Abdera().newEntry();
+        entry.addSimpleExtension(new QName(UriRegistry.DC_NAMESPACE, "creator"), "Alice");
+        entry.addSimpleExtension(new QName(UriRegistry.DC_NAMESPACE, "title"), "A title");
+        entry.addSimpleExtension(new QName(UriRegistry.DC_NAMESPACE, "creator"), "Bob");
+        entry.addSimpleExtension(new QName("urn:example", "creator"), "Eve");
+        return new SwordEntry(entry);
+    }
+
+    @Test
+    @DisplayName("Dublin Core terms are indexed by field")
+    void getDublinCore() {
+        // given
+        SwordEntry entry = entry();
+
+        // when
+        Map<String, List<String>> dc = entry.getDublinCore();
+
+        // then
+        assertEquals(2, dc.size());
+        assertEquals(List.of("Alice", "Bob"), dc.get("creator"));
+        assertEquals(List.of("Alice", "Bob"), entry.getDublinCore("creator"));
+        assertEquals(List.of(), entry.getDublinCore("subject"));
+        assertSame(dc, entry.getDublinCore());
+    }
+
+    @Test
+    @DisplayName("Dublin Core index is immutable")
+    void getDublinCore_immutable() {
+        SwordEntry entry = entry();
+        assertThrows(UnsupportedOperationException.class, () -> entry.getDublinCore().put("subject", List.of()));
+        assertThrows(UnsupportedOperationException.class, () -> entry.getDublinCore("creator").add("Mallory"));
+    }
+
+    @Test
+    @DisplayName("Extensions in other namespaces are indexed")
+    void getExtensionValues() {
+        SwordEntry entry = entry();
+        assertEquals(List.of("Eve"), entry.getExtensionValues("urn:example", "creator"));
+        assertEquals(Map.of(), entry.getExtensionValues("urn:unknown"));
+    }
+}
@@ -0,0 +1,115 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeDigestTest {
+
+    static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    File write(String name, byte[] content) throws Exception {
+        Path file = tempDir.resolve(name);
+        Files.write(file, content);
+        return file.toFile();
+    }
+
+    static byte[] sha256(int prefix, byte[]... parts) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((byte) prefix);
+        for (byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+
+    static byte[] leaf(int first, int last) throws Exception {
+        byte[] chunk = new byte[last - first];
+        System.arraycopy(CONTENT, first, chunk, 0, chunk.length);
+        return sha256(0, chunk);
+    }
+
+    @Test
+    @DisplayName("The root is built from the chunk digests like an RFC 6962 tree")
+    void compute() throws Exception {
+        // given
+        File file = write("fox", CONTENT);
+        // 43 bytes in chunks of 16: the tree is ((0, 1), 2)
+        byte[] expected = sha256(1, sha256(1, leaf(0, 16), leaf(16, 32)), leaf(32, CONTENT.length));
+
+        // when
+        TreeDigest tree = TreeDigest.compute(file, 16, new ForkJoinPool(2));
+
+        // then
+        assertEquals(3, tree.getChunkCount());
+        assertEquals(ChecksumUtils.formatAsHex(leaf(32, CONTENT.length)), tree.getChunkDigests().get(2));
+        assertEquals(ChecksumUtils.formatAsHex(expected), tree.getRoot());
+        assertEquals(64, tree.getRoot().length());
+    }
+
+    @Test
+    @DisplayName("The tree does not depend on the pool")
+    void compute_parallelism() throws Exception {
+        File file = write("fox", CONTENT);
+
+        TreeDigest serial = TreeDigest.compute(file, 3, new ForkJoinPool(1));
+        TreeDigest parallel = TreeDigest.compute(file, 3, new ForkJoinPool(8));
+
+        assertEquals(15, parallel.getChunkCount());
+        assertEquals(serial.getRoot(), parallel.getRoot());
+        assertEquals(serial.getChunkDigests(), parallel.getChunkDigests());
+    }
+
+    @Test
+    @DisplayName("Files are hashed on a dedicated pool, which is started again after a shutdown")
+    void compute_dedicatedPool() throws Exception {
+        File file = write("fox", CONTENT);
+        TreeDigest before = TreeDigest.compute(file, 3);
+        ForkJoinPool pool = TreeDigest.getPool();
+
+        TreeDigest.shutdown();
+        TreeDigest after = TreeDigest.compute(file, 3);
+
+        assertNotSame(ForkJoinPool.commonPool(), pool);
+        assertTrue(pool.isShutdown());
+        assertNotSame(pool, TreeDigest.getPool());
+        assertEquals(before.getRoot(), after.getRoot());
+    }
+
+    @Test
+    @DisplayName("An empty file has a single empty chunk")
+    void compute_empty() throws Exception {
+        TreeDigest tree = TreeDigest.compute(write("empty", new byte[0]), 16);
+
+        assertEquals(1, tree.getChunkCount());
+        assertEquals(ChecksumUtils.formatAsHex(sha256(0)), tree.getRoot());
+    }
+
+    @Test
+    @DisplayName("The diff lists the chunks which differ or are missing")
+    void diff() throws Exception {
+        byte[] changed = CONTENT.clone();
+        changed[20] = 'X';
+        TreeDigest original = TreeDigest.compute(write("fox", CONTENT), 16);
+        TreeDigest copy = TreeDigest.compute(write("copy", changed), 16);
+        TreeDigest truncated = TreeDigest.compute(write("truncated", "The quick brown fox".getBytes(StandardCharsets.UTF_8)), 16);
+
+        assertEquals(List.of(), original.diff(TreeDigest.compute(write("same", CONTENT), 16)));
+        assertEquals(List.of(1), original.diff(copy));
+        assertEquals(List.of(1, 2), original.diff(truncated));
+        assertThrows(IllegalArgumentException.class, () -> original.diff(TreeDigest.compute(write("other", CONTENT), 8)));
+    }
+}
@@ -0,0 +1,264 @@
+package org.swordapp.server;
+
+import org.apache.abdera.i18n.iri.IRI;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadSessionHandlerTest {
+
+    private static final String COLLECTION = "http://localhost/sword/collection/1";
+    private static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    File tempDir;
+
+    private final List<byte[]> deposited = new ArrayList<>();
+
+    private final CollectionDepositManager cdm = (collectionURI, deposit, auth, config) -> {
+        try {
+            this.deposited.add(Files.readAllBytes(deposit.getFile().toPath()));
+        } catch (IOException e) {
+            throw new SwordServerException(e);
+        }
+        DepositReceipt receipt = new DepositReceipt();
+        receipt.setLocation(new IRI(COLLECTION + "/item/" + this.deposited.size()));
+        return receipt;
+    };
+
+    private final CollectionAPI api = new CollectionAPI(null, this.cdm, new SwordTestConfiguration() {
+        @Override
+        public String getTempDirectory() {
+            return UploadSessionHandlerTest.this.tempDir.getAbsolutePath();
+        }
+
+        @Override
+        public long getUploadSessionTtl() {
+            return 3600L;
+        }
+    });
+
+    private FakeServlet.Response send(final FakeServlet.Request req) throws Exception {
+        FakeServlet.Response resp = new FakeServlet.Response(req);
+        switch (req.proxy.getMethod()) {
+            case "POST":
+                this.api.post(req.proxy, resp.proxy);
+                break;
+            case "PUT":
+                this.api.put(req.proxy, resp.proxy);
+                break;
+            case "DELETE":
+                this.api.delete(req.proxy, resp.proxy);
+                break;
+            default:
+                // HEAD on a session, like CollectionServletDefault does
+                this.api.upload(req.proxy, resp.proxy);
+        }
+        return resp;
+    }
+
+    /**
+     * Start an upload and return the query string addressing its session.
+     */
+    private String start(final String segments, final String contentMd5) throws Exception {
+        FakeServlet.Request req = new FakeServlet.Request("POST", COLLECTION)
+            .header("Upload-Length", Integer.toString(CONTENT.length))
+            .header("Content-Type", "application/octet-stream")
+            .header("Content-Disposition", "attachment; filename=fox.txt")
+            .header("Packaging", UriRegistry.PACKAGE_BINARY);
+        if (segments != null) {
+            req.header("Upload-Segments", segments);
+        }
+        if (contentMd5 != null) {
+            req.header("Content-MD5", contentMd5);
+        }
+        FakeServlet.Response resp = this.send(req);
+        assertEquals(HttpServletResponse.SC_CREATED, resp.status);
+        String location = resp.headers.get("Location");
+        return location.substring(location.indexOf('?') + 1);
+    }
+
+    private FakeServlet.Response append(final String session, final String range, final int first, final int last) throws Exception {
+        return this.send(new FakeServlet.Request("PUT", COLLECTION).query(session)
+            .header("Content-Range", range)
+            .body(Arrays.copyOfRange(CONTENT, first, last + 1)));
+    }
+
+    private FakeServlet.Response append(final String session, final int first, final int last) throws Exception {
+        return this.append(session, "bytes " + first + "-" + last + "/" + CONTENT.length, first, last);
+    }
+
+    @Test
+    @DisplayName("Appended ranges are reported as Upload-Offset, and the last one is answered like a deposit")
+    void append() throws Exception {
+        // given
+        String session = this.start(null, ChecksumUtils.hash(new String(CONTENT, StandardCharsets.UTF_8)));
+
+        // when
+        FakeServlet.Response first = this.append(session, 0, 9);
+        FakeServlet.Response overlapping = this.append(session, 5, 19);
+        FakeServlet.Response head = this.send(new FakeServlet.Request("HEAD", COLLECTION).query(session));
+        FakeServlet.Response last = this.append(session, 20, CONTENT.length - 1);
+
+        // then
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, first.status);
+        assertEquals("10", first.headers.get("Upload-Offset"));
+        assertEquals("20", overlapping.headers.get("Upload-Offset"));
+        assertEquals("20", head.headers.get("Upload-Offset"));
+        assertEquals(HttpServletResponse.SC_CREATED, last.status);
+        assertEquals(1, this.deposited.size());
+        assertArrayEquals(CONTENT, this.deposited.get(0));
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, this.append(session, 0, 9).status);
+    }
+
+    @Test
+    @DisplayName("Missing, malformed and foreign Content-Range headers are refused, ranges outside the upload with 416")
+    void contentRange() throws Exception {
+        // given
+        String session = this.start(null, null);
+
+        // when
+        FakeServlet.Response missing = this.send(new FakeServlet.Request("PUT", COLLECTION).query(session).body(CONTENT));
+        FakeServlet.Response malformed = this.append(session, "bytes 0-9", 0, 9);
+        FakeServlet.Response otherLength = this.append(session, "bytes 0-9/1000", 0, 9);
+        FakeServlet.Response reversed = this.append(session, "bytes 9-0/" + CONTENT.length, 0, 9);
+        FakeServlet.Response beyond = this.append(session, "bytes 0-" + CONTENT.length + "/*", 0, 9);
+
+        // then
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, missing.status);
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, malformed.status);
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, otherLength.status);
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, reversed.status);
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, beyond.status);
+        assertEquals("0", this.send(new FakeServlet.Request("HEAD", COLLECTION).query(session)).headers.get("Upload-Offset"));
+    }
+
+    @Test
+    @DisplayName("A range starting after the current offset is refused with 409 and the offset to continue at")
+    void gap() throws Exception {
+        // given
+        String session = this.start(null, null);
+        this.append(session, 0, 9);
+
+        // when
+        FakeServlet.Response resp = this.append(session, 15, 19);
+
+        // then
+        assertEquals(HttpServletResponse.SC_CONFLICT, resp.status);
+        assertEquals("10", resp.headers.get("Upload-Offset"));
+    }
+
+    @Test
+    @DisplayName("Segments are accepted in any order, once each, and must span exactly one segment")
+    void segments() throws Exception {
+        // given 43 bytes in segments of 15
+        String session = this.start("3", null);
+
+        // when
+        FakeServlet.Response notASegment = this.append(session, 0, 9);
+        FakeServlet.Response third = this.append(session, 30, CONTENT.length - 1);
+        FakeServlet.Response again = this.append(session, 30, CONTENT.length - 1);
+        FakeServlet.Response first = this.append(session, 0, 14);
+        FakeServlet.Response second = this.append(session, 15, 29);
+
+        // then
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, notASegment.status);
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, third.status);
+        assertEquals("0,1", third.headers.get("Upload-Segments-Missing"));
+        assertEquals(HttpServletResponse.SC_CONFLICT, again.status);
+        assertEquals("1", first.headers.get("Upload-Segments-Missing"));
+        assertEquals(HttpServletResponse.SC_CREATED, second.status);
+        assertArrayEquals(CONTENT, this.deposited.get(0));
+    }
+
+    @Test
+    @DisplayName("Segment counts which leave the last segment empty are refused, a shorter last segment is not")
+    void segmentsUneven() throws Exception {
+        // given 43 bytes: 10 segments of 5 bytes would end after 9, 9 segments end with one of 3 bytes
+        FakeServlet.Request tooMany = new FakeServlet.Request("POST", COLLECTION)
+            .header("Upload-Length", Integer.toString(CONTENT.length))
+            .header("Upload-Segments", "10")
+            .header("Content-Type", "application/octet-stream")
+            .header("Packaging", UriRegistry.PACKAGE_BINARY);
+        String session = this.start("9", null);
+
+        // when
+        FakeServlet.Response refused = this.send(tooMany);
+        List<FakeServlet.Response> sent = new ArrayList<>();
+        for (int first = 0; first < CONTENT.length; first += 5) {
+            sent.add(this.append(session, first, Math.min(first + 4, CONTENT.length - 1)));
+        }
+
+        // then
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, refused.status);
+        assertTrue(refused.getBody().contains("send 9 segments"), refused.getBody());
+        assertEquals(9, sent.size());
+        assertEquals("8", sent.get(7).headers.get("Upload-Segments-Missing"));
+        assertEquals(HttpServletResponse.SC_CREATED, sent.get(8).status);
+        assertArrayEquals(CONTENT, this.deposited.get(0));
+    }
+
+    @Test
+    @DisplayName("A segment whose Content-MD5 does not match has to be sent again")
+    void segmentMismatch() throws Exception {
+        // given
+        String session = this.start("3", null);
+
+        // when
+        FakeServlet.Response mismatch = this.send(new FakeServlet.Request("PUT", COLLECTION).query(session)
+            .header("Content-Range", "bytes 0-14/" + CONTENT.length)
+            .header("Content-MD5", ChecksumUtils.hash("something else"))
+            .body(Arrays.copyOfRange(CONTENT, 0, 15)));
+        FakeServlet.Response retry = this.append(session, 0, 14);
+
+        // then
+        assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, mismatch.status);
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, retry.status);
+        assertEquals("1,2", retry.headers.get("Upload-Segments-Missing"));
+    }
+
+    @Test
+    @DisplayName("A complete upload which does not match the Content-MD5 of the first request is not deposited")
+    void finishMismatch() throws Exception {
+        // given
+        String session = this.start(null, ChecksumUtils.hash("something else"));
+
+        // when
+        FakeServlet.Response resp = this.append(session, 0, CONTENT.length - 1);
+
+        // then
+        assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, resp.status);
+        assertTrue(this.deposited.isEmpty());
+    }
+
+    @Test
+    @DisplayName("DELETE aborts the upload and removes its file")
+    void delete() throws Exception {
+        // given
+        String session = this.start("3", null);
+        this.append(session, 0, 14);
+
+        // when
+        FakeServlet.Response resp = this.send(new FakeServlet.Request("DELETE", COLLECTION).query(session));
+
+        // then
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, resp.status);
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, this.send(new FakeServlet.Request("HEAD", COLLECTION).query(session)).status);
+        try (Stream<Path> files = Files.walk(this.tempDir.toPath())) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.swordapp.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipInspectorTest {
+
+    static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+    static byte[] zip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            // deflated, with the sizes and CRC in a data descriptor after the content
+            zip.putNextEntry(new ZipEntry("data/fox.txt"));
+            zip.write(CONTENT);
+            zip.putNextEntry(new ZipEntry("data/"));
+
+            // stored, with the sizes and CRC in the local header
+            ZipEntry stored = new ZipEntry("mets.xml");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(CONTENT.length);
+            CRC32 crc = new CRC32();
+            crc.update(CONTENT);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(CONTENT);
+        }
+        return out.toByteArray();
+    }
+
+    static ZipManifest inspect(final byte[] archive, final int chunkSize) throws Exception {
+        ZipInspector inspector = new ZipInspector();
+        for (int off = 0; off < archive.length; off += chunkSize) {
+            inspector.update(archive, off, Math.min(chunkSize, archive.length - off));
+        }
+        return inspector.finish();
+    }
+
+    @Test
+    @DisplayName("The entries are listed with their sizes and CRCs, however the archive is split into buffers")
+    void manifest() throws Exception {
+        // given
+        byte[] archive = zip();
+
+        for (int chunkSize : new int[] {1, 7, 4096, archive.length}) {
+            // when
+            List<ZipManifest.Entry> entries = inspect(archive, chunkSize).getEntries();
+
+            // then
+            assertEquals(3, entries.size());
+            assertEquals("data/fox.txt", entries.get(0).getName());
+            assertEquals(CONTENT.length, entries.get(0).getSize());
+            assertTrue(entries.get(0).getCompressedSize() < CONTENT.length);
+            assertTrue(entries.get(1).isDirectory());
+            assertEquals("mets.xml", entries.get(2).getName());
+            assertEquals(entries.get(0).getCrc(), entries.get(2).getCrc());
+        }
+    }
+
+    @Test
+    @DisplayName("Corrupt content of an entry is refused")
+    void corrupt() throws Exception {
+        byte[] archive = zip();
+        // flip a byte of the stored entry, which only the CRC can tell
+        int index = new String(archive, StandardCharsets.ISO_8859_1).lastIndexOf("lazy dog");
+        archive[index] ^= 1;
+
+        SwordError e = assertThrows(SwordError.class, () -> inspect(archive, 4096));
+        assertEquals(UriRegistry.ERROR_CONTENT, e.getErrorUri());
+        assertTrue(e.getMessage().contains("mets.xml"));
+    }
+
+    @Test
+    @DisplayName("Truncated archives and other content are refused")
+    void invalid() throws Exception {
+        byte[] archive = zip();
+
+        assertThrows(SwordError.class, () -> inspect(Arrays.copyOf(archive, archive.length / 2), 4096));
+        assertThrows(SwordError.class, () -> inspect(CONTENT, 4096));
+        assertThrows(SwordError.class, () -> new ZipInspector().finish());
+    }
+}
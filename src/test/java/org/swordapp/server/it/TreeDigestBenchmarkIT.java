@@ -0,0 +1,115 @@
+package org.swordapp.server.it;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.swordapp.server.ChecksumUtils;
+import org.swordapp.server.ContentDigests;
+import org.swordapp.server.TreeDigest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measures what the tree digest adds to storing a deposit: like the server, each run copies an upload into a stored
+ * file while computing its MD5 in the same pass, and then either stops, or computes the tree digest of the stored
+ * file, as {@code SwordAPIEndpoint} does when {@code getTreeDigestChunkSize()} is set.
+ *
+ * <p>The files are large (1 GB, 10 GB and 100 GB, plus a stored copy each), so the benchmark only runs when a
+ * directory with enough free space is given as {@code -Dsword.benchmark.dir=...}, which should be on the storage used
+ * for the temporary files of the server. The page cache is dropped before each run, so that the upload is read from
+ * storage; by default with {@code sync; echo 3 > /proc/sys/vm/drop_caches}, which needs root, or else with the
+ * command given as {@code -Dsword.benchmark.dropCaches=...}. The benchmark is skipped if the cache cannot be dropped,
+ * rather than reporting numbers of a warm cache.</p>
+ */
+class TreeDigestBenchmarkIT {
+
+    static final Logger log = LoggerFactory.getLogger(TreeDigestBenchmarkIT.class);
+    static final long GB = 1024L * 1024 * 1024;
+    static final long[] SIZES = {GB, 10 * GB, 100 * GB};
+    static final int BLOCK = 64 * 1024 * 1024;
+    static final String DROP_CACHES = "sync; echo 3 > /proc/sys/vm/drop_caches";
+
+    File create(Path dir, long size) throws IOException {
+        // random content, so that neither the storage nor the digests can take shortcuts
+        byte[] block = new byte[BLOCK];
+        new Random(42).nextBytes(block);
+        Path file = Files.createTempFile(dir, "tree-digest-", ".bin");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += BLOCK) {
+                out.write(block, 0, (int) Math.min(BLOCK, size - written));
+            }
+        }
+        return file.toFile();
+    }
+
+    boolean dropCaches() throws IOException, InterruptedException {
+        String command = System.getProperty("sword.benchmark.dropCaches", DROP_CACHES);
+        Process process = new ProcessBuilder("sh", "-c", command).redirectErrorStream(true).start();
+        process.getInputStream().transferTo(OutputStream.nullOutputStream());
+        return process.waitFor() == 0;
+    }
+
+    /**
+     * Store the upload the way the server does, and compute the tree digest of the stored file if asked to.
+     *
+     * @return the milliseconds it took, starting with a cold page cache
+     */
+    long store(File upload, Path dir, boolean tree) throws IOException, InterruptedException {
+        Path stored = Files.createTempFile(dir, "tree-digest-stored-", ".bin");
+        try {
+            assumeTrue(dropCaches(), "Cannot drop the page cache, run as root or set -Dsword.benchmark.dropCaches");
+            long start = System.nanoTime();
+            ContentDigests digests = new ContentDigests(List.of());
+            ChecksumUtils.hashAndCopy(Files.newInputStream(upload.toPath()), Files.newOutputStream(stored), digests);
+            assertNotNull(digests.getMd5());
+            if (tree) {
+                TreeDigest digest = TreeDigest.compute(stored.toFile(), TreeDigest.DEFAULT_CHUNK_SIZE);
+                assertEquals((upload.length() + TreeDigest.DEFAULT_CHUNK_SIZE - 1) / TreeDigest.DEFAULT_CHUNK_SIZE,
+                    digest.getChunkCount());
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            Files.delete(stored);
+        }
+    }
+
+    @Test
+    @DisplayName("The tree digest adds less to storing a large deposit than its serial MD5 takes")
+    void overhead() throws IOException, InterruptedException {
+        String dir = System.getProperty("sword.benchmark.dir");
+        assumeTrue(dir != null, "Set -Dsword.benchmark.dir to a directory with 222 GB of free space");
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (long size : SIZES) {
+            // given
+            File upload = create(Paths.get(dir), size);
+            try {
+                // when
+                long md5Millis = store(upload, Paths.get(dir), false);
+                long treeMillis = store(upload, Paths.get(dir), true);
+                log.info("{} GB: storing with MD5 {} ms, with MD5 and tree digest on {} threads {} ms",
+                    size / GB, md5Millis, cores, treeMillis);
+
+                // then: hashing the stored file on all cores costs less than the single pass which stored it
+                if (cores >= 4) {
+                    assertTrue(treeMillis - md5Millis < md5Millis,
+                        "storing with the tree digest took " + treeMillis + " ms, without " + md5Millis + " ms");
+                }
+            } finally {
+                Files.delete(upload.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.swordapp.server.it;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.swordapp.server.servlets.SwordServlet;
+import org.swordapp.server.servlets.VirtualThreads;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares how many concurrent I/O-bound requests {@link SwordServlet#service} serves on a container-sized pool of
+ * platform threads, with and without virtual threads. Each request blocks in the servlet for {@link #IO_MILLIS}, like
+ * a manager waiting for its database, and is done once the servlet has returned, or has completed its asynchronous
+ * cycle when it runs on a virtual thread.
+ */
+class VirtualThreadsBenchmarkIT {
+
+    static final Logger log = LoggerFactory.getLogger(VirtualThreadsBenchmarkIT.class);
+    static final int CONTAINER_THREADS = 200; // Tomcat's default maxThreads
+    static final long IO_MILLIS = 50;
+    static final int[] CONCURRENCY = {200, 1000, 5000};
+
+    /**
+     * A servlet whose requests wait for I/O, served by {@link SwordServlet#service} on the given executor, or on the
+     * container thread if there is none.
+     */
+    static final class BlockingServlet extends SwordServlet {
+        private static final long serialVersionUID = 1L;
+
+        BlockingServlet(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        void serve(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            this.service(req, resp);
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+            try {
+                Thread.sleep(IO_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            resp.setStatus(HttpServletResponse.SC_OK);
+        }
+    }
+
+    static Object defaultValue(Method m) {
+        Class<?> type = m.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * Serve a GET request, counting down once it is done.
+     */
+    static void serve(BlockingServlet servlet, CountDownLatch done) throws ServletException, IOException {
+        AtomicBoolean async = new AtomicBoolean();
+        AsyncContext context = (AsyncContext) Proxy.newProxyInstance(VirtualThreadsBenchmarkIT.class.getClassLoader(),
+            new Class<?>[] {AsyncContext.class}, (p, m, args) -> {
+                if ("complete".equals(m.getName())) {
+                    done.countDown();
+                }
+                return defaultValue(m);
+            });
+        HttpServletRequest req = (HttpServletRequest) Proxy.newProxyInstance(VirtualThreadsBenchmarkIT.class.getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class}, (p, m, args) -> {
+                switch (m.getName()) {
+                    case "getMethod":
+                        return "GET";
+                    case "getRequestURI":
+                        return "/sword/servicedocument";
+                    case "isAsyncSupported":
+                        return true;
+                    case "startAsync":
+                        async.set(true);
+                        return context;
+                    default:
+                        return defaultValue(m);
+                }
+            });
+        HttpServletResponse resp = (HttpServletResponse) Proxy.newProxyInstance(VirtualThreadsBenchmarkIT.class.getClassLoader(),
+            new Class<?>[] {HttpServletResponse.class}, (p, m, args) -> defaultValue(m));
+        servlet.serve(req, resp);
+        if (!async.get()) {
+            done.countDown();
+        }
+    }
+
+    long run(ExecutorService container, BlockingServlet servlet, int requests) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(requests);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            container.execute(() -> {
+                try {
+                    serve(servlet, done);
+                } catch (ServletException | IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.MINUTES));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    @DisplayName("Virtual threads scale the servlets with the number of concurrent I/O-bound requests")
+    void scaling() throws InterruptedException {
+        assumeTrue(VirtualThreads.isAvailable(), "Virtual threads need JDK 21 or newer");
+
+        // given
+        ExecutorService container = Executors.newFixedThreadPool(CONTAINER_THREADS);
+        BlockingServlet platform = new BlockingServlet(null);
+        ExecutorService threads = VirtualThreads.newExecutor();
+        BlockingServlet virtual = new BlockingServlet(threads);
+        // warm up both paths
+        run(container, platform, CONTAINER_THREADS);
+        run(container, virtual, CONTAINER_THREADS);
+
+        long platformMillis = 0;
+        long virtualMillis = 0;
+        try {
+            // when
+            for (int requests : CONCURRENCY) {
+                platformMillis = run(container, platform, requests);
+                virtualMillis = run(container, virtual, requests);
+                log.info("{} concurrent requests: on container threads {} ms, on virtual threads {} ms",
+                    requests, platformMillis, virtualMillis);
+            }
+        } finally {
+            container.shutdown();
+            threads.shutdown();
+        }
+
+        // then: the container works off the largest load in waves of CONTAINER_THREADS requests, while with
+        // virtual threads it hands each request over at once and all of them wait at the same time
+        assertTrue(virtualMillis < platformMillis / 2,
+            "virtual threads took " + virtualMillis + " ms, container threads " + platformMillis + " ms");
+    }
+}
@@ -0,0 +1,87 @@
+package org.swordapp.server.servlets;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.swordapp.server.DepositJobs;
+import org.swordapp.server.SwordTestConfiguration;
+
+import jakarta.servlet.ServletConfig;
+import jakarta.servlet.ServletContext;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SwordServletTest {
+
+    public static class DeferredConfiguration extends SwordTestConfiguration {
+        @Override
+        public boolean useDeferredDeposits() {
+            return true;
+        }
+    }
+
+    final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    final ServletContext context = (ServletContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {ServletContext.class}, (p, m, args) -> {
+            switch (m.getName()) {
+                case "getInitParameter":
+                    return "config-impl".equals(args[0]) ? DeferredConfiguration.class.getName() : null;
+                case "getAttribute":
+                    return this.attributes.get((String) args[0]);
+                case "setAttribute":
+                    this.attributes.put((String) args[0], args[1]);
+                    return null;
+                case "removeAttribute":
+                    this.attributes.remove((String) args[0]);
+                    return null;
+                case "log":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(m.getName());
+            }
+        });
+
+    SwordServlet newServlet() throws Exception {
+        SwordServlet servlet = new SwordServlet();
+        servlet.init((ServletConfig) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ServletConfig.class}, (p, m, args) -> {
+            switch (m.getName()) {
+                case "getServletContext":
+                    return this.context;
+                case "getServletName":
+                    return "sword";
+                default:
+                    return null;
+            }
+        }));
+        return servlet;
+    }
+
+    static void submit(DepositJobs jobs) throws Exception {
+        jobs.submit(List.of("http://example.org/edit"), () -> CompletableFuture.completedFuture(null), () -> { });
+    }
+
+    @Test
+    @DisplayName("The deposit jobs shared by the servlets of a context are stopped along with the last of them")
+    void destroy() throws Exception {
+        // given
+        SwordServlet collection = this.newServlet();
+        SwordServlet statement = this.newServlet();
+        DepositJobs jobs = statement.depositJobs;
+
+        // when
+        collection.destroy();
+        submit(jobs);
+        statement.destroy();
+
+        // then
+        assertSame(collection.depositJobs, jobs);
+        assertThrows(RejectedExecutionException.class, () -> submit(jobs));
+        assertTrue(this.attributes.isEmpty(), this.attributes.toString());
+    }
+}